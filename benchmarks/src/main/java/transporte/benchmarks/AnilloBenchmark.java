@@ -0,0 +1,122 @@
+package transporte.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import transporte.recarga.AnilloRecargas;
+import transporte.recarga.EstrategiaEspera;
+import transporte.recarga.ResultadoRecarga;
+import transporte.recarga.ServicioRecarga;
+import transporte.recarga.TipoBono;
+import transporte.tarjeta.ValidadorTarjeta;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Recargas por milisegundo a través del {@link AnilloRecargas} con cada
+ * estrategia de espera: el anillo solo, con tres etapas que no hacen nada, y
+ * el servicio completo con el diario en disco. Cuatro hilos hacen de quioscos;
+ * para comparar con la escritura directa, el generador de carga con
+ * {@code -Dbono.anillo.capacidad=0}.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class AnilloBenchmark {
+
+    private static final AnilloRecargas.Etapa NADA = (anillo, desde, hasta) -> { };
+
+    @Param({"dormir", "bloqueo", "ceder", "ocupada"})
+    String espera;
+
+    AnilloRecargas anillo;
+    ServicioRecarga servicio;
+    Path datos;
+    final AtomicInteger hilos = new AtomicInteger();
+
+    @Setup(Level.Iteration)
+    public void preparar() throws IOException {
+        EstrategiaEspera estrategia = EstrategiaEspera.valueOf(espera.toUpperCase(Locale.ROOT));
+        anillo = new AnilloRecargas(1 << 14, estrategia)
+                .etapa("indice", NADA)
+                .etapa("diario", NADA)
+                .etapa("volcado", NADA)
+                .iniciar();
+        // Servicio nuevo en cada iteración para que la tabla y el diario no crezcan sin límite
+        System.setProperty("bono.anillo.espera", espera);
+        datos = Files.createTempDirectory("bono-anillo-");
+        servicio = ServicioRecarga.abrir(datos);
+    }
+
+    @TearDown(Level.Iteration)
+    public void limpiar() throws IOException {
+        anillo.close();
+        servicio.close();
+        try (Stream<Path> rutas = Files.walk(datos)) {
+            for (Path ruta : (Iterable<Path>) rutas.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(ruta);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Quiosco {
+        long base;
+        int mes;
+
+        @Setup(Level.Iteration)
+        public void preparar(AnilloBenchmark benchmark) {
+            base = 10_000_000_000L + benchmark.hilos.getAndIncrement() * 100_000_000L;
+            mes = 0;
+        }
+
+        long siguienteTarjeta() {
+            if (++mes == 12) {
+                mes = 0;
+                base++;
+            }
+            return ValidadorTarjeta.completar(base);
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long pasarPorAnillo(Quiosco quiosco) {
+        long tarjeta = quiosco.siguienteTarjeta();
+        long secuencia = anillo.reservar();
+        anillo.publicar(secuencia, tarjeta, TipoBono.BUS, quiosco.mes, 0, 0, false);
+        anillo.esperar(secuencia);
+        anillo.liberar(secuencia);
+        return secuencia;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public ResultadoRecarga recargarConDiario(Quiosco quiosco) {
+        long tarjeta = quiosco.siguienteTarjeta();
+        return servicio.recargar(tarjeta, (tarjeta & 1) == 0 ? TipoBono.BUS : TipoBono.METRO, quiosco.mes);
+    }
+}
@@ -0,0 +1,111 @@
+package transporte.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import transporte.recarga.ServicioRecarga;
+import transporte.recarga.TipoBono;
+import transporte.tarjeta.ValidadorTarjeta;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Tiempo de arranque del servicio de recarga: reconstruir las tarjetas
+ * reproduciendo el diario completo frente a cargar la última instantánea y
+ * reproducir solo las recargas posteriores.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class ArranqueBenchmark {
+
+    private static final int LOTE = 10_000;
+    // Recargas hechas después de la instantánea (las del último lote, en otro mes)
+    private static final int COLA = LOTE;
+
+    @Param({"1000000"})
+    int tarjetas;
+
+    Path conInstantanea;
+    Path soloDiario;
+
+    @Setup(Level.Trial)
+    public void preparar() throws IOException {
+        conInstantanea = Files.createTempDirectory("bono-arranque-");
+        soloDiario = Files.createTempDirectory("bono-arranque-");
+        generar(conInstantanea, true);
+        generar(soloDiario, false);
+    }
+
+    @TearDown(Level.Trial)
+    public void limpiar() throws IOException {
+        borrar(conInstantanea);
+        borrar(soloDiario);
+    }
+
+    @Benchmark
+    public long abrirConInstantanea() throws IOException {
+        return abrir(conInstantanea);
+    }
+
+    @Benchmark
+    public long abrirSoloDiario() throws IOException {
+        return abrir(soloDiario);
+    }
+
+    private static long abrir(Path directorio) throws IOException {
+        ServicioRecarga servicio = ServicioRecarga.abrir(directorio);
+        servicio.close();
+        return servicio.getNumeroTarjetas();
+    }
+
+    private void generar(Path directorio, boolean instantanea) throws IOException {
+        ServicioRecarga servicio = ServicioRecarga.abrir(directorio);
+        long[] numeros = new long[LOTE];
+        TipoBono[] tipos = new TipoBono[LOTE];
+        int[] meses = new int[LOTE];
+        for (int i = 0; i < tarjetas; i += LOTE) {
+            for (int j = 0; j < LOTE; j++) {
+                long base = 10_000_000_000L + i + j;
+                numeros[j] = ValidadorTarjeta.completar(base);
+                tipos[j] = (base & 1) == 0 ? TipoBono.BUS : TipoBono.METRO;
+                meses[j] = (int) (base % 12);
+            }
+            servicio.recargarLote(numeros, tipos, meses, LOTE);
+        }
+        if (instantanea) {
+            servicio.guardarInstantanea();
+        }
+        for (int j = 0; j < COLA; j++) {
+            meses[j] = (meses[j] + 1) % 12;
+        }
+        servicio.recargarLote(numeros, tipos, meses, COLA);
+        servicio.close();
+    }
+
+    private static void borrar(Path directorio) throws IOException {
+        try (Stream<Path> ficheros = Files.walk(directorio)) {
+            ficheros.sorted(Comparator.reverseOrder()).forEach(fichero -> fichero.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package transporte.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import transporte.recarga.CacheIdempotencia;
+import transporte.recarga.ResultadoRecarga;
+import transporte.recarga.ServicioRecarga;
+import transporte.recarga.TipoBono;
+import transporte.tarjeta.ValidadorTarjeta;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Coste de pasar las recargas por {@link CacheIdempotencia}: peticiones
+ * repetidas (se devuelve el resultado guardado) y peticiones nuevas (se
+ * guarda una entrada y se expulsan las antiguas), con uno y varios hilos.
+ * La recarga en sí es un resultado fijo para medir solo la caché.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheIdempotenciaBenchmark {
+
+    private static final int REPETIDAS = 4096;
+
+    CacheIdempotencia cache;
+    Supplier<ResultadoRecarga> recarga;
+    final AtomicInteger hilos = new AtomicInteger();
+
+    @Setup(Level.Iteration)
+    public void preparar() {
+        cache = new CacheIdempotencia(100_000, 10, TimeUnit.MINUTES);
+        ResultadoRecarga resultado = new ServicioRecarga().recargar(ValidadorTarjeta.completar(10_000_000_000L),
+                TipoBono.BUS, 0);
+        recarga = () -> resultado;
+        for (int i = 0; i < REPETIDAS; i++) {
+            cache.ejecutar(tarjeta(i), TipoBono.BUS, 0, "token-" + i, recarga);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cliente {
+        long base;
+        int siguiente;
+
+        @Setup(Level.Iteration)
+        public void preparar(CacheIdempotenciaBenchmark benchmark) {
+            base = 20_000_000_000L + benchmark.hilos.getAndIncrement() * 100_000_000L;
+            siguiente = 0;
+        }
+    }
+
+    private static long tarjeta(long i) {
+        return ValidadorTarjeta.completar(10_000_000_000L + i);
+    }
+
+    private ResultadoRecarga repetida(Cliente cliente) {
+        int i = cliente.siguiente++ & (REPETIDAS - 1);
+        return cache.ejecutar(tarjeta(i), TipoBono.BUS, 0, "token-" + i, recarga);
+    }
+
+    private ResultadoRecarga nueva(Cliente cliente) {
+        return cache.ejecutar(ValidadorTarjeta.completar(cliente.base + cliente.siguiente++), TipoBono.METRO, 0,
+                "token", recarga);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public ResultadoRecarga repetidaUnHilo(Cliente cliente) {
+        return repetida(cliente);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public ResultadoRecarga repetidaCuatroHilos(Cliente cliente) {
+        return repetida(cliente);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public ResultadoRecarga nuevaUnHilo(Cliente cliente) {
+        return nueva(cliente);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public ResultadoRecarga nuevaCuatroHilos(Cliente cliente) {
+        return nueva(cliente);
+    }
+}
@@ -0,0 +1,191 @@
+package transporte.benchmarks;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Compara los resultados JSON de JMH ({@code -rf json}) con una línea base
+ * guardada y termina con código de salida 1 si algún benchmark empeora más
+ * del umbral indicado. Un empeoramiento solo cuenta como regresión si además
+ * supera el margen de error que JMH da para ambas mediciones.
+ *
+ * También falla si un benchmark no tiene línea base o si falta en los
+ * resultados un benchmark de la línea base que el filtro de la ejecución
+ * (la misma expresión regular que se pasó a JMH) debía incluir: un benchmark
+ * sin comparar no puede dar la ejecución por buena.
+ *
+ * Con {@code --actualizar} los resultados sustituyen en la línea base a los
+ * de los mismos benchmarks y parámetros, y se añaden los que no estaban; el
+ * resto de la línea base se conserva, así que puede actualizarse suite a suite.
+ *
+ * Uso:
+ * <pre>
+ *   java -cp benchmarks.jar transporte.benchmarks.ComparadorResultados resultados.json linea-base.json [umbral% [filtro]]
+ *   java -cp benchmarks.jar transporte.benchmarks.ComparadorResultados --actualizar resultados.json linea-base.json
+ * </pre>
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public final class ComparadorResultados {
+
+    private static final double UMBRAL_POR_DEFECTO = 10.0;
+
+    private ComparadorResultados() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length >= 3 && "--actualizar".equals(args[0])) {
+            actualizar(Paths.get(args[1]), Paths.get(args[2]));
+            System.out.println("Línea base actualizada: " + args[2]);
+            return;
+        }
+        if (args.length < 2) {
+            System.err.println("Uso: ComparadorResultados resultados.json linea-base.json [umbral% [filtro]]");
+            System.exit(2);
+        }
+
+        double umbral = args.length > 2 ? Double.parseDouble(args[2]) : UMBRAL_POR_DEFECTO;
+        // JMH incluye los benchmarks cuyo nombre completo contiene una coincidencia del filtro
+        Pattern filtro = Pattern.compile(args.length > 3 ? args[3] : ".*");
+        Map<String, Resultado> actuales = leer(Paths.get(args[0]));
+        Map<String, Resultado> base = leer(Paths.get(args[1]));
+
+        int regresiones = 0;
+        int sinComparar = 0;
+        System.out.println(String.format(Locale.ROOT, "%-70s %14s %14s %9s", "Benchmark", "Base", "Actual", "Cambio"));
+        for (Map.Entry<String, Resultado> entrada : actuales.entrySet()) {
+            Resultado actual = entrada.getValue();
+            Resultado anterior = base.get(entrada.getKey());
+            if (anterior == null) {
+                sinComparar++;
+                System.out.println(String.format(Locale.ROOT, "%-70s %14s %14.3f %9s",
+                        entrada.getKey(), "-", actual.puntuacion, "  << SIN LÍNEA BASE"));
+                continue;
+            }
+
+            // Porcentaje de empeoramiento: en modo throughput mayor es mejor, en el resto menor es mejor
+            double cambio = actual.mayorEsMejor
+                    ? (anterior.puntuacion - actual.puntuacion) / anterior.puntuacion * 100.0
+                    : (actual.puntuacion - anterior.puntuacion) / anterior.puntuacion * 100.0;
+            double diferencia = Math.abs(actual.puntuacion - anterior.puntuacion);
+            double margen = actual.error + anterior.error;
+            boolean regresion = cambio > umbral && !(diferencia <= margen);
+            if (regresion) {
+                regresiones++;
+            }
+            System.out.println(String.format(Locale.ROOT, "%-70s %14.3f %14.3f %+8.1f%%%s",
+                    entrada.getKey(), anterior.puntuacion, actual.puntuacion, 0.0 - cambio,
+                    regresion ? "  << REGRESIÓN" : ""));
+        }
+        for (Map.Entry<String, Resultado> entrada : base.entrySet()) {
+            if (!actuales.containsKey(entrada.getKey()) && filtro.matcher(entrada.getValue().benchmark).find()) {
+                sinComparar++;
+                System.out.println(String.format(Locale.ROOT, "%-70s %14.3f %14s %9s",
+                        entrada.getKey(), entrada.getValue().puntuacion, "-", "  << FALTA"));
+            }
+        }
+
+        if (regresiones > 0 || sinComparar > 0) {
+            if (regresiones > 0) {
+                System.err.println(regresiones + " benchmark(s) empeoran más de un " + umbral
+                        + "% respecto a la línea base");
+            }
+            if (sinComparar > 0) {
+                System.err.println(sinComparar + " benchmark(s) sin línea base o ausentes de los resultados;"
+                        + " actualice la línea base con --actualizar");
+            }
+            System.exit(1);
+        }
+        System.out.println("Sin regresiones por encima del " + umbral + "%");
+    }
+
+    /**
+     * Sustituye o añade en la línea base los resultados de la ejecución,
+     * conservando los benchmarks que no se han ejecutado.
+     */
+    private static void actualizar(Path resultados, Path lineaBase) throws IOException {
+        Map<String, JsonObject> combinados = new LinkedHashMap<>();
+        if (Files.exists(lineaBase)) {
+            combinados.putAll(leerJson(lineaBase));
+        }
+        combinados.putAll(leerJson(resultados));
+
+        JsonArray array = new JsonArray();
+        combinados.values().forEach(array::add);
+        try (Writer escritor = Files.newBufferedWriter(lineaBase, StandardCharsets.UTF_8)) {
+            new GsonBuilder().setPrettyPrinting().serializeSpecialFloatingPointValues().create()
+                    .toJson(array, escritor);
+            escritor.write('\n');
+        }
+    }
+
+    /**
+     * Lee un fichero de resultados de JMH indexado por benchmark y parámetros.
+     */
+    private static Map<String, Resultado> leer(Path fichero) throws IOException {
+        Map<String, Resultado> resultados = new TreeMap<>();
+        for (Map.Entry<String, JsonObject> entrada : leerJson(fichero).entrySet()) {
+            JsonObject benchmark = entrada.getValue();
+            String modo = benchmark.get("mode").getAsString();
+            JsonObject metrica = benchmark.getAsJsonObject("primaryMetric");
+            double puntuacion = metrica.get("score").getAsDouble();
+            // JMH escribe "NaN" como error cuando no hay muestras suficientes
+            double error = metrica.get("scoreError").getAsJsonPrimitive().isNumber()
+                    ? metrica.get("scoreError").getAsDouble() : 0.0;
+            resultados.put(entrada.getKey(), new Resultado(benchmark.get("benchmark").getAsString(),
+                    puntuacion, error, "thrpt".equals(modo)));
+        }
+        return resultados;
+    }
+
+    /**
+     * Entradas de un fichero de JMH, en su orden, con la clave formada por el
+     * benchmark y sus parámetros.
+     */
+    private static Map<String, JsonObject> leerJson(Path fichero) throws IOException {
+        Map<String, JsonObject> entradas = new LinkedHashMap<>();
+        try (Reader lector = Files.newBufferedReader(fichero, StandardCharsets.UTF_8)) {
+            JsonArray array = JsonParser.parseReader(lector).getAsJsonArray();
+            for (JsonElement elemento : array) {
+                JsonObject benchmark = elemento.getAsJsonObject();
+                StringBuilder clave = new StringBuilder(benchmark.get("benchmark").getAsString());
+                JsonObject parametros = benchmark.getAsJsonObject("params");
+                if (parametros != null) {
+                    clave.append(new TreeMap<>(parametros.asMap()));
+                }
+                entradas.put(clave.toString(), benchmark);
+            }
+        }
+        return entradas;
+    }
+
+    private static final class Resultado {
+        final String benchmark;
+        final double puntuacion;
+        final double error;
+        final boolean mayorEsMejor;
+
+        Resultado(String benchmark, double puntuacion, double error, boolean mayorEsMejor) {
+            this.benchmark = benchmark;
+            this.puntuacion = puntuacion;
+            this.error = Double.isNaN(error) ? 0.0 : error;
+            this.mayorEsMejor = mayorEsMejor;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package transporte.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import transporte.historial.HistorialRecargas;
+import transporte.historial.ResumenHistorial;
+import transporte.recarga.TipoBono;
+import transporte.tarjeta.ValidadorTarjeta;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Agregaciones sobre el historial de recargas: el informe completo por tipo
+ * y mes, un mes de un solo tipo (que salta los bloques de otros meses) y
+ * todas las recargas de una tarjeta.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class HistorialBenchmark {
+
+    @Param({"20000000"})
+    public long recargas;
+
+    private Path directorio;
+    private HistorialRecargas historial;
+    private int mes;
+
+    @Setup(Level.Trial)
+    public void preparar() throws IOException {
+        directorio = Files.createTempDirectory("bono-historial-");
+        HistorialRecargas.generar(directorio, recargas);
+        historial = HistorialRecargas.abrir(directorio);
+        // El mes anterior al actual está entero en el último año
+        mes = (LocalDate.now().getMonthValue() + 10) % 12;
+    }
+
+    @TearDown(Level.Trial)
+    public void limpiar() throws IOException {
+        try (Stream<Path> ficheros = Files.walk(directorio)) {
+            ficheros.sorted(Comparator.reverseOrder()).forEach(fichero -> fichero.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public ResumenHistorial agruparPorTipoYMes() {
+        return historial.consulta().agrupar();
+    }
+
+    @Benchmark
+    public long contarMesMetro() {
+        return historial.consulta().tipo(TipoBono.METRO).mes(mes).contar();
+    }
+
+    @Benchmark
+    public long sumarTarjeta() {
+        return historial.consulta().tarjeta(ValidadorTarjeta.completar(10_000_000_000L + 4242)).sumarImportes();
+    }
+}
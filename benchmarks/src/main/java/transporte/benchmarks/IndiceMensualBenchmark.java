@@ -0,0 +1,100 @@
+package transporte.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import transporte.recarga.IndiceMensual;
+import transporte.recarga.TipoBono;
+import transporte.tarjeta.MapaBitsComprimido;
+import transporte.tarjeta.TablaTarjetas;
+import transporte.tarjeta.ValidadorTarjeta;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Consultas por mes ("tarjetas BonoMetro válidas en marzo") sobre
+ * {@link IndiceMensual} frente a recorrer toda la {@link TablaTarjetas}.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class IndiceMensualBenchmark {
+
+    private static final int MARZO = 2;
+    private static final int ABRIL = 3;
+    private static final int CODIGO_METRO = TipoBono.METRO.ordinal() + 1;
+
+    @Param({"1000000"})
+    public int tarjetas;
+
+    private TablaTarjetas tabla;
+    private IndiceMensual indice;
+
+    @Setup(Level.Trial)
+    public void preparar() {
+        Random aleatorio = new Random(42);
+        tabla = new TablaTarjetas(tarjetas);
+        long base = 10_000_000_000L;
+        for (int i = 0; i < tarjetas; i++) {
+            // Tarjetas emitidas en bloques consecutivos con algunos huecos
+            base += 1 + aleatorio.nextInt(4);
+            int registro = TablaTarjetas.registro(1 + aleatorio.nextInt(2), aleatorio.nextInt(1 << 12));
+            tabla.modificar(ValidadorTarjeta.completar(base), r -> registro);
+        }
+        indice = IndiceMensual.construir(tabla);
+    }
+
+    @Benchmark
+    public long contarIndice() {
+        return indice.contar(TipoBono.METRO, MARZO);
+    }
+
+    @Benchmark
+    public long contarRecorriendoTabla() {
+        long[] total = {0};
+        tabla.recorrer((tarjeta, registro) -> {
+            if (TablaTarjetas.tipo(registro) == CODIGO_METRO && (TablaTarjetas.meses(registro) & (1 << MARZO)) != 0) {
+                total[0]++;
+            }
+        });
+        return total[0];
+    }
+
+    @Benchmark
+    public long[] listarIndice() {
+        return indice.tarjetas(TipoBono.METRO, MARZO);
+    }
+
+    @Benchmark
+    public long contarMarzoYAbrilIndice() {
+        MapaBitsComprimido marzo = indice.mapa(TipoBono.METRO, MARZO);
+        return marzo.y(indice.mapa(TipoBono.METRO, ABRIL)).cardinalidad();
+    }
+
+    @Benchmark
+    public long contarMarzoYAbrilRecorriendoTabla() {
+        int ambos = (1 << MARZO) | (1 << ABRIL);
+        long[] total = {0};
+        tabla.recorrer((tarjeta, registro) -> {
+            if (TablaTarjetas.tipo(registro) == CODIGO_METRO && (TablaTarjetas.meses(registro) & ambos) == ambos) {
+                total[0]++;
+            }
+        });
+        return total[0];
+    }
+}
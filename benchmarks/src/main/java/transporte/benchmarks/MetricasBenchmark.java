@@ -0,0 +1,58 @@
+package transporte.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import transporte.metricas.HistogramaLatencia;
+import transporte.metricas.Metricas;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coste de registrar una medida: un histograma de latencia (con la lectura
+ * de {@link System#nanoTime()} incluida) y un contador, con uno y varios hilos.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricasBenchmark {
+
+    final HistogramaLatencia histograma = Metricas.global().histograma("benchmark_segundos", "Benchmark");
+    final LongAdder contador = Metricas.global().contador("benchmark_total", "Benchmark");
+
+    @Benchmark
+    @Threads(1)
+    public void histogramaUnHilo() {
+        histograma.registrarDesde(System.nanoTime());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void histogramaCuatroHilos() {
+        histograma.registrarDesde(System.nanoTime());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void contadorCuatroHilos() {
+        contador.increment();
+    }
+
+    @Benchmark
+    public String exportarPrometheus() {
+        return Metricas.global().prometheus();
+    }
+}
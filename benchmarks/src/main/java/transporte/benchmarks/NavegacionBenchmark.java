@@ -0,0 +1,78 @@
+package transporte.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import transporte.tarjeta.ValidadorTarjeta;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coste de una sesión completa de navegación (login, recarga y vuelta al login)
+ * construyendo las pantallas en cada sesión, como hacía la aplicación con un
+ * {@code JFrame} por ventana, frente a reutilizar las vistas y vincularlas a la
+ * nueva tarjeta. Con {@code -prof gc} se obtiene además la memoria asignada por sesión.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class NavegacionBenchmark {
+
+    private final String tarjeta = String.valueOf(ValidadorTarjeta.completar(12345678901L));
+
+    private Constructor<?> constructorLogin;
+    private Constructor<?> constructorBus;
+
+    private Object vistaLogin;
+    private Object vistaBus;
+    private MethodHandle reiniciarLogin;
+    private MethodHandle vincularBus;
+
+    @Setup(Level.Trial)
+    public void preparar() throws Throwable {
+        constructorLogin = VentanasBenchmark.constructorVista("login");
+        constructorBus = VentanasBenchmark.constructorVista("BonoBus");
+
+        vistaLogin = VentanasBenchmark.construir(constructorLogin);
+        vistaBus = VentanasBenchmark.construir(constructorBus);
+
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        reiniciarLogin = lookup.findVirtual(vistaLogin.getClass(), "reiniciar", MethodType.methodType(void.class))
+                .bindTo(vistaLogin);
+        vincularBus = lookup.findVirtual(vistaBus.getClass(), "vincularTarjeta",
+                MethodType.methodType(void.class, String.class)).bindTo(vistaBus);
+    }
+
+    /** Sesión construyendo login y BonoBus de nuevo, como antes de reutilizar las vistas. */
+    @Benchmark
+    public Object sesionConstruyendoVentanas() throws ReflectiveOperationException {
+        Object bus = VentanasBenchmark.construir(constructorBus);
+        Object login = VentanasBenchmark.construir(constructorLogin);
+        return login != bus ? login : null;
+    }
+
+    /** Sesión reutilizando las vistas: vincular la tarjeta y reiniciar el login. */
+    @Benchmark
+    public Object sesionReutilizandoVistas() throws Throwable {
+        vincularBus.invokeExact(tarjeta);
+        reiniciarLogin.invokeExact();
+        return vistaBus;
+    }
+}
@@ -0,0 +1,74 @@
+package transporte.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import transporte.tarjeta.IndicePrefijos;
+import transporte.tarjeta.TablaTarjetas;
+import transporte.tarjeta.ValidadorTarjeta;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Búsqueda de las tarjetas que empiezan por lo tecleado, como en cada
+ * pulsación del campo de número de tarjeta con las sugerencias activadas.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class PrefijosBenchmark {
+
+    private static final int CONSULTAS = 1 << 10;
+
+    @Param({"1000000"})
+    public int tarjetas;
+
+    private IndicePrefijos indice;
+    private final long[] sugerencias = new long[8];
+    private final String[] cuatroDigitos = new String[CONSULTAS];
+    private final String[] ochoDigitos = new String[CONSULTAS];
+    private int siguiente;
+
+    @Setup(Level.Trial)
+    public void preparar() {
+        Random aleatorio = new Random(42);
+        TablaTarjetas tabla = new TablaTarjetas(tarjetas);
+        long[] emitidas = new long[tarjetas];
+        for (int i = 0; i < tarjetas; i++) {
+            emitidas[i] = ValidadorTarjeta.completar((long) (aleatorio.nextDouble() * 100_000_000_000L));
+            tabla.modificar(emitidas[i], r -> TablaTarjetas.registro(1, 1));
+        }
+        indice = new IndicePrefijos();
+        indice.cargar(tabla);
+        for (int i = 0; i < CONSULTAS; i++) {
+            String numero = String.format("%012d", emitidas[aleatorio.nextInt(tarjetas)]);
+            cuatroDigitos[i] = numero.substring(0, 4);
+            ochoDigitos[i] = numero.substring(0, 8);
+        }
+    }
+
+    @Benchmark
+    public int buscarCuatroDigitos() {
+        return indice.buscar(cuatroDigitos[siguiente++ & (CONSULTAS - 1)], sugerencias);
+    }
+
+    @Benchmark
+    public int buscarOchoDigitos() {
+        return indice.buscar(ochoDigitos[siguiente++ & (CONSULTAS - 1)], sugerencias);
+    }
+}
@@ -0,0 +1,87 @@
+package transporte.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import transporte.recarga.ResultadoRecarga;
+import transporte.recarga.ServicioRecarga;
+import transporte.recarga.TipoBono;
+import transporte.tarjeta.ValidadorTarjeta;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Rendimiento de {@link ServicioRecarga} con uno y varios hilos (quioscos)
+ * recargando a la vez. Cada hilo recorre su propio rango de tarjetas y los 12
+ * meses de cada una, de forma que todas las recargas medidas se aplican.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecargaBenchmark {
+
+    ServicioRecarga servicio;
+    final AtomicInteger hilos = new AtomicInteger();
+
+    @Setup(Level.Iteration)
+    public void preparar() {
+        // Servicio nuevo en cada iteración para que la tabla no crezca sin límite
+        servicio = new ServicioRecarga();
+    }
+
+    @State(Scope.Thread)
+    public static class Quiosco {
+        long base;
+        int mes;
+
+        @Setup(Level.Iteration)
+        public void preparar(RecargaBenchmark benchmark) {
+            base = 10_000_000_000L + benchmark.hilos.getAndIncrement() * 100_000_000L;
+            mes = 0;
+        }
+
+        long siguienteTarjeta() {
+            if (++mes == 12) {
+                mes = 0;
+                base++;
+            }
+            return ValidadorTarjeta.completar(base);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public ResultadoRecarga recargarUnHilo(Quiosco quiosco) {
+        long tarjeta = quiosco.siguienteTarjeta();
+        return servicio.recargar(tarjeta, (tarjeta & 1) == 0 ? TipoBono.BUS : TipoBono.METRO, quiosco.mes);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public ResultadoRecarga recargarCuatroHilos(Quiosco quiosco) {
+        long tarjeta = quiosco.siguienteTarjeta();
+        return servicio.recargar(tarjeta, (tarjeta & 1) == 0 ? TipoBono.BUS : TipoBono.METRO, quiosco.mes);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public ResultadoRecarga recargarDesdeTexto(Quiosco quiosco) {
+        String tarjeta = String.valueOf(quiosco.siguienteTarjeta());
+        return servicio.recargar(tarjeta, TipoBono.METRO, quiosco.mes);
+    }
+}
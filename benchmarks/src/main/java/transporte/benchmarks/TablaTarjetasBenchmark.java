@@ -0,0 +1,141 @@
+package transporte.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import transporte.tarjeta.TablaTarjetas;
+
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compara la consulta y la inserción en {@link TablaTarjetas} con un
+ * {@code HashMap<String, Integer>}, que es como se guardarían las tarjetas
+ * usando directamente el texto validado en el login.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TablaTarjetasBenchmark {
+
+    @Param({"1000000"})
+    public int tarjetas;
+
+    private long[] numeros;
+    private String[] textos;
+    private TablaTarjetas tabla;
+    private HashMap<String, Integer> mapa;
+    private int indice;
+
+    @Setup(Level.Trial)
+    public void preparar() {
+        Random aleatorio = new Random(42);
+        numeros = new long[tarjetas];
+        textos = new String[tarjetas];
+        tabla = new TablaTarjetas(tarjetas);
+        mapa = new HashMap<>();
+        for (int i = 0; i < tarjetas; i++) {
+            numeros[i] = (long) (aleatorio.nextDouble() * 1_000_000_000_000L);
+            textos[i] = String.format("%012d", numeros[i]);
+            int registro = TablaTarjetas.registro(1 + (i & 1), 1 << (i % 12));
+            tabla.modificar(numeros[i], r -> registro);
+            mapa.put(textos[i], registro);
+        }
+    }
+
+    private int siguiente() {
+        int i = indice + 1;
+        if (i == tarjetas) {
+            i = 0;
+        }
+        indice = i;
+        return i;
+    }
+
+    @Benchmark
+    public int consultarTabla() {
+        return tabla.obtener(numeros[siguiente()]);
+    }
+
+    @Benchmark
+    public Integer consultarHashMap() {
+        return mapa.get(textos[siguiente()]);
+    }
+
+    @Benchmark
+    public int actualizarTabla() {
+        int i = siguiente();
+        return tabla.modificar(numeros[i], r -> r ^ (1 << (i % 12)));
+    }
+
+    @Benchmark
+    public Integer actualizarHashMap() {
+        int i = siguiente();
+        return mapa.merge(textos[i], 1 << (i % 12), (a, b) -> a ^ b);
+    }
+
+    /**
+     * Inserción en frío de tarjetas nuevas, incluyendo el crecimiento de la tabla.
+     */
+    @State(Scope.Thread)
+    public static class Insercion {
+
+        @Param({"100000"})
+        public int lote;
+
+        long[] numeros;
+        String[] textos;
+
+        @Setup(Level.Trial)
+        public void preparar() {
+            Random aleatorio = new Random(7);
+            numeros = new long[lote];
+            textos = new String[lote];
+            for (int i = 0; i < lote; i++) {
+                numeros[i] = (long) (aleatorio.nextDouble() * 1_000_000_000_000L);
+                textos[i] = String.format("%012d", numeros[i]);
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 10)
+    public TablaTarjetas insertarTabla(Insercion datos) {
+        TablaTarjetas nueva = new TablaTarjetas();
+        for (long numero : datos.numeros) {
+            nueva.modificar(numero, r -> TablaTarjetas.registro(1, 1));
+        }
+        return nueva;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 10)
+    public HashMap<String, Integer> insertarHashMap(Insercion datos) {
+        HashMap<String, Integer> nuevo = new HashMap<>();
+        for (String texto : datos.textos) {
+            nuevo.put(texto, TablaTarjetas.registro(1, 1));
+        }
+        return nuevo;
+    }
+}
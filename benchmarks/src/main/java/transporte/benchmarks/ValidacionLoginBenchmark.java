@@ -0,0 +1,58 @@
+package transporte.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import transporte.recarga.TipoBono;
+import transporte.tarjeta.ValidadorTarjeta;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mide las comprobaciones de {@code login.validarYAcceder}: {@code validarTipoBono}
+ * y {@code validarNumeroTarjeta}, que delegan en {@link TipoBono} y
+ * {@link ValidadorTarjeta}.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValidacionLoginBenchmark {
+
+    // Mezcla de entradas del desplegable y del campo de texto, válidas e inválidas
+    private final String[] tipos = {"BonoBus (Tussam)", "BonoMetro", "-- Seleccione tipo de bono --"};
+    private final String[] tarjetas = {
+            String.valueOf(ValidadorTarjeta.completar(12345678901L)),
+            "123456789012",
+            "12345",
+            "abcdefghijkl"
+    };
+    private int indice;
+
+    @Benchmark
+    public boolean validarTipoBono() {
+        return TipoBono.desdeTexto(tipos[indice++ % tipos.length]) != null;
+    }
+
+    @Benchmark
+    public boolean validarNumeroTarjeta() {
+        return ValidadorTarjeta.esValida(tarjetas[indice++ % tarjetas.length]);
+    }
+
+    @Benchmark
+    public boolean validarAcceso() {
+        int i = indice++;
+        return TipoBono.desdeTexto(tipos[i % tipos.length]) != null
+                & ValidadorTarjeta.esValida(tarjetas[i % tarjetas.length]);
+    }
+}
@@ -0,0 +1,76 @@
+package transporte.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import transporte.tarjeta.ValidadorTarjeta;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Compara la validación original del login ({@code String.matches("\\d{12}")})
+ * con {@link ValidadorTarjeta}, que además comprueba el dígito de control.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValidadorTarjetaBenchmark {
+
+    private static final Pattern DOCE_DIGITOS = Pattern.compile("\\d{12}");
+
+    @Param({"valida", "letras", "corta"})
+    public String caso;
+
+    private String numero;
+
+    @Setup
+    public void preparar() {
+        switch (caso) {
+            case "valida":
+                numero = String.valueOf(ValidadorTarjeta.completar(12345678901L));
+                break;
+            case "letras":
+                numero = "1234567890ab";
+                break;
+            default:
+                numero = "12345";
+                break;
+        }
+    }
+
+    /** Validación original de {@code login.validarNumeroTarjeta}. */
+    @Benchmark
+    public boolean regexMatches() {
+        return numero != null && numero.matches("\\d{12}");
+    }
+
+    /** Misma expresión regular pero con el {@link Pattern} precompilado. */
+    @Benchmark
+    public boolean regexPrecompilada() {
+        return DOCE_DIGITOS.matcher(numero).matches();
+    }
+
+    @Benchmark
+    public boolean validador() {
+        return ValidadorTarjeta.esValida(numero);
+    }
+
+    @Benchmark
+    public long validadorParsear() {
+        return ValidadorTarjeta.parsear(numero);
+    }
+}
@@ -0,0 +1,98 @@
+package transporte.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import transporte.recarga.ServicioRecarga;
+import transporte.recarga.TipoBono;
+import transporte.ui.Navegador;
+
+import java.lang.reflect.Constructor;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coste de construir las vistas {@code login}, {@code BonoBus} y {@code BonoMetro}.
+ * Las vistas son paneles, por lo que se pueden construir sin pantalla
+ * ({@code -Djava.awt.headless=true}). Como las clases de la interfaz están en el
+ * paquete por defecto, se instancian por reflexión. Las vistas de recarga
+ * reciben un servicio en memoria ya abierto.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class VentanasBenchmark {
+
+    /** Navegador que no hace nada: las vistas solo se construyen. */
+    static final Navegador SIN_NAVEGACION = new Navegador() {
+        @Override
+        public void mostrarLogin() {
+        }
+
+        @Override
+        public void mostrarRecarga(TipoBono tipo, String numeroTarjeta) {
+        }
+    };
+
+    /** Servicio sin diario para las vistas de recarga. */
+    static final CompletableFuture<ServicioRecarga> SERVICIO =
+            CompletableFuture.completedFuture(new ServicioRecarga());
+
+    private Constructor<?> constructorLogin;
+    private Constructor<?> constructorBus;
+    private Constructor<?> constructorMetro;
+
+    @Setup(Level.Trial)
+    public void preparar() throws ReflectiveOperationException {
+        constructorLogin = constructorVista("login");
+        constructorBus = constructorVista("BonoBus");
+        constructorMetro = constructorVista("BonoMetro");
+    }
+
+    /**
+     * Constructor de la vista: el del login recibe solo el navegador y los de
+     * recarga además el servicio.
+     */
+    static Constructor<?> constructorVista(String clase) throws ReflectiveOperationException {
+        Class<?> vista = Class.forName(clase);
+        try {
+            return vista.getConstructor(Navegador.class, CompletableFuture.class);
+        } catch (NoSuchMethodException e) {
+            return vista.getConstructor(Navegador.class);
+        }
+    }
+
+    static Object construir(Constructor<?> constructor) throws ReflectiveOperationException {
+        return constructor.getParameterCount() == 2
+                ? constructor.newInstance(SIN_NAVEGACION, SERVICIO)
+                : constructor.newInstance(SIN_NAVEGACION);
+    }
+
+    @Benchmark
+    public Object construirLogin() throws ReflectiveOperationException {
+        return construir(constructorLogin);
+    }
+
+    @Benchmark
+    public Object construirBonoBus() throws ReflectiveOperationException {
+        return construir(constructorBus);
+    }
+
+    @Benchmark
+    public Object construirBonoMetro() throws ReflectiveOperationException {
+        return construir(constructorMetro);
+    }
+}
@@ -1,30 +1,60 @@
 import com.toedter.calendar.JMonthChooser;
+import transporte.diagnostico.EventoInterfaz;
+import transporte.metricas.HistogramaLatencia;
+import transporte.metricas.Metricas;
+import transporte.recarga.ResultadoRecarga;
+import transporte.recarga.ServicioRecarga;
+import transporte.recarga.TipoBono;
+import transporte.tarifa.MotorTarifas;
+import transporte.tarifa.Perfil;
+import transporte.ui.CacheImagenes;
+import transporte.ui.Navegador;
+import transporte.ui.TareaRecarga;
+import transporte.ui.Tema;
+import transporte.ui.Vista;
+
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
-import java.net.URL;
+import java.awt.image.BufferedImage;
+import java.util.Calendar;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Interfaz gráfica para recargar el Bono Bus de Tussam (Sevilla).
  * Permite al usuario seleccionar un mes y confirmar la recarga de su bonobus.
  * Diseño con paleta de colores corporativos de Tussam (naranja y rojo).
  *
+ * Es una vista de la ventana principal: se construye una vez y en cada sesión
+ * se vincula a la tarjeta validada en el login con {@link #vincularTarjeta}.
+ *
  * @author Alejandro Martínez Bou
  */
-public class BonoBus extends JFrame {
+public class BonoBus extends JPanel implements Vista {
 
     // ============================
     // CONSTANTES DE COLORES - PALETA TUSSAM
     // ============================
-    private static final Color NARANJA_TUSSAM = new Color(255, 140, 0);
-    private static final Color ROJO_TUSSAM = new Color(220, 50, 50);
-    private static final Color NARANJA_CLARO = new Color(255, 180, 100);
-    private static final Color FONDO = new Color(255, 250, 245);
-    private static final Color BLANCO = Color.WHITE;
-    private static final Color GRIS_OSCURO = new Color(51, 51, 51);
-    private static final Color GRIS_BOTON = new Color(128, 128, 128);
-    private static final Color GRIS_BOTON_HOVER = new Color(100, 100, 100);
-    private static final Color CREMA = new Color(255, 245, 230);
+    private static final Color NARANJA_TUSSAM = Tema.Tussam.NARANJA;
+    private static final Color ROJO_TUSSAM = Tema.Tussam.ROJO;
+    private static final Color NARANJA_CLARO = Tema.Tussam.NARANJA_CLARO;
+    private static final Color FONDO = Tema.Tussam.FONDO;
+    private static final Color BLANCO = Tema.BLANCO;
+    private static final Color GRIS_OSCURO = Tema.GRIS_OSCURO;
+    private static final Color GRIS_BOTON = Tema.GRIS_BOTON;
+    private static final Color GRIS_BOTON_HOVER = Tema.GRIS_BOTON_HOVER;
+    private static final Color CREMA = Tema.Tussam.CREMA;
+
+    // ============================
+    // MÉTRICAS Y DIAGNÓSTICO
+    // ============================
+    // Nombre de la pantalla en las métricas y en los eventos de JFR
+    private static final String VISTA = "BonoBus";
+
+    // Tiempo de construcción de la pantalla (se construye una vez y se reutiliza)
+    private static final HistogramaLatencia CONSTRUCCION = Metricas.global().histograma(
+            "bono_vista_construccion_segundos", "Tiempo de construcción de las pantallas", "vista", VISTA);
 
     // ============================
     // COMPONENTES DE LA INTERFAZ
@@ -51,13 +81,25 @@ public class BonoBus extends JFrame {
     private JLabel lblInfo;          // Texto informativo adicional sobre el bono (uso ilimitado)
     private JLabel lblDias;          // Texto que indica la duración del bono (30 días naturales)
     private JLabel lblCalendario;    // Icono o emoji de calendario para reforzar el contexto del selector
+    private JLabel lblImporte;       // Importe de la recarga según el mes y el perfil seleccionados
 
 
     // --- Componentes interactivos ---
 
     private JMonthChooser elegirMes; // Componente desplegable para seleccionar el mes de recarga
+    private JComboBox<Perfil> comboPerfil; // Perfil del titular (general, estudiante o mayor)
     private JButton btnRecargar;     // Botón que confirma la recarga del bono bus
-    private JButton btnVolver;       // Botón para regresar a la ventana principal (login)
+    private JButton btnVolver;       // Botón para regresar a la ventana principal (login) o cancelar la recarga en curso
+    private JProgressBar barraProgreso; // Barra indeterminada visible mientras se procesa la recarga
+
+    // Número de tarjeta de la sesión actual y motor que procesa la recarga
+    private String numeroTarjeta;
+    private ServicioRecarga servicioRecarga; // null mientras se abre en segundo plano
+    private TareaRecarga recargaEnCurso;
+    private String tokenRecarga;           // Identifica la petición para que un reintento no cobre dos veces
+
+    private final Navegador navegador;
+    private Image iconoVentana;
 
     // Array con los nombres de los meses en español
     private final String[] nombresMeses = {
@@ -68,44 +110,89 @@ public class BonoBus extends JFrame {
     // ============================
     // CONSTRUCTOR
     // ============================
-    public BonoBus() {
-        // Personalización de los botones de diálogo en español
-        UIManager.put("OptionPane.yesButtonText", "Sí");
-        UIManager.put("OptionPane.noButtonText", "No");
-
-        // Configuración básica de la ventana
-        setTitle("Tussam - Recarga BonoBus");
-        setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
-        setResizable(false);
-        setMinimumSize(new Dimension(700, 500));
+    public BonoBus(Navegador navegador, CompletableFuture<ServicioRecarga> servicio) {
+        super(new BorderLayout());
+        long inicio = System.nanoTime();
+        this.navegador = navegador;
 
         // Cargar el icono de la ventana
-        cargarIcono();
+        EventoInterfaz.ejecutar(VISTA, "cargarIcono", this::cargarIcono);
 
         // Inicializar componentes visuales y eventos
-        initComponents();
+        EventoInterfaz.ejecutar(VISTA, "initComponents", this::initComponents);
         agregarEventos();
+        actualizarImporte();
 
-        // Ajustar tamaño y centrar en pantalla
-        pack();
-        setLocationRelativeTo(null);
+        // El servicio abre el diario en segundo plano: hasta entonces no se puede recargar
+        servicio.whenComplete((listo, error) -> {
+            if (SwingUtilities.isEventDispatchThread()) {
+                servicioListo(listo);
+            } else {
+                SwingUtilities.invokeLater(() -> servicioListo(listo));
+            }
+        });
+        CONSTRUCCION.registrarDesde(inicio);
+    }
+
+    // ============================
+    // VISTA
+    // ============================
+    /**
+     * Prepara la vista para una nueva sesión con la tarjeta indicada:
+     * vuelve a seleccionar el mes actual y restaura la instrucción inicial.
+     */
+    public void vincularTarjeta(String numeroTarjeta) {
+        this.numeroTarjeta = numeroTarjeta;
+        if (recargaEnCurso != null) {
+            // Una recarga incierta de la sesión anterior no debe avisar en esta
+            recargaEnCurso.desvincular();
+            recargaEnCurso = null;
+        }
+        tokenRecarga = UUID.randomUUID().toString();
+        mostrarRecargaEnCurso(false);
+        elegirMes.setMonth(Calendar.getInstance().get(Calendar.MONTH));
+        comboPerfil.setSelectedItem(Perfil.GENERAL);
+        actualizarImporte();
+        lblInstruccion.setText("Seleccione el mes para su recarga:");
+    }
+
+    @Override
+    public String getTitulo() {
+        return "Tussam - Recarga BonoBus";
+    }
+
+    @Override
+    public Image getIconoVentana() {
+        return iconoVentana;
+    }
+
+    @Override
+    public Dimension getTamanoMinimo() {
+        return new Dimension(700, 500);
+    }
+
+    @Override
+    public boolean confirmarCierre() {
+        int resp = JOptionPane.showConfirmDialog(
+                this,
+                "¿Está seguro de que desea salir sin recargar?",
+                "Confirmar salida",
+                JOptionPane.YES_NO_OPTION,
+                JOptionPane.WARNING_MESSAGE
+        );
+        return resp == JOptionPane.YES_OPTION;
     }
 
     // ============================
     // CARGA DE ICONO
     // ============================
     private void cargarIcono() {
-        try {
-            URL iconURL = getClass().getResource("/bus_icon.png");
+        BufferedImage icono = CacheImagenes.imagen("/bus_icon.png");
 
-            if (iconURL != null) {
-                ImageIcon icon = new ImageIcon(iconURL);
-                setIconImage(icon.getImage());
-            } else {
-                System.err.println("Advertencia: No se pudo cargar el icono 'bus_icon.png'");
-            }
-        } catch (Exception e) {
-            System.err.println("Error al cargar el icono: " + e.getMessage());
+        if (icono != null) {
+            iconoVentana = icono;
+        } else {
+            System.err.println("Advertencia: No se pudo cargar el icono 'bus_icon.png'");
         }
     }
 
@@ -118,15 +205,17 @@ public class BonoBus extends JFrame {
         contenedor.setBackground(FONDO);
 
         // Crear y añadir los paneles
-        contenedor.add(crearPanelHeader(), BorderLayout.NORTH);
+        contenedor.add(EventoInterfaz.medir(VISTA, "crearPanelHeader", this::crearPanelHeader),
+                BorderLayout.NORTH);
 
         JPanel panelCentral = new JPanel(new GridLayout(1, 2, 0, 0));
         panelCentral.setBackground(FONDO);
-        panelCentral.add(crearPanelIzquierdo());
-        panelCentral.add(crearPanelDerecho());
+        panelCentral.add(EventoInterfaz.medir(VISTA, "crearPanelIzquierdo", this::crearPanelIzquierdo));
+        panelCentral.add(EventoInterfaz.medir(VISTA, "crearPanelDerecho", this::crearPanelDerecho));
 
         contenedor.add(panelCentral, BorderLayout.CENTER);
-        contenedor.add(crearPanelBotones(), BorderLayout.SOUTH);
+        contenedor.add(EventoInterfaz.medir(VISTA, "crearPanelBotones", this::crearPanelBotones),
+                BorderLayout.SOUTH);
 
         add(contenedor);
     }
@@ -138,17 +227,17 @@ public class BonoBus extends JFrame {
         panelHeader = new JPanel();
         panelHeader.setLayout(new BoxLayout(panelHeader, BoxLayout.Y_AXIS));
         panelHeader.setBackground(ROJO_TUSSAM);
-        panelHeader.setBorder(BorderFactory.createEmptyBorder(25, 30, 25, 30));
+        panelHeader.setBorder(Tema.margen(25, 30, 25, 30));
 
         // Título principal
         lblTitulo = new JLabel("RECARGA BONOBUS");
-        lblTitulo.setFont(new Font("Segoe UI", Font.BOLD, 32));
+        lblTitulo.setFont(Tema.fuente(Font.BOLD, 32));
         lblTitulo.setForeground(BLANCO);
         lblTitulo.setAlignmentX(Component.CENTER_ALIGNMENT);
 
         // Subtítulo
         lblSubtitulo = new JLabel("Transportes Urbanos de Sevilla - TUSSAM");
-        lblSubtitulo.setFont(new Font("Segoe UI", Font.PLAIN, 14));
+        lblSubtitulo.setFont(Tema.fuente(Font.PLAIN, 14));
         lblSubtitulo.setForeground(NARANJA_CLARO);
         lblSubtitulo.setAlignmentX(Component.CENTER_ALIGNMENT);
 
@@ -166,23 +255,16 @@ public class BonoBus extends JFrame {
         panelIzquierdo = new JPanel();
         panelIzquierdo.setLayout(new BoxLayout(panelIzquierdo, BoxLayout.Y_AXIS));
         panelIzquierdo.setBackground(NARANJA_TUSSAM);
-        panelIzquierdo.setBorder(BorderFactory.createEmptyBorder(40, 30, 40, 30));
+        panelIzquierdo.setBorder(Tema.margen(40, 30, 40, 30));
 
-        // Icono del bus
+        // Icono del bus (escalado una sola vez y compartido por la caché de imágenes)
         iconoBus = new JLabel();
-        try {
-            URL imgURL = getClass().getResource("/bus_image.png");
-            if (imgURL != null) {
-                ImageIcon icon = new ImageIcon(imgURL);
-                Image imagenEscalada = icon.getImage().getScaledInstance(215, 106, Image.SCALE_SMOOTH);
-                iconoBus.setIcon(new ImageIcon(imagenEscalada));
-            } else {
-                iconoBus.setText("🚌");
-                iconoBus.setFont(new Font("Segoe UI Emoji", Font.PLAIN, 80));
-            }
-        } catch (Exception e) {
+        Icon imagenBus = CacheImagenes.icono("/bus_image.png", 215, 106);
+        if (imagenBus != null) {
+            iconoBus.setIcon(imagenBus);
+        } else {
             iconoBus.setText("🚌");
-            iconoBus.setFont(new Font("Segoe UI Emoji", Font.PLAIN, 80));
+            iconoBus.setFont(Tema.fuenteEmoji(80));
         }
         iconoBus.setAlignmentX(Component.CENTER_ALIGNMENT);
 
@@ -190,25 +272,22 @@ public class BonoBus extends JFrame {
         panelInfo = new JPanel();
         panelInfo.setLayout(new BoxLayout(panelInfo, BoxLayout.Y_AXIS));
         panelInfo.setBackground(CREMA);
-        panelInfo.setBorder(BorderFactory.createCompoundBorder(
-                BorderFactory.createLineBorder(ROJO_TUSSAM, 2),
-                BorderFactory.createEmptyBorder(20, 20, 20, 20)
-        ));
+        panelInfo.setBorder(Tema.borde(ROJO_TUSSAM, 2, 20, 20, 20, 20));
         panelInfo.setMaximumSize(new Dimension(280, 200));
 
         JLabel lblInfoTitulo = new JLabel("Información del Bono");
-        lblInfoTitulo.setFont(new Font("Segoe UI", Font.BOLD, 16));
+        lblInfoTitulo.setFont(Tema.fuente(Font.BOLD, 16));
         lblInfoTitulo.setForeground(ROJO_TUSSAM);
         lblInfoTitulo.setAlignmentX(Component.CENTER_ALIGNMENT);
 
         lblDias = new JLabel("30 días naturales");
-        lblDias.setFont(new Font("Segoe UI", Font.PLAIN, 14));
+        lblDias.setFont(Tema.fuente(Font.PLAIN, 14));
         lblDias.setForeground(GRIS_OSCURO);
         lblDias.setAlignmentX(Component.CENTER_ALIGNMENT);
 
         lblInfo = new JLabel("Viajes ilimitados en todas las líneas");
-        lblInfo.setFont(new Font("Segoe UI", Font.ITALIC, 12));
-        lblInfo.setForeground(new Color(80, 80, 80));
+        lblInfo.setFont(Tema.fuente(Font.ITALIC, 12));
+        lblInfo.setForeground(Tema.GRIS_TEXTO_OSCURO);
         lblInfo.setAlignmentX(Component.CENTER_ALIGNMENT);
 
         panelInfo.add(lblInfoTitulo);
@@ -233,16 +312,16 @@ public class BonoBus extends JFrame {
         panelDerecho = new JPanel();
         panelDerecho.setLayout(new BoxLayout(panelDerecho, BoxLayout.Y_AXIS));
         panelDerecho.setBackground(BLANCO);
-        panelDerecho.setBorder(BorderFactory.createEmptyBorder(50, 40, 50, 40));
+        panelDerecho.setBorder(Tema.margen(50, 40, 50, 40));
 
         // Emoticono de calendario
         lblCalendario = new JLabel("📅");
-        lblCalendario.setFont(new Font("Segoe UI Emoji", Font.PLAIN, 48));
+        lblCalendario.setFont(Tema.fuenteEmoji(48));
         lblCalendario.setAlignmentX(Component.CENTER_ALIGNMENT);
 
         // Instrucción
         lblInstruccion = new JLabel("Seleccione el mes para su recarga:");
-        lblInstruccion.setFont(new Font("Segoe UI", Font.BOLD, 18));
+        lblInstruccion.setFont(Tema.fuente(Font.BOLD, 18));
         lblInstruccion.setForeground(ROJO_TUSSAM);
         lblInstruccion.setAlignmentX(Component.CENTER_ALIGNMENT);
 
@@ -250,25 +329,45 @@ public class BonoBus extends JFrame {
         panelSelector = new JPanel();
         panelSelector.setLayout(new BoxLayout(panelSelector, BoxLayout.Y_AXIS));
         panelSelector.setBackground(CREMA);
-        panelSelector.setBorder(BorderFactory.createCompoundBorder(
-                BorderFactory.createLineBorder(NARANJA_TUSSAM, 3),
-                BorderFactory.createEmptyBorder(30, 30, 30, 30)
-        ));
-        panelSelector.setMaximumSize(new Dimension(300, 180));
+        panelSelector.setBorder(Tema.borde(NARANJA_TUSSAM, 3, 30, 30, 30, 30));
+        panelSelector.setMaximumSize(new Dimension(300, 280));
 
         lblMes = new JLabel("Mes:");
-        lblMes.setFont(new Font("Segoe UI", Font.BOLD, 14));
+        lblMes.setFont(Tema.fuente(Font.BOLD, 14));
         lblMes.setForeground(NARANJA_TUSSAM);
         lblMes.setAlignmentX(Component.CENTER_ALIGNMENT);
 
-        elegirMes = new JMonthChooser();
+        elegirMes = EventoInterfaz.medir(VISTA, "JMonthChooser", JMonthChooser::new);
         elegirMes.getComboBox().setPreferredSize(new Dimension(200, 40));
         elegirMes.getComboBox().setMaximumSize(new Dimension(200, 40));
         elegirMes.setAlignmentX(Component.CENTER_ALIGNMENT);
 
+        // Perfil del titular para aplicar su tarifa
+        JLabel lblPerfil = new JLabel("Tarifa:");
+        lblPerfil.setFont(Tema.fuente(Font.BOLD, 14));
+        lblPerfil.setForeground(NARANJA_TUSSAM);
+        lblPerfil.setAlignmentX(Component.CENTER_ALIGNMENT);
+
+        comboPerfil = new JComboBox<>(Perfil.values());
+        comboPerfil.setFont(Tema.fuente(Font.PLAIN, 14));
+        comboPerfil.setMaximumSize(new Dimension(200, 35));
+        comboPerfil.setAlignmentX(Component.CENTER_ALIGNMENT);
+
+        // Importe calculado con las tarifas vigentes
+        lblImporte = new JLabel(" ");
+        lblImporte.setFont(Tema.fuente(Font.BOLD, 16));
+        lblImporte.setForeground(ROJO_TUSSAM);
+        lblImporte.setAlignmentX(Component.CENTER_ALIGNMENT);
+
         panelSelector.add(lblMes);
         panelSelector.add(Box.createVerticalStrut(15));
         panelSelector.add(elegirMes);
+        panelSelector.add(Box.createVerticalStrut(15));
+        panelSelector.add(lblPerfil);
+        panelSelector.add(Box.createVerticalStrut(10));
+        panelSelector.add(comboPerfil);
+        panelSelector.add(Box.createVerticalStrut(15));
+        panelSelector.add(lblImporte);
 
         panelDerecho.add(Box.createVerticalGlue());
         panelDerecho.add(lblCalendario);
@@ -276,11 +375,28 @@ public class BonoBus extends JFrame {
         panelDerecho.add(lblInstruccion);
         panelDerecho.add(Box.createVerticalStrut(40));
         panelDerecho.add(panelSelector);
+        panelDerecho.add(Box.createVerticalStrut(20));
+        panelDerecho.add(crearBarraProgreso());
         panelDerecho.add(Box.createVerticalGlue());
 
         return panelDerecho;
     }
 
+    /**
+     * Crea la barra de progreso que se muestra mientras se procesa la recarga
+     */
+    private JProgressBar crearBarraProgreso() {
+        barraProgreso = new JProgressBar();
+        barraProgreso.setIndeterminate(true);
+        barraProgreso.setStringPainted(true);
+        barraProgreso.setString("Procesando recarga...");
+        barraProgreso.setForeground(NARANJA_TUSSAM);
+        barraProgreso.setMaximumSize(new Dimension(300, 25));
+        barraProgreso.setAlignmentX(Component.CENTER_ALIGNMENT);
+        barraProgreso.setVisible(false);
+        return barraProgreso;
+    }
+
     /**
      * Crea el panel inferior con los botones
      */
@@ -290,12 +406,12 @@ public class BonoBus extends JFrame {
 
         // Botón volver
         btnVolver = new JButton("VOLVER");
-        btnVolver.setFont(new Font("Segoe UI", Font.BOLD, 14));
+        btnVolver.setFont(Tema.fuente(Font.BOLD, 14));
         btnVolver.setPreferredSize(new Dimension(150, 50));
         btnVolver.setBackground(GRIS_BOTON);
         btnVolver.setForeground(BLANCO);
         btnVolver.setFocusPainted(false);
-        btnVolver.setBorder(BorderFactory.createLineBorder(GRIS_OSCURO, 2));
+        btnVolver.setBorder(Tema.linea(GRIS_OSCURO, 2));
         btnVolver.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
         btnVolver.setToolTipText("Volver a la ventana principal de login");
 
@@ -313,12 +429,12 @@ public class BonoBus extends JFrame {
 
         // Botón recargar
         btnRecargar = new JButton("RECARGAR BONOBUS");
-        btnRecargar.setFont(new Font("Segoe UI", Font.BOLD, 16));
+        btnRecargar.setFont(Tema.fuente(Font.BOLD, 16));
         btnRecargar.setPreferredSize(new Dimension(300, 50));
         btnRecargar.setBackground(NARANJA_TUSSAM);
         btnRecargar.setForeground(BLANCO);
         btnRecargar.setFocusPainted(false);
-        btnRecargar.setBorder(BorderFactory.createLineBorder(ROJO_TUSSAM, 3));
+        btnRecargar.setBorder(Tema.linea(ROJO_TUSSAM, 3));
         btnRecargar.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
         btnRecargar.setToolTipText("Haga clic para confirmar la recarga de su bonobus");
 
@@ -344,65 +460,181 @@ public class BonoBus extends JFrame {
     // GESTIÓN DE EVENTOS
     // ============================
     private void agregarEventos() {
-        btnVolver.addActionListener(e -> volverALogin());
+        btnVolver.addActionListener(e -> cancelarOVolver());
         btnRecargar.addActionListener(e -> validarYRecargar());
 
         elegirMes.addPropertyChangeListener(evt -> {
             if ("month".equals(evt.getPropertyName())) {
                 int mes = elegirMes.getMonth();
                 lblInstruccion.setText("Mes seleccionado: " + nombresMeses[mes]);
+                actualizarImporte();
             }
         });
 
-        addWindowListener(new WindowAdapter() {
-            @Override
-            public void windowClosing(WindowEvent e) {
-                int resp = JOptionPane.showConfirmDialog(
-                        BonoBus.this,
-                        "¿Está seguro de que desea salir sin recargar?",
-                        "Confirmar salida",
-                        JOptionPane.YES_NO_OPTION,
-                        JOptionPane.WARNING_MESSAGE
-                );
-                if (resp == JOptionPane.YES_OPTION) {
-                    System.exit(0);
-                }
-            }
-        });
+        comboPerfil.addActionListener(e -> actualizarImporte());
     }
 
     // ============================
     // LÓGICA DE NEGOCIO
     // ============================
     private void volverALogin() {
-        dispose();
-
-        SwingUtilities.invokeLater(() -> {
-            login ventanaLogin = new login();
-            ventanaLogin.setVisible(true);
-        });
+        navegador.mostrarLogin();
     }
 
     private void validarYRecargar() {
         int mesSeleccionado = elegirMes.getMonth();
         String nombreMes = nombresMeses[mesSeleccionado];
+        Perfil perfil = (Perfil) comboPerfil.getSelectedItem();
+        int importe = servicioRecarga.getTarifas().precio(TipoBono.BUS, mesSeleccionado, perfil);
 
         int resp = JOptionPane.showConfirmDialog(
                 this,
-                "Tipo de bono: BUS\nMes: " + nombreMes + "\n¿Confirma la recarga?",
+                "Tarjeta: " + numeroTarjeta + "\nTipo de bono: BUS\nMes: " + nombreMes
+                        + "\nTarifa: " + perfil + "\nImporte: " + MotorTarifas.formatear(importe)
+                        + "\n¿Confirma la recarga?",
                 "Confirmar recarga",
                 JOptionPane.YES_NO_OPTION,
                 JOptionPane.QUESTION_MESSAGE
         );
 
         if (resp == JOptionPane.YES_OPTION) {
-            JOptionPane.showMessageDialog(
-                    this,
-                    "BonoBus recargado correctamente para " + nombreMes + ".",
-                    "Recarga exitosa",
-                    JOptionPane.INFORMATION_MESSAGE
-            );
+            iniciarRecarga(mesSeleccionado, perfil);
+        }
+    }
+
+    /**
+     * Lanza la recarga en segundo plano para no bloquear la interfaz mientras se
+     * procesa. Durante la recarga el botón de volver pasa a cancelarla.
+     */
+    private void iniciarRecarga(int mes, Perfil perfil) {
+        String nombreMes = nombresMeses[mes];
+        mostrarRecargaEnCurso(true);
+
+        recargaEnCurso = TareaRecarga.iniciar(servicioRecarga, numeroTarjeta, TipoBono.BUS, mes, perfil,
+                tokenRecarga,
+                new TareaRecarga.Receptor() {
+                    @Override
+                    public void recargaTerminada(ResultadoRecarga resultado) {
+                        mostrarRecargaEnCurso(false);
+                        // La petición ha concluido: la siguiente es una recarga nueva
+                        tokenRecarga = UUID.randomUUID().toString();
+
+                        if (resultado.isCorrecta()) {
+                            JOptionPane.showMessageDialog(
+                                    BonoBus.this,
+                                    "BonoBus recargado correctamente para " + nombreMes + ".\nImporte cobrado: "
+                                            + MotorTarifas.formatear(resultado.getImporte()),
+                                    "Recarga exitosa",
+                                    JOptionPane.INFORMATION_MESSAGE
+                            );
+                        } else {
+                            JOptionPane.showMessageDialog(
+                                    BonoBus.this,
+                                    resultado.getMensaje(),
+                                    "Recarga no realizada",
+                                    JOptionPane.ERROR_MESSAGE
+                            );
+                        }
+                    }
+
+                    @Override
+                    public void recargaCancelando(boolean porTiempo) {
+                        // Hasta que la tarea acabe no se sabe si la recarga se aplicó
+                        btnVolver.setEnabled(false);
+                        btnVolver.setText("CANCELANDO...");
+                    }
+
+                    @Override
+                    public void recargaIncierta() {
+                        mostrarRecargaEnCurso(false);
+                        JOptionPane.showMessageDialog(
+                                BonoBus.this,
+                                "No se ha podido confirmar si la recarga de " + nombreMes + " se ha aplicado."
+                                        + "\nSe le avisará en cuanto se sepa. Si la repite, no se cobrará dos veces.",
+                                "Recarga pendiente",
+                                JOptionPane.WARNING_MESSAGE
+                        );
+                    }
+
+                    @Override
+                    public void recargaCancelada(boolean aplicada, boolean porTiempo) {
+                        mostrarRecargaEnCurso(false);
+
+                        if (aplicada) {
+                            JOptionPane.showMessageDialog(
+                                    BonoBus.this,
+                                    "La recarga de " + nombreMes + " ya se había completado y no se ha podido cancelar.",
+                                    "Recarga exitosa",
+                                    JOptionPane.INFORMATION_MESSAGE
+                            );
+                        } else {
+                            JOptionPane.showMessageDialog(
+                                    BonoBus.this,
+                                    porTiempo
+                                            ? "La recarga ha tardado demasiado y se ha cancelado. Inténtelo de nuevo."
+                                            : "La recarga se ha cancelado.",
+                                    "Recarga no realizada",
+                                    JOptionPane.WARNING_MESSAGE
+                            );
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Recibe en el EDT el servicio de recarga ya abierto ({@code null} si no
+     * se pudo abrir) y habilita la recarga.
+     */
+    private void servicioListo(ServicioRecarga servicio) {
+        servicioRecarga = servicio;
+        if (servicio == null) {
+            lblInstruccion.setText("El servicio de recarga no está disponible.");
+        }
+        mostrarRecargaEnCurso(recargaEnCurso != null && !recargaEnCurso.isTerminada());
+        actualizarImporte();
+    }
+
+    private void cancelarOVolver() {
+        if (recargaEnCurso != null && !recargaEnCurso.isTerminada()) {
+            recargaEnCurso.cancelar();
+        } else {
+            volverALogin();
+        }
+    }
+
+    /**
+     * Bloquea el selector y el botón de recarga mientras hay una recarga en curso.
+     */
+    private void mostrarRecargaEnCurso(boolean enCurso) {
+        btnRecargar.setEnabled(!enCurso && servicioRecarga != null);
+        btnVolver.setEnabled(true);
+        elegirMes.setEnabled(!enCurso);
+        comboPerfil.setEnabled(!enCurso);
+        barraProgreso.setVisible(enCurso);
+        btnVolver.setText(enCurso ? "CANCELAR" : "VOLVER");
+        btnVolver.setToolTipText(enCurso
+                ? "Cancelar la recarga en curso"
+                : "Volver a la ventana principal de login");
+    }
+
+    /**
+     * Muestra el importe de la recarga para el mes y el perfil seleccionados
+     */
+    private void actualizarImporte() {
+        if (servicioRecarga == null) {
+            lblImporte.setText("Importe: calculando...");
+            return;
+        }
+        int mes = elegirMes.getMonth();
+        Perfil perfil = (Perfil) comboPerfil.getSelectedItem();
+        MotorTarifas tarifas = servicioRecarga.getTarifas();
+        int importe = tarifas.precio(TipoBono.BUS, mes, perfil);
+
+        String texto = "Importe: " + MotorTarifas.formatear(importe);
+        if (importe < tarifas.getTabla().precio(TipoBono.BUS, mes, perfil)) {
+            texto += " (prorrateado)";
         }
+        lblImporte.setText(texto);
     }
 
     private void createUIComponents() {
@@ -1,29 +1,59 @@
 import com.toedter.calendar.JMonthChooser;
+import transporte.diagnostico.EventoInterfaz;
+import transporte.metricas.HistogramaLatencia;
+import transporte.metricas.Metricas;
+import transporte.recarga.ResultadoRecarga;
+import transporte.recarga.ServicioRecarga;
+import transporte.recarga.TipoBono;
+import transporte.tarifa.MotorTarifas;
+import transporte.tarifa.Perfil;
+import transporte.ui.CacheImagenes;
+import transporte.ui.Navegador;
+import transporte.ui.TareaRecarga;
+import transporte.ui.Tema;
+import transporte.ui.Vista;
+
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
-import java.net.URL;
+import java.awt.image.BufferedImage;
+import java.util.Calendar;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Interfaz gráfica para recargar el Bono de Tren del Metro de Sevilla.
  * Permite al usuario seleccionar un mes y confirmar la recarga de su bonometro.
  * Diferenciado del Bono Bus con tonos verdes característicos del Metro.
  *
+ * Es una vista de la ventana principal: se construye una vez y en cada sesión
+ * se vincula a la tarjeta validada en el login con {@link #vincularTarjeta}.
+ *
  * @author Gabriel Sánchez Heredia
  */
-public class BonoMetro extends JFrame {
+public class BonoMetro extends JPanel implements Vista {
 
     // ============================
     // CONSTANTES DE COLORES
     // ============================
     // Paleta de colores oficiales del Metro de Sevilla
-    private static final Color VERDE_CLARO = new Color(102, 204, 102);
-    private static final Color VERDE_OSCURO = new Color(0, 120, 74);
-    private static final Color FONDO = new Color(250, 255, 250);
-    private static final Color BLANCO = Color.WHITE;
-    private static final Color GRIS_OSCURO = new Color(51, 51, 51);
-    private static final Color GRIS_BOTON = new Color(128, 128, 128);
-    private static final Color GRIS_BOTON_HOVER = new Color(100, 100, 100);
+    private static final Color VERDE_CLARO = Tema.Metro.VERDE_CLARO;
+    private static final Color VERDE_OSCURO = Tema.Metro.VERDE_OSCURO;
+    private static final Color FONDO = Tema.Metro.FONDO;
+    private static final Color BLANCO = Tema.BLANCO;
+    private static final Color GRIS_OSCURO = Tema.GRIS_OSCURO;
+    private static final Color GRIS_BOTON = Tema.GRIS_BOTON;
+    private static final Color GRIS_BOTON_HOVER = Tema.GRIS_BOTON_HOVER;
+
+    // ============================
+    // MÉTRICAS Y DIAGNÓSTICO
+    // ============================
+    // Nombre de la pantalla en las métricas y en los eventos de JFR
+    private static final String VISTA = "BonoMetro";
+
+    // Tiempo de construcción de la pantalla (se construye una vez y se reutiliza)
+    private static final HistogramaLatencia CONSTRUCCION = Metricas.global().histograma(
+            "bono_vista_construccion_segundos", "Tiempo de construcción de las pantallas", "vista", VISTA);
 
     // ============================
     // COMPONENTES DE LA INTERFAZ
@@ -47,13 +77,25 @@ public class BonoMetro extends JFrame {
     private JLabel lblInstruccion;         // Etiqueta que muestra instrucciones al usuario
     private JLabel lblMes;                 // Etiqueta "Mes:" junto al selector
     private JLabel lblInfo;                // Información adicional sobre la recarga
+    private JLabel lblImporte;             // Importe de la recarga según el mes y el perfil seleccionados
 
 
     // --- Componentes interactivos ---
 
     private JMonthChooser elegirMes;       // Componente para seleccionar el mes de recarga
+    private JComboBox<Perfil> comboPerfil; // Perfil del titular (general, estudiante o mayor)
     private JButton btnRecargar;           // Botón principal para confirmar la recarga
-    private JButton btnVolver;             // Botón para volver a la ventana de login
+    private JButton btnVolver;             // Botón para volver a la ventana de login o cancelar la recarga en curso
+    private JProgressBar barraProgreso;    // Barra indeterminada visible mientras se procesa la recarga
+
+    // Número de tarjeta de la sesión actual y motor que procesa la recarga
+    private String numeroTarjeta;
+    private ServicioRecarga servicioRecarga; // null mientras se abre en segundo plano
+    private TareaRecarga recargaEnCurso;   // Recarga lanzada en segundo plano (null si no hay ninguna)
+    private String tokenRecarga;           // Identifica la petición para que un reintento no cobre dos veces
+
+    private final Navegador navegador;     // Cambio de pantalla dentro de la ventana principal
+    private Image iconoVentana;            // Icono de la ventana mientras se muestra esta vista
 
 
     // Array con los nombres de los meses en español para mostrar al usuario
@@ -66,33 +108,90 @@ public class BonoMetro extends JFrame {
     // CONSTRUCTOR
     // ============================
     /**
-     * Constructor principal que inicializa la ventana y sus componentes.
-     * Configura las propiedades básicas de la ventana y carga el icono.
+     * Constructor principal que inicializa la vista y sus componentes.
+     * La vista se reutiliza entre sesiones; la tarjeta se asigna con {@link #vincularTarjeta}.
+     *
+     * @param navegador navegación entre pantallas de la ventana principal
+     * @param servicio  servicio de recarga, que se termina de abrir en segundo plano
      */
-    public BonoMetro() {
-        // Personalización de los botones de diálogo en español
-        UIManager.put("OptionPane.yesButtonText", "Sí");
-        UIManager.put("OptionPane.noButtonText", "No");
-
-        // Configuración básica de la ventana
-        setTitle("Metro de Sevilla - Recarga Bonometro");
-        // Requiere confirmación para cerrar
-        setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
-        // Ventana de tamaño fijo
-        setResizable(false);
-        // Tamaño mínimo de la ventana
-        setMinimumSize(new Dimension(550, 550));
+    public BonoMetro(Navegador navegador, CompletableFuture<ServicioRecarga> servicio) {
+        super(new BorderLayout());
+        long inicio = System.nanoTime();
+        this.navegador = navegador;
 
         // Cargar el icono de la ventana (debe estar en la carpeta resources o raíz del proyecto)
-        cargarIcono();
+        EventoInterfaz.ejecutar(VISTA, "cargarIcono", this::cargarIcono);
 
         // Inicializar componentes visuales y eventos
-        initComponents();
+        EventoInterfaz.ejecutar(VISTA, "initComponents", this::initComponents);
         agregarEventos();
+        actualizarImporte();
 
-        // Ajustar tamaño y centrar en pantalla
-        pack();
-        setLocationRelativeTo(null);
+        // El servicio abre el diario en segundo plano: hasta entonces no se puede recargar
+        servicio.whenComplete((listo, error) -> {
+            if (SwingUtilities.isEventDispatchThread()) {
+                servicioListo(listo);
+            } else {
+                SwingUtilities.invokeLater(() -> servicioListo(listo));
+            }
+        });
+        CONSTRUCCION.registrarDesde(inicio);
+    }
+
+    // ============================
+    // VISTA
+    // ============================
+    /**
+     * Prepara la vista para una nueva sesión con la tarjeta indicada.
+     * Vuelve a seleccionar el mes actual y restaura el texto de instrucciones.
+     *
+     * @param numeroTarjeta número de tarjeta de 12 dígitos validado en el login
+     */
+    public void vincularTarjeta(String numeroTarjeta) {
+        this.numeroTarjeta = numeroTarjeta;
+        if (recargaEnCurso != null) {
+            // Una recarga incierta de la sesión anterior no debe avisar en esta
+            recargaEnCurso.desvincular();
+            recargaEnCurso = null;
+        }
+        tokenRecarga = UUID.randomUUID().toString();
+        mostrarRecargaEnCurso(false);
+        elegirMes.setMonth(Calendar.getInstance().get(Calendar.MONTH));
+        comboPerfil.setSelectedItem(Perfil.GENERAL);
+        actualizarImporte();
+        lblInstruccion.setText("Seleccione el mes para recargar su bono: ");
+    }
+
+    @Override
+    public String getTitulo() {
+        return "Metro de Sevilla - Recarga Bonometro";
+    }
+
+    @Override
+    public Image getIconoVentana() {
+        return iconoVentana;
+    }
+
+    @Override
+    public Dimension getTamanoMinimo() {
+        return new Dimension(550, 550);
+    }
+
+    /**
+     * Pide confirmación antes de salir de la aplicación desde esta vista.
+     *
+     * @return true si el usuario confirma la salida
+     */
+    @Override
+    public boolean confirmarCierre() {
+        int resp = JOptionPane.showConfirmDialog(
+                this,
+                "¿Está seguro de que desea salir sin recargar?",
+                "Confirmar salida",
+                JOptionPane.YES_NO_OPTION,
+                JOptionPane.WARNING_MESSAGE
+        );
+        return resp == JOptionPane.YES_OPTION;
     }
 
     // ============================
@@ -105,21 +204,15 @@ public class BonoMetro extends JFrame {
      * Formatos soportados: PNG, JPG, GIF
      */
     private void cargarIcono() {
-        try {
-            // Cargar icon desde la carpeta resources
-            URL iconURL = getClass().getResource("/metro_icon.png");
-
-            if (iconURL != null) {
-                ImageIcon icon = new ImageIcon(iconURL);
-                setIconImage(icon.getImage());
-            } else {
-                // Si no se encuentra el icono, mostrar advertencia en consola
-                System.err.println("Advertencia: No se pudo cargar el icono 'metro_icon.png'");
-                System.err.println("Asegúrese de que el archivo existe en la carpeta resources o raíz del proyecto");
-            }
-        } catch (Exception e) {
-            // Capturar cualquier error al cargar el icono
-            System.err.println("Error al cargar el icono: " + e.getMessage());
+        // Cargar el icono desde la caché de imágenes (se decodifica una sola vez por proceso)
+        BufferedImage icono = CacheImagenes.imagen("/metro_icon.png");
+
+        if (icono != null) {
+            iconoVentana = icono;
+        } else {
+            // Si no se encuentra el icono, mostrar advertencia en consola
+            System.err.println("Advertencia: No se pudo cargar el icono 'metro_icon.png'");
+            System.err.println("Asegúrese de que el archivo existe en la carpeta resources o raíz del proyecto");
         }
     }
 
@@ -134,12 +227,13 @@ public class BonoMetro extends JFrame {
         // Crear el panel contenedor principal con márgenes
         contenedor = new JPanel(new BorderLayout(20, 20));
         contenedor.setBackground(FONDO);
-        contenedor.setBorder(BorderFactory.createEmptyBorder(30, 40, 30, 40));
+        contenedor.setBorder(Tema.margen(30, 40, 30, 40));
 
-        // Agregar los tres paneles principales
-        contenedor.add(crearPanelSuperior(), BorderLayout.NORTH);   // Encabezado con título
-        contenedor.add(crearPanelCentral(), BorderLayout.CENTER);   // Área de selección de mes
-        contenedor.add(crearPanelInferior(), BorderLayout.SOUTH);   // Botones de acción
+        // Agregar los tres paneles principales: encabezado con título, área de
+        // selección de mes y botones de acción
+        contenedor.add(EventoInterfaz.medir(VISTA, "crearPanelSuperior", this::crearPanelSuperior), BorderLayout.NORTH);
+        contenedor.add(EventoInterfaz.medir(VISTA, "crearPanelCentral", this::crearPanelCentral), BorderLayout.CENTER);
+        contenedor.add(EventoInterfaz.medir(VISTA, "crearPanelInferior", this::crearPanelInferior), BorderLayout.SOUTH);
 
         add(contenedor);
     }
@@ -153,38 +247,29 @@ public class BonoMetro extends JFrame {
     private JPanel crearPanelSuperior() {
         JPanel panel = new JPanel(new BorderLayout(10, 10));
         panel.setBackground(VERDE_CLARO);
-        panel.setBorder(BorderFactory.createEmptyBorder(20, 25, 20, 25));
+        panel.setBorder(Tema.margen(20, 25, 20, 25));
 
-        // Icono decorativo del tren (emoji)
+        // Icono decorativo del tren
         iconoTren = new JLabel();
-        try {
-            URL imgURL = getClass().getResource("/title_image.png");
-            if (imgURL != null) {
-                ImageIcon icon = new ImageIcon(imgURL);
-                // Escalar la imagen a un tamaño adecuado (por ejemplo, 80x80)
-                Image imagenEscalada = icon.getImage().getScaledInstance(80, 80, Image.SCALE_SMOOTH);
-                iconoTren.setIcon(new ImageIcon(imagenEscalada));
-            } else {
-                // Fallback si no se encuentra la imagen
-                iconoTren.setText("🚄");
-                iconoTren.setFont(new Font("Segoe UI Emoji", Font.PLAIN, 48));
-                System.err.println("Advertencia: No se encontró 'title_image.png' en resources.");
-            }
-        } catch (Exception e) {
+        // Imagen escalada a 80x80 una sola vez y compartida por la caché de imágenes
+        Icon imagenTren = CacheImagenes.icono("/title_image.png", 80, 80);
+        if (imagenTren != null) {
+            iconoTren.setIcon(imagenTren);
+        } else {
+            // Fallback si no se encuentra la imagen
             iconoTren.setText("🚄");
-            iconoTren.setFont(new Font("Segoe UI Emoji", Font.PLAIN, 48));
-            System.err.println("Error al cargar la imagen del título: " + e.getMessage());
+            iconoTren.setFont(Tema.fuenteEmoji(48));
         }
         iconoTren.setHorizontalAlignment(SwingConstants.CENTER);
 
         // Título principal en blanco y negrita
         lblTitulo = new JLabel("RECARGA BONOMETRO", SwingConstants.CENTER);
-        lblTitulo.setFont(new Font("Segoe UI", Font.BOLD, 28));
+        lblTitulo.setFont(Tema.fuente(Font.BOLD, 28));
         lblTitulo.setForeground(BLANCO);
 
         // Subtítulo con el nombre del servicio
         lblSubtitulo = new JLabel("Metro de Sevilla", SwingConstants.CENTER);
-        lblSubtitulo.setFont(new Font("Segoe UI", Font.ITALIC, 14));
+        lblSubtitulo.setFont(Tema.fuente(Font.ITALIC, 14));
         lblSubtitulo.setForeground(VERDE_OSCURO);
 
         // Panel para agrupar título y subtítulo verticalmente
@@ -209,11 +294,8 @@ public class BonoMetro extends JFrame {
     private JPanel crearPanelCentral() {
         JPanel panel = new JPanel(new GridBagLayout());
         panel.setBackground(BLANCO);
-        panel.setBorder(BorderFactory.createCompoundBorder(
-                BorderFactory.createLineBorder(VERDE_CLARO, 3),
-                BorderFactory.createEmptyBorder(30, 30, 30, 30)
-        ));
-        panel.setPreferredSize(new Dimension(450, 280));
+        panel.setBorder(Tema.borde(VERDE_CLARO, 3, 30, 30, 30, 30));
+        panel.setPreferredSize(new Dimension(450, 380));
 
         // Configuración del layout con GridBagConstraints para posicionamiento flexible
         GridBagConstraints gbc = new GridBagConstraints();
@@ -223,7 +305,7 @@ public class BonoMetro extends JFrame {
 
         // --- Etiqueta de instrucciones ---
         lblInstruccion = new JLabel("Seleccione el mes para recargar su bono: ");
-        lblInstruccion.setFont(new Font("Segoe UI", Font.PLAIN, 16));
+        lblInstruccion.setFont(Tema.fuente(Font.PLAIN, 16));
         lblInstruccion.setForeground(GRIS_OSCURO);
         gbc.gridy = 0;
         gbc.insets = new Insets(5, 10, 15, 10);
@@ -233,19 +315,16 @@ public class BonoMetro extends JFrame {
 
         // --- Contenedor del selector de mes ---
         contenedorMes = new JPanel(new FlowLayout(FlowLayout.CENTER, 10, 10));
-        contenedorMes.setBackground(new Color(240, 255, 240));  // Verde muy claro
-        contenedorMes.setBorder(BorderFactory.createCompoundBorder(
-                BorderFactory.createLineBorder(VERDE_OSCURO, 2),
-                BorderFactory.createEmptyBorder(15, 20, 15, 20)
-        ));
+        contenedorMes.setBackground(Tema.Metro.VERDE_MUY_CLARO);
+        contenedorMes.setBorder(Tema.borde(VERDE_OSCURO, 2, 15, 20, 15, 20));
 
         // Etiqueta "Mes:"
         lblMes = new JLabel("Mes:");
-        lblMes.setFont(new Font("Segoe UI", Font.BOLD, 14));
+        lblMes.setFont(Tema.fuente(Font.BOLD, 14));
         lblMes.setForeground(VERDE_OSCURO);
 
         // Selector de mes (JMonthChooser de la librería JCalendar)
-        elegirMes = new JMonthChooser();
+        elegirMes = EventoInterfaz.medir(VISTA, "JMonthChooser", JMonthChooser::new);
         elegirMes.getComboBox().setPreferredSize(new Dimension(180, 35));
         elegirMes.getComboBox().setMinimumSize(new Dimension(180, 35));
 
@@ -256,14 +335,53 @@ public class BonoMetro extends JFrame {
         gbc.insets = new Insets(20, 10, 20, 10);
         panel.add(contenedorMes, gbc);
 
+        // --- Perfil del titular para aplicar su tarifa ---
+        JPanel panelPerfil = new JPanel(new FlowLayout(FlowLayout.CENTER, 10, 0));
+        panelPerfil.setBackground(BLANCO);
+
+        JLabel lblPerfil = new JLabel("Tarifa:");
+        lblPerfil.setFont(Tema.fuente(Font.BOLD, 14));
+        lblPerfil.setForeground(VERDE_OSCURO);
+
+        comboPerfil = new JComboBox<>(Perfil.values());
+        comboPerfil.setFont(Tema.fuente(Font.PLAIN, 14));
+        comboPerfil.setPreferredSize(new Dimension(180, 35));
+
+        panelPerfil.add(lblPerfil);
+        panelPerfil.add(comboPerfil);
+
+        gbc.gridy = 2;
+        gbc.insets = new Insets(0, 10, 10, 10);
+        panel.add(panelPerfil, gbc);
+
+        // --- Importe calculado con las tarifas vigentes ---
+        lblImporte = new JLabel(" ", SwingConstants.CENTER);
+        lblImporte.setFont(Tema.fuente(Font.BOLD, 16));
+        lblImporte.setForeground(VERDE_OSCURO);
+        gbc.gridy = 3;
+        gbc.insets = new Insets(5, 10, 10, 10);
+        panel.add(lblImporte, gbc);
+
         // --- Información adicional sobre la recarga ---
         lblInfo = new JLabel("Recarga válida para todo el mes seleccionado", SwingConstants.CENTER);
-        lblInfo.setFont(new Font("Segoe UI", Font.ITALIC, 12));
-        lblInfo.setForeground(new Color(100, 100, 100));
-        gbc.gridy = 2;
+        lblInfo.setFont(Tema.fuente(Font.ITALIC, 12));
+        lblInfo.setForeground(Tema.GRIS_TEXTO);
+        gbc.gridy = 4;
         gbc.insets = new Insets(0, 10, 10, 10);
         panel.add(lblInfo, gbc);
 
+        // --- Barra de progreso (solo visible mientras se procesa la recarga) ---
+        barraProgreso = new JProgressBar();
+        barraProgreso.setIndeterminate(true);
+        barraProgreso.setStringPainted(true);
+        barraProgreso.setString("Procesando recarga...");
+        barraProgreso.setForeground(VERDE_CLARO);
+        barraProgreso.setPreferredSize(new Dimension(280, 25));
+        barraProgreso.setVisible(false);
+        gbc.gridy = 5;
+        gbc.insets = new Insets(10, 10, 0, 10);
+        panel.add(barraProgreso, gbc);
+
         return panel;
     }
 
@@ -279,15 +397,12 @@ public class BonoMetro extends JFrame {
 
         // Botón de volver a la ventana de login
         btnVolver = new JButton("VOLVER");
-        btnVolver.setFont(new Font("Segoe UI", Font.BOLD, 14));
+        btnVolver.setFont(Tema.fuente(Font.BOLD, 14));
         btnVolver.setPreferredSize(new Dimension(140, 50));
         btnVolver.setBackground(GRIS_BOTON);
         btnVolver.setForeground(BLANCO);
         btnVolver.setFocusPainted(false);
-        btnVolver.setBorder(BorderFactory.createCompoundBorder(
-                BorderFactory.createLineBorder(GRIS_OSCURO, 2),
-                BorderFactory.createEmptyBorder(10, 20, 10, 20)
-        ));
+        btnVolver.setBorder(Tema.borde(GRIS_OSCURO, 2, 10, 20, 10, 20));
         btnVolver.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
         btnVolver.setToolTipText("Volver a la ventana principal de login");
 
@@ -306,15 +421,12 @@ public class BonoMetro extends JFrame {
 
         // Botón principal de recarga
         btnRecargar = new JButton("RECARGAR BONOMETRO");
-        btnRecargar.setFont(new Font("Segoe UI", Font.BOLD, 16));
+        btnRecargar.setFont(Tema.fuente(Font.BOLD, 16));
         btnRecargar.setPreferredSize(new Dimension(280, 50));
         btnRecargar.setBackground(VERDE_CLARO);
         btnRecargar.setForeground(BLANCO);
         btnRecargar.setFocusPainted(false);  // Eliminar borde de foco
-        btnRecargar.setBorder(BorderFactory.createCompoundBorder(
-                BorderFactory.createLineBorder(VERDE_OSCURO, 2),
-                BorderFactory.createEmptyBorder(10, 20, 10, 20)
-        ));
+        btnRecargar.setBorder(Tema.borde(VERDE_OSCURO, 2, 10, 20, 10, 20));
         btnRecargar.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));  // Cursor de mano
         btnRecargar.setToolTipText("Haga clic para confirmar la recarga de su bonometro");
 
@@ -341,11 +453,11 @@ public class BonoMetro extends JFrame {
     // ============================
     /**
      * Configura los listeners de eventos para los componentes interactivos.
-     * Incluye el botón de recarga, el botón de volver, el selector de mes y el cierre de ventana.
+     * Incluye el botón de recarga, el botón de volver y el selector de mes.
      */
     private void agregarEventos() {
-        // Evento del botón de volver: regresa a la ventana de login
-        btnVolver.addActionListener(e -> volverALogin());
+        // Evento del botón de volver: cancela la recarga en curso o regresa a la ventana de login
+        btnVolver.addActionListener(e -> cancelarOVolver());
 
         // Evento del botón de recarga: ejecuta la validación y confirmación
         btnRecargar.addActionListener(e -> validarYRecargar());
@@ -355,72 +467,198 @@ public class BonoMetro extends JFrame {
             if ("month".equals(evt.getPropertyName())) {
                 int mes = elegirMes.getMonth();
                 lblInstruccion.setText("Mes seleccionado: " + nombresMeses[mes] + " - ¿Desea continuar?");
+                actualizarImporte();
             }
         });
 
-        // Evento de cierre de ventana: pedir confirmación antes de salir
-        addWindowListener(new WindowAdapter() {
-            @Override
-            public void windowClosing(WindowEvent e) {
-                int resp = JOptionPane.showConfirmDialog(
-                        BonoMetro.this,
-                        "¿Está seguro de que desea salir sin recargar?",
-                        "Confirmar salida",
-                        JOptionPane.YES_NO_OPTION,
-                        JOptionPane.WARNING_MESSAGE
-                );
-                if (resp == JOptionPane.YES_OPTION) {
-                    System.exit(0);  // Cerrar la aplicación
-                }
-            }
-        });
+        // Evento del selector de perfil: recalcula el importe con la tarifa del perfil
+        comboPerfil.addActionListener(e -> actualizarImporte());
     }
 
     // ============================
     // LÓGICA DE NEGOCIO
     // ============================
     /**
-     * Vuelve a la ventana de login cerrando la ventana actual.
-     * Cierra esta ventana y abre una nueva instancia de la ventana Login.
+     * Vuelve a la pantalla de login dentro de la misma ventana.
      */
     private void volverALogin() {
-        // Cerrar la ventana actual
-        dispose();
-
-        // Crear y mostrar la ventana de Login
-        SwingUtilities.invokeLater(() -> {
-            login ventanaLogin = new login();
-            ventanaLogin.setVisible(true);
-        });
+        navegador.mostrarLogin();
     }
 
     /**
      * Valída la selección del usuario y procesa la recarga del bonometro.
-     * Muestra un diálogo de confirmación y, si se acepta, confirma la recarga exitosa.
+     * Muestra un diálogo de confirmación y, si se acepta, delega la recarga en el
+     * {@link ServicioRecarga} e informa del resultado.
      */
     private void validarYRecargar() {
         // Obtener el mes seleccionado (0 = Enero, 11 = Diciembre)
         int mesSeleccionado = elegirMes.getMonth();
         String nombreMes = nombresMeses[mesSeleccionado];
+        Perfil perfil = (Perfil) comboPerfil.getSelectedItem();
+        int importe = servicioRecarga.getTarifas().precio(TipoBono.METRO, mesSeleccionado, perfil);
 
         // Mostrar diálogo de confirmación con los datos de la recarga
         int resp = JOptionPane.showConfirmDialog(
                 this,
-                "Tipo de bono: METRO\nMes: " + nombreMes + "\n¿Confirma la recarga?",
+                "Tarjeta: " + numeroTarjeta + "\nTipo de bono: METRO\nMes: " + nombreMes
+                        + "\nTarifa: " + perfil + "\nImporte: " + MotorTarifas.formatear(importe)
+                        + "\n¿Confirma la recarga?",
                 "Confirmar recarga",
                 JOptionPane.YES_NO_OPTION,
                 JOptionPane.QUESTION_MESSAGE
         );
 
-        // Si el usuario confirma, mostrar mensaje de éxito
+        // Si el usuario confirma, lanzar la recarga en segundo plano
         if (resp == JOptionPane.YES_OPTION) {
-            JOptionPane.showMessageDialog(
-                    this,
-                    "Bonometro recargado correctamente para " + nombreMes + ".",
-                    "Recarga exitosa",
-                    JOptionPane.INFORMATION_MESSAGE
-            );
+            iniciarRecarga(mesSeleccionado, perfil);
+        }
+    }
+
+    /**
+     * Lanza la recarga en segundo plano para que la interfaz siga respondiendo
+     * mientras se procesa, e informa del resultado cuando termina.
+     * Durante la recarga el botón de volver pasa a cancelarla.
+     *
+     * @param mes    mes seleccionado (0 = Enero, 11 = Diciembre)
+     * @param perfil perfil del titular, que determina la tarifa
+     */
+    private void iniciarRecarga(int mes, Perfil perfil) {
+        String nombreMes = nombresMeses[mes];
+        mostrarRecargaEnCurso(true);
+
+        recargaEnCurso = TareaRecarga.iniciar(servicioRecarga, numeroTarjeta, TipoBono.METRO, mes, perfil,
+                tokenRecarga,
+                new TareaRecarga.Receptor() {
+                    @Override
+                    public void recargaTerminada(ResultadoRecarga resultado) {
+                        mostrarRecargaEnCurso(false);
+                        // La petición ha concluido: la siguiente es una recarga nueva
+                        tokenRecarga = UUID.randomUUID().toString();
+
+                        if (resultado.isCorrecta()) {
+                            JOptionPane.showMessageDialog(
+                                    BonoMetro.this,
+                                    "Bonometro recargado correctamente para " + nombreMes + ".\nImporte cobrado: "
+                                            + MotorTarifas.formatear(resultado.getImporte()),
+                                    "Recarga exitosa",
+                                    JOptionPane.INFORMATION_MESSAGE
+                            );
+                        } else {
+                            JOptionPane.showMessageDialog(
+                                    BonoMetro.this,
+                                    resultado.getMensaje(),
+                                    "Recarga no realizada",
+                                    JOptionPane.ERROR_MESSAGE
+                            );
+                        }
+                    }
+
+                    @Override
+                    public void recargaCancelando(boolean porTiempo) {
+                        // Hasta que la tarea acabe no se sabe si la recarga se aplicó
+                        btnVolver.setEnabled(false);
+                        btnVolver.setText("CANCELANDO...");
+                    }
+
+                    @Override
+                    public void recargaIncierta() {
+                        mostrarRecargaEnCurso(false);
+                        JOptionPane.showMessageDialog(
+                                BonoMetro.this,
+                                "No se ha podido confirmar si la recarga de " + nombreMes + " se ha aplicado."
+                                        + "\nSe le avisará en cuanto se sepa. Si la repite, no se cobrará dos veces.",
+                                "Recarga pendiente",
+                                JOptionPane.WARNING_MESSAGE
+                        );
+                    }
+
+                    @Override
+                    public void recargaCancelada(boolean aplicada, boolean porTiempo) {
+                        mostrarRecargaEnCurso(false);
+
+                        // La cancelación puede llegar cuando la recarga ya estaba hecha
+                        if (aplicada) {
+                            JOptionPane.showMessageDialog(
+                                    BonoMetro.this,
+                                    "La recarga de " + nombreMes + " ya se había completado y no se ha podido cancelar.",
+                                    "Recarga exitosa",
+                                    JOptionPane.INFORMATION_MESSAGE
+                            );
+                        } else {
+                            JOptionPane.showMessageDialog(
+                                    BonoMetro.this,
+                                    porTiempo
+                                            ? "La recarga ha tardado demasiado y se ha cancelado. Inténtelo de nuevo."
+                                            : "La recarga se ha cancelado.",
+                                    "Recarga no realizada",
+                                    JOptionPane.WARNING_MESSAGE
+                            );
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Cancela la recarga en curso si la hay; si no, vuelve a la pantalla de login.
+     */
+    /**
+     * Recibe en el EDT el servicio de recarga ya abierto ({@code null} si no
+     * se pudo abrir) y habilita la recarga.
+     */
+    private void servicioListo(ServicioRecarga servicio) {
+        servicioRecarga = servicio;
+        if (servicio == null) {
+            lblInstruccion.setText("El servicio de recarga no está disponible.");
+        }
+        mostrarRecargaEnCurso(recargaEnCurso != null && !recargaEnCurso.isTerminada());
+        actualizarImporte();
+    }
+
+    private void cancelarOVolver() {
+        if (recargaEnCurso != null && !recargaEnCurso.isTerminada()) {
+            recargaEnCurso.cancelar();
+        } else {
+            volverALogin();
+        }
+    }
+
+    /**
+     * Bloquea el selector y el botón de recarga mientras hay una recarga en curso
+     * y convierte el botón de volver en botón de cancelar.
+     *
+     * @param enCurso true mientras se procesa la recarga
+     */
+    private void mostrarRecargaEnCurso(boolean enCurso) {
+        btnRecargar.setEnabled(!enCurso && servicioRecarga != null);
+        btnVolver.setEnabled(true);
+        elegirMes.setEnabled(!enCurso);
+        comboPerfil.setEnabled(!enCurso);
+        barraProgreso.setVisible(enCurso);
+        btnVolver.setText(enCurso ? "CANCELAR" : "VOLVER");
+        btnVolver.setToolTipText(enCurso
+                ? "Cancelar la recarga en curso"
+                : "Volver a la ventana principal de login");
+    }
+
+    /**
+     * Muestra el importe de la recarga para el mes y el perfil seleccionados,
+     * indicando si está prorrateado por comprarse con el mes ya empezado.
+     */
+    private void actualizarImporte() {
+        if (servicioRecarga == null) {
+            lblImporte.setText("Importe: calculando...");
+            return;
+        }
+        int mes = elegirMes.getMonth();
+        Perfil perfil = (Perfil) comboPerfil.getSelectedItem();
+        MotorTarifas tarifas = servicioRecarga.getTarifas();
+        int importe = tarifas.precio(TipoBono.METRO, mes, perfil);
+
+        String texto = "Importe: " + MotorTarifas.formatear(importe);
+        if (importe < tarifas.getTabla().precio(TipoBono.METRO, mes, perfil)) {
+            texto += " (prorrateado)";
         }
+        lblImporte.setText(texto);
     }
 
     /**
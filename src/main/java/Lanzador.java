@@ -0,0 +1,100 @@
+import transporte.carga.GeneradorCarga;
+import transporte.diagnostico.GrabacionJfr;
+import transporte.diagnostico.RenderizadoVistas;
+import transporte.historial.HistorialRecargas;
+import transporte.importacion.ImportadorMasivo;
+import transporte.recarga.ServicioRecarga;
+import transporte.recarga.TipoBono;
+import transporte.servidor.ServidorRecargas;
+import transporte.ui.Navegador;
+
+import javax.swing.*;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Punto de entrada de los modos sin ventana de la aplicación. El primer
+ * argumento elige el modo y el resto se pasa tal cual a la clase que lo
+ * implementa:
+ * <pre>
+ *   Lanzador --importar entrada.csv [informe.csv] [--hilos N]
+ *   Lanzador --carga [--kioscos N] [--duracion s] [--informe informe.json] ...
+ *   Lanzador --renderizar [--referencias directorio [--actualizar]] [--repeticiones N] ...
+ *   Lanzador --historial [--directorio dir] [--tipo BUS|METRO] ...
+ *   Lanzador --servidor [--puerto N] [--direccion host]
+ * </pre>
+ * Sin modo abre la aplicación de ventanas, igual que {@link login#main}.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public final class Lanzador {
+
+    private static final String MODOS = "--importar, --carga, --renderizar, --historial o --servidor";
+
+    private Lanzador() {
+    }
+
+    // ============================
+    // METODO PRINCIPAL
+    // ============================
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length == 0 || !args[0].startsWith("--")) {
+            login.main(args);
+            return;
+        }
+        // Grabación de Java Flight Recorder si se ha pedido con -Dbono.jfr=true
+        GrabacionJfr.iniciar();
+
+        String[] resto = Arrays.copyOfRange(args, 1, args.length);
+        switch (args[0]) {
+            case "--importar":
+                ImportadorMasivo.main(resto);
+                break;
+            case "--carga":
+                GeneradorCarga.main(resto);
+                break;
+            case "--renderizar":
+                RenderizadoVistas.main(resto, vistasSinVentana());
+                break;
+            case "--historial":
+                HistorialRecargas.main(resto);
+                break;
+            case "--servidor":
+                ServidorRecargas.main(resto);
+                break;
+            default:
+                System.err.println("Error: Modo desconocido '" + args[0] + "'. Modos: " + MODOS);
+                System.exit(2);
+        }
+    }
+
+    // ============================
+    // MÉTODOS AUXILIARES
+    // ============================
+    /**
+     * Las tres pantallas, sin ventana ni navegación, para el banco de dibujado.
+     * Las de recarga usan un servicio en memoria: el banco no debe abrir (ni
+     * bloquear) el diario real del usuario.
+     */
+    private static Map<String, Supplier<? extends JComponent>> vistasSinVentana() {
+        Navegador sinNavegacion = new Navegador() {
+            @Override
+            public void mostrarLogin() {
+            }
+
+            @Override
+            public void mostrarRecarga(TipoBono tipo, String numeroTarjeta) {
+            }
+        };
+        CompletableFuture<ServicioRecarga> enMemoria = CompletableFuture.completedFuture(new ServicioRecarga());
+        Map<String, Supplier<? extends JComponent>> vistas = new LinkedHashMap<>();
+        vistas.put("login", () -> new login(sinNavegacion));
+        vistas.put("BonoBus", () -> new BonoBus(sinNavegacion, enMemoria));
+        vistas.put("BonoMetro", () -> new BonoMetro(sinNavegacion, enMemoria));
+        return vistas;
+    }
+}
@@ -0,0 +1,131 @@
+import transporte.recarga.ServicioRecarga;
+import transporte.recarga.TipoBono;
+import transporte.ui.Navegador;
+import transporte.ui.Vista;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.*;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Ventana única de la aplicación.
+ * Aloja las tres pantallas (login, BonoBus y BonoMetro) como vistas que se
+ * construyen una sola vez y se intercambian como contenido de la ventana,
+ * en lugar de cerrar y crear un {@code JFrame} nuevo en cada navegación.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public class VentanaPrincipal extends JFrame implements Navegador {
+
+    // ============================
+    // VISTAS
+    // ============================
+    private final login vistaLogin;
+    private final CompletableFuture<ServicioRecarga> servicio;
+    private BonoBus vistaBus;        // Se crea la primera vez que se accede a BonoBus
+    private BonoMetro vistaMetro;    // Se crea la primera vez que se accede a BonoMetro
+
+    private JComponent vistaActual;
+
+    // ============================
+    // CONSTRUCTOR
+    // ============================
+    /**
+     * Crea la ventana con la vista de login preparada.
+     *
+     * @param servicio servicio de recarga que se está abriendo en segundo
+     *                 plano; las vistas de recarga lo esperan sin bloquear el EDT
+     */
+    public VentanaPrincipal(CompletableFuture<ServicioRecarga> servicio) {
+        this.servicio = servicio;
+        // Personalización de los botones de diálogo en español
+        UIManager.put("OptionPane.okButtonText", "Aceptar");
+        UIManager.put("OptionPane.yesButtonText", "Sí");
+        UIManager.put("OptionPane.noButtonText", "No");
+
+        // Configuración básica de la ventana
+        setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
+        setResizable(false);
+
+        vistaLogin = new login(this);
+
+        // El cierre se confirma (o no) según la vista que se esté mostrando
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                if (((Vista) vistaActual).confirmarCierre()) {
+                    System.exit(0);
+                }
+            }
+        });
+    }
+
+    // ============================
+    // NAVEGACIÓN
+    // ============================
+    @Override
+    public void mostrarLogin() {
+        vistaLogin.reiniciar();
+        mostrar(vistaLogin);
+    }
+
+    @Override
+    public void mostrarRecarga(TipoBono tipo, String numeroTarjeta) {
+        if (tipo == TipoBono.BUS) {
+            if (vistaBus == null) {
+                vistaBus = new BonoBus(this, servicio);
+            }
+            vistaBus.vincularTarjeta(numeroTarjeta);
+            mostrar(vistaBus);
+        } else if (tipo == TipoBono.METRO) {
+            if (vistaMetro == null) {
+                vistaMetro = new BonoMetro(this, servicio);
+            }
+            vistaMetro.vincularTarjeta(numeroTarjeta);
+            mostrar(vistaMetro);
+        }
+    }
+
+    // ============================
+    // AVISOS
+    // ============================
+    /**
+     * Avisa de que el diario de recargas no se pudo abrir: la aplicación
+     * sigue funcionando, pero las recargas de esta sesión no se guardarán.
+     */
+    public void avisarSinDiario(IOException error) {
+        JOptionPane.showMessageDialog(
+                this,
+                "No se ha podido abrir el registro de recargas:\n" + error.getMessage()
+                        + "\n\nLas recargas de esta sesión no se guardarán.",
+                "Recargas sin guardar",
+                JOptionPane.WARNING_MESSAGE
+        );
+    }
+
+    /**
+     * Sustituye el contenido de la ventana por la vista indicada y ajusta
+     * título, icono y tamaño a los de esa pantalla.
+     */
+    private void mostrar(JComponent vista) {
+        if (vista == vistaActual) {
+            return;
+        }
+        Vista datos = (Vista) vista;
+        setTitle(datos.getTitulo());
+        if (datos.getIconoVentana() != null) {
+            setIconImage(datos.getIconoVentana());
+        }
+
+        setContentPane(vista);
+        vistaActual = vista;
+
+        // Ajustar tamaño y centrar en pantalla
+        setMinimumSize(datos.getTamanoMinimo());
+        pack();
+        setLocationRelativeTo(null);
+        vista.requestFocusInWindow();
+    }
+}
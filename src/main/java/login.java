@@ -1,26 +1,83 @@
+import transporte.diagnostico.EventoInterfaz;
+import transporte.diagnostico.GrabacionJfr;
+import transporte.diagnostico.VigilanteEdt;
+import transporte.metricas.HistogramaLatencia;
+import transporte.metricas.Metricas;
+import transporte.metricas.VolcadoMetricas;
+import transporte.recarga.ServicioRecarga;
+import transporte.recarga.TipoBono;
+import transporte.tarjeta.ValidadorTarjeta;
+import transporte.ui.Arranque;
+import transporte.ui.CacheImagenes;
+import transporte.ui.Navegador;
+import transporte.ui.SugerenciasTarjeta;
+import transporte.ui.Tema;
+import transporte.ui.Vista;
+
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import java.awt.*;
 import java.awt.event.*;
-import java.net.URL;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Interfaz de login para el sistema de transporte público de Sevilla.
  * Permite al usuario seleccionar entre BonoBus y BonoMetro e introducir
  * su número de tarjeta para acceder al sistema de recarga.
  *
+ * Es la primera vista de la ventana principal y se reutiliza en cada sesión:
+ * al volver a ella se limpia con {@link #reiniciar()}.
+ *
  * @author Gabriel Sánchez Heredia
  */
-public class login extends JFrame {
+public class login extends JPanel implements Vista {
 
     // ============================
     // CONSTANTES DE COLORES
     // ============================
-    private static final Color NARANJA_SEVILLA = new Color(244, 123, 32);
-    private static final Color AZUL_OSCURO = new Color(0, 51, 102);
-    private static final Color FONDO = new Color(245, 245, 250);
-    private static final Color BLANCO = Color.WHITE;
-    private static final Color GRIS_OSCURO = new Color(51, 51, 51);
-    private static final Color GRIS_CLARO = new Color(200, 200, 200);
+    private static final Color NARANJA_SEVILLA = Tema.Login.NARANJA;
+    private static final Color AZUL_OSCURO = Tema.Login.AZUL_OSCURO;
+    private static final Color FONDO = Tema.Login.FONDO;
+    private static final Color BLANCO = Tema.BLANCO;
+    private static final Color GRIS_OSCURO = Tema.GRIS_OSCURO;
+    private static final Color GRIS_CLARO = Tema.GRIS_CLARO;
+    private static final Color ROJO_ERROR = Tema.Login.ERROR;
+    private static final Color VERDE_CORRECTO = Tema.Login.CORRECTO;
+
+    // Pausa al teclear tras la que se valida el formulario: las pulsaciones seguidas se validan una sola vez
+    private static final int PAUSA_VALIDACION_MS = 150;
+
+    // ============================
+    // MÉTRICAS Y DIAGNÓSTICO
+    // ============================
+    // Nombre de la pantalla en los eventos de JFR
+    private static final String VISTA = "login";
+
+    // Tiempo de validar el formulario y mostrar la pantalla de recarga o el aviso (sin contar el aviso)
+    private static final HistogramaLatencia LATENCIA_ACCESO = Metricas.global().histograma(
+            "bono_login_acceso_segundos", "Tiempo de validar el login y abrir la pantalla de recarga");
+    private static final String FALLOS = "bono_login_fallos_total";
+    private static final String AYUDA_FALLOS = "Intentos de acceso rechazados por motivo";
+    private static final LongAdder FALLOS_TIPO_Y_TARJETA =
+            Metricas.global().contador(FALLOS, AYUDA_FALLOS, "motivo", "tipo_y_tarjeta");
+    private static final LongAdder FALLOS_TIPO =
+            Metricas.global().contador(FALLOS, AYUDA_FALLOS, "motivo", "tipo_bono");
+    private static final LongAdder FALLOS_FORMATO =
+            Metricas.global().contador(FALLOS, AYUDA_FALLOS, "motivo", "formato_tarjeta");
+    private static final LongAdder FALLOS_CONTROL =
+            Metricas.global().contador(FALLOS, AYUDA_FALLOS, "motivo", "digito_control");
+    private static final LongAdder[] SESIONES = new LongAdder[TipoBono.values().length];
+
+    static {
+        for (TipoBono tipo : TipoBono.values()) {
+            SESIONES[tipo.ordinal()] = Metricas.global().contador("bono_sesiones_total",
+                    "Sesiones de recarga abiertas desde el login", "tipo", tipo.name());
+        }
+    }
 
     // ============================
     // COMPONENTES DE LA INTERFAZ
@@ -35,61 +92,84 @@ public class login extends JFrame {
     private JLabel lblImagen;
     private JLabel lblTipoBono;
     private JLabel lblNumeroTarjeta;
+    private JLabel lblEstado;
 
     private JComboBox<String> cmbTipoBono;
     private JTextField txtNumeroTarjeta;
     private JButton btnAcceder;
+    private Timer temporizadorValidacion;
 
     // Opciones del ComboBox
     private final String[] opcionesBono = {"-- Seleccione tipo de bono --", "BonoBus (Tussam)", "BonoMetro"};
 
+    private final Navegador navegador;
+    private Image iconoVentana;
+
     // ============================
     // CONSTRUCTOR
     // ============================
     /**
-     * Constructor principal que inicializa la ventana de login.
+     * Constructor principal que inicializa la vista de login.
      */
-    public login() {
-        // Personalización de los botones de diálogo en español
-        UIManager.put("OptionPane.okButtonText", "Aceptar");
-        UIManager.put("OptionPane.yesButtonText", "Sí");
-        UIManager.put("OptionPane.noButtonText", "No");
-
-        // Configuración básica de la ventana
-        setTitle("Transporte Público de Sevilla - Acceso");
-        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        setResizable(false);
-        setMinimumSize(new Dimension(500, 550));
+    public login(Navegador navegador) {
+        super(new BorderLayout());
+        this.navegador = navegador;
 
         // Cargar icono de la ventana
-        cargarIcono();
+        EventoInterfaz.ejecutar(VISTA, "cargarIcono", this::cargarIcono);
 
         // Inicializar componentes y eventos
-        initComponents();
+        EventoInterfaz.ejecutar(VISTA, "initComponents", this::initComponents);
         agregarEventos();
+    }
 
-        // Ajustar tamaño y centrar
-        pack();
-        setLocationRelativeTo(null);
+    // ============================
+    // VISTA
+    // ============================
+    /**
+     * Deja el formulario vacío para una nueva sesión.
+     */
+    public void reiniciar() {
+        cmbTipoBono.setSelectedIndex(0);
+        txtNumeroTarjeta.setText("");
+        validarEnVivo();
+    }
+
+    @Override
+    public String getTitulo() {
+        return "Transporte Público de Sevilla - Acceso";
+    }
+
+    @Override
+    public Image getIconoVentana() {
+        return iconoVentana;
+    }
+
+    @Override
+    public Dimension getTamanoMinimo() {
+        return new Dimension(500, 550);
+    }
+
+    /**
+     * Desde el login la aplicación se cierra sin pedir confirmación.
+     */
+    @Override
+    public boolean confirmarCierre() {
+        return true;
     }
 
     // ============================
     // CARGA DE ICONO
     // ============================
     /**
-     * Carga el icono de la aplicación.
+     * Carga el icono de la aplicación desde la caché de imágenes compartida.
      */
     private void cargarIcono() {
-        try {
-            URL iconURL = getClass().getResource("/sevilla_icon.png");
-            if (iconURL != null) {
-                ImageIcon icon = new ImageIcon(iconURL);
-                setIconImage(icon.getImage());
-            } else {
-                System.err.println("Advertencia: No se pudo cargar el icono 'sevilla_icon.png'");
-            }
-        } catch (Exception e) {
-            System.err.println("Error al cargar el icono: " + e.getMessage());
+        BufferedImage icono = CacheImagenes.imagen("/sevilla_icon.png");
+        if (icono != null) {
+            iconoVentana = icono;
+        } else {
+            System.err.println("Advertencia: No se pudo cargar el icono 'sevilla_icon.png'");
         }
     }
 
@@ -103,9 +183,9 @@ public class login extends JFrame {
         contenedor = new JPanel(new BorderLayout(0, 0));
         contenedor.setBackground(FONDO);
 
-        contenedor.add(crearPanelSuperior(), BorderLayout.NORTH);
-        contenedor.add(crearPanelCentral(), BorderLayout.CENTER);
-        contenedor.add(crearPanelInferior(), BorderLayout.SOUTH);
+        contenedor.add(EventoInterfaz.medir(VISTA, "crearPanelSuperior", this::crearPanelSuperior), BorderLayout.NORTH);
+        contenedor.add(EventoInterfaz.medir(VISTA, "crearPanelCentral", this::crearPanelCentral), BorderLayout.CENTER);
+        contenedor.add(EventoInterfaz.medir(VISTA, "crearPanelInferior", this::crearPanelInferior), BorderLayout.SOUTH);
 
         add(contenedor);
     }
@@ -116,7 +196,7 @@ public class login extends JFrame {
     private JPanel crearPanelSuperior() {
         JPanel panel = new JPanel(new BorderLayout(10, 10));
         panel.setBackground(NARANJA_SEVILLA);
-        panel.setBorder(BorderFactory.createEmptyBorder(15, 20, 15, 20));
+        panel.setBorder(Tema.margen(15, 20, 15, 20));
 
         // Panel para la imagen del ayuntamiento
         JPanel panelImagen = new JPanel(new FlowLayout(FlowLayout.CENTER));
@@ -131,11 +211,11 @@ public class login extends JFrame {
         panelTexto.setBackground(NARANJA_SEVILLA);
 
         lblTitulo = new JLabel("TRANSPORTE PÚBLICO DE SEVILLA", SwingConstants.CENTER);
-        lblTitulo.setFont(new Font("Segoe UI", Font.BOLD, 22));
+        lblTitulo.setFont(Tema.fuente(Font.BOLD, 22));
         lblTitulo.setForeground(BLANCO);
 
         lblSubtitulo = new JLabel("Sistema de Recarga de Bonos", SwingConstants.CENTER);
-        lblSubtitulo.setFont(new Font("Segoe UI", Font.ITALIC, 13));
+        lblSubtitulo.setFont(Tema.fuente(Font.ITALIC, 13));
         lblSubtitulo.setForeground(AZUL_OSCURO);
 
         panelTexto.add(lblTitulo);
@@ -151,20 +231,14 @@ public class login extends JFrame {
      * Intenta cargar la imagen del ayuntamiento de Sevilla.
      */
     private void cargarImagenAyuntamiento() {
-        try {
-            URL imgURL = getClass().getResource("/ayuntamiento_sevilla.png");
-            if (imgURL != null) {
-                ImageIcon icon = new ImageIcon(imgURL);
-                // Mostrar la imagen en su tamaño original
-                lblImagen.setIcon(icon);
-            } else {
-                // Si no existe la imagen, mostrar un icono genérico
-                lblImagen.setText("🏛️");
-                lblImagen.setFont(new Font("Segoe UI Emoji", Font.PLAIN, 60));
-            }
-        } catch (Exception e) {
+        // Mostrar la imagen en su tamaño original
+        Icon icon = CacheImagenes.icono("/ayuntamiento_sevilla.png");
+        if (icon != null) {
+            lblImagen.setIcon(icon);
+        } else {
+            // Si no existe la imagen, mostrar un icono genérico
             lblImagen.setText("🏛️");
-            lblImagen.setFont(new Font("Segoe UI Emoji", Font.PLAIN, 60));
+            lblImagen.setFont(Tema.fuenteEmoji(60));
         }
     }
 
@@ -175,11 +249,8 @@ public class login extends JFrame {
         JPanel panel = new JPanel(new GridBagLayout());
         panel.setBackground(BLANCO);
         panel.setBorder(BorderFactory.createCompoundBorder(
-                BorderFactory.createEmptyBorder(20, 30, 20, 30),
-                BorderFactory.createCompoundBorder(
-                        BorderFactory.createLineBorder(NARANJA_SEVILLA, 3),
-                        BorderFactory.createEmptyBorder(30, 30, 30, 30)
-                )
+                Tema.margen(20, 30, 20, 30),
+                Tema.borde(NARANJA_SEVILLA, 3, 30, 30, 30, 30)
         ));
 
         GridBagConstraints gbc = new GridBagConstraints();
@@ -189,7 +260,7 @@ public class login extends JFrame {
 
         // Título del formulario
         JLabel lblFormulario = new JLabel("Acceso al Sistema", SwingConstants.CENTER);
-        lblFormulario.setFont(new Font("Segoe UI", Font.BOLD, 18));
+        lblFormulario.setFont(Tema.fuente(Font.BOLD, 18));
         lblFormulario.setForeground(AZUL_OSCURO);
         gbc.gridx = 0;
         gbc.gridy = 0;
@@ -199,7 +270,7 @@ public class login extends JFrame {
 
         // Etiqueta "Tipo de Bono"
         lblTipoBono = new JLabel("Tipo de Bono:");
-        lblTipoBono.setFont(new Font("Segoe UI", Font.BOLD, 14));
+        lblTipoBono.setFont(Tema.fuente(Font.BOLD, 14));
         lblTipoBono.setForeground(GRIS_OSCURO);
         gbc.gridx = 0;
         gbc.gridy = 1;
@@ -209,13 +280,10 @@ public class login extends JFrame {
 
         // ComboBox de tipo de bono
         cmbTipoBono = new JComboBox<>(opcionesBono);
-        cmbTipoBono.setFont(new Font("Segoe UI", Font.PLAIN, 13));
+        cmbTipoBono.setFont(Tema.fuente(Font.PLAIN, 13));
         cmbTipoBono.setPreferredSize(new Dimension(280, 35));
         cmbTipoBono.setBackground(BLANCO);
-        cmbTipoBono.setBorder(BorderFactory.createCompoundBorder(
-                BorderFactory.createLineBorder(GRIS_CLARO, 2),
-                BorderFactory.createEmptyBorder(5, 10, 5, 10)
-        ));
+        cmbTipoBono.setBorder(Tema.borde(GRIS_CLARO, 2, 5, 10, 5, 10));
         gbc.gridx = 0;
         gbc.gridy = 2;
         gbc.insets = new Insets(0, 10, 15, 10);
@@ -223,7 +291,7 @@ public class login extends JFrame {
 
         // Etiqueta "Número de Tarjeta"
         lblNumeroTarjeta = new JLabel("Número de Tarjeta (12 dígitos):");
-        lblNumeroTarjeta.setFont(new Font("Segoe UI", Font.BOLD, 14));
+        lblNumeroTarjeta.setFont(Tema.fuente(Font.BOLD, 14));
         lblNumeroTarjeta.setForeground(GRIS_OSCURO);
         gbc.gridx = 0;
         gbc.gridy = 3;
@@ -232,24 +300,31 @@ public class login extends JFrame {
 
         // Campo de texto para número de tarjeta
         txtNumeroTarjeta = new JTextField();
-        txtNumeroTarjeta.setFont(new Font("Segoe UI", Font.PLAIN, 13));
+        txtNumeroTarjeta.setFont(Tema.fuente(Font.PLAIN, 13));
         txtNumeroTarjeta.setPreferredSize(new Dimension(280, 35));
-        txtNumeroTarjeta.setBorder(BorderFactory.createCompoundBorder(
-                BorderFactory.createLineBorder(GRIS_CLARO, 2),
-                BorderFactory.createEmptyBorder(5, 10, 5, 10)
-        ));
+        txtNumeroTarjeta.setBorder(Tema.borde(GRIS_CLARO, 2, 5, 10, 5, 10));
         txtNumeroTarjeta.setToolTipText("Introduzca un número de 12 dígitos");
         gbc.gridx = 0;
         gbc.gridy = 4;
         gbc.insets = new Insets(0, 10, 10, 10);
         panel.add(txtNumeroTarjeta, gbc);
 
+        // Estado de la validación, que se actualiza mientras se rellena el formulario
+        lblEstado = new JLabel(" ");
+        lblEstado.setFont(Tema.fuente(Font.PLAIN, 12));
+        lblEstado.setForeground(Tema.GRIS_TEXTO);
+        lblEstado.setPreferredSize(new Dimension(280, 18));
+        gbc.gridx = 0;
+        gbc.gridy = 5;
+        gbc.insets = new Insets(0, 10, 0, 10);
+        panel.add(lblEstado, gbc);
+
         // Información adicional
         JLabel lblInfo = new JLabel("<html><center>Introduzca sus datos para acceder<br>al sistema de recarga</center></html>", SwingConstants.CENTER);
-        lblInfo.setFont(new Font("Segoe UI", Font.ITALIC, 12));
-        lblInfo.setForeground(new Color(100, 100, 100));
+        lblInfo.setFont(Tema.fuente(Font.ITALIC, 12));
+        lblInfo.setForeground(Tema.GRIS_TEXTO);
         gbc.gridx = 0;
-        gbc.gridy = 5;
+        gbc.gridy = 6;
         gbc.insets = new Insets(20, 10, 10, 10);
         panel.add(lblInfo, gbc);
 
@@ -264,15 +339,12 @@ public class login extends JFrame {
         panel.setBackground(FONDO);
 
         btnAcceder = new JButton("ACCEDER");
-        btnAcceder.setFont(new Font("Segoe UI", Font.BOLD, 15));
+        btnAcceder.setFont(Tema.fuente(Font.BOLD, 15));
         btnAcceder.setPreferredSize(new Dimension(220, 45));
         btnAcceder.setBackground(NARANJA_SEVILLA);
         btnAcceder.setForeground(BLANCO);
         btnAcceder.setFocusPainted(false);
-        btnAcceder.setBorder(BorderFactory.createCompoundBorder(
-                BorderFactory.createLineBorder(AZUL_OSCURO, 2),
-                BorderFactory.createEmptyBorder(10, 20, 10, 20)
-        ));
+        btnAcceder.setBorder(Tema.borde(AZUL_OSCURO, 2, 10, 20, 10, 20));
         btnAcceder.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
         btnAcceder.setToolTipText("Acceder al sistema de recarga");
 
@@ -280,12 +352,16 @@ public class login extends JFrame {
         btnAcceder.addMouseListener(new MouseAdapter() {
             @Override
             public void mouseEntered(MouseEvent e) {
-                btnAcceder.setBackground(AZUL_OSCURO);
+                if (btnAcceder.isEnabled()) {
+                    btnAcceder.setBackground(AZUL_OSCURO);
+                }
             }
 
             @Override
             public void mouseExited(MouseEvent e) {
-                btnAcceder.setBackground(NARANJA_SEVILLA);
+                if (btnAcceder.isEnabled()) {
+                    btnAcceder.setBackground(NARANJA_SEVILLA);
+                }
             }
         });
 
@@ -306,33 +382,115 @@ public class login extends JFrame {
         // Permitir acceder con Enter en el campo de texto
         txtNumeroTarjeta.addActionListener(e -> validarYAcceder());
 
+        // Validación mientras se escribe, agrupando las pulsaciones seguidas
+        temporizadorValidacion = new Timer(PAUSA_VALIDACION_MS, e -> validarEnVivo());
+        temporizadorValidacion.setRepeats(false);
+        txtNumeroTarjeta.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                temporizadorValidacion.restart();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                temporizadorValidacion.restart();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                // Solo cambian atributos, no el texto
+            }
+        });
+
+        // El tipo de bono cambia de una vez: se valida sin esperar
+        cmbTipoBono.addItemListener(e -> {
+            if (e.getStateChange() == ItemEvent.SELECTED) {
+                validarEnVivo();
+            }
+        });
+
         // Efecto de foco en el campo de texto
         txtNumeroTarjeta.addFocusListener(new FocusAdapter() {
             @Override
             public void focusGained(FocusEvent e) {
-                txtNumeroTarjeta.setBorder(BorderFactory.createCompoundBorder(
-                        BorderFactory.createLineBorder(NARANJA_SEVILLA, 2),
-                        BorderFactory.createEmptyBorder(5, 10, 5, 10)
-                ));
+                txtNumeroTarjeta.setBorder(Tema.borde(NARANJA_SEVILLA, 2, 5, 10, 5, 10));
             }
 
             @Override
             public void focusLost(FocusEvent e) {
-                txtNumeroTarjeta.setBorder(BorderFactory.createCompoundBorder(
-                        BorderFactory.createLineBorder(GRIS_CLARO, 2),
-                        BorderFactory.createEmptyBorder(5, 10, 5, 10)
-                ));
+                txtNumeroTarjeta.setBorder(Tema.borde(GRIS_CLARO, 2, 5, 10, 5, 10));
             }
         });
+
+        // Sugerencias de tarjetas conocidas al teclear (solo en puestos de atención al cliente)
+        if (SugerenciasTarjeta.activadas()) {
+            SugerenciasTarjeta.instalar(txtNumeroTarjeta, () -> ServicioRecarga.compartido().getPrefijos());
+        }
+
+        validarEnVivo();
     }
 
     // ============================
     // LÓGICA DE VALIDACIÓN
     // ============================
     /**
-     * Valida los datos introducidos y abre la ventana correspondiente.
+     * Comprueba el formulario tal como está y muestra el resultado bajo el
+     * campo de la tarjeta. El botón de acceso solo se habilita con los dos
+     * datos correctos. Mientras faltan dígitos el mensaje es informativo;
+     * solo se marca como error lo que no se corrige escribiendo más dígitos.
+     * Las etiquetas y el botón solo se repintan si su valor cambia.
+     */
+    private void validarEnVivo() {
+        temporizadorValidacion.stop();
+        boolean tipoBonoValido = validarTipoBono((String) cmbTipoBono.getSelectedItem());
+        String numeroTarjeta = txtNumeroTarjeta.getText().trim();
+        int faltan = ValidadorTarjeta.DIGITOS - numeroTarjeta.length();
+
+        switch (ValidadorTarjeta.comprobar(numeroTarjeta)) {
+            case VACIA:
+                mostrarEstado(tipoBonoValido
+                        ? "Introduzca los 12 dígitos de su tarjeta"
+                        : "Seleccione el tipo de bono e introduzca su número de tarjeta", Tema.GRIS_TEXTO);
+                break;
+            case CARACTER_NO_NUMERICO:
+                mostrarEstado("El número de tarjeta solo puede contener dígitos", ROJO_ERROR);
+                break;
+            case LONGITUD_INCORRECTA:
+                if (faltan > 0) {
+                    mostrarEstado(faltan == 1 ? "Falta 1 dígito" : "Faltan " + faltan + " dígitos", Tema.GRIS_TEXTO);
+                } else {
+                    mostrarEstado("El número de tarjeta debe tener exactamente 12 dígitos", ROJO_ERROR);
+                }
+                break;
+            case DIGITO_CONTROL_INCORRECTO:
+                mostrarEstado("Dígito de control erróneo: revise el número de tarjeta", ROJO_ERROR);
+                break;
+            default:
+                mostrarEstado(tipoBonoValido ? "Datos correctos" : "Seleccione el tipo de bono",
+                        tipoBonoValido ? VERDE_CORRECTO : Tema.GRIS_TEXTO);
+                break;
+        }
+
+        boolean valido = tipoBonoValido && validarNumeroTarjeta(numeroTarjeta);
+        btnAcceder.setEnabled(valido);
+        btnAcceder.setBackground(valido ? NARANJA_SEVILLA : Tema.GRIS_BOTON);
+    }
+
+    private void mostrarEstado(String mensaje, Color color) {
+        lblEstado.setText(mensaje);
+        lblEstado.setForeground(color);
+    }
+
+    /**
+     * Valida los datos introducidos y abre la ventana correspondiente. Con el
+     * botón deshabilitado solo se llega aquí con Enter en el campo de texto;
+     * si algo falla se indica en el mensaje de estado y se lleva el foco al
+     * dato que hay que corregir.
      */
     private void validarYAcceder() {
+        long inicio = System.nanoTime();
+        // La validación pendiente de la última pulsación se hace ya
+        validarEnVivo();
         String tipoBonoSeleccionado = (String) cmbTipoBono.getSelectedItem();
         String numeroTarjeta = txtNumeroTarjeta.getText().trim();
 
@@ -341,117 +499,111 @@ public class login extends JFrame {
 
         // Caso 1: Ambos inválidos
         if (!tipoBonoValido && !numeroTarjetaValido) {
-            JOptionPane.showMessageDialog(
-                    this,
-                    "El tipo de bono y el número de tarjeta no son correctos.\n" +
-                            "Por favor, seleccione un tipo de bono válido e introduzca un número de 12 dígitos.",
-                    "Error de validación",
-                    JOptionPane.ERROR_MESSAGE
-            );
+            FALLOS_TIPO_Y_TARJETA.increment();
+            LATENCIA_ACCESO.registrarDesde(inicio);
+            mostrarEstado("Seleccione un tipo de bono e introduzca un número de 12 dígitos", ROJO_ERROR);
             return;
         }
 
         // Caso 2: Solo tipo de bono inválido
         if (!tipoBonoValido) {
-            JOptionPane.showMessageDialog(
-                    this,
-                    "Debe seleccionar un tipo de bono válido (BonoBus o BonoMetro).",
-                    "Error en tipo de bono",
-                    JOptionPane.ERROR_MESSAGE
-            );
+            FALLOS_TIPO.increment();
+            LATENCIA_ACCESO.registrarDesde(inicio);
+            mostrarEstado("Seleccione un tipo de bono válido (BonoBus o BonoMetro)", ROJO_ERROR);
             cmbTipoBono.requestFocus();
             return;
         }
 
-        // Caso 3: Solo número de tarjeta inválido
+        // Caso 3: Solo número de tarjeta inválido (el mensaje ya lo ha puesto la validación)
         if (!numeroTarjetaValido) {
-            JOptionPane.showMessageDialog(
-                    this,
-                    "El número de tarjeta debe contener exactamente 12 dígitos.",
-                    "Error en número de tarjeta",
-                    JOptionPane.ERROR_MESSAGE
-            );
+            boolean errorControl = ValidadorTarjeta.comprobar(numeroTarjeta) == ValidadorTarjeta.Motivo.DIGITO_CONTROL_INCORRECTO;
+            (errorControl ? FALLOS_CONTROL : FALLOS_FORMATO).increment();
+            LATENCIA_ACCESO.registrarDesde(inicio);
+            lblEstado.setForeground(ROJO_ERROR);
             txtNumeroTarjeta.requestFocus();
             txtNumeroTarjeta.selectAll();
             return;
         }
 
         // Caso 4: Ambos válidos - Abrir ventana correspondiente
-        abrirVentanaCorrespondiente(tipoBonoSeleccionado);
+        abrirVentanaCorrespondiente(tipoBonoSeleccionado, numeroTarjeta);
+        LATENCIA_ACCESO.registrarDesde(inicio);
     }
 
     /**
      * Valida que se haya seleccionado un tipo de bono válido.
      */
     private boolean validarTipoBono(String tipoBono) {
-        return tipoBono != null &&
-                !tipoBono.equals(opcionesBono[0]) &&
-                (tipoBono.equals("BonoBus (Tussam)") || tipoBono.equals("BonoMetro"));
+        return TipoBono.desdeTexto(tipoBono) != null;
     }
 
     /**
-     * Valida que el número de tarjeta tenga exactamente 12 dígitos.
+     * Valida que el número de tarjeta tenga exactamente 12 dígitos y un dígito de control correcto.
      */
     private boolean validarNumeroTarjeta(String numero) {
-        return numero != null &&
-                numero.matches("\\d{12}");
+        return ValidadorTarjeta.esValida(numero);
     }
 
     /**
-     * Abre la ventana correspondiente según el tipo de bono seleccionado.
+     * Muestra la pantalla de recarga correspondiente según el tipo de bono seleccionado.
      */
-    private void abrirVentanaCorrespondiente(String tipoBono) {
-        // Ocultar la ventana de login
-        this.setVisible(false);
-
-        if (tipoBono.equals("BonoBus (Tussam)")) {
-            // Abrir ventana BonoBus
-            SwingUtilities.invokeLater(() -> {
-                try {
-                    BonoBus ventanaBus = new BonoBus();
-                    ventanaBus.setVisible(true);
-                } catch (Exception e) {
-                    JOptionPane.showMessageDialog(
-                            null,
-                            "Error al abrir BonoBus: " + e.getMessage(),
-                            "Error",
-                            JOptionPane.ERROR_MESSAGE
-                    );
-                    this.setVisible(true);
-                }
-            });
-        } else if (tipoBono.equals("BonoMetro")) {
-            // Abrir ventana BonoMetro
-            SwingUtilities.invokeLater(() -> {
-                try {
-                    BonoMetro ventanaMetro = new BonoMetro();
-                    ventanaMetro.setVisible(true);
-                } catch (Exception e) {
-                    JOptionPane.showMessageDialog(
-                            null,
-                            "Error al abrir BonoMetro: " + e.getMessage(),
-                            "Error",
-                            JOptionPane.ERROR_MESSAGE
-                    );
-                    this.setVisible(true);
-                }
-            });
+    private void abrirVentanaCorrespondiente(String tipoBono, String numeroTarjeta) {
+        try {
+            TipoBono tipo = TipoBono.desdeTexto(tipoBono);
+            navegador.mostrarRecarga(tipo, numeroTarjeta);
+            SESIONES[tipo.ordinal()].increment();
+        } catch (Exception e) {
+            JOptionPane.showMessageDialog(
+                    this,
+                    "Error al abrir " + tipoBono + ": " + e.getMessage(),
+                    "Error",
+                    JOptionPane.ERROR_MESSAGE
+            );
         }
-
-        // Cerrar la ventana de login después de abrir la ventana correspondiente
-        this.dispose();
     }
 
     // ============================
     // METODO PRINCIPAL
     // ============================
     /**
-     * Punto de entrada de la aplicación.
+     * Punto de entrada de la aplicación de ventanas. Los modos sin ventana se
+     * lanzan con {@link Lanzador}.
      */
     public static void main(String[] args) {
+        // Grabación de Java Flight Recorder si se ha pedido con -Dbono.jfr=true
+        GrabacionJfr.iniciar();
+
+        // Mientras el EDT construye el login, preparar en segundo plano lo que necesitarán las vistas
+        Arranque arranque = new Arranque();
+        arranque.precargarClases("BonoBus", "BonoMetro", "com.toedter.calendar.JMonthChooser",
+                "com.toedter.components.JSpinField", "javax.swing.JOptionPane");
+        arranque.precargar("fuentes", Tema::precargar);
+        CompletableFuture<ServicioRecarga> servicio =
+                arranque.precargar("servicio de recarga", ServicioRecarga::compartido);
+
+        // Decodificar y escalar en segundo plano las imágenes de las tres vistas
+        CacheImagenes.precargar("/sevilla_icon.png");
+        CacheImagenes.precargar("/ayuntamiento_sevilla.png");
+        CacheImagenes.precargar("/bus_icon.png");
+        CacheImagenes.precargar("/bus_image.png", 215, 106);
+        CacheImagenes.precargar("/metro_icon.png");
+        CacheImagenes.precargar("/title_image.png", 80, 80);
+
+        arranque.mostrarPantallaInicio();
+        VolcadoMetricas.iniciar();
+        // Detección de bloqueos de la interfaz (umbral con -Dbono.edt.umbral=ms)
+        VigilanteEdt.instalar();
         SwingUtilities.invokeLater(() -> {
-            login ventana = new login();
-            ventana.setVisible(true);
+            VentanaPrincipal ventana = new VentanaPrincipal(servicio);
+            ventana.mostrarLogin();
+            arranque.mostrar(ventana);
+            // Si el diario no se pudo abrir, avisar en cuanto se sepa
+            servicio.thenRun(() -> {
+                IOException error = ServicioRecarga.errorDiarioCompartido();
+                if (error != null) {
+                    SwingUtilities.invokeLater(() -> ventana.avisarSinDiario(error));
+                }
+            });
         });
     }
-}
\ No newline at end of file
+}
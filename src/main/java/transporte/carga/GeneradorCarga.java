@@ -0,0 +1,347 @@
+package transporte.carga;
+
+import transporte.recarga.ResultadoRecarga;
+import transporte.recarga.ServicioRecarga;
+import transporte.recarga.TipoBono;
+import transporte.servidor.JsonPlano;
+import transporte.tarifa.Perfil;
+import transporte.tarjeta.ValidadorTarjeta;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Generador de carga sintética: simula kioscos que repiten sin interfaz el
+ * recorrido de la aplicación (login, elección de mes y tarifa y recarga) contra
+ * un {@link ServicioRecarga}, y mide cuántas sesiones y recargas por segundo
+ * admite el sistema y con qué latencias.
+ *
+ * Cada kiosco es un hilo que hace lo mismo que las pantallas:
+ * <ol>
+ *   <li>login: comprueba el tipo de bono elegido y el número de tarjeta con las
+ *       mismas validaciones que {@code login}; si fallan, la sesión termina
+ *       ahí, como cuando el usuario ve el mensaje de error;</li>
+ *   <li>recarga: calcula el importe del mes y la tarifa elegidos y recarga con
+ *       un token de petición nuevo, como {@code BonoBus} y {@code BonoMetro}.
+ *       A veces la misma petición se envía dos veces (doble pulsación).</li>
+ * </ol>
+ * La mezcla de datos imita a los usuarios: algunas tarjetas mal escritas, más
+ * bonos de autobús que de metro, casi siempre el mes en curso o el siguiente y
+ * tarjetas que se repiten entre sesiones, de modo que también aparecen recargas
+ * ya hechas y, cuando el usuario se equivoca de bono, de tipo incompatible.
+ *
+ * Es un modelo cerrado: cada kiosco espera la respuesta (y la pausa indicada)
+ * antes de empezar la siguiente sesión. Los primeros segundos de calentamiento
+ * no cuentan en el informe.
+ *
+ * Uso: {@code java Lanzador --carga [--kioscos N] [--duracion s] [--calentamiento s]
+ * [--pausa ms] [--tarjetas N] [--semilla N] [--memoria | --datos directorio]
+ * [--informe informe.json] [--comparar anterior.json]}
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public final class GeneradorCarga {
+
+    // ============================
+    // MEZCLA DE DATOS
+    // ============================
+    private static final double PROPORCION_SIN_TIPO = 0.01;
+    private static final double PROPORCION_MAL_FORMATO = 0.02;
+    private static final double PROPORCION_MAL_CONTROL = 0.04;
+    // Cada tarjeta es siempre del mismo tipo; a veces el usuario elige el otro
+    private static final double PROPORCION_METRO = 0.4;
+    private static final double PROPORCION_TIPO_EQUIVOCADO = 0.01;
+    private static final double PROPORCION_MES_ACTUAL = 0.75;
+    private static final double PROPORCION_MES_SIGUIENTE = 0.2;
+    private static final double PROPORCION_ESTUDIANTE = 0.15;
+    private static final double PROPORCION_MAYOR = 0.1;
+    private static final double PROPORCION_DOBLE_PULSACION = 0.02;
+
+    private static final String SIN_TIPO = "-- Seleccione tipo de bono --";
+    private static final long PRIMERA_TARJETA = 40_000_000_000L;
+
+    // ============================
+    // VALORES POR DEFECTO
+    // ============================
+    private static final int KIOSCOS_POR_DEFECTO = 8;
+    private static final int DURACION_POR_DEFECTO_S = 30;
+    private static final int CALENTAMIENTO_POR_DEFECTO_S = 5;
+    private static final int TARJETAS_POR_DEFECTO = 1_000_000;
+
+    // ============================
+    // CONFIGURACIÓN
+    // ============================
+    private final ServicioRecarga servicio;
+    private final int kioscos;
+    private final long pausaMs;
+    private final int tarjetas;
+    private final long semilla;
+    private final boolean persistente;
+    private final int mesActual = LocalDate.now().getMonthValue() - 1;
+
+    // Informe en el que anotan los kioscos; se sustituye al terminar el calentamiento
+    private volatile InformeCarga informe;
+    private volatile boolean terminado;
+
+    /**
+     * @param tarjetas número de tarjetas distintas que usan los kioscos
+     * @param pausaMs  tiempo que tarda el usuario entre una sesión y la siguiente
+     */
+    public GeneradorCarga(ServicioRecarga servicio, int kioscos, long pausaMs, int tarjetas, long semilla) {
+        if (kioscos < 1 || tarjetas < 1 || pausaMs < 0) {
+            throw new IllegalArgumentException("Configuración de carga no válida");
+        }
+        this.servicio = servicio;
+        this.kioscos = kioscos;
+        this.pausaMs = pausaMs;
+        this.tarjetas = tarjetas;
+        this.semilla = semilla;
+        this.persistente = servicio.getDiario() != null;
+    }
+
+    // ============================
+    // EJECUCIÓN
+    // ============================
+    /**
+     * Lanza los kioscos, descarta las medidas del calentamiento y devuelve el
+     * informe del periodo medido.
+     */
+    public InformeCarga ejecutar(long calentamiento, long duracion, TimeUnit unidad) throws InterruptedException {
+        informe = new InformeCarga(kioscos, pausaMs, tarjetas, persistente);
+        terminado = false;
+        CountDownLatch terminados = new CountDownLatch(kioscos);
+        for (int i = 0; i < kioscos; i++) {
+            SplittableRandom aleatorio = new SplittableRandom(semilla + i);
+            Thread hilo = new Thread(() -> {
+                try {
+                    atender(aleatorio);
+                } finally {
+                    terminados.countDown();
+                }
+            }, "kiosco-" + (i + 1));
+            hilo.setDaemon(true);
+            hilo.start();
+        }
+
+        unidad.sleep(calentamiento);
+        InformeCarga medido = new InformeCarga(kioscos, pausaMs, tarjetas, persistente);
+        informe = medido;
+        unidad.sleep(duracion);
+        terminado = true;
+        medido.terminar();
+        terminados.await();
+        return medido;
+    }
+
+    /**
+     * Bucle de un kiosco: sesiones seguidas hasta que termina la ejecución.
+     */
+    private void atender(SplittableRandom aleatorio) {
+        while (!terminado) {
+            InformeCarga actual = informe;
+            sesion(aleatorio, actual);
+            if (pausaMs > 0) {
+                try {
+                    Thread.sleep(pausaMs);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void sesion(SplittableRandom aleatorio, InformeCarga actual) {
+        long inicio = System.nanoTime();
+
+        // Pantalla de login: tipo de bono del combo y número tecleado
+        int usuario = aleatorio.nextInt(tarjetas);
+        TipoBono elegido = tipoDe(usuario);
+        if (aleatorio.nextDouble() < PROPORCION_TIPO_EQUIVOCADO) {
+            elegido = elegido == TipoBono.BUS ? TipoBono.METRO : TipoBono.BUS;
+        }
+        String etiqueta = aleatorio.nextDouble() < PROPORCION_SIN_TIPO ? SIN_TIPO : elegido.getEtiqueta();
+        String numeroTarjeta = teclearTarjeta(usuario, aleatorio);
+
+        TipoBono tipo = TipoBono.desdeTexto(etiqueta);
+        ValidadorTarjeta.Motivo motivo = ValidadorTarjeta.comprobar(numeroTarjeta);
+        actual.registrarLogin(inicio);
+        if (tipo == null || motivo != ValidadorTarjeta.Motivo.VALIDA) {
+            actual.registrarFalloLogin(tipo != null, motivo);
+            actual.registrarSesion(inicio);
+            return;
+        }
+
+        // Pantalla de recarga: mes y tarifa, importe mostrado y confirmación
+        int mes = elegirMes(aleatorio);
+        Perfil perfil = elegirPerfil(aleatorio);
+        servicio.getTarifas().precio(tipo, mes, perfil);
+        String token = UUID.randomUUID().toString();
+
+        long inicioRecarga = System.nanoTime();
+        ResultadoRecarga resultado = servicio.recargar(numeroTarjeta, tipo, mes, perfil, token);
+        actual.registrarRecarga(inicioRecarga, resultado);
+        if (aleatorio.nextDouble() < PROPORCION_DOBLE_PULSACION) {
+            ResultadoRecarga repetido = servicio.recargar(numeroTarjeta, tipo, mes, perfil, token);
+            actual.registrarRepeticion(repetido != resultado && resultado.isCorrecta());
+        }
+        actual.registrarSesion(inicio);
+    }
+
+    // ============================
+    // DATOS SIMULADOS
+    // ============================
+    /**
+     * Tipo de bono de la tarjeta del usuario, fijo para cada tarjeta.
+     */
+    private static TipoBono tipoDe(int usuario) {
+        long mezcla = (usuario + 1) * 0x9E3779B97F4A7C15L;
+        return (mezcla >>> 40) % 100 < PROPORCION_METRO * 100 ? TipoBono.METRO : TipoBono.BUS;
+    }
+
+    /**
+     * Número de tarjeta del usuario tal y como lo teclea: casi siempre bien,
+     * a veces con el dígito de control o la longitud equivocados.
+     */
+    private static String teclearTarjeta(int usuario, SplittableRandom aleatorio) {
+        long tarjeta = ValidadorTarjeta.completar(PRIMERA_TARJETA + usuario);
+        String texto = String.format("%012d", tarjeta);
+        double dado = aleatorio.nextDouble();
+        if (dado < PROPORCION_MAL_FORMATO) {
+            return texto.substring(1);
+        }
+        if (dado < PROPORCION_MAL_FORMATO + PROPORCION_MAL_CONTROL) {
+            long erroneo = tarjeta / 10 * 10 + (tarjeta % 10 + 1 + aleatorio.nextInt(9)) % 10;
+            return String.format("%012d", erroneo);
+        }
+        return texto;
+    }
+
+    private int elegirMes(SplittableRandom aleatorio) {
+        double dado = aleatorio.nextDouble();
+        if (dado < PROPORCION_MES_ACTUAL) {
+            return mesActual;
+        }
+        if (dado < PROPORCION_MES_ACTUAL + PROPORCION_MES_SIGUIENTE) {
+            return (mesActual + 1) % 12;
+        }
+        return aleatorio.nextInt(12);
+    }
+
+    private static Perfil elegirPerfil(SplittableRandom aleatorio) {
+        double dado = aleatorio.nextDouble();
+        if (dado < PROPORCION_ESTUDIANTE) {
+            return Perfil.ESTUDIANTE;
+        }
+        return dado < PROPORCION_ESTUDIANTE + PROPORCION_MAYOR ? Perfil.MAYOR : Perfil.GENERAL;
+    }
+
+    // ============================
+    // LÍNEA DE COMANDOS
+    // ============================
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int kioscos = KIOSCOS_POR_DEFECTO;
+        int duracion = DURACION_POR_DEFECTO_S;
+        int calentamiento = CALENTAMIENTO_POR_DEFECTO_S;
+        long pausa = 0;
+        int tarjetas = TARJETAS_POR_DEFECTO;
+        long semilla = 1;
+        boolean memoria = false;
+        Path datos = null;
+        Path salida = null;
+        Path anterior = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String opcion = args[i];
+                if ("--memoria".equals(opcion)) {
+                    memoria = true;
+                    continue;
+                }
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Falta el valor de " + opcion);
+                }
+                String valor = args[++i];
+                switch (opcion) {
+                    case "--kioscos":
+                        kioscos = Integer.parseInt(valor);
+                        break;
+                    case "--duracion":
+                        duracion = Integer.parseInt(valor);
+                        break;
+                    case "--calentamiento":
+                        calentamiento = Integer.parseInt(valor);
+                        break;
+                    case "--pausa":
+                        pausa = Long.parseLong(valor);
+                        break;
+                    case "--tarjetas":
+                        tarjetas = Integer.parseInt(valor);
+                        break;
+                    case "--semilla":
+                        semilla = Long.parseLong(valor);
+                        break;
+                    case "--datos":
+                        datos = Paths.get(valor);
+                        break;
+                    case "--informe":
+                        salida = Paths.get(valor);
+                        break;
+                    case "--comparar":
+                        anterior = Paths.get(valor);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Opción desconocida: " + opcion);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Uso: --carga [--kioscos N] [--duracion s] [--calentamiento s] [--pausa ms]"
+                    + " [--tarjetas N] [--semilla N] [--memoria | --datos directorio]"
+                    + " [--informe informe.json] [--comparar anterior.json]");
+            System.exit(2);
+            return;
+        }
+
+        // Sin --datos se usa un diario temporal para no tocar los datos reales
+        Path temporal = memoria || datos != null ? null : Files.createTempDirectory("bono-carga-");
+        ServicioRecarga servicio = memoria ? new ServicioRecarga()
+                : ServicioRecarga.abrir(datos != null ? datos : temporal);
+        try {
+            System.out.println("Simulando " + kioscos + " kioscos durante " + duracion + " s (más "
+                    + calentamiento + " s de calentamiento)...");
+            InformeCarga informe = new GeneradorCarga(servicio, kioscos, pausa, tarjetas, semilla)
+                    .ejecutar(calentamiento, duracion, TimeUnit.SECONDS);
+            System.out.print(informe.texto());
+
+            String json = informe.json();
+            if (salida != null) {
+                Files.write(salida, (json + "\n").getBytes(StandardCharsets.UTF_8));
+                System.out.println("Informe: " + salida);
+            }
+            if (anterior != null) {
+                String previo = new String(Files.readAllBytes(anterior), StandardCharsets.UTF_8).trim();
+                System.out.print(InformeCarga.comparar(JsonPlano.leer(previo), JsonPlano.leer(json)));
+            }
+        } finally {
+            servicio.close();
+            if (temporal != null) {
+                borrar(temporal);
+            }
+        }
+    }
+
+    private static void borrar(Path directorio) throws IOException {
+        try (Stream<Path> ficheros = Files.walk(directorio)) {
+            ficheros.sorted(Comparator.reverseOrder()).forEach(fichero -> fichero.toFile().delete());
+        }
+    }
+}
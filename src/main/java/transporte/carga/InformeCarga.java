@@ -0,0 +1,254 @@
+package transporte.carga;
+
+import transporte.metricas.HistogramaLatencia;
+import transporte.recarga.ResultadoRecarga;
+import transporte.servidor.JsonPlano;
+import transporte.tarjeta.ValidadorTarjeta;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Resultados de una ejecución del {@link GeneradorCarga}: sesiones y
+ * recargas por segundo, percentiles de latencia de cada paso y reparto de
+ * resultados. Se puede mostrar como texto o guardar como JSON plano para
+ * compararlo con el de otra versión.
+ *
+ * Los kioscos actualizan el informe directamente desde sus hilos, así que
+ * todos los contadores son {@link LongAdder} y los histogramas son seguros
+ * para uso concurrente.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public final class InformeCarga {
+
+    // ============================
+    // CONSTANTES
+    // ============================
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static final String[] NOMBRES_PERCENTILES = {"p50", "p90", "p99", "p999"};
+
+    // Métricas que se comparan entre ejecuciones: en las de latencia, subir es empeorar
+    private static final String[] COMPARADAS = {
+            "sesiones_por_segundo", "recargas_por_segundo",
+            "login_p50_us", "login_p99_us", "recarga_p50_us", "recarga_p99_us", "recarga_p999_us",
+            "sesion_p50_us", "sesion_p99_us"};
+
+    // ============================
+    // CONFIGURACIÓN DE LA EJECUCIÓN
+    // ============================
+    private final int kioscos;
+    private final long pausaMs;
+    private final int tarjetas;
+    private final boolean persistente;
+
+    // ============================
+    // MEDIDAS
+    // ============================
+    private final HistogramaLatencia login = new HistogramaLatencia();
+    private final HistogramaLatencia recarga = new HistogramaLatencia();
+    private final HistogramaLatencia sesion = new HistogramaLatencia();
+    private final LongAdder sesiones = new LongAdder();
+    private final LongAdder[] resultados = new LongAdder[ResultadoRecarga.Estado.values().length];
+    private final LongAdder fallosTipo = new LongAdder();
+    private final LongAdder fallosFormato = new LongAdder();
+    private final LongAdder fallosControl = new LongAdder();
+    private final LongAdder repeticiones = new LongAdder();
+    private final LongAdder repeticionesNoDetectadas = new LongAdder();
+
+    private final long inicio = System.nanoTime();
+    private volatile long fin;
+
+    InformeCarga(int kioscos, long pausaMs, int tarjetas, boolean persistente) {
+        this.kioscos = kioscos;
+        this.pausaMs = pausaMs;
+        this.tarjetas = tarjetas;
+        this.persistente = persistente;
+        for (int i = 0; i < resultados.length; i++) {
+            resultados[i] = new LongAdder();
+        }
+    }
+
+    // ============================
+    // REGISTRO (desde los kioscos)
+    // ============================
+    void registrarLogin(long desde) {
+        login.registrarDesde(desde);
+    }
+
+    void registrarFalloLogin(boolean tipoValido, ValidadorTarjeta.Motivo motivo) {
+        if (!tipoValido) {
+            fallosTipo.increment();
+        } else if (motivo == ValidadorTarjeta.Motivo.DIGITO_CONTROL_INCORRECTO) {
+            fallosControl.increment();
+        } else {
+            fallosFormato.increment();
+        }
+    }
+
+    void registrarRecarga(long desde, ResultadoRecarga resultado) {
+        recarga.registrarDesde(desde);
+        resultados[resultado.getEstado().ordinal()].increment();
+    }
+
+    /**
+     * Segunda pulsación de una recarga ya hecha; {@code noDetectada} indica que
+     * el servicio la ha procesado otra vez en lugar de devolver el resultado
+     * de la primera.
+     */
+    void registrarRepeticion(boolean noDetectada) {
+        repeticiones.increment();
+        if (noDetectada) {
+            repeticionesNoDetectadas.increment();
+        }
+    }
+
+    void registrarSesion(long desde) {
+        sesion.registrarDesde(desde);
+        sesiones.increment();
+    }
+
+    void terminar() {
+        fin = System.nanoTime();
+    }
+
+    // ============================
+    // CONSULTA
+    // ============================
+    public long getSesiones() {
+        return sesiones.sum();
+    }
+
+    public long getRecargas() {
+        long total = 0;
+        for (LongAdder resultado : resultados) {
+            total += resultado.sum();
+        }
+        return total;
+    }
+
+    public long getResultados(ResultadoRecarga.Estado estado) {
+        return resultados[estado.ordinal()].sum();
+    }
+
+    /**
+     * Repeticiones que el servicio no ha reconocido como tales (debe ser 0).
+     */
+    public long getRepeticionesNoDetectadas() {
+        return repeticionesNoDetectadas.sum();
+    }
+
+    public double getSegundos() {
+        return ((fin != 0 ? fin : System.nanoTime()) - inicio) / 1e9;
+    }
+
+    // ============================
+    // SALIDA
+    // ============================
+    /**
+     * Resumen legible, con las latencias en milisegundos.
+     */
+    public String texto() {
+        double segundos = getSegundos();
+        StringBuilder texto = new StringBuilder();
+        texto.append(String.format(Locale.ROOT, "Kioscos: %d, pausa: %d ms, tarjetas: %d, diario: %s%n",
+                kioscos, pausaMs, tarjetas, persistente ? "sí" : "no (en memoria)"));
+        texto.append(String.format(Locale.ROOT, "Duración medida: %.1f s%n", segundos));
+        texto.append(String.format(Locale.ROOT, "Sesiones: %d (%.0f/s)%n", getSesiones(), getSesiones() / segundos));
+        texto.append(String.format(Locale.ROOT, "Recargas: %d (%.0f/s)%n", getRecargas(), getRecargas() / segundos));
+        for (ResultadoRecarga.Estado estado : ResultadoRecarga.Estado.values()) {
+            long cantidad = getResultados(estado);
+            if (cantidad > 0) {
+                texto.append("  ").append(estado).append(": ").append(cantidad).append('\n');
+            }
+        }
+        texto.append("Fallos de login: tipo ").append(fallosTipo.sum())
+                .append(", formato ").append(fallosFormato.sum())
+                .append(", dígito de control ").append(fallosControl.sum()).append('\n');
+        texto.append("Recargas repetidas: ").append(repeticiones.sum())
+                .append(" (no detectadas: ").append(repeticionesNoDetectadas.sum()).append(")\n");
+        texto.append("Latencias (ms):        p50       p90       p99     p99.9       máx\n");
+        linea(texto, "  login", login.instantanea());
+        linea(texto, "  recarga", recarga.instantanea());
+        linea(texto, "  sesión", sesion.instantanea());
+        return texto.toString();
+    }
+
+    /**
+     * Informe como objeto JSON plano (latencias en microsegundos), para
+     * guardarlo y compararlo con {@link #comparar(Map, Map)}.
+     */
+    public String json() {
+        double segundos = getSegundos();
+        JsonPlano.Objeto json = new JsonPlano.Objeto()
+                .campo("fecha", LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME))
+                .campo("kioscos", kioscos)
+                .campo("pausa_ms", pausaMs)
+                .campo("tarjetas", tarjetas)
+                .campo("diario", persistente)
+                .campo("duracion_ms", Math.round(segundos * 1000))
+                .campo("sesiones", getSesiones())
+                .campo("recargas", getRecargas())
+                .campo("sesiones_por_segundo", Math.round(getSesiones() / segundos))
+                .campo("recargas_por_segundo", Math.round(getRecargas() / segundos));
+        for (ResultadoRecarga.Estado estado : ResultadoRecarga.Estado.values()) {
+            json.campo("resultado_" + estado.name(), getResultados(estado));
+        }
+        json.campo("fallos_tipo", fallosTipo.sum())
+                .campo("fallos_formato", fallosFormato.sum())
+                .campo("fallos_digito_control", fallosControl.sum())
+                .campo("repeticiones", repeticiones.sum())
+                .campo("repeticiones_no_detectadas", repeticionesNoDetectadas.sum());
+        percentiles(json, "login", login.instantanea());
+        percentiles(json, "recarga", recarga.instantanea());
+        percentiles(json, "sesion", sesion.instantanea());
+        return json.toString();
+    }
+
+    /**
+     * Tabla con las métricas principales de dos informes JSON y el cambio
+     * porcentual de cada una.
+     */
+    public static String comparar(Map<String, String> anterior, Map<String, String> actual) {
+        StringBuilder texto = new StringBuilder(String.format(Locale.ROOT, "%-24s %12s %12s %9s%n",
+                "Métrica", "Anterior", "Actual", "Cambio"));
+        for (String clave : COMPARADAS) {
+            String antes = anterior.get(clave);
+            String ahora = actual.get(clave);
+            if (antes == null || ahora == null) {
+                continue;
+            }
+            double a = Double.parseDouble(antes);
+            double b = Double.parseDouble(ahora);
+            String cambio = a == 0 ? "-" : String.format(Locale.ROOT, "%+.1f%%", (b - a) * 100 / a);
+            texto.append(String.format(Locale.ROOT, "%-24s %12s %12s %9s%n", clave, antes, ahora, cambio));
+        }
+        if (!String.valueOf(anterior.get("kioscos")).equals(actual.get("kioscos"))
+                || !String.valueOf(anterior.get("pausa_ms")).equals(actual.get("pausa_ms"))
+                || !String.valueOf(anterior.get("diario")).equals(actual.get("diario"))) {
+            texto.append("Advertencia: Las dos ejecuciones no usan la misma configuración\n");
+        }
+        return texto.toString();
+    }
+
+    // ============================
+    // MÉTODOS AUXILIARES
+    // ============================
+    private static void linea(StringBuilder texto, String nombre, HistogramaLatencia.Instantanea datos) {
+        texto.append(String.format(Locale.ROOT, "%-16s", nombre));
+        for (double percentil : PERCENTILES) {
+            texto.append(String.format(Locale.ROOT, " %9.3f", datos.percentil(percentil) / 1e6));
+        }
+        texto.append(String.format(Locale.ROOT, " %9.3f%n", datos.getMaximo() / 1e6));
+    }
+
+    private static void percentiles(JsonPlano.Objeto json, String nombre, HistogramaLatencia.Instantanea datos) {
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            json.campo(nombre + "_" + NOMBRES_PERCENTILES[i] + "_us", datos.percentil(PERCENTILES[i]) / 1000);
+        }
+        json.campo(nombre + "_max_us", datos.getMaximo() / 1000);
+    }
+}
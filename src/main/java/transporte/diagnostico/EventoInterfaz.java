@@ -0,0 +1,65 @@
+package transporte.diagnostico;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.util.function.Supplier;
+
+/**
+ * Evento de Java Flight Recorder que mide la construcción de una parte de una
+ * pantalla ({@code initComponents}, cada {@code crearPanel*}, el selector de
+ * mes de JCalendar...).
+ *
+ * <pre>
+ *   EventoInterfaz.ejecutar("BonoBus", "initComponents", this::initComponents);
+ *   contenedor.add(EventoInterfaz.medir("BonoBus", "crearPanelHeader", this::crearPanelHeader));
+ * </pre>
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+@Name("bono.Interfaz")
+@Label("Construcción de interfaz")
+@Category({"Bono Transporte", "Interfaz"})
+@Description("Tiempo de construcción de una parte de una pantalla")
+@StackTrace(false)
+public final class EventoInterfaz extends jdk.jfr.Event {
+
+    @Label("Vista")
+    String vista;
+
+    @Label("Parte")
+    String parte;
+
+    /**
+     * Crea el evento y empieza a medir.
+     */
+    public static EventoInterfaz iniciar(String vista, String parte) {
+        EventoInterfaz evento = new EventoInterfaz();
+        evento.vista = vista;
+        evento.parte = parte;
+        evento.begin();
+        return evento;
+    }
+
+    /**
+     * Ejecuta {@code parte} registrando cuánto tarda.
+     */
+    public static void ejecutar(String vista, String parte, Runnable accion) {
+        EventoInterfaz evento = iniciar(vista, parte);
+        accion.run();
+        evento.commit();
+    }
+
+    /**
+     * Crea un componente registrando cuánto tarda.
+     */
+    public static <T> T medir(String vista, String parte, Supplier<T> creador) {
+        EventoInterfaz evento = iniciar(vista, parte);
+        T resultado = creador.get();
+        evento.commit();
+        return resultado;
+    }
+}
@@ -0,0 +1,70 @@
+package transporte.diagnostico;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import transporte.recarga.ResultadoRecarga;
+import transporte.tarifa.Perfil;
+
+/**
+ * Evento de Java Flight Recorder que mide una recarga en el servicio, desde
+ * que se pide hasta que queda registrada en el diario.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+@Name("bono.Recarga")
+@Label("Recarga")
+@Category({"Bono Transporte", "Recargas"})
+@Description("Recarga de una tarjeta hasta que queda registrada")
+@StackTrace(false)
+public final class EventoRecarga extends jdk.jfr.Event {
+
+    @Label("Tarjeta")
+    long tarjeta;
+
+    @Label("Tipo de bono")
+    String tipo;
+
+    @Label("Mes")
+    @Description("Mes recargado, de 1 a 12")
+    int mes;
+
+    @Label("Perfil")
+    String perfil;
+
+    @Label("Resultado")
+    String resultado;
+
+    @Label("Importe")
+    @Description("Importe cobrado en céntimos")
+    int importe;
+
+    /**
+     * Crea el evento y empieza a medir.
+     */
+    public static EventoRecarga iniciar() {
+        EventoRecarga evento = new EventoRecarga();
+        evento.begin();
+        return evento;
+    }
+
+    /**
+     * Termina la medida con el resultado de la recarga. Los campos solo se
+     * rellenan si el evento se va a registrar.
+     */
+    public void terminar(ResultadoRecarga resultado, Perfil perfil) {
+        end();
+        if (!shouldCommit()) {
+            return;
+        }
+        tarjeta = resultado.getTarjeta();
+        tipo = resultado.getTipo() != null ? resultado.getTipo().name() : null;
+        mes = resultado.getMes() + 1;
+        this.perfil = perfil != null ? perfil.name() : null;
+        this.resultado = resultado.getEstado().name();
+        importe = resultado.getImporte();
+        commit();
+    }
+}
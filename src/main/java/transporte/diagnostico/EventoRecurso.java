@@ -0,0 +1,53 @@
+package transporte.diagnostico;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Evento de Java Flight Recorder que mide la carga de un recurso: la lectura
+ * y decodificación de una imagen, su escalado o la lectura de las tarifas.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+@Name("bono.Recurso")
+@Label("Carga de recurso")
+@Category({"Bono Transporte", "Recursos"})
+@Description("Lectura, decodificación o escalado de un recurso de la aplicación")
+@StackTrace(false)
+public final class EventoRecurso extends jdk.jfr.Event {
+
+    @Label("Recurso")
+    String recurso;
+
+    @Label("Operación")
+    String operacion;
+
+    @Label("Ancho")
+    int ancho;
+
+    @Label("Alto")
+    int alto;
+
+    /**
+     * Crea el evento y empieza a medir.
+     */
+    public static EventoRecurso iniciar(String recurso, String operacion) {
+        EventoRecurso evento = new EventoRecurso();
+        evento.recurso = recurso;
+        evento.operacion = operacion;
+        evento.begin();
+        return evento;
+    }
+
+    /**
+     * Termina la medida indicando el tamaño de la imagen obtenida (0 si no hay imagen).
+     */
+    public void terminar(int ancho, int alto) {
+        this.ancho = ancho;
+        this.alto = alto;
+        commit();
+    }
+}
@@ -0,0 +1,93 @@
+package transporte.diagnostico;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import transporte.recarga.ServicioRecarga;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Grabación continua de Java Flight Recorder con los eventos de la aplicación.
+ *
+ * Se activa con {@code -Dbono.jfr=true} (o con la ruta del fichero de salida en
+ * lugar de {@code true}). Usa la configuración {@code default} del JDK más la
+ * de {@code bono.jfc}, guarda como mucho la última hora en un búfer circular y
+ * la vuelca a {@code bono.jfr} en el directorio de datos al cerrar la
+ * aplicación. Mientras se ejecuta se puede volcar con
+ * {@code jcmd <pid> JFR.dump name=bono filename=kiosco.jfr}.
+ *
+ * También se puede grabar sin esta clase con
+ * {@code -XX:StartFlightRecording:settings=default,settings=src/main/resources/bono.jfc}.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public final class GrabacionJfr {
+
+    // ============================
+    // CONSTANTES
+    // ============================
+    private static final String PROPIEDAD_JFR = "bono.jfr";
+    private static final String RECURSO_AJUSTES = "/bono.jfc";
+    private static final String FICHERO_GRABACION = "bono.jfr";
+    private static final Duration ANTIGUEDAD_MAXIMA = Duration.ofHours(1);
+    private static final long TAMANO_MAXIMO = 64L * 1024 * 1024;
+
+    private GrabacionJfr() {
+    }
+
+    /**
+     * Inicia la grabación si se ha pedido con {@code -Dbono.jfr}. Si la JVM no
+     * incluye Flight Recorder solo se muestra un aviso.
+     */
+    public static void iniciar() {
+        String valor = System.getProperty(PROPIEDAD_JFR);
+        if (valor == null || "false".equalsIgnoreCase(valor)) {
+            return;
+        }
+        Path destino = "true".equalsIgnoreCase(valor) || valor.isEmpty()
+                ? ServicioRecarga.directorioDatos().resolve(FICHERO_GRABACION)
+                : Paths.get(valor);
+        try {
+            Files.createDirectories(destino.toAbsolutePath().getParent());
+            Recording grabacion = new Recording(ajustes());
+            grabacion.setName("bono");
+            grabacion.setToDisk(true);
+            grabacion.setMaxAge(ANTIGUEDAD_MAXIMA);
+            grabacion.setMaxSize(TAMANO_MAXIMO);
+            grabacion.setDumpOnExit(true);
+            grabacion.setDestination(destino);
+            grabacion.start();
+        } catch (IOException | ParseException | IllegalStateException | SecurityException e) {
+            System.err.println("Advertencia: No se pudo iniciar la grabación JFR: " + e.getMessage());
+        } catch (NoClassDefFoundError e) {
+            System.err.println("Advertencia: Esta JVM no incluye Java Flight Recorder");
+        }
+    }
+
+    /**
+     * Ajustes de la configuración {@code default} con los de {@code bono.jfc} encima.
+     */
+    static Map<String, String> ajustes() throws IOException, ParseException {
+        Map<String, String> ajustes = new HashMap<>(Configuration.getConfiguration("default").getSettings());
+        try (InputStream entrada = GrabacionJfr.class.getResourceAsStream(RECURSO_AJUSTES)) {
+            if (entrada == null) {
+                throw new IOException("No se encuentra el recurso " + RECURSO_AJUSTES);
+            }
+            try (Reader lector = new InputStreamReader(entrada, StandardCharsets.UTF_8)) {
+                ajustes.putAll(Configuration.create(lector).getSettings());
+            }
+        }
+        return ajustes;
+    }
+}
@@ -0,0 +1,372 @@
+package transporte.diagnostico;
+
+import javax.imageio.ImageIO;
+import javax.swing.AbstractButton;
+import javax.swing.JComponent;
+import javax.swing.RepaintManager;
+import javax.swing.SwingUtilities;
+import java.awt.Component;
+import java.awt.Container;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Banco de pruebas de dibujado de las pantallas, sin ventana visible.
+ *
+ * Construye cada vista, la maqueta a su tamaño preferido y la pinta en un
+ * {@link BufferedImage}, primero en reposo y después con el ratón sobre cada
+ * botón. De cada estado mide la construcción, el maquetado, la primera
+ * pintura y la media de las siguientes, guarda la imagen y, si hay imágenes de
+ * referencia, cuenta los píxeles que difieren y genera una imagen con las
+ * diferencias marcadas en rojo. Funciona en modo headless
+ * ({@code -Djava.awt.headless=true}) y con un servidor X virtual.
+ *
+ * El flujo previsto para optimizar el dibujado es guardar las referencias
+ * antes del cambio con {@code --actualizar} y compararlas después: las
+ * imágenes dependen de las fuentes instaladas y del mes en curso (el selector
+ * de mes y el importe), así que deben generarse en la misma máquina. Al
+ * comparar, un estado sin imagen de referencia cuenta como distinto, para que
+ * un directorio equivocado o vacío no dé la comparación por buena.
+ *
+ * <pre>
+ *   Lanzador --renderizar --referencias ref --actualizar
+ *   Lanzador --renderizar --referencias ref [--salida renderizado] [--repeticiones N] [--tolerancia %]
+ * </pre>
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public final class RenderizadoVistas {
+
+    // ============================
+    // CONSTANTES
+    // ============================
+    private static final int REPETICIONES_POR_DEFECTO = 50;
+    private static final String SALIDA_POR_DEFECTO = "renderizado";
+    // Diferencia máxima por canal que se considera igual (suavizado de bordes)
+    private static final int UMBRAL_CANAL = 8;
+    private static final int ROJO = 0xFFFF0000;
+
+    // ============================
+    // CONFIGURACIÓN
+    // ============================
+    private final Map<String, Supplier<? extends JComponent>> vistas;
+    private final int repeticiones;
+    private final Path salida;
+    private final Path referencias;
+    private final boolean actualizar;
+    private final double tolerancia;
+
+    private final StringBuilder informe = new StringBuilder();
+    private int estadosDistintos;
+
+    private RenderizadoVistas(Map<String, Supplier<? extends JComponent>> vistas, int repeticiones, Path salida,
+                              Path referencias, boolean actualizar, double tolerancia) {
+        this.vistas = vistas;
+        this.repeticiones = repeticiones;
+        this.salida = salida;
+        this.referencias = referencias;
+        this.actualizar = actualizar;
+        this.tolerancia = tolerancia;
+    }
+
+    /**
+     * Pinta las vistas indicadas (nombre y cómo construirla) según las
+     * opciones de la línea de órdenes y termina el proceso con código 1 si
+     * alguna imagen difiere de su referencia más de la tolerancia o no tiene
+     * referencia.
+     */
+    public static void main(String[] args, Map<String, Supplier<? extends JComponent>> vistas)
+            throws IOException, InterruptedException {
+        int repeticiones = REPETICIONES_POR_DEFECTO;
+        Path salida = Paths.get(SALIDA_POR_DEFECTO);
+        Path referencias = null;
+        boolean actualizar = false;
+        double tolerancia = 0;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String opcion = args[i];
+                if ("--actualizar".equals(opcion)) {
+                    actualizar = true;
+                    continue;
+                }
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Falta el valor de " + opcion);
+                }
+                String valor = args[++i];
+                switch (opcion) {
+                    case "--repeticiones":
+                        repeticiones = Integer.parseInt(valor);
+                        break;
+                    case "--salida":
+                        salida = Paths.get(valor);
+                        break;
+                    case "--referencias":
+                        referencias = Paths.get(valor);
+                        break;
+                    case "--tolerancia":
+                        tolerancia = Double.parseDouble(valor);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Opción desconocida: " + opcion);
+                }
+            }
+            if (actualizar && referencias == null) {
+                throw new IllegalArgumentException("--actualizar necesita --referencias");
+            }
+            if (repeticiones < 1) {
+                throw new IllegalArgumentException("--repeticiones debe ser al menos 1");
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Uso: --renderizar [--referencias directorio [--actualizar]] [--salida directorio]"
+                    + " [--repeticiones N] [--tolerancia porcentaje]");
+            System.exit(2);
+            return;
+        }
+
+        RenderizadoVistas banco = new RenderizadoVistas(vistas, repeticiones, salida, referencias, actualizar,
+                tolerancia);
+        System.exit(banco.ejecutar() ? 0 : 1);
+    }
+
+    // ============================
+    // EJECUCIÓN
+    // ============================
+    /**
+     * Pinta todas las vistas en el EDT y muestra el informe.
+     *
+     * @return true si todas las imágenes tienen referencia y ninguna supera
+     *         la tolerancia de diferencias
+     */
+    private boolean ejecutar() throws IOException, InterruptedException {
+        Files.createDirectories(salida);
+        if (actualizar) {
+            Files.createDirectories(referencias);
+        }
+        informe.append(String.format(Locale.ROOT, "%-10s %-32s %10s %10s %11s %10s  %s%n",
+                "Vista", "Estado", "Construir", "Maquetar", "1ª pintura", "Pintura", "Diferencia"));
+        try {
+            SwingUtilities.invokeAndWait(() -> {
+                for (Map.Entry<String, Supplier<? extends JComponent>> vista : vistas.entrySet()) {
+                    try {
+                        medir(vista.getKey(), vista.getValue());
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+        } catch (InvocationTargetException e) {
+            Throwable causa = e.getCause();
+            if (causa instanceof IllegalStateException && causa.getCause() instanceof IOException) {
+                throw (IOException) causa.getCause();
+            }
+            throw new IllegalStateException("Error al pintar las vistas", causa);
+        }
+        informe.append("Tiempos en ms (pintura: media de ").append(repeticiones)
+                .append(" repeticiones). Imágenes en '").append(salida).append("'\n");
+        System.out.print(informe);
+        return estadosDistintos == 0;
+    }
+
+    /**
+     * Construye, maqueta y pinta una vista en reposo y con el ratón sobre
+     * cada uno de sus botones.
+     */
+    private void medir(String nombre, Supplier<? extends JComponent> creador) throws IOException {
+        long inicio = System.nanoTime();
+        JComponent vista = creador.get();
+        long construccion = System.nanoTime() - inicio;
+
+        // Sin ventana no hay búfer intermedio: se pinta directamente en la imagen
+        RepaintManager.currentManager(vista).setDoubleBufferingEnabled(false);
+
+        inicio = System.nanoTime();
+        Dimension tamano = vista.getPreferredSize();
+        vista.setSize(tamano);
+        maquetar(vista);
+        long maquetado = System.nanoTime() - inicio;
+
+        BufferedImage imagen = new BufferedImage(Math.max(tamano.width, 1), Math.max(tamano.height, 1),
+                BufferedImage.TYPE_INT_RGB);
+        inicio = System.nanoTime();
+        pintar(vista, imagen);
+        long primera = System.nanoTime() - inicio;
+
+        registrar(nombre, "normal", construccion, maquetado, primera, pintarVarias(vista, imagen), imagen);
+
+        for (AbstractButton boton : botones(vista, new ArrayList<>())) {
+            pasarRaton(boton, MouseEvent.MOUSE_ENTERED);
+            registrar(nombre, "ratón sobre " + boton.getText(), -1, -1, -1, pintarVarias(vista, imagen), imagen);
+            pasarRaton(boton, MouseEvent.MOUSE_EXITED);
+        }
+    }
+
+    private long pintarVarias(JComponent vista, BufferedImage imagen) {
+        long inicio = System.nanoTime();
+        for (int i = 0; i < repeticiones; i++) {
+            pintar(vista, imagen);
+        }
+        return (System.nanoTime() - inicio) / repeticiones;
+    }
+
+    private void registrar(String vista, String estado, long construccion, long maquetado, long primera,
+                           long pintura, BufferedImage imagen) throws IOException {
+        // Nombre de fichero solo con ASCII: el sistema de ficheros puede no admitir tildes
+        String fichero = Normalizer.normalize(vista + "-" + estado, Normalizer.Form.NFD)
+                .toLowerCase(Locale.ROOT).replaceAll("\\p{M}", "").replaceAll("[^a-z0-9]+", "-") + ".png";
+        ImageIO.write(imagen, "png", salida.resolve(fichero).toFile());
+
+        String diferencia = "-";
+        if (referencias != null) {
+            Path referencia = referencias.resolve(fichero);
+            if (actualizar) {
+                ImageIO.write(imagen, "png", referencia.toFile());
+                diferencia = "referencia guardada";
+            } else if (!Files.exists(referencia)) {
+                estadosDistintos++;
+                diferencia = "SIN REFERENCIA (" + referencia + ")";
+            } else {
+                diferencia = comparar(imagen, ImageIO.read(referencia.toFile()),
+                        salida.resolve(fichero.replace(".png", "-diferencias.png")));
+            }
+        }
+        informe.append(String.format(Locale.ROOT, "%-10s %-32s %10s %10s %11s %10s  %s%n", vista, estado,
+                milisegundos(construccion), milisegundos(maquetado), milisegundos(primera), milisegundos(pintura),
+                diferencia));
+    }
+
+    // ============================
+    // COMPARACIÓN CON LA REFERENCIA
+    // ============================
+    /**
+     * Porcentaje de píxeles que difieren de la referencia. Si supera la
+     * tolerancia guarda en {@code fichero} la imagen con esos píxeles en rojo
+     * sobre la referencia atenuada.
+     */
+    private String comparar(BufferedImage imagen, BufferedImage referencia, Path fichero) throws IOException {
+        if (referencia == null) {
+            estadosDistintos++;
+            return "referencia ilegible";
+        }
+        if (imagen.getWidth() != referencia.getWidth() || imagen.getHeight() != referencia.getHeight()) {
+            estadosDistintos++;
+            return "tamaño distinto (" + referencia.getWidth() + "x" + referencia.getHeight() + " -> "
+                    + imagen.getWidth() + "x" + imagen.getHeight() + ")";
+        }
+        int ancho = imagen.getWidth();
+        int alto = imagen.getHeight();
+        BufferedImage marcas = new BufferedImage(ancho, alto, BufferedImage.TYPE_INT_RGB);
+        long distintos = 0;
+        for (int y = 0; y < alto; y++) {
+            for (int x = 0; x < ancho; x++) {
+                int a = imagen.getRGB(x, y);
+                int b = referencia.getRGB(x, y);
+                if (distinto(a, b)) {
+                    distintos++;
+                    marcas.setRGB(x, y, ROJO);
+                } else {
+                    marcas.setRGB(x, y, atenuar(b));
+                }
+            }
+        }
+        double porcentaje = distintos * 100.0 / ((long) ancho * alto);
+        if (porcentaje > tolerancia) {
+            estadosDistintos++;
+            ImageIO.write(marcas, "png", fichero.toFile());
+            return String.format(Locale.ROOT, "%.3f %% DISTINTA (%s)", porcentaje, fichero.getFileName());
+        }
+        return String.format(Locale.ROOT, "%.3f %%", porcentaje);
+    }
+
+    private static boolean distinto(int a, int b) {
+        for (int desplazamiento = 0; desplazamiento <= 16; desplazamiento += 8) {
+            int canalA = (a >> desplazamiento) & 0xFF;
+            int canalB = (b >> desplazamiento) & 0xFF;
+            if (Math.abs(canalA - canalB) > UMBRAL_CANAL) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gris claro con la luminosidad del píxel, para que las diferencias
+     * destaquen sobre la imagen de referencia.
+     */
+    private static int atenuar(int rgb) {
+        int gris = (((rgb >> 16) & 0xFF) * 30 + ((rgb >> 8) & 0xFF) * 59 + (rgb & 0xFF) * 11) / 100;
+        int claro = 160 + gris * 95 / 255;
+        return 0xFF000000 | claro << 16 | claro << 8 | claro;
+    }
+
+    // ============================
+    // MÉTODOS AUXILIARES
+    // ============================
+    /**
+     * Maqueta el árbol de componentes como lo haría la ventana al validarse.
+     */
+    private static void maquetar(Component componente) {
+        if (componente instanceof Container) {
+            Container contenedor = (Container) componente;
+            contenedor.doLayout();
+            for (Component hijo : contenedor.getComponents()) {
+                maquetar(hijo);
+            }
+        }
+    }
+
+    private static void pintar(JComponent vista, BufferedImage imagen) {
+        Graphics2D g = imagen.createGraphics();
+        try {
+            vista.paint(g);
+        } finally {
+            g.dispose();
+        }
+    }
+
+    /**
+     * Botones con texto de la vista (se excluyen las flechas de los
+     * desplegables y del selector de mes).
+     */
+    private static List<AbstractButton> botones(Container contenedor, List<AbstractButton> encontrados) {
+        for (Component hijo : contenedor.getComponents()) {
+            if (hijo instanceof AbstractButton && hijo.isVisible()) {
+                String texto = ((AbstractButton) hijo).getText();
+                if (texto != null && !texto.isEmpty()) {
+                    encontrados.add((AbstractButton) hijo);
+                }
+            }
+            if (hijo instanceof Container) {
+                botones((Container) hijo, encontrados);
+            }
+        }
+        return encontrados;
+    }
+
+    /**
+     * Simula que el ratón entra o sale del botón: se avisa a sus oyentes
+     * (los de la vista cambian el color de fondo) y al modelo del botón.
+     */
+    private static void pasarRaton(AbstractButton boton, int tipo) {
+        boton.dispatchEvent(new MouseEvent(boton, tipo, System.currentTimeMillis(), 0,
+                boton.getWidth() / 2, boton.getHeight() / 2, 0, false));
+        boton.getModel().setRollover(tipo == MouseEvent.MOUSE_ENTERED);
+    }
+
+    private static String milisegundos(long nanos) {
+        return nanos < 0 ? "-" : String.format(Locale.ROOT, "%.2f", nanos / 1e6);
+    }
+}
@@ -0,0 +1,221 @@
+package transporte.diagnostico;
+
+import transporte.metricas.HistogramaLatencia;
+import transporte.metricas.Metricas;
+import transporte.recarga.ServicioRecarga;
+
+import java.awt.AWTEvent;
+import java.awt.EventQueue;
+import java.awt.Toolkit;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Vigilante del hilo de eventos de Swing (EDT). Detecta los bloqueos de la
+ * interfaz y guarda dónde estaba el EDT en ese momento.
+ *
+ * Sustituye la cola de eventos por una que anota cuándo empieza el EDT a
+ * trabajar y cuándo queda esperando eventos. Un hilo aparte revisa esa marca
+ * y, si el EDT lleva más del umbral ocupado sin volver a la cola, captura su
+ * pila de llamadas y la añade a {@code bloqueos-edt.log} en el directorio de
+ * datos. Mientras un diálogo modal espera al usuario el EDT está atendiendo
+ * eventos, así que no cuenta como bloqueo.
+ *
+ * También mide la latencia de la cola: cada segundo publica un evento vacío y
+ * registra cuánto tarda en ejecutarse.
+ *
+ * El umbral se indica en milisegundos con {@code -Dbono.edt.umbral}
+ * (250 por defecto; 0 desactiva el vigilante).
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public final class VigilanteEdt {
+
+    // ============================
+    // CONSTANTES
+    // ============================
+    private static final String PROPIEDAD_UMBRAL = "bono.edt.umbral";
+    private static final int UMBRAL_POR_DEFECTO_MS = 250;
+    private static final String FICHERO_BLOQUEOS = "bloqueos-edt.log";
+    private static final long INTERVALO_SONDA_NS = 1_000_000_000L;
+    // Pilas que se capturan como mucho en un mismo bloqueo (una por umbral transcurrido)
+    private static final int MAXIMO_CAPTURAS = 5;
+
+    private static final HistogramaLatencia LATENCIA_COLA = Metricas.global().histograma(
+            "bono_edt_latencia_cola_segundos", "Tiempo que espera un evento en la cola del EDT");
+    private static final LongAdder BLOQUEOS = Metricas.global().contador(
+            "bono_edt_bloqueos_total", "Veces que el EDT ha superado el umbral sin atender la cola");
+
+    private static final AtomicBoolean instalado = new AtomicBoolean();
+
+    // ============================
+    // ESTADO COMPARTIDO CON EL EDT
+    // ============================
+    private final long umbralNanos;
+    private final Path fichero;
+
+    // Inicio del periodo de trabajo actual del EDT (0 si está esperando eventos)
+    private volatile long inicio;
+    // Cambia cada vez que empieza un periodo de trabajo, para no informar dos veces del mismo
+    private volatile long periodo;
+    private volatile AWTEvent evento;
+    private volatile Thread hiloEdt;
+    private volatile boolean sondaPendiente;
+
+    private VigilanteEdt(long umbralNanos, Path fichero) {
+        this.umbralNanos = umbralNanos;
+        this.fichero = fichero;
+    }
+
+    /**
+     * Instala la cola vigilada y arranca el vigilante, salvo que esté
+     * desactivado. Llamadas posteriores no tienen efecto.
+     */
+    public static void instalar() {
+        int umbral = Integer.getInteger(PROPIEDAD_UMBRAL, UMBRAL_POR_DEFECTO_MS);
+        if (umbral <= 0 || !instalado.compareAndSet(false, true)) {
+            return;
+        }
+        VigilanteEdt vigilante = new VigilanteEdt(umbral * 1_000_000L,
+                ServicioRecarga.directorioDatos().resolve(FICHERO_BLOQUEOS));
+        Toolkit.getDefaultToolkit().getSystemEventQueue().push(vigilante.new ColaVigilada());
+
+        Thread hilo = new Thread(vigilante::vigilar, "vigilante-edt");
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+
+    // ============================
+    // COLA DE EVENTOS
+    // ============================
+    /**
+     * Cola de eventos que anota los periodos de trabajo del EDT. Los diálogos
+     * modales atienden eventos dentro de otro evento, así que al terminar cada
+     * evento anidado se empieza un periodo nuevo para el evento exterior.
+     */
+    private final class ColaVigilada extends EventQueue {
+
+        @Override
+        public AWTEvent getNextEvent() throws InterruptedException {
+            inicio = 0;
+            return super.getNextEvent();
+        }
+
+        @Override
+        protected void dispatchEvent(AWTEvent nuevo) {
+            AWTEvent exterior = evento;
+            hiloEdt = Thread.currentThread();
+            empezarPeriodo(nuevo);
+            try {
+                super.dispatchEvent(nuevo);
+            } finally {
+                empezarPeriodo(exterior);
+            }
+        }
+
+        private void empezarPeriodo(AWTEvent actual) {
+            evento = actual;
+            periodo++;
+            inicio = System.nanoTime();
+        }
+    }
+
+    // ============================
+    // VIGILANCIA
+    // ============================
+    private void vigilar() {
+        long intervaloMs = Math.max(umbralNanos / 4 / 1_000_000L, 10);
+        long periodoInformado = -1;
+        long siguienteCaptura = 0;
+        long duracionObservada = 0;
+        int capturas = 0;
+        long ultimaSonda = 0;
+
+        while (true) {
+            try {
+                Thread.sleep(intervaloMs);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long ahora = System.nanoTime();
+            if (!sondaPendiente && ahora - ultimaSonda >= INTERVALO_SONDA_NS) {
+                ultimaSonda = ahora;
+                sondaPendiente = true;
+                EventQueue.invokeLater(() -> {
+                    LATENCIA_COLA.registrarDesde(ahora);
+                    sondaPendiente = false;
+                });
+            }
+
+            long periodoActual = periodo;
+            long desde = inicio;
+            if (capturas > 0 && (periodoActual != periodoInformado || desde == 0)) {
+                // El EDT ha vuelto a responder tras un bloqueo del que ya se informó
+                escribir("# EDT libre de nuevo; el bloqueo duró al menos " + duracionObservada / 1_000_000L
+                        + " ms\n");
+                capturas = 0;
+            }
+            if (desde == 0 || ahora - desde < umbralNanos) {
+                continue;
+            }
+            duracionObservada = ahora - desde;
+            if (periodoActual != periodoInformado) {
+                periodoInformado = periodoActual;
+                siguienteCaptura = umbralNanos;
+                BLOQUEOS.increment();
+            }
+            if (capturas < MAXIMO_CAPTURAS && ahora - desde >= siguienteCaptura) {
+                capturar(ahora - desde, capturas == 0);
+                capturas++;
+                siguienteCaptura += umbralNanos;
+            }
+        }
+    }
+
+    /**
+     * Captura la pila del EDT y la guarda en el fichero de bloqueos. La
+     * primera captura de cada bloqueo se avisa también por la salida de errores.
+     */
+    private void capturar(long duracion, boolean primera) {
+        Thread hilo = hiloEdt;
+        AWTEvent actual = evento;
+        StringBuilder texto = new StringBuilder();
+        texto.append("# ").append(LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME))
+                .append(" EDT ocupado desde hace ").append(duracion / 1_000_000L).append(" ms");
+        if (actual != null) {
+            texto.append(" atendiendo ").append(actual.getClass().getName())
+                    .append(" de ").append(actual.getSource().getClass().getName());
+        }
+        texto.append('\n');
+        if (hilo != null) {
+            for (StackTraceElement elemento : hilo.getStackTrace()) {
+                texto.append("\tat ").append(elemento).append('\n');
+            }
+        }
+        if (primera) {
+            System.err.println("Advertencia: La interfaz lleva " + duracion / 1_000_000L
+                    + " ms sin responder (detalles en '" + fichero + "')");
+        }
+        escribir(texto.toString());
+    }
+
+    private void escribir(String texto) {
+        try {
+            Files.createDirectories(fichero.toAbsolutePath().getParent());
+            try (Writer escritor = Files.newBufferedWriter(fichero, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                escritor.write(texto);
+            }
+        } catch (IOException e) {
+            System.err.println("Error al guardar el bloqueo del EDT en '" + fichero + "': " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,603 @@
+package transporte.historial;
+
+import transporte.recarga.TipoBono;
+import transporte.tarjeta.ValidadorTarjeta;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Bloque inmutable del historial de recargas: un fichero con hasta
+ * {@link HistorialRecargas#FILAS_POR_BLOQUE} recargas consecutivas del diario
+ * guardadas por columnas.
+ *
+ * Cada dato de la recarga es una columna de valores de ancho fijo, así que una
+ * consulta solo lee las columnas que necesita (para el informe mensual, tipo,
+ * mes e importe: 3 de los 12 bytes de cada fila) y cualquier tramo de filas se
+ * puede leer por separado, lo que permite repartir un bloque entre hilos:
+ * <ul>
+ *   <li>tarjeta: número sin el dígito de control, que se vuelve a calcular,
+ *       en 5 bytes;</li>
+ *   <li>tipo: código de 1 byte en el diccionario de tipos del bloque;</li>
+ *   <li>mes: 1 byte;</li>
+ *   <li>marca de tiempo: diferencia con la mínima del bloque, en 4 bytes
+ *       (u 8 si el bloque abarca más de 49 días);</li>
+ *   <li>importe: código de 1 o 2 bytes en el diccionario de importes del
+ *       bloque, que con las tarifas habituales tiene unas decenas de valores
+ *       (o el importe en 4 bytes si hubiera más de 65536 distintos).</li>
+ * </ul>
+ * Frente a los 40 bytes por recarga del diario, un bloque ocupa unos 12.
+ *
+ * En la cabecera están también los meses y el intervalo de marcas del bloque,
+ * para saltarlo entero cuando una consulta no puede encontrar nada en él.
+ *
+ * Formato (little-endian):
+ * <pre>
+ *    0  int     número mágico "HCOL"
+ *    4  int     versión del formato
+ *    8  long    primera secuencia del diario incluida
+ *   16  long    última secuencia del diario incluida
+ *   24  int     filas (N)
+ *   28  int     meses presentes (un bit por mes)
+ *   32  long    marca de tiempo mínima (ms desde epoch)
+ *   40  long    marca de tiempo máxima
+ *   48  byte    bytes por marca de tiempo (4 u 8)
+ *   49  byte    bytes por importe (1 o 2 con diccionario, 4 sin él)
+ *   50  byte    tipos del diccionario (T)
+ *   51  ...     reservado (ceros)
+ *   52  int     importes del diccionario (I)
+ *   56  int     CRC32 de todo lo que sigue a la cabecera
+ *   60  ...     reservado (ceros)
+ *   64  T veces: byte longitud y nombre del tipo en ASCII
+ *   ..  int[I]  importes del diccionario en céntimos, de menor a mayor
+ *   ..  columnas tarjeta, tipo, mes, marca e importe, de N valores cada una
+ * </pre>
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+final class BloqueHistorial {
+
+    // ============================
+    // CONSTANTES DEL FORMATO
+    // ============================
+    static final String PREFIJO = "historial-";
+    static final String EXTENSION = ".col";
+    private static final String TEMPORAL = ".tmp";
+
+    private static final int CABECERA = 64;
+    private static final int MAGICO = 0x48434F4C; // "HCOL"
+    private static final int VERSION_FORMATO = 1;
+    private static final int MESES = 12;
+    private static final int BYTES_TARJETA = 5;
+    private static final int TAMANO_BUFFER = 1 << 20;
+
+    // ============================
+    // ESTADO
+    // ============================
+    private final Path fichero;
+    private final MappedByteBuffer datos;
+    private final long primeraSecuencia;
+    private final long ultimaSecuencia;
+    private final int filas;
+    private final int mesesPresentes;
+    private final long marcaMinima;
+    private final long marcaMaxima;
+    private final int bytesMarca;
+    private final int bytesImporte;
+    private final TipoBono[] tipos;
+    private final int[] importes;
+
+    // Posición de cada columna en el fichero
+    private final int inicioTarjetas;
+    private final int inicioTipos;
+    private final int inicioMeses;
+    private final int inicioMarcas;
+    private final int inicioImportes;
+
+    // Primer grupo (ordinal del tipo por 12) de cada código de tipo
+    private final int[] grupoDeTipo;
+
+    private BloqueHistorial(Path fichero, MappedByteBuffer datos) throws IOException {
+        this.fichero = fichero;
+        this.datos = datos;
+        if (datos.getInt(0) != MAGICO || datos.getInt(4) != VERSION_FORMATO) {
+            throw new IOException("Formato desconocido");
+        }
+        primeraSecuencia = datos.getLong(8);
+        ultimaSecuencia = datos.getLong(16);
+        filas = datos.getInt(24);
+        mesesPresentes = datos.getInt(28);
+        marcaMinima = datos.getLong(32);
+        marcaMaxima = datos.getLong(40);
+        bytesMarca = datos.get(48);
+        bytesImporte = datos.get(49);
+        int numeroTipos = datos.get(50);
+        int numeroImportes = datos.getInt(52);
+        if (filas < 0 || (bytesMarca != 4 && bytesMarca != 8)
+                || (bytesImporte != 1 && bytesImporte != 2 && bytesImporte != 4)
+                || numeroTipos < 0 || numeroImportes < 0 || numeroImportes > 1 << 16) {
+            throw new IOException("Cabecera no válida");
+        }
+
+        int posicion = CABECERA;
+        tipos = new TipoBono[numeroTipos];
+        grupoDeTipo = new int[numeroTipos];
+        for (int i = 0; i < numeroTipos; i++) {
+            int longitud = datos.get(posicion);
+            if (longitud <= 0 || posicion + 1 + longitud > datos.limit()) {
+                throw new IOException("Diccionario de tipos dañado");
+            }
+            byte[] nombre = new byte[longitud];
+            ByteBuffer vista = datos.duplicate();
+            vista.position(posicion + 1);
+            vista.get(nombre);
+            try {
+                tipos[i] = TipoBono.valueOf(new String(nombre, StandardCharsets.US_ASCII));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Tipo de bono desconocido en el diccionario: " + e.getMessage());
+            }
+            grupoDeTipo[i] = tipos[i].ordinal() * MESES;
+            posicion += 1 + longitud;
+        }
+        importes = new int[numeroImportes];
+        for (int i = 0; i < numeroImportes; i++) {
+            importes[i] = datos.getInt(posicion);
+            posicion += 4;
+        }
+
+        // Se comprueba antes de calcular las posiciones para que no se desborden
+        if (posicion + (long) filas * (BYTES_TARJETA + 2 + bytesMarca + bytesImporte) != datos.limit()) {
+            throw new IOException("Tamaño incorrecto");
+        }
+        inicioTarjetas = posicion;
+        inicioTipos = inicioTarjetas + filas * BYTES_TARJETA;
+        inicioMeses = inicioTipos + filas;
+        inicioMarcas = inicioMeses + filas;
+        inicioImportes = inicioMarcas + filas * bytesMarca;
+
+        ByteBuffer resto = datos.duplicate();
+        resto.position(CABECERA);
+        CRC32 crc = new CRC32();
+        crc.update(resto);
+        if ((int) crc.getValue() != datos.getInt(56)) {
+            throw new IOException("CRC incorrecto");
+        }
+    }
+
+    // ============================
+    // LECTURA
+    // ============================
+    /**
+     * Proyecta en memoria el bloque del fichero y comprueba que está completo
+     * y sin errores.
+     *
+     * @throws IOException si el fichero no es un bloque o está dañado
+     */
+    static BloqueHistorial abrir(Path fichero) throws IOException {
+        try (FileChannel canal = FileChannel.open(fichero, StandardOpenOption.READ)) {
+            if (canal.size() < CABECERA || canal.size() > Integer.MAX_VALUE) {
+                throw new IOException("Tamaño de fichero no válido: " + canal.size());
+            }
+            MappedByteBuffer datos = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+            datos.order(ByteOrder.LITTLE_ENDIAN);
+            return new BloqueHistorial(fichero, datos);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Diccionarios incompletos", e);
+        }
+    }
+
+    Path getFichero() {
+        return fichero;
+    }
+
+    long getPrimeraSecuencia() {
+        return primeraSecuencia;
+    }
+
+    long getUltimaSecuencia() {
+        return ultimaSecuencia;
+    }
+
+    int getFilas() {
+        return filas;
+    }
+
+    long getBytes() {
+        return datos.limit();
+    }
+
+    /**
+     * Indica si alguna fila del bloque puede cumplir los filtros de la consulta.
+     */
+    boolean puedeContener(ConsultaHistorial consulta) {
+        if (consulta.getMes() >= 0 && (mesesPresentes & (1 << consulta.getMes())) == 0) {
+            return false;
+        }
+        if (consulta.getTipo() != null && !Arrays.asList(tipos).contains(consulta.getTipo())) {
+            return false;
+        }
+        return consulta.getDesde() <= marcaMaxima && consulta.getHasta() > marcaMinima;
+    }
+
+    /**
+     * Suma en {@code parcial} las recargas y los importes de las filas
+     * {@code [desde, hasta)} que cumplen los filtros de marca de tiempo y de
+     * tarjeta, agrupados por tipo y mes. Los filtros de tipo y mes no se
+     * miran fila a fila: se aplican al resultado agrupado.
+     */
+    void agregar(int desde, int hasta, ConsultaHistorial consulta, Parcial parcial) {
+        int n = hasta - desde;
+        parcial.preparar(n);
+        ByteBuffer vista = datos.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        byte[] auxiliar = parcial.auxiliar;
+        int[] grupos = parcial.grupos;
+        int[] valores = parcial.importes;
+
+        // Grupo de cada fila: tipo y mes
+        leer(vista, inicioTipos + desde, auxiliar, n);
+        for (int i = 0; i < n; i++) {
+            grupos[i] = grupoDeTipo[auxiliar[i]];
+        }
+        leer(vista, inicioMeses + desde, auxiliar, n);
+        for (int i = 0; i < n; i++) {
+            grupos[i] += auxiliar[i];
+        }
+
+        // Importe de cada fila
+        if (bytesImporte == 1) {
+            leer(vista, inicioImportes + desde, auxiliar, n);
+            for (int i = 0; i < n; i++) {
+                valores[i] = importes[auxiliar[i] & 0xFF];
+            }
+        } else if (bytesImporte == 2) {
+            vista.position(inicioImportes + desde * 2);
+            vista.asShortBuffer().get(parcial.cortos, 0, n);
+            for (int i = 0; i < n; i++) {
+                valores[i] = importes[parcial.cortos[i] & 0xFFFF];
+            }
+        } else {
+            vista.position(inicioImportes + desde * 4);
+            vista.asIntBuffer().get(valores, 0, n);
+        }
+
+        // Filtros fila a fila: las descartadas quedan en el grupo -1
+        if (consulta.getDesde() > marcaMinima || consulta.getHasta() <= marcaMaxima) {
+            descartarPorMarca(vista, desde, n, consulta, parcial);
+        }
+        if (consulta.getTarjeta() >= 0) {
+            descartarPorTarjeta(vista, desde, n, consulta.getTarjeta() / 10, parcial);
+        }
+
+        long[] recargas = parcial.recargas;
+        long[] sumas = parcial.sumas;
+        for (int i = 0; i < n; i++) {
+            int grupo = grupos[i];
+            if (grupo >= 0) {
+                recargas[grupo]++;
+                sumas[grupo] += valores[i];
+            }
+        }
+    }
+
+    /**
+     * Añade todas las filas del bloque a {@code destino}, para volver a
+     * escribirlo con más recargas.
+     */
+    void copiarEn(Filas destino) {
+        ByteBuffer vista = datos.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < filas; i++) {
+            long base = datos.getInt(inicioTarjetas + i * BYTES_TARJETA) & 0xFFFFFFFFL
+                    | (long) (datos.get(inicioTarjetas + i * BYTES_TARJETA + 4) & 0xFF) << 32;
+            long marca = marcaMinima + (bytesMarca == 4
+                    ? vista.getInt(inicioMarcas + i * 4) & 0xFFFFFFFFL
+                    : vista.getLong(inicioMarcas + i * 8));
+            int importe;
+            if (bytesImporte == 1) {
+                importe = importes[datos.get(inicioImportes + i) & 0xFF];
+            } else if (bytesImporte == 2) {
+                importe = importes[vista.getShort(inicioImportes + i * 2) & 0xFFFF];
+            } else {
+                importe = vista.getInt(inicioImportes + i * 4);
+            }
+            destino.anadir(primeraSecuencia + i, ValidadorTarjeta.completar(base), tipos[datos.get(inicioTipos + i)],
+                    datos.get(inicioMeses + i), importe, marca);
+        }
+    }
+
+    // ============================
+    // ESCRITURA
+    // ============================
+    /**
+     * Escribe las filas como un bloque del directorio, con el nombre de su
+     * primera secuencia (sustituye al bloque anterior con el mismo nombre).
+     * El fichero se escribe con otro nombre y se renombra al terminar.
+     *
+     * @return el fichero del bloque
+     */
+    static Path escribir(Filas filas, Path directorio) throws IOException {
+        int n = filas.cantidad;
+        TipoBono[] todos = TipoBono.values();
+
+        // Diccionario de tipos (los presentes), meses e intervalo de marcas
+        int[] codigoDeTipo = new int[todos.length];
+        Arrays.fill(codigoDeTipo, -1);
+        TipoBono[] diccionarioTipos = new TipoBono[todos.length];
+        int numeroTipos = 0;
+        int meses = 0;
+        long minima = Long.MAX_VALUE;
+        long maxima = Long.MIN_VALUE;
+        for (int i = 0; i < n; i++) {
+            int ordinal = filas.tipos[i];
+            if (codigoDeTipo[ordinal] < 0) {
+                codigoDeTipo[ordinal] = numeroTipos;
+                diccionarioTipos[numeroTipos++] = todos[ordinal];
+            }
+            meses |= 1 << filas.meses[i];
+            minima = Math.min(minima, filas.marcas[i]);
+            maxima = Math.max(maxima, filas.marcas[i]);
+        }
+        if (n == 0) {
+            minima = 0;
+            maxima = 0;
+        }
+        int bytesMarca = maxima - minima <= 0xFFFFFFFFL ? 4 : 8;
+
+        // Diccionario de importes: los distintos, ordenados
+        int[] distintos = Arrays.copyOf(filas.importes, n);
+        Arrays.sort(distintos);
+        int numeroDistintos = 0;
+        for (int i = 0; i < n; i++) {
+            if (i == 0 || distintos[i] != distintos[i - 1]) {
+                distintos[numeroDistintos++] = distintos[i];
+            }
+        }
+        int bytesImporte = numeroDistintos <= 1 << 8 ? 1 : numeroDistintos <= 1 << 16 ? 2 : 4;
+        int[] diccionarioImportes = bytesImporte == 4 ? new int[0] : Arrays.copyOf(distintos, numeroDistintos);
+
+        Files.createDirectories(directorio);
+        Path destino = directorio.resolve(nombre(filas.primeraSecuencia));
+        Path temporal = directorio.resolve(nombre(filas.primeraSecuencia) + TEMPORAL);
+        try (FileChannel canal = FileChannel.open(temporal, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            Salida salida = new Salida(canal, CABECERA);
+            for (int i = 0; i < numeroTipos; i++) {
+                byte[] nombre = diccionarioTipos[i].name().getBytes(StandardCharsets.US_ASCII);
+                salida.espacio(1 + nombre.length).put((byte) nombre.length).put(nombre);
+            }
+            for (int importe : diccionarioImportes) {
+                salida.espacio(4).putInt(importe);
+            }
+            for (int i = 0; i < n; i++) {
+                long base = filas.tarjetas[i] / 10;
+                salida.espacio(BYTES_TARJETA).putInt((int) base).put((byte) (base >>> 32));
+            }
+            for (int i = 0; i < n; i++) {
+                salida.espacio(1).put((byte) codigoDeTipo[filas.tipos[i]]);
+            }
+            for (int i = 0; i < n; i++) {
+                salida.espacio(1).put(filas.meses[i]);
+            }
+            for (int i = 0; i < n; i++) {
+                long diferencia = filas.marcas[i] - minima;
+                if (bytesMarca == 4) {
+                    salida.espacio(4).putInt((int) diferencia);
+                } else {
+                    salida.espacio(8).putLong(diferencia);
+                }
+            }
+            for (int i = 0; i < n; i++) {
+                int importe = filas.importes[i];
+                if (bytesImporte == 1) {
+                    salida.espacio(1).put((byte) Arrays.binarySearch(diccionarioImportes, importe));
+                } else if (bytesImporte == 2) {
+                    salida.espacio(2).putShort((short) Arrays.binarySearch(diccionarioImportes, importe));
+                } else {
+                    salida.espacio(4).putInt(importe);
+                }
+            }
+            salida.vaciar();
+
+            ByteBuffer cabecera = ByteBuffer.allocate(CABECERA).order(ByteOrder.LITTLE_ENDIAN);
+            cabecera.putInt(MAGICO).putInt(VERSION_FORMATO)
+                    .putLong(filas.primeraSecuencia).putLong(filas.ultimaSecuencia)
+                    .putInt(n).putInt(meses).putLong(minima).putLong(maxima)
+                    .put((byte) bytesMarca).put((byte) bytesImporte).put((byte) numeroTipos).put((byte) 0)
+                    .putInt(diccionarioImportes.length).putInt((int) salida.crc.getValue());
+            cabecera.clear();
+            canal.write(cabecera, 0);
+            canal.force(true);
+        }
+
+        try {
+            Files.move(temporal, destino, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporal, destino, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return destino;
+    }
+
+    static String nombre(long primeraSecuencia) {
+        return String.format("%s%020d%s", PREFIJO, primeraSecuencia, EXTENSION);
+    }
+
+    // ============================
+    // MÉTODOS AUXILIARES
+    // ============================
+    private void descartarPorMarca(ByteBuffer vista, int desde, int n, ConsultaHistorial consulta,
+                                   Parcial parcial) {
+        // Intervalo pedido en diferencias con la mínima del bloque
+        long minimo = Math.max(0, consulta.getDesde() - marcaMinima);
+        long maximo = consulta.getHasta() - marcaMinima;
+        int[] grupos = parcial.grupos;
+        if (bytesMarca == 4) {
+            vista.position(inicioMarcas + desde * 4);
+            vista.asIntBuffer().get(parcial.enteros, 0, n);
+            for (int i = 0; i < n; i++) {
+                long diferencia = parcial.enteros[i] & 0xFFFFFFFFL;
+                if (diferencia < minimo || diferencia >= maximo) {
+                    grupos[i] = -1;
+                }
+            }
+        } else {
+            vista.position(inicioMarcas + desde * 8);
+            vista.asLongBuffer().get(parcial.largos, 0, n);
+            for (int i = 0; i < n; i++) {
+                if (parcial.largos[i] < minimo || parcial.largos[i] >= maximo) {
+                    grupos[i] = -1;
+                }
+            }
+        }
+    }
+
+    private void descartarPorTarjeta(ByteBuffer vista, int desde, int n, long base, Parcial parcial) {
+        byte[] auxiliar = parcial.auxiliar;
+        leer(vista, inicioTarjetas + desde * BYTES_TARJETA, auxiliar, n * BYTES_TARJETA);
+        int[] grupos = parcial.grupos;
+        byte primero = (byte) base;
+        for (int i = 0, p = 0; i < n; i++, p += BYTES_TARJETA) {
+            // El primer byte ya descarta casi todas las filas sin componer el número
+            if (auxiliar[p] != primero) {
+                grupos[i] = -1;
+                continue;
+            }
+            long valor = (auxiliar[p] & 0xFFL) | (auxiliar[p + 1] & 0xFFL) << 8 | (auxiliar[p + 2] & 0xFFL) << 16
+                    | (auxiliar[p + 3] & 0xFFL) << 24 | (auxiliar[p + 4] & 0xFFL) << 32;
+            if (valor != base) {
+                grupos[i] = -1;
+            }
+        }
+    }
+
+    private static void leer(ByteBuffer vista, int posicion, byte[] destino, int cantidad) {
+        vista.position(posicion);
+        vista.get(destino, 0, cantidad);
+    }
+
+    // ============================
+    // CLASES AUXILIARES
+    // ============================
+    /**
+     * Recargas pendientes de escribir como bloque, en columnas.
+     */
+    static final class Filas {
+        final long[] tarjetas;
+        final byte[] tipos;
+        final byte[] meses;
+        final long[] marcas;
+        final int[] importes;
+        int cantidad;
+        long primeraSecuencia;
+        long ultimaSecuencia;
+
+        Filas(int capacidad) {
+            tarjetas = new long[capacidad];
+            tipos = new byte[capacidad];
+            meses = new byte[capacidad];
+            marcas = new long[capacidad];
+            importes = new int[capacidad];
+        }
+
+        void anadir(long secuencia, long tarjeta, TipoBono tipo, int mes, int importe, long marca) {
+            if (tarjeta < 0 || tarjeta / 10 >= 1L << (BYTES_TARJETA * 8) || mes < 0 || mes >= MESES) {
+                throw new IllegalArgumentException("Recarga no válida en la secuencia " + secuencia);
+            }
+            if (cantidad == 0) {
+                primeraSecuencia = secuencia;
+            }
+            tarjetas[cantidad] = tarjeta;
+            tipos[cantidad] = (byte) tipo.ordinal();
+            meses[cantidad] = (byte) mes;
+            marcas[cantidad] = marca;
+            importes[cantidad] = importe;
+            cantidad++;
+            ultimaSecuencia = secuencia;
+        }
+
+        boolean llena() {
+            return cantidad == tarjetas.length;
+        }
+
+        void vaciar() {
+            cantidad = 0;
+        }
+    }
+
+    /**
+     * Resultado parcial de una consulta en un hilo: recargas e importes por
+     * tipo y mes, y los arrays en los que se leen las columnas de cada tramo.
+     */
+    static final class Parcial {
+        final long[] recargas = new long[TipoBono.values().length * MESES];
+        final long[] sumas = new long[TipoBono.values().length * MESES];
+        byte[] auxiliar = new byte[0];
+        int[] grupos = new int[0];
+        int[] importes = new int[0];
+        short[] cortos = new short[0];
+        int[] enteros = new int[0];
+        long[] largos = new long[0];
+
+        void preparar(int filas) {
+            if (grupos.length < filas) {
+                auxiliar = new byte[filas * BYTES_TARJETA];
+                grupos = new int[filas];
+                importes = new int[filas];
+                cortos = new short[filas];
+                enteros = new int[filas];
+                largos = new long[filas];
+            }
+        }
+
+        void sumar(Parcial otro) {
+            for (int i = 0; i < recargas.length; i++) {
+                recargas[i] += otro.recargas[i];
+                sumas[i] += otro.sumas[i];
+            }
+        }
+    }
+
+    /**
+     * Escritura secuencial del fichero a través de un buffer, calculando el
+     * CRC de lo escrito.
+     */
+    private static final class Salida {
+        final FileChannel canal;
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(TAMANO_BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+        final CRC32 crc = new CRC32();
+        long posicion;
+
+        Salida(FileChannel canal, long posicion) {
+            this.canal = canal;
+            this.posicion = posicion;
+        }
+
+        /**
+         * Buffer con sitio para {@code bytes} más.
+         */
+        ByteBuffer espacio(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                vaciar();
+            }
+            return buffer;
+        }
+
+        void vaciar() throws IOException {
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            while (buffer.hasRemaining()) {
+                posicion += canal.write(buffer, posicion);
+            }
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package transporte.historial;
+
+import transporte.recarga.TipoBono;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Consulta sobre el {@link HistorialRecargas}: filtros opcionales por tipo de
+ * bono, mes, intervalo de marcas de tiempo y tarjeta, y el resultado agrupado
+ * por tipo y mes.
+ *
+ * <pre>
+ *   ResumenHistorial marzo = historial.consulta().tipo(TipoBono.METRO).mes(2).agrupar();
+ *   long recargas = historial.consulta().entre(desde, hasta).contar();
+ * </pre>
+ *
+ * Las filas de los bloques que pueden tener resultados se reparten en tramos
+ * de {@link #FILAS_POR_TRAMO} que recorre en paralelo el pool común de
+ * fork-join; cada hilo suma en su propio resultado parcial y al final se
+ * combinan. Los filtros de tipo y mes sirven para saltar bloques, pero fila a
+ * fila solo se aplican los de marca de tiempo y tarjeta: las sumas se hacen
+ * siempre por tipo y mes y de ahí se toman las pedidas.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public final class ConsultaHistorial {
+
+    // Filas que lee cada tarea: bastantes para repartir bien y pocas para que quepan en caché
+    static final int FILAS_POR_TRAMO = 1 << 16;
+
+    private final List<BloqueHistorial> bloques;
+    private TipoBono tipo;
+    private int mes = -1;
+    private long desde = Long.MIN_VALUE;
+    private long hasta = Long.MAX_VALUE;
+    private long tarjeta = -1;
+
+    ConsultaHistorial(List<BloqueHistorial> bloques) {
+        this.bloques = bloques;
+    }
+
+    // ============================
+    // FILTROS
+    // ============================
+    /**
+     * Solo las recargas del tipo de bono indicado.
+     */
+    public ConsultaHistorial tipo(TipoBono tipo) {
+        this.tipo = tipo;
+        return this;
+    }
+
+    /**
+     * Solo las recargas del mes indicado (0-11).
+     */
+    public ConsultaHistorial mes(int mes) {
+        if (mes < 0 || mes >= 12) {
+            throw new IllegalArgumentException("Mes no válido: " + mes);
+        }
+        this.mes = mes;
+        return this;
+    }
+
+    /**
+     * Solo las recargas hechas en {@code [desde, hasta)} (ms desde epoch).
+     */
+    public ConsultaHistorial entre(long desde, long hasta) {
+        this.desde = desde;
+        this.hasta = hasta;
+        return this;
+    }
+
+    /**
+     * Solo las recargas de la tarjeta indicada (número completo).
+     */
+    public ConsultaHistorial tarjeta(long tarjeta) {
+        this.tarjeta = tarjeta;
+        return this;
+    }
+
+    // ============================
+    // RESULTADOS
+    // ============================
+    /**
+     * Recargas e importes de las filas que cumplen los filtros, por tipo y mes.
+     */
+    public ResumenHistorial agrupar() {
+        // Tramos de los bloques que pueden tener resultados
+        List<int[]> tramos = new ArrayList<>();
+        for (int i = 0; i < bloques.size(); i++) {
+            BloqueHistorial bloque = bloques.get(i);
+            if (!bloque.puedeContener(this)) {
+                continue;
+            }
+            for (int fila = 0; fila < bloque.getFilas(); fila += FILAS_POR_TRAMO) {
+                tramos.add(new int[]{i, fila, Math.min(fila + FILAS_POR_TRAMO, bloque.getFilas())});
+            }
+        }
+
+        BloqueHistorial.Parcial total = IntStream.range(0, tramos.size()).parallel().collect(
+                BloqueHistorial.Parcial::new,
+                (parcial, i) -> {
+                    int[] tramo = tramos.get(i);
+                    bloques.get(tramo[0]).agregar(tramo[1], tramo[2], this, parcial);
+                },
+                BloqueHistorial.Parcial::sumar);
+        return new ResumenHistorial(total.recargas, total.sumas, tipo, mes);
+    }
+
+    /**
+     * Número de recargas que cumplen los filtros.
+     */
+    public long contar() {
+        return agrupar().getRecargas();
+    }
+
+    /**
+     * Importe total en céntimos de las recargas que cumplen los filtros.
+     */
+    public long sumarImportes() {
+        return agrupar().getImporte();
+    }
+
+    // ============================
+    // FILTROS (para los bloques)
+    // ============================
+    TipoBono getTipo() {
+        return tipo;
+    }
+
+    int getMes() {
+        return mes;
+    }
+
+    long getDesde() {
+        return desde;
+    }
+
+    long getHasta() {
+        return hasta;
+    }
+
+    long getTarjeta() {
+        return tarjeta;
+    }
+}
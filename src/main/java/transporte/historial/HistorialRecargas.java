@@ -0,0 +1,400 @@
+package transporte.historial;
+
+import transporte.persistencia.DiarioRecargas;
+import transporte.recarga.ServicioRecarga;
+import transporte.recarga.TipoBono;
+import transporte.tarifa.MotorTarifas;
+import transporte.tarifa.Perfil;
+import transporte.tarjeta.ValidadorTarjeta;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+/**
+ * Historial de recargas guardado por columnas para los informes.
+ *
+ * El diario está pensado para escribir rápido y reconstruir el estado de las
+ * tarjetas, no para consultas: cada recarga ocupa 40 bytes y sumar las de un
+ * mes obliga a leerlo entero. El historial es una copia de sus recargas en
+ * bloques de {@link #FILAS_POR_BLOQUE} filas con cada dato en una columna
+ * comprimida ({@link BloqueHistorial}), sobre la que las agregaciones por tipo
+ * y mes leen 3 bytes por recarga repartiendo el trabajo entre todos los
+ * núcleos ({@link ConsultaHistorial}).
+ *
+ * El historial se actualiza con {@link #compactar(Path, Path)}, que añade las
+ * recargas del diario posteriores al último bloque: este, si no estaba lleno,
+ * se vuelve a escribir con ellas. Se lee el diario sin abrirlo para escribir,
+ * así que se puede compactar con la aplicación en marcha.
+ *
+ * <pre>
+ *   HistorialRecargas.compactar(diario, directorio);
+ *   HistorialRecargas historial = HistorialRecargas.abrir(directorio);
+ *   System.out.print(historial.consulta().tipo(TipoBono.METRO).agrupar().texto());
+ * </pre>
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public final class HistorialRecargas {
+
+    // ============================
+    // CONSTANTES
+    // ============================
+    // Unos 48 MB por bloque
+    public static final int FILAS_POR_BLOQUE = 1 << 22;
+
+    private static final int REPETICIONES_POR_DEFECTO = 5;
+    private static final long DIA_MS = 24L * 60 * 60 * 1000;
+
+    // ============================
+    // ESTADO
+    // ============================
+    private final Path directorio;
+    private final List<BloqueHistorial> bloques;
+
+    private HistorialRecargas(Path directorio, List<BloqueHistorial> bloques) {
+        this.directorio = directorio;
+        this.bloques = Collections.unmodifiableList(bloques);
+    }
+
+    // ============================
+    // APERTURA Y COMPACTACIÓN
+    // ============================
+    /**
+     * Abre los bloques del directorio (comprobando su CRC en paralelo). Los
+     * dañados se descartan con un aviso; {@link #compactar(Path, Path)} los
+     * vuelve a generar desde el diario.
+     */
+    public static HistorialRecargas abrir(Path directorio) throws IOException {
+        List<BloqueHistorial> bloques = listar(directorio).parallelStream()
+                .map(HistorialRecargas::abrirBloque)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+        return new HistorialRecargas(directorio, bloques);
+    }
+
+    /**
+     * Añade al historial del directorio las recargas del diario posteriores a
+     * su último bloque.
+     *
+     * @return recargas añadidas
+     */
+    public static long compactar(Path diario, Path directorio) throws IOException {
+        return compactar(diario, directorio, FILAS_POR_BLOQUE);
+    }
+
+    static long compactar(Path diario, Path directorio, int filasPorBloque) throws IOException {
+        BloqueHistorial.Filas filas = new BloqueHistorial.Filas(filasPorBloque);
+        long desde = prepararContinuacion(directorio, filas);
+        long[] anadidas = {0};
+        try {
+            DiarioRecargas.reproducir(diario, desde, (secuencia, tarjeta, tipo, mes, importe, marcaTiempo) -> {
+                filas.anadir(secuencia, tarjeta, tipo, mes, importe, marcaTiempo);
+                anadidas[0]++;
+                if (filas.llena()) {
+                    escribir(filas, directorio);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (anadidas[0] > 0 && filas.cantidad > 0) {
+            BloqueHistorial.escribir(filas, directorio);
+        }
+        return anadidas[0];
+    }
+
+    // ============================
+    // CONSULTA
+    // ============================
+    /**
+     * Nueva consulta sobre todas las recargas del historial.
+     */
+    public ConsultaHistorial consulta() {
+        return new ConsultaHistorial(bloques);
+    }
+
+    public Path getDirectorio() {
+        return directorio;
+    }
+
+    public int getNumeroBloques() {
+        return bloques.size();
+    }
+
+    public long getFilas() {
+        long total = 0;
+        for (BloqueHistorial bloque : bloques) {
+            total += bloque.getFilas();
+        }
+        return total;
+    }
+
+    public long getBytes() {
+        long total = 0;
+        for (BloqueHistorial bloque : bloques) {
+            total += bloque.getBytes();
+        }
+        return total;
+    }
+
+    /**
+     * Secuencia del diario de la última recarga del historial (0 si está vacío).
+     */
+    public long getUltimaSecuencia() {
+        return bloques.isEmpty() ? 0 : bloques.get(bloques.size() - 1).getUltimaSecuencia();
+    }
+
+    // ============================
+    // METODO PRINCIPAL
+    // ============================
+    /**
+     * Informe mensual por tipo de bono desde la línea de comandos:
+     * {@code Lanzador --historial [--directorio dir] [--diario dir] [--sin-compactar]
+     * [--tipo BUS|METRO] [--desde AAAA-MM-DD] [--hasta AAAA-MM-DD]
+     * [--repeticiones N] [--generar N]}.
+     *
+     * Antes del informe compacta el diario en el historial y después mide el
+     * tiempo de la agregación. Con {@code --generar} añade al historial
+     * recargas inventadas para medir con muchos millones de filas; solo se
+     * admite con un {@code --directorio} propio, para no mezclarlas con las
+     * reales.
+     */
+    public static void main(String[] args) throws IOException {
+        Path datos = ServicioRecarga.directorioDatos();
+        Path directorio = null;
+        Path diario = datos.resolve("diario");
+        boolean compactar = true;
+        TipoBono tipo = null;
+        long desde = Long.MIN_VALUE;
+        long hasta = Long.MAX_VALUE;
+        int repeticiones = REPETICIONES_POR_DEFECTO;
+        long generar = 0;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String opcion = args[i];
+                if ("--sin-compactar".equals(opcion)) {
+                    compactar = false;
+                    continue;
+                }
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Falta el valor de " + opcion);
+                }
+                String valor = args[++i];
+                switch (opcion) {
+                    case "--directorio":
+                        directorio = Paths.get(valor);
+                        break;
+                    case "--diario":
+                        diario = Paths.get(valor);
+                        break;
+                    case "--tipo":
+                        tipo = TipoBono.desdeTexto(valor);
+                        if (tipo == null) {
+                            throw new IllegalArgumentException("Tipo de bono desconocido: " + valor);
+                        }
+                        break;
+                    case "--desde":
+                        desde = inicioDelDia(valor);
+                        break;
+                    case "--hasta":
+                        // Incluido el día indicado
+                        hasta = inicioDelDia(valor) + DIA_MS;
+                        break;
+                    case "--repeticiones":
+                        repeticiones = Integer.parseInt(valor);
+                        break;
+                    case "--generar":
+                        generar = Long.parseLong(valor);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Opción desconocida: " + opcion);
+                }
+            }
+            if (generar > 0 && directorio == null) {
+                throw new IllegalArgumentException("--generar necesita un --directorio aparte del historial real");
+            }
+            if (repeticiones < 1) {
+                throw new IllegalArgumentException("--repeticiones debe ser al menos 1");
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Uso: --historial [--directorio dir] [--diario dir] [--sin-compactar]"
+                    + " [--tipo BUS|METRO] [--desde AAAA-MM-DD] [--hasta AAAA-MM-DD]"
+                    + " [--repeticiones N] [--generar N]");
+            System.exit(2);
+            return;
+        }
+        if (directorio == null) {
+            directorio = datos.resolve("historial");
+        }
+
+        if (generar > 0) {
+            long inicio = System.nanoTime();
+            generar(directorio, generar);
+            System.out.printf("Generadas %d recargas en %d ms%n", generar, (System.nanoTime() - inicio) / 1_000_000L);
+        } else if (compactar) {
+            long inicio = System.nanoTime();
+            long anadidas = compactar(diario, directorio);
+            System.out.printf("Compactadas %d recargas nuevas del diario en %d ms%n", anadidas,
+                    (System.nanoTime() - inicio) / 1_000_000L);
+        }
+
+        long inicio = System.nanoTime();
+        HistorialRecargas historial = abrir(directorio);
+        System.out.printf("Historial: %d recargas en %d bloques (%d MB), abierto en %d ms%n",
+                historial.getFilas(), historial.getNumeroBloques(), historial.getBytes() >> 20,
+                (System.nanoTime() - inicio) / 1_000_000L);
+
+        ResumenHistorial resumen = null;
+        long primera = 0;
+        long mejor = Long.MAX_VALUE;
+        for (int i = 0; i < repeticiones; i++) {
+            long desdeConsulta = System.nanoTime();
+            ConsultaHistorial consulta = historial.consulta().tipo(tipo).entre(desde, hasta);
+            resumen = consulta.agrupar();
+            long duracion = System.nanoTime() - desdeConsulta;
+            primera = i == 0 ? duracion : primera;
+            mejor = Math.min(mejor, duracion);
+        }
+        System.out.printf("Agregación por tipo y mes: %d ms la primera vez, %d ms la mejor de %d"
+                        + " (%.0f millones de filas/s con %d hilos)%n%n",
+                primera / 1_000_000L, mejor / 1_000_000L, repeticiones,
+                historial.getFilas() * 1e3 / Math.max(1, mejor),
+                ForkJoinPool.getCommonPoolParallelism());
+        System.out.print(resumen.texto());
+    }
+
+    // ============================
+    // MÉTODOS AUXILIARES
+    // ============================
+    /**
+     * Deja en {@code filas} las recargas del último bloque si no está lleno
+     * (para escribirlo de nuevo con las siguientes) y borra los bloques que
+     * no siguen a los anteriores o están dañados, que se rehacen desde el
+     * diario.
+     *
+     * @return secuencia a partir de la que hay que leer el diario
+     */
+    private static long prepararContinuacion(Path directorio, BloqueHistorial.Filas filas) throws IOException {
+        List<Path> ficheros = listar(directorio);
+        BloqueHistorial ultimo = null;
+        int validos = 0;
+        for (Path fichero : ficheros) {
+            BloqueHistorial bloque = abrirBloque(fichero);
+            if (bloque == null
+                    || (ultimo != null && bloque.getPrimeraSecuencia() != ultimo.getUltimaSecuencia() + 1)) {
+                break;
+            }
+            ultimo = bloque;
+            validos++;
+        }
+        for (int i = validos; i < ficheros.size(); i++) {
+            System.err.println("Advertencia: Se rehace desde el diario el bloque '" + ficheros.get(i) + "'");
+            Files.delete(ficheros.get(i));
+        }
+        if (ultimo == null) {
+            return 0;
+        }
+        if (ultimo.getFilas() < filas.tarjetas.length) {
+            ultimo.copiarEn(filas);
+        }
+        return ultimo.getUltimaSecuencia();
+    }
+
+    private static void escribir(BloqueHistorial.Filas filas, Path directorio) {
+        try {
+            BloqueHistorial.escribir(filas, directorio);
+            filas.vaciar();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static BloqueHistorial abrirBloque(Path fichero) {
+        try {
+            return BloqueHistorial.abrir(fichero);
+        } catch (IOException e) {
+            System.err.println("Advertencia: Se descarta el bloque del historial '" + fichero + "': "
+                    + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Añade al historial {@code cantidad} recargas inventadas a lo largo del
+     * último año, con el reparto de tipos y tarifas de la aplicación. Sirve
+     * para medir las consultas sin tener que recargar cien millones de veces.
+     */
+    public static void generar(Path directorio, long cantidad) throws IOException {
+        BloqueHistorial.Filas filas = new BloqueHistorial.Filas(FILAS_POR_BLOQUE);
+        long secuencia = prepararContinuacion(directorio, filas);
+        MotorTarifas tarifas = MotorTarifas.compartido();
+        Perfil[] perfiles = Perfil.values();
+        SplittableRandom aleatorio = new SplittableRandom(secuencia + 1);
+        ZonedDateTime hoy = LocalDate.now().atStartOfDay(ZoneId.systemDefault());
+        ZonedDateTime dia = hoy.minusYears(1);
+        long inicio = dia.toInstant().toEpochMilli();
+        long intervalo = hoy.toInstant().toEpochMilli() - inicio;
+        int mes = dia.getMonthValue() - 1;
+        long finMes = dia.withDayOfMonth(1).plusMonths(1).toInstant().toEpochMilli();
+        for (long i = 0; i < cantidad; i++) {
+            long marca = inicio + (long) ((double) intervalo * i / cantidad);
+            while (marca >= finMes) {
+                dia = dia.withDayOfMonth(1).plusMonths(1);
+                mes = dia.getMonthValue() - 1;
+                finMes = dia.plusMonths(1).toInstant().toEpochMilli();
+            }
+            long tarjeta = ValidadorTarjeta.completar(10_000_000_000L + aleatorio.nextInt(1_000_000));
+            // Cada tarjeta tiene siempre el mismo tipo, como en la aplicación
+            TipoBono tipo = tarjeta % 7 < 4 ? TipoBono.METRO : TipoBono.BUS;
+            Perfil perfil = perfiles[aleatorio.nextInt(perfiles.length)];
+            filas.anadir(++secuencia, tarjeta, tipo, mes, tarifas.precio(tipo, mes, perfil), marca);
+            if (filas.llena()) {
+                BloqueHistorial.escribir(filas, directorio);
+                filas.vaciar();
+            }
+        }
+        if (filas.cantidad > 0) {
+            BloqueHistorial.escribir(filas, directorio);
+        }
+    }
+
+    private static long inicioDelDia(String fecha) {
+        try {
+            return LocalDate.parse(fecha).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Fecha no válida (AAAA-MM-DD): " + fecha);
+        }
+    }
+
+    private static List<Path> listar(Path directorio) throws IOException {
+        List<Path> ficheros = new ArrayList<>();
+        if (!Files.isDirectory(directorio)) {
+            return ficheros;
+        }
+        try (DirectoryStream<Path> entradas = Files.newDirectoryStream(directorio,
+                BloqueHistorial.PREFIJO + "*" + BloqueHistorial.EXTENSION)) {
+            for (Path fichero : entradas) {
+                ficheros.add(fichero);
+            }
+        }
+        // La secuencia va con ceros a la izquierda: el orden alfabético es el cronológico
+        Collections.sort(ficheros);
+        return ficheros;
+    }
+}
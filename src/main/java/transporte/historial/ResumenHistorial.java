@@ -0,0 +1,117 @@
+package transporte.historial;
+
+import transporte.recarga.TipoBono;
+
+import java.time.Month;
+import java.time.format.TextStyle;
+import java.util.Locale;
+
+/**
+ * Resultado de una {@link ConsultaHistorial}: número de recargas e importe
+ * cobrado por tipo de bono y mes, con sus totales.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public final class ResumenHistorial {
+
+    private static final int MESES = 12;
+    private static final Locale ESPANOL = new Locale("es", "ES");
+
+    // Indexados por ordinal del tipo * 12 + mes
+    private final long[] recargas;
+    private final long[] importes;
+
+    /**
+     * Conserva solo las celdas del tipo y el mes pedidos ({@code null} y -1
+     * para todos).
+     */
+    ResumenHistorial(long[] recargas, long[] importes, TipoBono tipo, int mes) {
+        this.recargas = recargas.clone();
+        this.importes = importes.clone();
+        for (int i = 0; i < recargas.length; i++) {
+            boolean otroTipo = tipo != null && i / MESES != tipo.ordinal();
+            boolean otroMes = mes >= 0 && i % MESES != mes;
+            if (otroTipo || otroMes) {
+                this.recargas[i] = 0;
+                this.importes[i] = 0;
+            }
+        }
+    }
+
+    // ============================
+    // CONSULTA
+    // ============================
+    public long getRecargas(TipoBono tipo, int mes) {
+        return recargas[tipo.ordinal() * MESES + mes];
+    }
+
+    /**
+     * Importe cobrado en céntimos.
+     */
+    public long getImporte(TipoBono tipo, int mes) {
+        return importes[tipo.ordinal() * MESES + mes];
+    }
+
+    public long getRecargas(TipoBono tipo) {
+        return sumar(recargas, tipo);
+    }
+
+    public long getImporte(TipoBono tipo) {
+        return sumar(importes, tipo);
+    }
+
+    public long getRecargas() {
+        return sumar(recargas, null);
+    }
+
+    public long getImporte() {
+        return sumar(importes, null);
+    }
+
+    // ============================
+    // SALIDA
+    // ============================
+    /**
+     * Tabla por meses con las recargas y el importe de cada tipo de bono.
+     */
+    public String texto() {
+        TipoBono[] tipos = TipoBono.values();
+        StringBuilder texto = new StringBuilder(String.format(Locale.ROOT, "%-12s", "Mes"));
+        for (TipoBono tipo : tipos) {
+            texto.append(String.format(Locale.ROOT, " %12s %16s", tipo.getCodigo(), "importe"));
+        }
+        texto.append('\n');
+        for (int mes = 0; mes < MESES; mes++) {
+            String nombre = Month.of(mes + 1).getDisplayName(TextStyle.FULL, ESPANOL);
+            texto.append(String.format(Locale.ROOT, "%-12s", Character.toUpperCase(nombre.charAt(0))
+                    + nombre.substring(1)));
+            for (TipoBono tipo : tipos) {
+                linea(texto, getRecargas(tipo, mes), getImporte(tipo, mes));
+            }
+            texto.append('\n');
+        }
+        texto.append(String.format(Locale.ROOT, "%-12s", "Total"));
+        for (TipoBono tipo : tipos) {
+            linea(texto, getRecargas(tipo), getImporte(tipo));
+        }
+        return texto.append('\n').toString();
+    }
+
+    // ============================
+    // MÉTODOS AUXILIARES
+    // ============================
+    private static long sumar(long[] valores, TipoBono tipo) {
+        long total = 0;
+        for (int i = 0; i < valores.length; i++) {
+            if (tipo == null || i / MESES == tipo.ordinal()) {
+                total += valores[i];
+            }
+        }
+        return total;
+    }
+
+    private static void linea(StringBuilder texto, long recargas, long importe) {
+        texto.append(String.format(Locale.ROOT, " %12d", recargas))
+                .append(String.format(ESPANOL, " %14.2f €", importe / 100.0));
+    }
+}
@@ -0,0 +1,332 @@
+package transporte.importacion;
+
+import transporte.recarga.ResultadoRecarga;
+import transporte.recarga.ServicioRecarga;
+import transporte.recarga.TipoBono;
+import transporte.tarjeta.ValidadorTarjeta;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Importación masiva de recargas desde un fichero CSV con las columnas
+ * {@code tarjeta,tipo,mes} (mes de 1 a 12, tipo "BUS", "METRO" o la etiqueta
+ * del combo de login). Admite una primera línea de cabecera.
+ *
+ * El fichero se lee en streaming y se reparte en lotes que se procesan en
+ * paralelo; nunca hay en memoria más de unos pocos lotes por hilo, así que el
+ * consumo no depende del tamaño del fichero. Cada lote espera un único volcado
+ * del diario de recargas. El informe se escribe en el mismo orden que la entrada,
+ * con una línea por fila: {@code linea,tarjeta,tipo,mes,resultado}.
+ *
+ * Las filas de una misma tarjeta que caen en lotes distintos pueden aplicarse
+ * en cualquier orden entre sí.
+ *
+ * Uso: {@code java Lanzador --importar entrada.csv [informe.csv] [--hilos N]}
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public class ImportadorMasivo {
+
+    // ============================
+    // CONSTANTES
+    // ============================
+    private static final int TAMANO_LOTE = 10_000;
+    private static final int LOTES_POR_HILO = 2;
+    private static final char SEPARADOR = ',';
+
+    // Resultado de las filas que no tienen exactamente tres columnas
+    public static final String FORMATO_INCORRECTO = "FORMATO_INCORRECTO";
+
+    // ============================
+    // ESTADO
+    // ============================
+    private final ServicioRecarga servicio;
+    private final int hilos;
+
+    private long filas;
+    private long formatoIncorrecto;
+    private final Map<ResultadoRecarga.Estado, Long> porEstado =
+            new EnumMap<ResultadoRecarga.Estado, Long>(ResultadoRecarga.Estado.class);
+
+    public ImportadorMasivo(ServicioRecarga servicio, int hilos) {
+        if (hilos < 1) {
+            throw new IllegalArgumentException("Número de hilos no válido: " + hilos);
+        }
+        this.servicio = servicio;
+        this.hilos = hilos;
+    }
+
+    // ============================
+    // IMPORTACIÓN
+    // ============================
+    /**
+     * Importa el fichero de entrada y escribe el informe fila a fila.
+     */
+    public void importar(Path entrada, Path informe) throws IOException {
+        ExecutorService ejecutor = Executors.newFixedThreadPool(hilos, r -> {
+            Thread hilo = new Thread(r, "importacion-recargas");
+            hilo.setDaemon(true);
+            return hilo;
+        });
+        ArrayDeque<Future<Lote>> pendientes = new ArrayDeque<Future<Lote>>();
+        int maximoPendientes = hilos * LOTES_POR_HILO;
+
+        try (BufferedReader lector = Files.newBufferedReader(entrada, StandardCharsets.UTF_8);
+             BufferedWriter escritor = Files.newBufferedWriter(informe, StandardCharsets.UTF_8)) {
+            escritor.write("linea,tarjeta,tipo,mes,resultado");
+            escritor.newLine();
+
+            long numeroLinea = 0;
+            Lote lote = null;
+            String linea;
+            while ((linea = lector.readLine()) != null) {
+                numeroLinea++;
+                if (linea.trim().isEmpty() || (numeroLinea == 1 && esCabecera(linea))) {
+                    continue;
+                }
+                if (lote == null) {
+                    lote = new Lote();
+                }
+                lote.anadir(numeroLinea, linea);
+                if (lote.cantidad == TAMANO_LOTE) {
+                    if (pendientes.size() == maximoPendientes) {
+                        escribir(esperar(pendientes.poll()), escritor);
+                    }
+                    pendientes.add(ejecutor.submit(lote::procesar));
+                    lote = null;
+                }
+            }
+            if (lote != null) {
+                pendientes.add(ejecutor.submit(lote::procesar));
+            }
+            while (!pendientes.isEmpty()) {
+                escribir(esperar(pendientes.poll()), escritor);
+            }
+        } finally {
+            for (Future<Lote> pendiente : pendientes) {
+                pendiente.cancel(true);
+            }
+            ejecutor.shutdownNow();
+        }
+    }
+
+    private static Lote esperar(Future<Lote> futuro) throws IOException {
+        try {
+            return futuro.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Importación interrumpida", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Error al procesar un lote", e.getCause());
+        }
+    }
+
+    /**
+     * Escribe las filas del lote en el informe y acumula los totales.
+     */
+    private void escribir(Lote lote, BufferedWriter escritor) throws IOException {
+        for (int i = 0; i < lote.cantidad; i++) {
+            String linea = lote.lineas[i];
+            int[] c = lote.comas[i];
+            escritor.write(Long.toString(lote.numeros[i]));
+            escritor.write(SEPARADOR);
+            ResultadoRecarga resultado = lote.resultados[i];
+            if (resultado == null) {
+                escritor.write(escapar(linea));
+                escritor.write(",,,");
+                escritor.write(FORMATO_INCORRECTO);
+                formatoIncorrecto++;
+            } else {
+                escritor.write(escapar(linea.substring(0, c[0]).trim()));
+                escritor.write(SEPARADOR);
+                escritor.write(escapar(linea.substring(c[0] + 1, c[1]).trim()));
+                escritor.write(SEPARADOR);
+                escritor.write(escapar(linea.substring(c[1] + 1).trim()));
+                escritor.write(SEPARADOR);
+                escritor.write(resultado.getEstado().name());
+                Long anterior = porEstado.get(resultado.getEstado());
+                porEstado.put(resultado.getEstado(), anterior == null ? 1L : anterior + 1);
+            }
+            escritor.newLine();
+            filas++;
+        }
+    }
+
+    // ============================
+    // RESUMEN
+    // ============================
+    public long getFilas() {
+        return filas;
+    }
+
+    public long getFilas(ResultadoRecarga.Estado estado) {
+        Long cantidad = porEstado.get(estado);
+        return cantidad == null ? 0 : cantidad;
+    }
+
+    public long getFormatoIncorrecto() {
+        return formatoIncorrecto;
+    }
+
+    // ============================
+    // MÉTODOS AUXILIARES
+    // ============================
+    /**
+     * La primera línea es cabecera si su primera columna no empieza por un dígito.
+     */
+    private static boolean esCabecera(String linea) {
+        for (int i = 0; i < linea.length(); i++) {
+            char c = linea.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                return c < '0' || c > '9';
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Mes escrito de 1 a 12 convertido a 0-11, o -1 si no es un número.
+     */
+    private static int parsearMes(String linea, int desde, int hasta) {
+        while (desde < hasta && Character.isWhitespace(linea.charAt(desde))) {
+            desde++;
+        }
+        while (hasta > desde && Character.isWhitespace(linea.charAt(hasta - 1))) {
+            hasta--;
+        }
+        if (hasta == desde || hasta - desde > 2) {
+            return -1;
+        }
+        int valor = 0;
+        for (int i = desde; i < hasta; i++) {
+            char c = linea.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            valor = valor * 10 + (c - '0');
+        }
+        return valor - 1;
+    }
+
+    private static String escapar(String campo) {
+        if (campo.indexOf(SEPARADOR) < 0 && campo.indexOf('"') < 0) {
+            return campo;
+        }
+        return '"' + campo.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * Bloque de líneas consecutivas de la entrada junto con sus resultados.
+     */
+    private final class Lote {
+        final long[] numeros = new long[TAMANO_LOTE];
+        final String[] lineas = new String[TAMANO_LOTE];
+        final int[][] comas = new int[TAMANO_LOTE][];
+        final ResultadoRecarga[] resultados = new ResultadoRecarga[TAMANO_LOTE];
+        int cantidad;
+
+        void anadir(long numero, String linea) {
+            numeros[cantidad] = numero;
+            lineas[cantidad] = linea;
+            cantidad++;
+        }
+
+        Lote procesar() {
+            long[] tarjetas = new long[cantidad];
+            TipoBono[] tipos = new TipoBono[cantidad];
+            int[] meses = new int[cantidad];
+            int[] posiciones = new int[cantidad];
+            int validas = 0;
+
+            for (int i = 0; i < cantidad; i++) {
+                String linea = lineas[i];
+                int primera = linea.indexOf(SEPARADOR);
+                int segunda = primera < 0 ? -1 : linea.indexOf(SEPARADOR, primera + 1);
+                if (segunda < 0 || linea.indexOf(SEPARADOR, segunda + 1) >= 0) {
+                    continue;
+                }
+                comas[i] = new int[] {primera, segunda};
+                tarjetas[validas] = ValidadorTarjeta.parsear(linea, 0, primera);
+                tipos[validas] = TipoBono.desdeTexto(linea.substring(primera + 1, segunda).trim());
+                meses[validas] = parsearMes(linea, segunda + 1, linea.length());
+                posiciones[validas] = i;
+                validas++;
+            }
+
+            ResultadoRecarga[] lote = servicio.recargarLote(tarjetas, tipos, meses, validas);
+            for (int i = 0; i < validas; i++) {
+                resultados[posiciones[i]] = lote[i];
+            }
+            return this;
+        }
+    }
+
+    // ============================
+    // LÍNEA DE COMANDOS
+    // ============================
+    /**
+     * {@code entrada.csv [informe.csv] [--hilos N]}. Si no se indica informe se
+     * escribe junto a la entrada con el sufijo {@code .resultado.csv}.
+     */
+    public static void main(String[] args) throws IOException {
+        Path entrada = null;
+        Path informe = null;
+        int hilos = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < args.length; i++) {
+            if ("--hilos".equals(args[i]) && i + 1 < args.length) {
+                hilos = Integer.parseInt(args[++i]);
+            } else if (entrada == null) {
+                entrada = Paths.get(args[i]);
+            } else if (informe == null) {
+                informe = Paths.get(args[i]);
+            }
+        }
+        if (entrada == null) {
+            System.err.println("Uso: --importar entrada.csv [informe.csv] [--hilos N]");
+            System.exit(2);
+        }
+        if (informe == null) {
+            informe = entrada.resolveSibling(entrada.getFileName() + ".resultado.csv");
+        }
+
+        ServicioRecarga servicio;
+        try {
+            servicio = ServicioRecarga.compartidoConDiario();
+        } catch (IOException e) {
+            // Sin diario la importación no dejaría nada guardado
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        ImportadorMasivo importador = new ImportadorMasivo(servicio, hilos);
+        long inicio = System.nanoTime();
+        importador.importar(entrada, informe);
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+
+        System.out.println("Filas procesadas: " + importador.getFilas());
+        for (ResultadoRecarga.Estado estado : ResultadoRecarga.Estado.values()) {
+            long cantidad = importador.getFilas(estado);
+            if (cantidad > 0) {
+                System.out.println("  " + estado + ": " + cantidad);
+            }
+        }
+        if (importador.getFormatoIncorrecto() > 0) {
+            System.out.println("  " + FORMATO_INCORRECTO + ": " + importador.getFormatoIncorrecto());
+        }
+        System.out.printf("Tiempo: %.2f s (%.0f filas/s)%n", segundos, importador.getFilas() / segundos);
+        System.out.println("Informe: " + informe);
+    }
+}
@@ -0,0 +1,144 @@
+package transporte.metricas;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma de latencias en nanosegundos con cubetas logarítmicas al estilo
+ * de HdrHistogram: cada potencia de dos se divide en 32 cubetas, así que el
+ * error relativo de cualquier percentil no pasa del 3,2 % desde 1 ns hasta más
+ * de una hora.
+ *
+ * Registrar un valor es un cálculo de índice y un incremento atómico, sin
+ * cerrojos ni reservas de memoria, para poder dejarlo activo en producción.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public final class HistogramaLatencia {
+
+    // ============================
+    // CONSTANTES
+    // ============================
+    private static final int BITS_SUBCUBETA = 5;
+    private static final int SUBCUBETAS = 1 << BITS_SUBCUBETA;
+    // Valores de hasta 2^42 ns (unos 73 minutos); los mayores van a la última cubeta
+    private static final int BITS_MAXIMOS = 42;
+    private static final int CUBETAS = (BITS_MAXIMOS - BITS_SUBCUBETA) * SUBCUBETAS + 2 * SUBCUBETAS;
+
+    // ============================
+    // ESTADO
+    // ============================
+    private final AtomicLongArray cuentas = new AtomicLongArray(CUBETAS);
+    private final LongAdder suma = new LongAdder();
+    private final AtomicLong maximo = new AtomicLong();
+
+    // ============================
+    // REGISTRO
+    // ============================
+    /**
+     * Registra una duración en nanosegundos (los valores negativos cuentan como 0).
+     */
+    public void registrar(long nanos) {
+        long valor = Math.max(nanos, 0);
+        cuentas.getAndIncrement(indice(valor));
+        suma.add(valor);
+        long actual = maximo.get();
+        while (valor > actual && !maximo.compareAndSet(actual, valor)) {
+            actual = maximo.get();
+        }
+    }
+
+    /**
+     * Registra el tiempo transcurrido desde {@code inicio}, obtenido con {@link System#nanoTime()}.
+     */
+    public void registrarDesde(long inicio) {
+        registrar(System.nanoTime() - inicio);
+    }
+
+    // ============================
+    // CONSULTA
+    // ============================
+    /**
+     * Copia de los contadores para calcular percentiles sobre ella.
+     */
+    public Instantanea instantanea() {
+        long[] copia = new long[CUBETAS];
+        long total = 0;
+        for (int i = 0; i < CUBETAS; i++) {
+            copia[i] = cuentas.get(i);
+            total += copia[i];
+        }
+        return new Instantanea(copia, total, suma.sum(), maximo.get());
+    }
+
+    /**
+     * Estado del histograma en un momento dado.
+     */
+    public static final class Instantanea {
+        private final long[] cuentas;
+        private final long total;
+        private final long suma;
+        private final long maximo;
+
+        private Instantanea(long[] cuentas, long total, long suma, long maximo) {
+            this.cuentas = cuentas;
+            this.total = total;
+            this.suma = suma;
+            this.maximo = maximo;
+        }
+
+        public long getCuenta() {
+            return total;
+        }
+
+        /**
+         * Suma de todas las duraciones registradas, en nanosegundos.
+         */
+        public long getSuma() {
+            return suma;
+        }
+
+        public long getMaximo() {
+            return maximo;
+        }
+
+        /**
+         * Duración en nanosegundos por debajo de la cual queda el porcentaje
+         * indicado (0-100) de los valores registrados.
+         */
+        public long percentil(double porcentaje) {
+            if (total == 0) {
+                return 0;
+            }
+            long objetivo = Math.max(1, (long) Math.ceil(total * porcentaje / 100.0));
+            long acumulado = 0;
+            for (int i = 0; i < cuentas.length; i++) {
+                acumulado += cuentas[i];
+                if (acumulado >= objetivo) {
+                    return Math.min(limiteSuperior(i), maximo);
+                }
+            }
+            return maximo;
+        }
+    }
+
+    // ============================
+    // MÉTODOS AUXILIARES
+    // ============================
+    /**
+     * Cubeta del valor: los menores de 64 tienen una cubeta cada uno; a partir
+     * de ahí cada potencia de dos se reparte en 32 cubetas del mismo ancho.
+     */
+    static int indice(long valor) {
+        int exponente = Math.max(0, 63 - Long.numberOfLeadingZeros(valor) - BITS_SUBCUBETA);
+        int indice = exponente * SUBCUBETAS + (int) (valor >>> exponente);
+        return Math.min(indice, CUBETAS - 1);
+    }
+
+    static long limiteSuperior(int indice) {
+        int exponente = Math.max(0, indice / SUBCUBETAS - 1);
+        long inferior = (long) (indice - exponente * SUBCUBETAS) << exponente;
+        return inferior + (1L << exponente) - 1;
+    }
+}
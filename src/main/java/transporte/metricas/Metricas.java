@@ -0,0 +1,208 @@
+package transporte.metricas;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Registro de métricas de la aplicación: contadores y histogramas de latencia
+ * identificados por nombre y etiquetas.
+ *
+ * Las métricas se crean una vez (normalmente en un campo estático) y después
+ * se actualizan directamente, sin pasar por el registro, de modo que medir no
+ * cuesta más que un incremento atómico. El registro solo se recorre al
+ * exportarlas en formato de texto de Prometheus o al volcarlas al log.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public final class Metricas {
+
+    // ============================
+    // CONSTANTES
+    // ============================
+    // Percentiles que se exportan de cada histograma
+    private static final double[] CUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final double NANOS_POR_SEGUNDO = 1e9;
+
+    private static final Metricas GLOBAL = new Metricas();
+
+    // ============================
+    // ESTADO
+    // ============================
+    private final ConcurrentMap<String, Familia> familias = new ConcurrentSkipListMap<>();
+
+    /**
+     * Registro compartido por toda la aplicación.
+     */
+    public static Metricas global() {
+        return GLOBAL;
+    }
+
+    // ============================
+    // REGISTRO DE MÉTRICAS
+    // ============================
+    /**
+     * Contador con el nombre y las etiquetas indicados, que se crea la primera vez.
+     *
+     * @param etiquetas pares nombre, valor
+     */
+    public LongAdder contador(String nombre, String ayuda, String... etiquetas) {
+        return (LongAdder) familia(nombre, ayuda, Tipo.CONTADOR).metricas
+                .computeIfAbsent(etiquetas(etiquetas), clave -> new LongAdder());
+    }
+
+    /**
+     * Histograma de latencias con el nombre y las etiquetas indicados, que se
+     * crea la primera vez. Se exporta en segundos.
+     *
+     * @param etiquetas pares nombre, valor
+     */
+    public HistogramaLatencia histograma(String nombre, String ayuda, String... etiquetas) {
+        return (HistogramaLatencia) familia(nombre, ayuda, Tipo.LATENCIA).metricas
+                .computeIfAbsent(etiquetas(etiquetas), clave -> new HistogramaLatencia());
+    }
+
+    // ============================
+    // EXPORTACIÓN
+    // ============================
+    /**
+     * Todas las métricas en el formato de texto de Prometheus (versión 0.0.4).
+     * Los histogramas se exportan como {@code summary} con sus percentiles.
+     */
+    public String prometheus() {
+        StringBuilder texto = new StringBuilder();
+        for (Familia familia : familias.values()) {
+            texto.append("# HELP ").append(familia.nombre).append(' ').append(familia.ayuda).append('\n');
+            texto.append("# TYPE ").append(familia.nombre).append(' ')
+                    .append(familia.tipo == Tipo.CONTADOR ? "counter" : "summary").append('\n');
+
+            for (Map.Entry<String, Object> entrada : familia.metricas.entrySet()) {
+                String etiquetas = entrada.getKey();
+                if (familia.tipo == Tipo.CONTADOR) {
+                    linea(texto, familia.nombre, etiquetas, null, ((LongAdder) entrada.getValue()).sum());
+                    continue;
+                }
+                HistogramaLatencia.Instantanea datos = ((HistogramaLatencia) entrada.getValue()).instantanea();
+                for (double cuantil : CUANTILES) {
+                    linea(texto, familia.nombre, etiquetas, "quantile=\"" + cuantil + "\"",
+                            datos.percentil(cuantil * 100) / NANOS_POR_SEGUNDO);
+                }
+                linea(texto, familia.nombre + "_sum", etiquetas, null, datos.getSuma() / NANOS_POR_SEGUNDO);
+                linea(texto, familia.nombre + "_count", etiquetas, null, datos.getCuenta());
+            }
+        }
+        return texto.toString();
+    }
+
+    /**
+     * Resumen legible de las métricas con algún valor, una por línea, con las
+     * latencias en milisegundos.
+     */
+    public String resumen() {
+        StringBuilder texto = new StringBuilder();
+        for (Familia familia : familias.values()) {
+            for (Map.Entry<String, Object> entrada : familia.metricas.entrySet()) {
+                String nombre = entrada.getKey().isEmpty()
+                        ? familia.nombre
+                        : familia.nombre + '{' + entrada.getKey() + '}';
+                if (familia.tipo == Tipo.CONTADOR) {
+                    long valor = ((LongAdder) entrada.getValue()).sum();
+                    if (valor > 0) {
+                        texto.append(nombre).append(' ').append(valor).append('\n');
+                    }
+                    continue;
+                }
+                HistogramaLatencia.Instantanea datos = ((HistogramaLatencia) entrada.getValue()).instantanea();
+                if (datos.getCuenta() == 0) {
+                    continue;
+                }
+                texto.append(nombre).append(String.format(Locale.ROOT,
+                        " n=%d p50=%.3fms p90=%.3fms p99=%.3fms max=%.3fms%n", datos.getCuenta(),
+                        milisegundos(datos.percentil(50)), milisegundos(datos.percentil(90)),
+                        milisegundos(datos.percentil(99)), milisegundos(datos.getMaximo())));
+            }
+        }
+        return texto.toString();
+    }
+
+    // ============================
+    // MÉTODOS AUXILIARES
+    // ============================
+    private Familia familia(String nombre, String ayuda, Tipo tipo) {
+        Familia familia = familias.computeIfAbsent(nombre, clave -> new Familia(nombre, ayuda, tipo));
+        if (familia.tipo != tipo) {
+            throw new IllegalArgumentException("La métrica '" + nombre + "' ya existe con otro tipo");
+        }
+        return familia;
+    }
+
+    /**
+     * Etiquetas en el formato de Prometheus: {@code tipo="BUS",resultado="RECARGADA"}.
+     */
+    private static String etiquetas(String[] pares) {
+        if (pares.length % 2 != 0) {
+            throw new IllegalArgumentException("Las etiquetas deben ir en pares nombre, valor");
+        }
+        StringBuilder texto = new StringBuilder();
+        for (int i = 0; i < pares.length; i += 2) {
+            if (i > 0) {
+                texto.append(',');
+            }
+            texto.append(pares[i]).append("=\"");
+            String valor = pares[i + 1];
+            for (int j = 0; j < valor.length(); j++) {
+                char c = valor.charAt(j);
+                if (c == '\\' || c == '"') {
+                    texto.append('\\').append(c);
+                } else if (c == '\n') {
+                    texto.append("\\n");
+                } else {
+                    texto.append(c);
+                }
+            }
+            texto.append('"');
+        }
+        return texto.toString();
+    }
+
+    private static void linea(StringBuilder texto, String nombre, String etiquetas, String extra, double valor) {
+        texto.append(nombre);
+        if (!etiquetas.isEmpty() || extra != null) {
+            texto.append('{').append(etiquetas);
+            if (extra != null) {
+                texto.append(etiquetas.isEmpty() ? "" : ",").append(extra);
+            }
+            texto.append('}');
+        }
+        texto.append(' ');
+        if (valor == Math.rint(valor) && Math.abs(valor) < 1e15) {
+            texto.append((long) valor);
+        } else {
+            texto.append(valor);
+        }
+        texto.append('\n');
+    }
+
+    private static double milisegundos(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private enum Tipo {
+        CONTADOR, LATENCIA
+    }
+
+    private static final class Familia {
+        final String nombre;
+        final String ayuda;
+        final Tipo tipo;
+        final ConcurrentMap<String, Object> metricas = new ConcurrentSkipListMap<>();
+
+        Familia(String nombre, String ayuda, Tipo tipo) {
+            this.nombre = nombre;
+            this.ayuda = ayuda;
+            this.tipo = tipo;
+        }
+    }
+}
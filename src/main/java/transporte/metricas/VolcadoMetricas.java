@@ -0,0 +1,80 @@
+package transporte.metricas;
+
+import transporte.recarga.ServicioRecarga;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Vuelca periódicamente el resumen de {@link Metricas#global()} al fichero
+ * {@code metricas.log} del directorio de datos, y una última vez al cerrar la
+ * aplicación.
+ *
+ * El intervalo se indica en segundos con {@code -Dbono.metricas.intervalo}
+ * (60 por defecto; 0 desactiva el volcado).
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public final class VolcadoMetricas {
+
+    // ============================
+    // CONSTANTES
+    // ============================
+    private static final String PROPIEDAD_INTERVALO = "bono.metricas.intervalo";
+    private static final int INTERVALO_POR_DEFECTO_S = 60;
+    private static final String FICHERO_METRICAS = "metricas.log";
+
+    private static final AtomicBoolean iniciado = new AtomicBoolean();
+
+    private VolcadoMetricas() {
+    }
+
+    /**
+     * Programa el volcado periódico. Llamadas posteriores no tienen efecto.
+     */
+    public static void iniciar() {
+        int intervalo = Integer.getInteger(PROPIEDAD_INTERVALO, INTERVALO_POR_DEFECTO_S);
+        if (intervalo <= 0 || !iniciado.compareAndSet(false, true)) {
+            return;
+        }
+        Path fichero = ServicioRecarga.directorioDatos().resolve(FICHERO_METRICAS);
+
+        ScheduledExecutorService volcador = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread hilo = new Thread(r, "volcado-metricas");
+            hilo.setDaemon(true);
+            return hilo;
+        });
+        volcador.scheduleWithFixedDelay(() -> volcar(fichero), intervalo, intervalo, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> volcar(fichero), "volcado-metricas-final"));
+    }
+
+    /**
+     * Añade al fichero el resumen actual de las métricas precedido de la fecha y hora.
+     */
+    public static void volcar(Path fichero) {
+        String resumen = Metricas.global().resumen();
+        if (resumen.isEmpty()) {
+            return;
+        }
+        try {
+            Files.createDirectories(fichero.toAbsolutePath().getParent());
+            try (Writer escritor = Files.newBufferedWriter(fichero, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                escritor.write("# " + LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME) + "\n");
+                escritor.write(resumen);
+            }
+        } catch (IOException e) {
+            System.err.println("Error al volcar las métricas en '" + fichero + "': " + e.getMessage());
+        }
+    }
+}
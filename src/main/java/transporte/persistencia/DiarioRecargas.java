@@ -0,0 +1,701 @@
+package transporte.persistencia;
+
+import transporte.recarga.TipoBono;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Diario de recargas de solo escritura al final (append-only) sobre ficheros
+ * proyectados en memoria ({@link MappedByteBuffer}).
+ *
+ * Cada recarga confirmada se guarda como un registro binario de tamaño fijo en
+ * el segmento activo; cuando el segmento se llena se abre uno nuevo. Los
+ * registros se hacen duraderos mediante confirmación en grupo: un único hilo
+ * llama a {@code force()} por todos los registros escritos desde el último
+ * volcado, de modo que muchas recargas concurrentes comparten el mismo fsync.
+ *
+ * Formato del registro (40 bytes, little-endian):
+ * <pre>
+ *    0  long  secuencia (empieza en 1, consecutiva)
+ *    8  long  número de tarjeta
+ *   16  long  marca de tiempo (ms desde epoch)
+ *   24  byte  tipo de bono (ordinal de {@link TipoBono})
+ *   25  byte  mes (0-11)
+ *   26  ...   reservado (ceros)
+ *   28  int   importe cobrado en céntimos
+ *   32  ...   reservado (ceros)
+ *   36  int   CRC32 de los bytes 0-35
+ * </pre>
+ *
+ * Solo un diario puede estar abierto para escribir en un directorio a la vez:
+ * mientras lo está, tiene un cerrojo exclusivo sobre {@code diario.lock}, de
+ * modo que la interfaz, el servidor o una importación que se lancen sobre los
+ * mismos datos fallan al abrirlo en lugar de pisarse los registros.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public class DiarioRecargas implements Closeable {
+
+    // ============================
+    // CONSTANTES DEL FORMATO
+    // ============================
+    public static final int TAMANO_REGISTRO = 40;
+
+    private static final int CABECERA = 64;
+    private static final int MAGICO = 0x424F4E4F; // "BONO"
+    private static final int VERSION_FORMATO = 1;
+    private static final int TAMANO_SEGMENTO_POR_DEFECTO = 64 * 1024 * 1024;
+    private static final String PREFIJO = "diario-";
+    private static final String EXTENSION = ".seg";
+    private static final String CERROJO = "diario.lock";
+
+    // Directorios con un diario abierto en esta JVM. El cerrojo del fichero no
+    // basta dentro de un mismo proceso: cerrar cualquier canal sobre él suelta
+    // todos los cerrojos que el proceso tenga sobre ese fichero.
+    private static final Set<Path> ABIERTOS = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Recibe los registros del diario durante una reproducción.
+     */
+    public interface Lector {
+        void registro(long secuencia, long tarjeta, TipoBono tipo, int mes, int importe, long marcaTiempo);
+    }
+
+    // ============================
+    // ESTADO
+    // ============================
+    private final Path directorio;
+    private final Path directorioReal;
+    private final int tamanoSegmento;
+    private final FileChannel canalCerrojo;
+    private final FileLock cerrojo;
+
+    // Protege la escritura en el segmento activo y el cambio de segmento
+    private final ReentrantLock escritura = new ReentrantLock();
+    private final byte[] temporal = new byte[TAMANO_REGISTRO];
+    private final ByteBuffer registro = ByteBuffer.wrap(temporal).order(ByteOrder.LITTLE_ENDIAN);
+    private final CRC32 crc = new CRC32();
+
+    private Segmento activo;
+    private final List<Segmento> pendientesDeVolcar = new ArrayList<>();
+    private volatile long ultimaEscrita;
+
+    // Confirmación en grupo
+    private final Object monitor = new Object();
+    private long ultimaDuradera;
+    private Exception errorVolcado;
+    private volatile boolean cerrado;
+    private final Thread hiloVolcado;
+
+    /**
+     * Abre (o crea) el diario del directorio indicado con segmentos de 64 MB.
+     */
+    public DiarioRecargas(Path directorio) throws IOException {
+        this(directorio, TAMANO_SEGMENTO_POR_DEFECTO);
+    }
+
+    /**
+     * Abre (o crea) el diario del directorio indicado. Los registros ya
+     * existentes se validan y la escritura continúa tras el último correcto.
+     *
+     * @throws IOException si no se puede abrir o si otro proceso (u otra
+     *                     instancia de este) ya tiene abierto el diario
+     */
+    public DiarioRecargas(Path directorio, int tamanoSegmento) throws IOException {
+        if (tamanoSegmento < CABECERA + TAMANO_REGISTRO) {
+            throw new IllegalArgumentException("Tamaño de segmento demasiado pequeño: " + tamanoSegmento);
+        }
+        this.directorio = directorio;
+        this.tamanoSegmento = tamanoSegmento;
+        Files.createDirectories(directorio);
+
+        directorioReal = directorio.toRealPath();
+        if (!ABIERTOS.add(directorioReal)) {
+            throw abiertoEnOtroLugar(directorio);
+        }
+        FileChannel canal = null;
+        try {
+            canal = FileChannel.open(directorio.resolve(CERROJO), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            cerrojo = bloquear(canal, directorio);
+            canalCerrojo = canal;
+            activo = abrirActivo();
+        } catch (IOException | RuntimeException e) {
+            // Sin segmento activo no hay diario: soltar el cerrojo para que se pueda reintentar
+            if (canal != null) {
+                canal.close();
+            }
+            ABIERTOS.remove(directorioReal);
+            throw e;
+        }
+        ultimaEscrita = activo.recuperar();
+        ultimaDuradera = ultimaEscrita;
+
+        hiloVolcado = new Thread(this::bucleVolcado, "diario-recargas-volcado");
+        hiloVolcado.setDaemon(true);
+        hiloVolcado.start();
+    }
+
+    // ============================
+    // ESCRITURA
+    // ============================
+    /**
+     * Añade una recarga al diario y espera a que sea duradera en disco.
+     *
+     * @return número de secuencia asignado al registro
+     */
+    public long registrar(long tarjeta, TipoBono tipo, int mes, int importe, long marcaTiempo)
+            throws IOException {
+        long secuencia = anadir(tarjeta, tipo, mes, importe, marcaTiempo);
+        esperarDuradero(secuencia);
+        return secuencia;
+    }
+
+    /**
+     * Añade una recarga al diario sin esperar al volcado a disco.
+     *
+     * @return número de secuencia asignado al registro
+     */
+    public long anadir(long tarjeta, TipoBono tipo, int mes, int importe, long marcaTiempo)
+            throws IOException {
+        escritura.lock();
+        try {
+            comprobarAbierto();
+            if (activo.lleno()) {
+                rotarSegmento();
+            }
+            long secuencia = ultimaEscrita + 1;
+
+            registro.clear();
+            registro.putLong(secuencia).putLong(tarjeta).putLong(marcaTiempo)
+                    .put((byte) tipo.ordinal()).put((byte) mes)
+                    .putShort((short) 0).putInt(importe);
+            while (registro.position() < TAMANO_REGISTRO - 4) {
+                registro.put((byte) 0);
+            }
+            crc.reset();
+            crc.update(temporal, 0, TAMANO_REGISTRO - 4);
+            registro.putInt((int) crc.getValue());
+
+            activo.escribir(temporal);
+            ultimaEscrita = secuencia;
+            return secuencia;
+        } finally {
+            escritura.unlock();
+        }
+    }
+
+    /**
+     * Bloquea hasta que el registro con la secuencia indicada esté volcado a disco.
+     * Una interrupción no corta la espera, porque el registro ya está escrito y
+     * acabará en disco; el estado de interrupción se restaura al terminar.
+     */
+    public void esperarDuradero(long secuencia) throws IOException {
+        boolean interrumpido = false;
+        try {
+            synchronized (monitor) {
+                if (ultimaDuradera < secuencia) {
+                    // Despertar al hilo de volcado si estaba esperando trabajo
+                    monitor.notifyAll();
+                }
+                while (ultimaDuradera < secuencia) {
+                    if (errorVolcado != null) {
+                        throw new IOException("Error al volcar el diario de recargas", errorVolcado);
+                    }
+                    if (cerrado) {
+                        throw new IOException("El diario de recargas está cerrado");
+                    }
+                    try {
+                        monitor.wait();
+                    } catch (InterruptedException e) {
+                        interrumpido = true;
+                    }
+                }
+            }
+        } finally {
+            if (interrumpido) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Secuencia del último registro escrito (aunque aún no sea duradero).
+     */
+    public long getUltimaSecuencia() {
+        return ultimaEscrita;
+    }
+
+    /**
+     * Directorio en el que están los segmentos del diario.
+     */
+    public Path getDirectorio() {
+        return directorio;
+    }
+
+    // ============================
+    // LECTURA
+    // ============================
+    /**
+     * Recorre en orden todos los registros con secuencia mayor que {@code desde}.
+     *
+     * @return secuencia del último registro leído ({@code desde} si no hay ninguno)
+     */
+    public long reproducir(long desde, Lector lector) throws IOException {
+        return reproducir(directorio, desde, lector);
+    }
+
+    /**
+     * Recorre en orden los registros con secuencia mayor que {@code desde} del
+     * diario de un directorio sin abrirlo para escribir, de modo que se puede
+     * leer mientras la aplicación sigue añadiendo recargas: se detiene en el
+     * último registro completo.
+     *
+     * @return secuencia del último registro leído ({@code desde} si no hay ninguno)
+     */
+    public static long reproducir(Path directorio, long desde, Lector lector) throws IOException {
+        TipoBono[] tipos = TipoBono.values();
+        long ultima = desde;
+        if (!Files.isDirectory(directorio)) {
+            return ultima;
+        }
+        List<Path> segmentos = listarSegmentos(directorio);
+        for (int i = 0; i < segmentos.size(); i++) {
+            Path fichero = segmentos.get(i);
+            try (FileChannel canal = FileChannel.open(fichero, StandardOpenOption.READ)) {
+                MappedByteBuffer datos = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+                datos.order(ByteOrder.LITTLE_ENDIAN);
+                if (i == segmentos.size() - 1 && !Segmento.cabeceraValida(datos)) {
+                    // Segmento que se estaba creando: aún no tiene registros
+                    break;
+                }
+                long primera = Segmento.leerCabecera(datos, fichero);
+                // Saltar segmentos completos anteriores a la secuencia pedida
+                int posicion = CABECERA;
+                if (desde >= primera) {
+                    long saltar = desde - primera + 1;
+                    posicion = (int) Math.min(CABECERA + saltar * TAMANO_REGISTRO, datos.limit());
+                }
+                CRC32 comprobacion = new CRC32();
+                ByteBuffer vista = datos.duplicate();
+                while (posicion + TAMANO_REGISTRO <= datos.limit()) {
+                    long secuencia = datos.getLong(posicion);
+                    // El final de los datos válidos es el primer registro corrupto o fuera de orden
+                    if (secuencia != ultima + 1 || !registroValido(datos, vista, posicion, comprobacion)) {
+                        break;
+                    }
+                    lector.registro(secuencia, datos.getLong(posicion + 8), tipos[datos.get(posicion + 24)],
+                            datos.get(posicion + 25), datos.getInt(posicion + 28), datos.getLong(posicion + 16));
+                    ultima = secuencia;
+                    posicion += TAMANO_REGISTRO;
+                }
+            }
+        }
+        return ultima;
+    }
+
+    // ============================
+    // CIERRE
+    // ============================
+    /**
+     * Vuelca los registros pendientes y libera los ficheros.
+     */
+    @Override
+    public void close() throws IOException {
+        IOException error = null;
+        escritura.lock();
+        try {
+            if (cerrado) {
+                return;
+            }
+            try {
+                esperarDuraderoSinBloqueo();
+            } catch (IOException e) {
+                // Se cierra igualmente: el cerrojo del directorio no puede quedarse tomado
+                error = e;
+            }
+            cerrado = true;
+        } finally {
+            escritura.unlock();
+        }
+        synchronized (monitor) {
+            monitor.notifyAll();
+        }
+        try {
+            hiloVolcado.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            if (error == null) {
+                forzar(activo);
+            }
+            activo.cerrar();
+        } finally {
+            cerrojo.release();
+            canalCerrojo.close();
+            ABIERTOS.remove(directorioReal);
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    // ============================
+    // MÉTODOS AUXILIARES
+    // ============================
+    private void esperarDuraderoSinBloqueo() throws IOException {
+        // Se llama con el cerrojo de escritura tomado: se vuelca directamente
+        try {
+            for (Segmento segmento : pendientesDeVolcar) {
+                forzar(segmento);
+                segmento.cerrar();
+            }
+            pendientesDeVolcar.clear();
+            forzar(activo);
+        } catch (IOException e) {
+            fallarVolcado(e);
+            throw e;
+        }
+        synchronized (monitor) {
+            ultimaDuradera = ultimaEscrita;
+            monitor.notifyAll();
+        }
+    }
+
+    /**
+     * Bucle del hilo de volcado: agrupa todos los registros escritos desde el
+     * último {@code force()} en un único volcado.
+     */
+    private void bucleVolcado() {
+        while (true) {
+            synchronized (monitor) {
+                while (!cerrado && ultimaDuradera >= ultimaEscrita) {
+                    try {
+                        monitor.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (cerrado) {
+                    return;
+                }
+            }
+
+            long objetivo;
+            List<Segmento> aVolcar;
+            escritura.lock();
+            try {
+                if (cerrado) {
+                    return;
+                }
+                objetivo = ultimaEscrita;
+                aVolcar = new ArrayList<>(pendientesDeVolcar);
+                pendientesDeVolcar.clear();
+                aVolcar.add(activo);
+            } finally {
+                escritura.unlock();
+            }
+
+            try {
+                for (Segmento segmento : aVolcar) {
+                    forzar(segmento);
+                }
+                for (int i = 0; i < aVolcar.size() - 1; i++) {
+                    aVolcar.get(i).cerrar();
+                }
+                synchronized (monitor) {
+                    ultimaDuradera = Math.max(ultimaDuradera, objetivo);
+                    monitor.notifyAll();
+                }
+            } catch (IOException | RuntimeException e) {
+                // Sin este aviso quien espera un volcado se quedaría bloqueado para siempre
+                fallarVolcado(e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Vuelca a disco lo escrito en el segmento. {@code force()} informa de un
+     * error del disco con una {@link UncheckedIOException}, que aquí se
+     * convierte en la {@link IOException} que la causa.
+     */
+    private void forzar(Segmento segmento) throws IOException {
+        try {
+            volcar(segmento.datos);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Llamada a {@code force()} del segmento, aparte para poder simular en las
+     * pruebas un error del disco.
+     */
+    void volcar(MappedByteBuffer datos) {
+        datos.force();
+    }
+
+    /**
+     * Guarda el primer error de volcado y despierta a todos los que esperan
+     * uno: a partir de aquí {@link #esperarDuradero} y {@link #anadir} fallan.
+     */
+    private void fallarVolcado(Exception error) {
+        synchronized (monitor) {
+            if (errorVolcado == null) {
+                errorVolcado = error;
+            }
+            monitor.notifyAll();
+        }
+    }
+
+    private void rotarSegmento() throws IOException {
+        pendientesDeVolcar.add(activo);
+        activo = Segmento.crear(nombreSegmento(ultimaEscrita + 1), tamanoSegmento, ultimaEscrita + 1);
+    }
+
+    /**
+     * Toma el cerrojo exclusivo del directorio sin esperar.
+     */
+    private static FileLock bloquear(FileChannel canal, Path directorio) throws IOException {
+        FileLock cerrojo;
+        try {
+            cerrojo = canal.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // Otro canal de esta JVM: no debería pasar con el registro de abiertos
+            cerrojo = null;
+        }
+        if (cerrojo == null) {
+            throw abiertoEnOtroLugar(directorio);
+        }
+        return cerrojo;
+    }
+
+    private static IOException abiertoEnOtroLugar(Path directorio) {
+        return new IOException("El diario de recargas de '" + directorio
+                + "' ya está abierto por la interfaz, el servidor o una importación");
+    }
+
+    /**
+     * Abre el último segmento para seguir escribiendo en él, o crea el
+     * primero si no hay ninguno. Un último segmento con la cabecera vacía o
+     * dañada es uno que se estaba creando cuando se cortó la aplicación y
+     * aún no tenía registros: se borra y se sigue en el anterior, que al
+     * llenarse lo volverá a crear.
+     */
+    private Segmento abrirActivo() throws IOException {
+        List<Path> segmentos = listarSegmentos(directorio);
+        while (!segmentos.isEmpty()) {
+            Path ultimo = segmentos.remove(segmentos.size() - 1);
+            Segmento segmento = Segmento.abrirSiValido(ultimo);
+            if (segmento != null) {
+                return segmento;
+            }
+            System.err.println("Advertencia: Se descarta el segmento de diario sin cabecera '" + ultimo + "'");
+            Files.delete(ultimo);
+            if (segmentos.isEmpty()) {
+                // Sin segmentos anteriores se recrea con la secuencia de su nombre
+                return Segmento.crear(ultimo, tamanoSegmento, primeraSecuencia(ultimo));
+            }
+        }
+        return Segmento.crear(nombreSegmento(1), tamanoSegmento, 1);
+    }
+
+    private static long primeraSecuencia(Path segmento) {
+        String nombre = segmento.getFileName().toString();
+        try {
+            return Long.parseLong(nombre.substring(PREFIJO.length(), nombre.length() - EXTENSION.length()));
+        } catch (NumberFormatException e) {
+            return 1;
+        }
+    }
+
+    /**
+     * Vuelca a disco la entrada de un fichero recién creado en el directorio.
+     * En sistemas que no permiten abrir directorios (Windows) no se hace nada.
+     */
+    private static void sincronizarDirectorio(Path directorio) {
+        try (FileChannel canal = FileChannel.open(directorio, StandardOpenOption.READ)) {
+            canal.force(true);
+        } catch (IOException e) {
+            // No se puede sincronizar el directorio en esta plataforma
+        }
+    }
+
+    private void comprobarAbierto() throws IOException {
+        if (cerrado) {
+            throw new IOException("El diario de recargas está cerrado");
+        }
+        synchronized (monitor) {
+            if (errorVolcado != null) {
+                throw new IOException("Error al volcar el diario de recargas", errorVolcado);
+            }
+        }
+    }
+
+    private Path nombreSegmento(long primeraSecuencia) {
+        return directorio.resolve(String.format("%s%020d%s", PREFIJO, primeraSecuencia, EXTENSION));
+    }
+
+    private static List<Path> listarSegmentos(Path directorio) throws IOException {
+        List<Path> segmentos = new ArrayList<>();
+        try (DirectoryStream<Path> ficheros = Files.newDirectoryStream(directorio, PREFIJO + "*" + EXTENSION)) {
+            for (Path fichero : ficheros) {
+                segmentos.add(fichero);
+            }
+        }
+        // El nombre lleva la primera secuencia con ceros a la izquierda: el orden alfabético es el cronológico
+        Collections.sort(segmentos);
+        return segmentos;
+    }
+
+    /**
+     * Comprueba el CRC del registro. El CRC se calcula de una vez sobre
+     * {@code vista}, una copia del buffer reservada para esto porque el
+     * cálculo mueve su posición.
+     */
+    private static boolean registroValido(ByteBuffer datos, ByteBuffer vista, int posicion, CRC32 comprobacion) {
+        comprobacion.reset();
+        vista.limit(posicion + TAMANO_REGISTRO - 4).position(posicion);
+        comprobacion.update(vista);
+        return (int) comprobacion.getValue() == datos.getInt(posicion + TAMANO_REGISTRO - 4);
+    }
+
+    /**
+     * Fichero de segmento proyectado en memoria.
+     */
+    private static final class Segmento {
+
+        private final FileChannel canal;
+        private final MappedByteBuffer datos;
+        private final long primeraSecuencia;
+
+        private Segmento(FileChannel canal, MappedByteBuffer datos, long primeraSecuencia) {
+            this.canal = canal;
+            this.datos = datos;
+            this.primeraSecuencia = primeraSecuencia;
+        }
+
+        static Segmento crear(Path fichero, int tamano, long primeraSecuencia) throws IOException {
+            FileChannel canal = FileChannel.open(fichero, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer datos = canal.map(FileChannel.MapMode.READ_WRITE, 0, tamano);
+            datos.order(ByteOrder.LITTLE_ENDIAN);
+            datos.putInt(0, MAGICO).putInt(4, VERSION_FORMATO).putLong(8, primeraSecuencia);
+            datos.position(CABECERA);
+            // Cabecera y entrada del directorio en disco antes del primer registro
+            datos.force();
+            sincronizarDirectorio(fichero.toAbsolutePath().getParent());
+            return new Segmento(canal, datos, primeraSecuencia);
+        }
+
+        /**
+         * Abre un segmento existente, o devuelve {@code null} sin dejarlo
+         * abierto si su cabecera no es válida.
+         */
+        static Segmento abrirSiValido(Path fichero) throws IOException {
+            FileChannel canal = FileChannel.open(fichero, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            // La cabecera se lee sin proyectar para poder borrar el fichero si no vale
+            ByteBuffer cabecera = ByteBuffer.allocate(CABECERA).order(ByteOrder.LITTLE_ENDIAN);
+            while (cabecera.hasRemaining()) {
+                if (canal.read(cabecera, cabecera.position()) < 0) {
+                    break;
+                }
+            }
+            cabecera.flip();
+            if (!cabeceraValida(cabecera)) {
+                canal.close();
+                return null;
+            }
+            MappedByteBuffer datos = canal.map(FileChannel.MapMode.READ_WRITE, 0, canal.size());
+            datos.order(ByteOrder.LITTLE_ENDIAN);
+            return new Segmento(canal, datos, datos.getLong(8));
+        }
+
+        static boolean cabeceraValida(ByteBuffer datos) {
+            return datos.limit() >= CABECERA && datos.getInt(0) == MAGICO && datos.getInt(4) == VERSION_FORMATO;
+        }
+
+        static long leerCabecera(ByteBuffer datos, Path fichero) throws IOException {
+            if (!cabeceraValida(datos)) {
+                throw new IOException("Segmento de diario no válido: " + fichero);
+            }
+            return datos.getLong(8);
+        }
+
+        /**
+         * Sitúa la posición de escritura tras el último registro válido y
+         * pone a cero lo que le sigue, hasta la primera ranura que nunca se
+         * escribió. Si no, tras un registro corrupto los registros válidos que
+         * venían detrás volverían a leerse en cuanto se escribiera de nuevo la
+         * secuencia que les precede.
+         *
+         * @return secuencia del último registro válido
+         */
+        long recuperar() {
+            CRC32 comprobacion = new CRC32();
+            ByteBuffer vista = datos.duplicate();
+            long esperada = primeraSecuencia;
+            int posicion = CABECERA;
+            while (posicion + TAMANO_REGISTRO <= datos.limit()
+                    && datos.getLong(posicion) == esperada
+                    && registroValido(datos, vista, posicion, comprobacion)) {
+                esperada++;
+                posicion += TAMANO_REGISTRO;
+            }
+            boolean descartados = false;
+            for (int ranura = posicion; ranura < datos.limit(); ranura += TAMANO_REGISTRO) {
+                int fin = Math.min(ranura + TAMANO_REGISTRO, datos.limit());
+                boolean escrita = false;
+                for (int i = ranura; i < fin; i++) {
+                    if (datos.get(i) != 0) {
+                        datos.put(i, (byte) 0);
+                        escrita = true;
+                    }
+                }
+                if (!escrita) {
+                    break;
+                }
+                descartados = true;
+            }
+            if (descartados) {
+                System.err.println("Advertencia: Se descartan los registros de diario no válidos tras la secuencia "
+                        + (esperada - 1));
+                datos.force();
+            }
+            datos.position(posicion);
+            return esperada - 1;
+        }
+
+        boolean lleno() {
+            return datos.remaining() < TAMANO_REGISTRO;
+        }
+
+        void escribir(byte[] registro) {
+            datos.put(registro);
+        }
+
+        void cerrar() throws IOException {
+            canal.close();
+        }
+    }
+}
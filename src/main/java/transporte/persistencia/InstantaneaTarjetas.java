@@ -0,0 +1,388 @@
+package transporte.persistencia;
+
+import transporte.tarjeta.MapaBitsComprimido;
+import transporte.tarjeta.TablaTarjetas;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+/**
+ * Copia del registro de tarjetas en un fichero binario compacto, para arrancar
+ * sin reproducir el diario completo: se carga la última instantánea y solo se
+ * reproducen los registros del diario posteriores a su secuencia.
+ *
+ * Junto a las tarjetas se pueden guardar mapas de bits derivados de ellas
+ * (los del índice mensual), que se leen copiando sus contenedores en lugar de
+ * volver a calcularlos.
+ *
+ * La tabla guardada tiene que contener exactamente las recargas del diario
+ * hasta la secuencia de la instantánea: una recarga posterior que estuviera en
+ * ella quedaría pagada al arrancar aunque nunca llegara al diario. Por eso el
+ * servicio no guarda la tabla en uso, sino una reconstruida desde la
+ * instantánea anterior y el diario. La tabla se copia segmento a segmento con
+ * su cerrojo de lectura y la escritura en disco se hace ya sin cerrojos.
+ *
+ * El fichero se escribe con otro nombre y se renombra al terminar, de modo que
+ * una instantánea a medias nunca sustituye a la anterior. Al cargar se
+ * proyecta en memoria y sus segmentos se rellenan en paralelo.
+ *
+ * Formato (little-endian):
+ * <pre>
+ *    0  int     número mágico "SNAP"
+ *    4  int     versión del formato
+ *    8  long    secuencia del diario hasta la que se incluyen las recargas
+ *   16  long    marca de tiempo (ms desde epoch)
+ *   24  long    número de tarjetas
+ *   32  int     número de segmentos de la tabla (S)
+ *   36  int     CRC32 de las tarjetas de cada segmento
+ *   40  int     CRC32 de las entradas
+ *   44  int     CRC32 de los mapas
+ *   48  ...     reservado (ceros)
+ *   64  int[S]  tarjetas de cada segmento
+ *   ..  long[]  tarjeta en los bits 16-63 y tipo y meses en los bits 0-15,
+ *               agrupadas por segmento
+ *   ..  int     número de mapas, seguido de cada uno en el formato de
+ *               {@link MapaBitsComprimido#escribir(java.nio.ByteBuffer)}
+ * </pre>
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public final class InstantaneaTarjetas {
+
+    // ============================
+    // CONSTANTES DEL FORMATO
+    // ============================
+    private static final int CABECERA = 64;
+    private static final int MAGICO = 0x534E4150; // "SNAP"
+    private static final int VERSION_FORMATO = 1;
+    private static final int BITS_DATOS = 16;
+    private static final int TAMANO_ENTRADA = 8;
+    private static final int TAMANO_BUFFER = 1 << 20;
+
+    private static final String PREFIJO = "instantanea-";
+    private static final String EXTENSION = ".snap";
+    private static final String TEMPORAL = ".tmp";
+    // Instantáneas que se conservan, por si la última estuviera dañada
+    private static final int CONSERVAR = 2;
+
+    // ============================
+    // ESTADO
+    // ============================
+    private final TablaTarjetas tarjetas;
+    private final MapaBitsComprimido[] mapas;
+    private final long secuencia;
+    private final Path fichero;
+
+    private InstantaneaTarjetas(TablaTarjetas tarjetas, MapaBitsComprimido[] mapas, long secuencia,
+                                Path fichero) {
+        this.tarjetas = tarjetas;
+        this.mapas = mapas;
+        this.secuencia = secuencia;
+        this.fichero = fichero;
+    }
+
+    /**
+     * Registro de tarjetas cargado desde la instantánea.
+     */
+    public TablaTarjetas getTarjetas() {
+        return tarjetas;
+    }
+
+    /**
+     * Mapas guardados junto a las tarjetas (vacío si no se guardó ninguno).
+     */
+    public MapaBitsComprimido[] getMapas() {
+        return mapas;
+    }
+
+    /**
+     * Secuencia del diario hasta la que la instantánea incluye las recargas.
+     */
+    public long getSecuencia() {
+        return secuencia;
+    }
+
+    public Path getFichero() {
+        return fichero;
+    }
+
+    // ============================
+    // ESCRITURA
+    // ============================
+    /**
+     * Guarda una instantánea de la tabla y los mapas en el directorio y borra
+     * las antiguas. Quien llama debe asegurar que la tabla y los mapas
+     * contienen todas las recargas hasta {@code secuencia} y ninguna
+     * posterior, y que no cambian mientras se guardan.
+     *
+     * @return el fichero de la nueva instantánea
+     */
+    public static Path guardar(TablaTarjetas tarjetas, MapaBitsComprimido[] mapas, long secuencia,
+                               Path directorio) throws IOException {
+        Files.createDirectories(directorio);
+        Path destino = directorio.resolve(nombre(secuencia));
+        Path temporal = directorio.resolve(nombre(secuencia) + TEMPORAL);
+
+        int numeroSegmentos = tarjetas.getNumeroSegmentos();
+        ByteBuffer cuentas = ByteBuffer.allocate(numeroSegmentos * 4).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(TAMANO_BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+        CRC32 crc = new CRC32();
+        long total = 0;
+
+        try (FileChannel canal = FileChannel.open(temporal, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long posicion = CABECERA + (long) numeroSegmentos * 4;
+            Copia copia = new Copia();
+            for (int i = 0; i < numeroSegmentos; i++) {
+                // Bajo el cerrojo solo se copia a memoria; el disco se escribe después
+                copia.cantidad = 0;
+                tarjetas.recorrerSegmento(i, copia);
+                cuentas.putInt(copia.cantidad);
+                total += copia.cantidad;
+                for (int j = 0; j < copia.cantidad; j++) {
+                    if (!buffer.hasRemaining()) {
+                        posicion += escribir(canal, buffer, posicion, crc);
+                    }
+                    buffer.putLong(copia.entradas[j]);
+                }
+            }
+            posicion += escribir(canal, buffer, posicion, crc);
+
+            CRC32 crcMapas = new CRC32();
+            ByteBuffer numeroMapas = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(mapas.length);
+            posicion += escribir(canal, numeroMapas, posicion, crcMapas);
+            for (MapaBitsComprimido mapa : mapas) {
+                ByteBuffer datos = ByteBuffer.allocate(mapa.tamanoSerializado()).order(ByteOrder.LITTLE_ENDIAN);
+                mapa.escribir(datos);
+                posicion += escribir(canal, datos, posicion, crcMapas);
+            }
+
+            cuentas.flip();
+            CRC32 crcCuentas = new CRC32();
+            crcCuentas.update(cuentas.duplicate());
+            canal.write(cuentas, CABECERA);
+
+            ByteBuffer cabecera = ByteBuffer.allocate(CABECERA).order(ByteOrder.LITTLE_ENDIAN);
+            cabecera.putInt(MAGICO).putInt(VERSION_FORMATO).putLong(secuencia)
+                    .putLong(System.currentTimeMillis()).putLong(total)
+                    .putInt(numeroSegmentos).putInt((int) crcCuentas.getValue()).putInt((int) crc.getValue())
+                    .putInt((int) crcMapas.getValue());
+            cabecera.clear();
+            canal.write(cabecera, 0);
+            canal.force(true);
+        }
+
+        try {
+            Files.move(temporal, destino, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporal, destino, StandardCopyOption.REPLACE_EXISTING);
+        }
+        borrarAntiguas(directorio);
+        return destino;
+    }
+
+    // ============================
+    // LECTURA
+    // ============================
+    /**
+     * Carga la instantánea más reciente del directorio que esté completa y
+     * sin errores.
+     *
+     * @return la instantánea cargada o {@code null} si no hay ninguna válida
+     */
+    public static InstantaneaTarjetas cargarUltima(Path directorio) throws IOException {
+        if (!Files.isDirectory(directorio)) {
+            return null;
+        }
+        List<Path> ficheros = listar(directorio);
+        for (int i = ficheros.size() - 1; i >= 0; i--) {
+            try {
+                return cargar(ficheros.get(i));
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("Advertencia: Se descarta la instantánea '" + ficheros.get(i) + "': "
+                        + e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Carga la instantánea del fichero indicado en una tabla nueva.
+     *
+     * @throws IOException si el fichero no es una instantánea o está dañado
+     */
+    public static InstantaneaTarjetas cargar(Path fichero) throws IOException {
+        try (FileChannel canal = FileChannel.open(fichero, StandardOpenOption.READ)) {
+            if (canal.size() < CABECERA || canal.size() > Integer.MAX_VALUE) {
+                throw new IOException("Tamaño de fichero no válido: " + canal.size());
+            }
+            MappedByteBuffer datos = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+            datos.order(ByteOrder.LITTLE_ENDIAN);
+            if (datos.getInt(0) != MAGICO || datos.getInt(4) != VERSION_FORMATO) {
+                throw new IOException("Formato desconocido");
+            }
+            long secuencia = datos.getLong(8);
+            long total = datos.getLong(24);
+            int numeroSegmentos = datos.getInt(32);
+            long esperado = CABECERA + (long) numeroSegmentos * 4 + total * TAMANO_ENTRADA;
+            if (numeroSegmentos <= 0 || total < 0 || esperado + 4 > canal.size()) {
+                throw new IOException("Tamaño incorrecto");
+            }
+
+            int inicioEntradas = CABECERA + numeroSegmentos * 4;
+            if (crc(datos, CABECERA, inicioEntradas) != datos.getInt(36)
+                    || crc(datos, inicioEntradas, (int) esperado) != datos.getInt(40)
+                    || crc(datos, (int) esperado, datos.limit()) != datos.getInt(44)) {
+                throw new IOException("CRC incorrecto");
+            }
+            MapaBitsComprimido[] mapas = leerMapas(datos, (int) esperado);
+
+            long[] inicios = new long[numeroSegmentos];
+            int[] cantidades = new int[numeroSegmentos];
+            long posicion = inicioEntradas;
+            for (int i = 0; i < numeroSegmentos; i++) {
+                cantidades[i] = datos.getInt(CABECERA + i * 4);
+                if (cantidades[i] < 0) {
+                    throw new IOException("Número de tarjetas del segmento " + i + " no válido");
+                }
+                inicios[i] = posicion;
+                posicion += (long) cantidades[i] * TAMANO_ENTRADA;
+            }
+            if (posicion != esperado) {
+                throw new IOException("Las cuentas por segmento no suman el total");
+            }
+
+            TablaTarjetas tarjetas = new TablaTarjetas((int) total);
+            if (numeroSegmentos == tarjetas.getNumeroSegmentos()) {
+                // Cada segmento del fichero es un segmento de la tabla: se cargan en paralelo
+                IntStream.range(0, numeroSegmentos).parallel().forEach(i ->
+                        cargarSegmento(tarjetas, i, datos, inicios[i], cantidades[i]));
+            } else {
+                for (int p = inicioEntradas; p < esperado; p += TAMANO_ENTRADA) {
+                    long entrada = datos.getLong(p);
+                    int valor = (int) entrada & 0xFFFF;
+                    tarjetas.modificar(entrada >>> BITS_DATOS, registro -> valor);
+                }
+            }
+            return new InstantaneaTarjetas(tarjetas, mapas, secuencia, fichero);
+        }
+    }
+
+    // ============================
+    // MÉTODOS AUXILIARES
+    // ============================
+    private static void cargarSegmento(TablaTarjetas tarjetas, int segmento, ByteBuffer datos, long inicio,
+                                       int cantidad) {
+        long[] claves = new long[cantidad];
+        int[] valores = new int[cantidad];
+        int posicion = (int) inicio;
+        for (int j = 0; j < cantidad; j++) {
+            long entrada = datos.getLong(posicion);
+            claves[j] = entrada >>> BITS_DATOS;
+            valores[j] = (int) entrada & 0xFFFF;
+            posicion += TAMANO_ENTRADA;
+        }
+        tarjetas.cargarSegmento(segmento, claves, valores, cantidad);
+    }
+
+    private static MapaBitsComprimido[] leerMapas(ByteBuffer datos, int inicio) throws IOException {
+        ByteBuffer origen = datos.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        origen.position(inicio);
+        try {
+            int numero = origen.getInt();
+            if (numero < 0) {
+                throw new IOException("Número de mapas no válido: " + numero);
+            }
+            MapaBitsComprimido[] mapas = new MapaBitsComprimido[numero];
+            for (int i = 0; i < numero; i++) {
+                mapas[i] = MapaBitsComprimido.leer(origen);
+            }
+            if (origen.hasRemaining()) {
+                throw new IOException("Datos sobrantes tras los mapas");
+            }
+            return mapas;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Mapas incompletos o dañados", e);
+        }
+    }
+
+    private static int crc(ByteBuffer datos, int desde, int hasta) {
+        ByteBuffer parte = datos.duplicate();
+        parte.limit(hasta).position(desde);
+        CRC32 crc = new CRC32();
+        crc.update(parte);
+        return (int) crc.getValue();
+    }
+
+    private static int escribir(FileChannel canal, ByteBuffer buffer, long posicion, CRC32 crc)
+            throws IOException {
+        buffer.flip();
+        crc.update(buffer.duplicate());
+        int escritos = 0;
+        while (buffer.hasRemaining()) {
+            escritos += canal.write(buffer, posicion + escritos);
+        }
+        buffer.clear();
+        return escritos;
+    }
+
+    private static String nombre(long secuencia) {
+        return String.format("%s%020d%s", PREFIJO, secuencia, EXTENSION);
+    }
+
+    private static List<Path> listar(Path directorio) throws IOException {
+        List<Path> ficheros = new ArrayList<>();
+        try (DirectoryStream<Path> entradas = Files.newDirectoryStream(directorio, PREFIJO + "*" + EXTENSION)) {
+            for (Path fichero : entradas) {
+                ficheros.add(fichero);
+            }
+        }
+        // La secuencia va con ceros a la izquierda: el orden alfabético es el cronológico
+        Collections.sort(ficheros);
+        return ficheros;
+    }
+
+    private static void borrarAntiguas(Path directorio) throws IOException {
+        List<Path> ficheros = listar(directorio);
+        for (int i = 0; i < ficheros.size() - CONSERVAR; i++) {
+            Files.deleteIfExists(ficheros.get(i));
+        }
+        try (DirectoryStream<Path> restos = Files.newDirectoryStream(directorio, PREFIJO + "*" + TEMPORAL)) {
+            for (Path fichero : restos) {
+                Files.deleteIfExists(fichero);
+            }
+        }
+    }
+
+    /**
+     * Copia en memoria de un segmento de la tabla, reutilizada entre segmentos.
+     */
+    private static final class Copia implements TablaTarjetas.Visitante {
+        long[] entradas = new long[1024];
+        int cantidad;
+
+        @Override
+        public void visitar(long tarjeta, int registro) {
+            if (cantidad == entradas.length) {
+                entradas = Arrays.copyOf(entradas, cantidad * 2);
+            }
+            entradas[cantidad++] = tarjeta << BITS_DATOS | (registro & 0xFFFF);
+        }
+    }
+}
@@ -0,0 +1,666 @@
+package transporte.recarga;
+
+import transporte.metricas.Metricas;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Anillo acotado de recargas entre los hilos que las piden (ventanas, API
+ * HTTP, importación) y las etapas que las procesan por lotes, cada una en su
+ * propio hilo, al estilo del Disruptor de LMAX.
+ *
+ * Las ranuras se reservan al crear el anillo y se reutilizan: cada recarga
+ * ocupa una posición de unos arrays paralelos, sin crear objetos. El
+ * productor reserva la siguiente secuencia con un compareAndSet, rellena su
+ * ranura y la publica. Cada etapa toma de una vez todas las secuencias que ya
+ * ha terminado la anterior (la primera, todas las publicadas seguidas), así
+ * que cuanta más carga, más grandes los lotes. Cuando la última etapa ha
+ * pasado por una recarga, el productor lee el resultado y libera la ranura;
+ * las ranuras vacías (peticiones rechazadas después de reservar) las libera
+ * la última etapa. Ningún paso toma cerrojos salvo para dormir con
+ * {@link EstrategiaEspera#BLOQUEO}; con la estrategia por defecto,
+ * {@link EstrategiaEspera#DORMIR}, quien espera solo cede el procesador o
+ * duerme unos microsegundos.
+ *
+ * Si todas las ranuras están ocupadas el anillo no crece: {@link #reservar}
+ * espera hasta el plazo indicado y después devuelve -1, y quien publica decide
+ * si rechaza la petición o la reintenta más tarde.
+ *
+ * <pre>
+ *   long s = anillo.reservar(1, TimeUnit.SECONDS);   // -1: anillo lleno
+ *   anillo.publicar(s, tarjeta, tipo, mes, importe, marcaTiempo, nueva);
+ *   anillo.esperar(s);
+ *   IOException error = anillo.getError(s);
+ *   anillo.liberar(s);
+ * </pre>
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public final class AnilloRecargas implements Closeable {
+
+    // ============================
+    // CONSTANTES
+    // ============================
+    // Comprobaciones seguidas antes de ceder el procesador y cesiones antes de dormir
+    private static final int GIROS = 100;
+    private static final int CESIONES = 100;
+    // Con DORMIR la siesta se dobla en cada intento hasta el máximo
+    private static final long SIESTA_NANOS = 50_000;
+    private static final long SIESTA_MAXIMA_NANOS = 200_000;
+    private static final int DOBLES = 2;
+
+    private static final LongAdder LLENO = Metricas.global().contador("bono_anillo_lleno_total",
+            "Veces que una recarga encontró lleno el anillo y tuvo que esperar sitio");
+
+    /**
+     * Procesa lotes de recargas en el hilo de su etapa.
+     */
+    public interface Etapa {
+        /**
+         * Procesa en orden las recargas con secuencias de {@code desde} a
+         * {@code hasta}, ambas incluidas, saltando las ranuras vacías.
+         */
+        void procesar(AnilloRecargas anillo, long desde, long hasta);
+    }
+
+    // ============================
+    // ESTADO
+    // ============================
+    private final int capacidad;
+    private final int mascara;
+    private final EstrategiaEspera espera;
+
+    // Ranuras, indexadas por secuencia & mascara
+    private final long[] tarjetas;
+    private final TipoBono[] tipos;
+    private final byte[] meses;
+    private final int[] importes;
+    private final long[] marcas;
+    private final boolean[] nuevas;
+    private final boolean[] vacias;
+    private final long[] secuenciasDiario;
+    private final IOException[] errores;
+
+    // Secuencia con la que se puede volver a ocupar cada ranura y última publicada en ella
+    private final AtomicLongArray libres;
+    private final AtomicLongArray publicadas;
+
+    // Última secuencia reservada
+    private final Secuencia cursor = new Secuencia(-1);
+    private final List<Consumidor> consumidores = new ArrayList<>();
+    private boolean iniciado;
+    private volatile boolean cerrado;
+    private volatile boolean detenido;
+
+    // Avisos a los productores: recargas terminadas y ranuras libres; cada etapa tiene los suyos
+    private final Senal terminadas = new Senal();
+    private final Senal espacio = new Senal();
+    private Senal primeraEtapa;
+
+    /**
+     * @param capacidad número de ranuras (potencia de dos)
+     */
+    public AnilloRecargas(int capacidad, EstrategiaEspera espera) {
+        if (capacidad < 2 || Integer.bitCount(capacidad) != 1) {
+            throw new IllegalArgumentException("La capacidad del anillo debe ser una potencia de dos: "
+                    + capacidad);
+        }
+        this.capacidad = capacidad;
+        this.mascara = capacidad - 1;
+        this.espera = espera;
+        tarjetas = new long[capacidad];
+        tipos = new TipoBono[capacidad];
+        meses = new byte[capacidad];
+        importes = new int[capacidad];
+        marcas = new long[capacidad];
+        nuevas = new boolean[capacidad];
+        vacias = new boolean[capacidad];
+        secuenciasDiario = new long[capacidad];
+        errores = new IOException[capacidad];
+        libres = new AtomicLongArray(capacidad);
+        publicadas = new AtomicLongArray(capacidad);
+        for (int i = 0; i < capacidad; i++) {
+            libres.set(i, i);
+            publicadas.set(i, -1);
+        }
+    }
+
+    // ============================
+    // CONFIGURACIÓN
+    // ============================
+    /**
+     * Añade una etapa, que procesará cada recarga después de las anteriores.
+     * Se llama antes de {@link #iniciar()}.
+     */
+    public synchronized AnilloRecargas etapa(String nombre, Etapa etapa) {
+        if (iniciado) {
+            throw new IllegalStateException("El anillo ya está en marcha");
+        }
+        Secuencia anterior = consumidores.isEmpty() ? null : consumidores.get(consumidores.size() - 1).hecha;
+        consumidores.add(new Consumidor(nombre, etapa, anterior));
+        return this;
+    }
+
+    /**
+     * Arranca los hilos de las etapas. Se llama una vez, antes de publicar.
+     */
+    public synchronized AnilloRecargas iniciar() {
+        if (consumidores.isEmpty()) {
+            throw new IllegalStateException("El anillo no tiene etapas");
+        }
+        if (iniciado) {
+            throw new IllegalStateException("El anillo ya está en marcha");
+        }
+        iniciado = true;
+        primeraEtapa = consumidores.get(0).senal;
+        for (int i = 0; i < consumidores.size(); i++) {
+            consumidores.get(i).posterior = i + 1 < consumidores.size() ? consumidores.get(i + 1).senal : null;
+        }
+        for (Consumidor consumidor : consumidores) {
+            consumidor.hilo.start();
+        }
+        return this;
+    }
+
+    // ============================
+    // PRODUCTORES
+    // ============================
+    /**
+     * Reserva una ranura si hay alguna libre, sin esperar.
+     *
+     * @return secuencia reservada, o -1 si el anillo está lleno o cerrado
+     */
+    public long intentarReservar() {
+        return reservar(true, System.nanoTime());
+    }
+
+    /**
+     * Reserva una ranura esperando como mucho el plazo indicado a que quede
+     * alguna libre. Si el hilo se interrumpe mientras espera, deja de esperar.
+     *
+     * @return secuencia reservada, o -1 si vence el plazo, el hilo se
+     *         interrumpe o el anillo está cerrado
+     */
+    public long reservar(long plazo, TimeUnit unidad) {
+        return reservar(true, System.nanoTime() + unidad.toNanos(plazo));
+    }
+
+    /**
+     * Reserva una ranura esperando sin límite a que quede alguna libre.
+     *
+     * @return secuencia reservada, o -1 si el hilo se interrumpe o el anillo está cerrado
+     */
+    public long reservar() {
+        return reservar(false, 0);
+    }
+
+    /**
+     * Rellena la ranura reservada con una recarga y la entrega a las etapas.
+     *
+     * @param nueva si la recarga ha dado de alta la tarjeta
+     */
+    public void publicar(long secuencia, long tarjeta, TipoBono tipo, int mes, int importe, long marcaTiempo,
+                         boolean nueva) {
+        int i = indice(secuencia);
+        tarjetas[i] = tarjeta;
+        tipos[i] = tipo;
+        meses[i] = (byte) mes;
+        importes[i] = importe;
+        marcas[i] = marcaTiempo;
+        nuevas[i] = nueva;
+        vacias[i] = false;
+        secuenciasDiario[i] = 0;
+        errores[i] = null;
+        publicadas.set(i, secuencia);
+        primeraEtapa.avisar();
+    }
+
+    /**
+     * Publica la ranura reservada sin recarga (la petición se ha rechazado).
+     * Las etapas la saltan y la libera la última.
+     */
+    public void publicarVacia(long secuencia) {
+        int i = indice(secuencia);
+        tipos[i] = null;
+        vacias[i] = true;
+        secuenciasDiario[i] = 0;
+        errores[i] = null;
+        publicadas.set(i, secuencia);
+        primeraEtapa.avisar();
+    }
+
+    /**
+     * Bloquea hasta que todas las etapas hayan procesado la recarga indicada
+     * (y las anteriores). Una interrupción no corta la espera, porque la
+     * recarga ya está publicada; el estado de interrupción se restaura al
+     * terminar.
+     */
+    public void esperar(long secuencia) {
+        Secuencia ultima = consumidores.get(consumidores.size() - 1).hecha;
+        boolean interrumpido = false;
+        for (int intento = 0; ; intento = contar(intento)) {
+            long aviso = terminadas.leer();
+            if (ultima.get() >= secuencia) {
+                break;
+            }
+            try {
+                pausar(terminadas, intento, aviso, false, 0);
+            } catch (InterruptedException e) {
+                interrumpido = true;
+            }
+        }
+        if (interrumpido) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Devuelve la ranura al anillo. Se llama después de {@link #esperar} y de
+     * leer el resultado, que a partir de aquí se puede sobrescribir.
+     */
+    public void liberar(long secuencia) {
+        libres.set(indice(secuencia), secuencia + capacidad);
+        espacio.avisar();
+    }
+
+    // ============================
+    // RANURAS
+    // ============================
+    public long getTarjeta(long secuencia) {
+        return tarjetas[indice(secuencia)];
+    }
+
+    public TipoBono getTipo(long secuencia) {
+        return tipos[indice(secuencia)];
+    }
+
+    public int getMes(long secuencia) {
+        return meses[indice(secuencia)];
+    }
+
+    /**
+     * Importe cobrado en céntimos.
+     */
+    public int getImporte(long secuencia) {
+        return importes[indice(secuencia)];
+    }
+
+    public long getMarcaTiempo(long secuencia) {
+        return marcas[indice(secuencia)];
+    }
+
+    /**
+     * Indica si la recarga ha dado de alta la tarjeta.
+     */
+    public boolean isNueva(long secuencia) {
+        return nuevas[indice(secuencia)];
+    }
+
+    public boolean isVacia(long secuencia) {
+        return vacias[indice(secuencia)];
+    }
+
+    /**
+     * Secuencia del registro en el diario de recargas (0 si aún no se ha escrito).
+     */
+    public long getSecuenciaDiario(long secuencia) {
+        return secuenciasDiario[indice(secuencia)];
+    }
+
+    public void setSecuenciaDiario(long secuencia, long secuenciaDiario) {
+        secuenciasDiario[indice(secuencia)] = secuenciaDiario;
+    }
+
+    /**
+     * Error con el que ha fallado la recarga en alguna etapa, o {@code null}.
+     */
+    public IOException getError(long secuencia) {
+        return errores[indice(secuencia)];
+    }
+
+    /**
+     * Marca la recarga como fallida. Las etapas siguientes la siguen
+     * recibiendo y deben comprobar {@link #getError}.
+     */
+    public void fallar(long secuencia, IOException error) {
+        errores[indice(secuencia)] = error;
+    }
+
+    // ============================
+    // ESTADO DEL ANILLO
+    // ============================
+    public int getCapacidad() {
+        return capacidad;
+    }
+
+    public EstrategiaEspera getEstrategia() {
+        return espera;
+    }
+
+    /**
+     * Recargas reservadas que la última etapa aún no ha procesado.
+     */
+    public long getPendientes() {
+        return cursor.get() - consumidores.get(consumidores.size() - 1).hecha.get();
+    }
+
+    public boolean isCerrado() {
+        return cerrado;
+    }
+
+    /**
+     * Deja de aceptar recargas, espera a que las etapas procesen las ya
+     * reservadas y detiene sus hilos.
+     */
+    @Override
+    public synchronized void close() {
+        if (cerrado) {
+            return;
+        }
+        cerrado = true;
+        if (!iniciado) {
+            return;
+        }
+        espacio.avisar();
+        boolean interrumpido = false;
+        Secuencia ultima = consumidores.get(consumidores.size() - 1).hecha;
+        for (int intento = 0; ; intento = contar(intento)) {
+            long aviso = terminadas.leer();
+            if (ultima.get() >= cursor.get()) {
+                break;
+            }
+            try {
+                pausar(terminadas, intento, aviso, false, 0);
+            } catch (InterruptedException e) {
+                interrumpido = true;
+            }
+        }
+        detenido = true;
+        for (Consumidor consumidor : consumidores) {
+            consumidor.senal.avisar();
+        }
+        for (Consumidor consumidor : consumidores) {
+            try {
+                consumidor.hilo.join();
+            } catch (InterruptedException e) {
+                interrumpido = true;
+            }
+        }
+        if (interrumpido) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ============================
+    // MÉTODOS AUXILIARES
+    // ============================
+    private int indice(long secuencia) {
+        return (int) secuencia & mascara;
+    }
+
+    private long reservar(boolean conPlazo, long limite) {
+        boolean contado = false;
+        for (int intento = 0; ; intento = contar(intento)) {
+            long aviso = espacio.leer();
+            if (cerrado) {
+                return -1;
+            }
+            long actual = cursor.get();
+            long siguiente = actual + 1;
+            if (libres.get(indice(siguiente)) == siguiente) {
+                if (!cursor.compareAndSet(actual, siguiente)) {
+                    continue;
+                }
+                // El cierre pudo empezar entre la comprobación y la reserva: no esperará a esta
+                if (cerrado) {
+                    publicarVacia(siguiente);
+                    return -1;
+                }
+                return siguiente;
+            }
+            if (!contado) {
+                LLENO.increment();
+                contado = true;
+            }
+            if (conPlazo && System.nanoTime() - limite >= 0) {
+                return -1;
+            }
+            try {
+                pausar(espacio, intento, aviso, conPlazo, limite);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Una pausa entre dos comprobaciones según la estrategia de espera.
+     *
+     * @param senal   avisos que despiertan al hilo con {@link EstrategiaEspera#BLOQUEO}
+     * @param intento comprobaciones fallidas hasta ahora
+     * @param aviso   valor de la señal leído antes de la última comprobación
+     */
+    private void pausar(Senal senal, int intento, long aviso, boolean conPlazo, long limite)
+            throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        switch (espera) {
+            case OCUPADA:
+                break;
+            case CEDER:
+                if (intento >= GIROS) {
+                    Thread.yield();
+                }
+                break;
+            case DORMIR:
+                if (intento >= GIROS + CESIONES) {
+                    LockSupport.parkNanos(Math.min(SIESTA_NANOS << (intento - GIROS - CESIONES),
+                            SIESTA_MAXIMA_NANOS));
+                } else if (intento >= GIROS) {
+                    Thread.yield();
+                }
+                break;
+            default:
+                if (intento >= GIROS) {
+                    senal.dormir(aviso, conPlazo, limite);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Siguiente número de intento, que deja de crecer cuando ya no cambia la pausa.
+     */
+    private static int contar(int intento) {
+        return intento < GIROS + CESIONES + DOBLES ? intento + 1 : intento;
+    }
+
+    /**
+     * Avisos para los hilos que duermen con {@link EstrategiaEspera#BLOQUEO}.
+     * Quien espera lee el contador antes de comprobar su condición y solo se
+     * duerme si no ha cambiado; el número de durmientes se sube antes de
+     * volver a leerlo, de modo que quien avisa o ve al durmiente o le deja el
+     * contador cambiado. Con las demás estrategias avisar no cuesta nada.
+     */
+    private final class Senal {
+
+        private final AtomicLong avisos = new AtomicLong();
+        private final AtomicInteger durmientes = new AtomicInteger();
+
+        long leer() {
+            return avisos.get();
+        }
+
+        void avisar() {
+            if (espera != EstrategiaEspera.BLOQUEO) {
+                return;
+            }
+            avisos.incrementAndGet();
+            if (durmientes.get() > 0) {
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        }
+
+        /**
+         * Duerme hasta que llegue un aviso posterior a {@code aviso} o, con
+         * plazo, hasta el instante {@code limite} de {@link System#nanoTime()}.
+         */
+        void dormir(long aviso, boolean conPlazo, long limite) throws InterruptedException {
+            durmientes.incrementAndGet();
+            try {
+                synchronized (this) {
+                    while (avisos.get() == aviso) {
+                        if (!conPlazo) {
+                            wait();
+                            continue;
+                        }
+                        long restante = limite - System.nanoTime();
+                        if (restante <= 0) {
+                            return;
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(this, restante);
+                    }
+                }
+            } finally {
+                durmientes.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Contador de secuencia en su propia línea de caché, para que los hilos
+     * que escriben cada uno el suyo no se estorben: el valor va en medio de
+     * un array de 15 longs, con 56 bytes de relleno a cada lado.
+     */
+    private static final class Secuencia {
+
+        private static final int POSICION = 7;
+
+        private final AtomicLongArray valores = new AtomicLongArray(2 * POSICION + 1);
+
+        Secuencia(long inicial) {
+            valores.set(POSICION, inicial);
+        }
+
+        long get() {
+            return valores.get(POSICION);
+        }
+
+        void set(long valor) {
+            valores.set(POSICION, valor);
+        }
+
+        boolean compareAndSet(long esperado, long nuevo) {
+            return valores.compareAndSet(POSICION, esperado, nuevo);
+        }
+    }
+
+    /**
+     * Hilo de una etapa: espera a que haya recargas nuevas (publicadas, o
+     * terminadas por la etapa anterior) y las procesa todas de una vez.
+     */
+    private final class Consumidor implements Runnable {
+
+        final String nombre;
+        final Etapa etapa;
+        final Secuencia anterior;
+        final Secuencia hecha = new Secuencia(-1);
+        final Senal senal = new Senal();
+        // Señal de la etapa que va detrás, o null en la última
+        Senal posterior;
+        final Thread hilo;
+        final LongAdder lotes;
+        final LongAdder procesadas;
+
+        Consumidor(String nombre, Etapa etapa, Secuencia anterior) {
+            this.nombre = nombre;
+            this.etapa = etapa;
+            this.anterior = anterior;
+            hilo = new Thread(this, "anillo-recargas-" + nombre);
+            hilo.setDaemon(true);
+            Metricas metricas = Metricas.global();
+            lotes = metricas.contador("bono_anillo_lotes_total",
+                    "Lotes procesados por cada etapa del anillo de recargas", "etapa", nombre);
+            procesadas = metricas.contador("bono_anillo_procesadas_total",
+                    "Ranuras procesadas por cada etapa del anillo de recargas", "etapa", nombre);
+        }
+
+        @Override
+        public void run() {
+            long siguiente = 0;
+            while (true) {
+                long hasta = esperarDisponibles(siguiente);
+                if (hasta < siguiente) {
+                    return;
+                }
+                try {
+                    etapa.procesar(AnilloRecargas.this, siguiente, hasta);
+                } catch (RuntimeException e) {
+                    // Un fallo no puede parar la etapa: el anillo se quedaría atascado
+                    System.err.println("Error en la etapa '" + nombre + "' del anillo de recargas: " + e);
+                }
+                if (posterior == null) {
+                    for (long s = siguiente; s <= hasta; s++) {
+                        if (vacias[indice(s)]) {
+                            libres.set(indice(s), s + capacidad);
+                        }
+                    }
+                }
+                lotes.increment();
+                procesadas.add(hasta - siguiente + 1);
+                hecha.set(hasta);
+                if (posterior != null) {
+                    posterior.avisar();
+                } else {
+                    terminadas.avisar();
+                    espacio.avisar();
+                }
+                siguiente = hasta + 1;
+            }
+        }
+
+        /**
+         * @return última secuencia que se puede procesar, o menos que
+         *         {@code siguiente} si el anillo se ha detenido
+         */
+        private long esperarDisponibles(long siguiente) {
+            for (int intento = 0; ; intento = contar(intento)) {
+                long aviso = senal.leer();
+                long hasta = disponibles(siguiente);
+                if (hasta >= siguiente || detenido) {
+                    return hasta;
+                }
+                try {
+                    pausar(senal, intento, aviso, false, 0);
+                } catch (InterruptedException e) {
+                    // Nadie interrumpe a las etapas; se detienen con close()
+                }
+            }
+        }
+
+        private long disponibles(long siguiente) {
+            if (anterior != null) {
+                return anterior.get();
+            }
+            long reservada = cursor.get();
+            long s = siguiente;
+            while (s <= reservada && publicadas.get(indice(s)) == s) {
+                s++;
+            }
+            return s - 1;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package transporte.recarga;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Caché de idempotencia para las recargas: una petición repetida con la misma
+ * tarjeta, tipo de bono, mes y token de cliente recibe el resultado de la
+ * original en lugar de volver a recargar. Si la original aún está en curso,
+ * la repetida espera a su resultado.
+ *
+ * Las entradas caducan pasado un tiempo y la caché tiene un tamaño máximo. Se
+ * divide en franjas con su propio cerrojo, de modo que peticiones de tarjetas
+ * distintas casi nunca compiten entre sí. Los resultados transitorios (error
+ * al guardar, recarga cancelada o sistema saturado) no se guardan, para que se
+ * puedan reintentar.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public class CacheIdempotencia {
+
+    // ============================
+    // CONSTANTES
+    // ============================
+    private static final int FRANJAS = 64;
+
+    // ============================
+    // ESTADO
+    // ============================
+    private final Franja[] franjas;
+    private final int capacidadFranja;
+    private final long caducidadNanos;
+
+    private final LongAdder aciertos = new LongAdder();
+    private final LongAdder fallos = new LongAdder();
+
+    /**
+     * @param capacidad número máximo aproximado de entradas
+     * @param caducidad tiempo durante el que se recuerda cada resultado
+     */
+    public CacheIdempotencia(int capacidad, long caducidad, TimeUnit unidad) {
+        if (capacidad < 1 || caducidad <= 0) {
+            throw new IllegalArgumentException("Capacidad y caducidad deben ser positivas");
+        }
+        this.capacidadFranja = Math.max(1, capacidad / FRANJAS);
+        this.caducidadNanos = unidad.toNanos(caducidad);
+        this.franjas = new Franja[FRANJAS];
+        for (int i = 0; i < FRANJAS; i++) {
+            franjas[i] = new Franja();
+        }
+    }
+
+    /**
+     * Devuelve el resultado de la recarga con esa clave si se hizo hace menos
+     * del tiempo de caducidad; si no, ejecuta {@code recarga} y guarda su resultado.
+     */
+    public ResultadoRecarga ejecutar(long tarjeta, TipoBono tipo, int mes, String token,
+                                     Supplier<ResultadoRecarga> recarga) {
+        Clave clave = new Clave(tarjeta, tipo, mes, token);
+        Franja franja = franjas[franja(clave.hashCode())];
+        long ahora = System.nanoTime();
+
+        Entrada entrada;
+        boolean propia = false;
+        synchronized (franja) {
+            entrada = franja.mapa.get(clave);
+            if (entrada == null || ahora - entrada.creada >= caducidadNanos) {
+                if (entrada != null) {
+                    // Quitarla antes para que la nueva quede al final del orden de inserción
+                    franja.mapa.remove(clave);
+                }
+                entrada = new Entrada(new FutureTask<>(recarga::get), ahora);
+                franja.mapa.put(clave, entrada);
+                franja.expulsar(ahora);
+                propia = true;
+            }
+        }
+
+        if (propia) {
+            fallos.increment();
+            entrada.tarea.run();
+        } else {
+            aciertos.increment();
+        }
+
+        ResultadoRecarga resultado;
+        try {
+            resultado = esperar(entrada.tarea, tarjeta, tipo, mes);
+        } catch (RuntimeException e) {
+            olvidar(franja, clave, entrada);
+            throw e;
+        }
+        if (propia && !guardable(resultado)) {
+            olvidar(franja, clave, entrada);
+        }
+        return resultado;
+    }
+
+    // ============================
+    // ESTADÍSTICAS
+    // ============================
+    /**
+     * Peticiones repetidas que han recibido un resultado guardado.
+     */
+    public long getAciertos() {
+        return aciertos.sum();
+    }
+
+    public long getFallos() {
+        return fallos.sum();
+    }
+
+    public long tamano() {
+        long total = 0;
+        for (Franja franja : franjas) {
+            synchronized (franja) {
+                total += franja.mapa.size();
+            }
+        }
+        return total;
+    }
+
+    // ============================
+    // MÉTODOS AUXILIARES
+    // ============================
+    private static int franja(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        return hash & (FRANJAS - 1);
+    }
+
+    private static boolean guardable(ResultadoRecarga resultado) {
+        return resultado.getEstado() != ResultadoRecarga.Estado.ERROR_PERSISTENCIA
+                && resultado.getEstado() != ResultadoRecarga.Estado.CANCELADA
+                && resultado.getEstado() != ResultadoRecarga.Estado.SATURADA;
+    }
+
+    private static void olvidar(Franja franja, Clave clave, Entrada entrada) {
+        synchronized (franja) {
+            franja.mapa.remove(clave, entrada);
+        }
+    }
+
+    /**
+     * Espera el resultado de la recarga original. Si el hilo se interrumpe
+     * mientras espera, la petición repetida se da por cancelada.
+     */
+    private static ResultadoRecarga esperar(FutureTask<ResultadoRecarga> tarea, long tarjeta,
+                                            TipoBono tipo, int mes) {
+        try {
+            return tarea.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new ResultadoRecarga(ResultadoRecarga.Estado.CANCELADA, tarjeta, tipo, mes);
+        } catch (ExecutionException e) {
+            Throwable causa = e.getCause();
+            if (causa instanceof RuntimeException) {
+                throw (RuntimeException) causa;
+            }
+            if (causa instanceof Error) {
+                throw (Error) causa;
+            }
+            throw new IllegalStateException(causa);
+        }
+    }
+
+    /**
+     * Franja de la caché: entradas en orden de inserción, de modo que las más
+     * antiguas (las primeras en caducar) están al principio.
+     */
+    private final class Franja {
+        final LinkedHashMap<Clave, Entrada> mapa = new LinkedHashMap<>();
+
+        void expulsar(long ahora) {
+            Iterator<Map.Entry<Clave, Entrada>> entradas = mapa.entrySet().iterator();
+            while (entradas.hasNext()) {
+                Entrada entrada = entradas.next().getValue();
+                if (mapa.size() <= capacidadFranja && ahora - entrada.creada < caducidadNanos) {
+                    return;
+                }
+                entradas.remove();
+            }
+        }
+    }
+
+    private static final class Entrada {
+        final FutureTask<ResultadoRecarga> tarea;
+        final long creada;
+
+        Entrada(FutureTask<ResultadoRecarga> tarea, long creada) {
+            this.tarea = tarea;
+            this.creada = creada;
+        }
+    }
+
+    private static final class Clave {
+        final long tarjeta;
+        final TipoBono tipo;
+        final int mes;
+        final String token;
+
+        Clave(long tarjeta, TipoBono tipo, int mes, String token) {
+            this.tarjeta = tarjeta;
+            this.tipo = tipo;
+            this.mes = mes;
+            this.token = token;
+        }
+
+        @Override
+        public boolean equals(Object otro) {
+            if (!(otro instanceof Clave)) {
+                return false;
+            }
+            Clave clave = (Clave) otro;
+            return tarjeta == clave.tarjeta && tipo == clave.tipo && mes == clave.mes
+                    && token.equals(clave.token);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = Long.hashCode(tarjeta);
+            hash = 31 * hash + Objects.hashCode(tipo);
+            hash = 31 * hash + mes;
+            return 31 * hash + token.hashCode();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package transporte.recarga;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ejecutores para el trabajo de recarga, que no debe hacerse en el hilo de
+ * eventos de Swing.
+ *
+ * Cuando la JVM ofrece hilos virtuales (Java 21 o superior) se crea un hilo
+ * virtual por tarea; en versiones anteriores se usa un pool de hilos demonio
+ * que crece según la demanda. Los hilos virtuales se obtienen por reflexión
+ * para que el proyecto siga compilando para Java 8.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public final class EjecutorRecargas {
+
+    private EjecutorRecargas() {
+    }
+
+    /**
+     * Ejecutor compartido por las vistas de recarga.
+     */
+    public static ExecutorService compartido() {
+        return Compartido.EJECUTOR;
+    }
+
+    /**
+     * Crea un ejecutor nuevo cuyos hilos se llaman {@code nombre-N}.
+     */
+    public static ExecutorService nuevo(String nombre) {
+        ExecutorService virtual = hilosVirtuales(nombre);
+        if (virtual != null) {
+            return virtual;
+        }
+        AtomicInteger contador = new AtomicInteger();
+        return Executors.newCachedThreadPool(r -> {
+            Thread hilo = new Thread(r, nombre + "-" + contador.incrementAndGet());
+            hilo.setDaemon(true);
+            return hilo;
+        });
+    }
+
+    /**
+     * Indica si esta JVM ejecuta las tareas en hilos virtuales.
+     */
+    public static boolean usaHilosVirtuales() {
+        return Compartido.VIRTUALES;
+    }
+
+    // ============================
+    // MÉTODOS AUXILIARES
+    // ============================
+    /**
+     * {@code Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(nombre + "-", 1).factory())},
+     * o null si la JVM no tiene hilos virtuales.
+     */
+    private static ExecutorService hilosVirtuales(String nombre) {
+        try {
+            Object constructor = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> tipoVirtual = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            constructor = tipoVirtual.getMethod("name", String.class, long.class)
+                    .invoke(constructor, nombre + "-", 1L);
+            ThreadFactory fabrica = (ThreadFactory) Class.forName("java.lang.Thread$Builder")
+                    .getMethod("factory").invoke(constructor);
+            Method porTarea = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) porTarea.invoke(null, fabrica);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * Inicialización perezosa del ejecutor compartido.
+     */
+    private static final class Compartido {
+        static final ExecutorService EJECUTOR = nuevo("recarga");
+        static final boolean VIRTUALES = !(EJECUTOR instanceof ThreadPoolExecutor);
+    }
+}
@@ -0,0 +1,61 @@
+package transporte.recarga;
+
+import java.util.Locale;
+
+/**
+ * Cómo esperan los hilos del {@link AnilloRecargas}: las etapas a que haya
+ * recargas nuevas y los productores a que quede sitio o a que su recarga esté
+ * registrada. Cuanto menos tardan en enterarse, más CPU gastan mientras tanto.
+ *
+ * Se elige con {@code -Dbono.anillo.espera=bloqueo|dormir|ceder|ocupada}.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public enum EstrategiaEspera {
+
+    /**
+     * Comprueba sin parar. La menor latencia, pero cada hilo que espera ocupa
+     * un núcleo entero: solo tiene sentido con núcleos de sobra.
+     */
+    OCUPADA,
+
+    /**
+     * Comprueba unas cuantas veces y después cede el procesador con
+     * {@link Thread#yield()} entre comprobaciones.
+     */
+    CEDER,
+
+    /**
+     * Como {@link #CEDER}, pero al rato duerme entre comprobaciones, primero
+     * 50 microsegundos y, si la espera se alarga, hasta 200: apenas gasta CPU
+     * en reposo y no necesita avisos. Es la opción por defecto.
+     */
+    DORMIR,
+
+    /**
+     * Duerme hasta que otro hilo avisa de un cambio. No gasta nada de CPU en
+     * reposo, pero cada aviso toma un cerrojo si hay alguien dormido y, con
+     * muchos quioscos y pocos núcleos, despertar a todos cuesta más que la
+     * propia recarga.
+     */
+    BLOQUEO;
+
+    private static final String PROPIEDAD = "bono.anillo.espera";
+
+    /**
+     * Estrategia indicada con {@code -Dbono.anillo.espera}, o {@link #DORMIR}.
+     */
+    public static EstrategiaEspera configurada() {
+        String valor = System.getProperty(PROPIEDAD);
+        if (valor == null) {
+            return DORMIR;
+        }
+        try {
+            return valueOf(valor.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Advertencia: Estrategia de espera desconocida '" + valor + "'; se usa "
+                    + DORMIR.name().toLowerCase(Locale.ROOT));
+            return DORMIR;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package transporte.recarga;
+
+import transporte.tarjeta.MapaBitsComprimido;
+import transporte.tarjeta.TablaTarjetas;
+import transporte.tarjeta.ValidadorTarjeta;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+import java.util.stream.IntStream;
+
+/**
+ * Índice de tarjetas recargadas por tipo de bono y mes.
+ *
+ * Cada pareja (tipo, mes) tiene un {@link MapaBitsComprimido} con las tarjetas
+ * que tienen ese mes pagado, de modo que consultas como "tarjetas BonoMetro
+ * válidas en marzo" o "número de BonoBus activos este mes" no necesitan recorrer
+ * la tabla de tarjetas. En los mapas se guarda el número de tarjeta sin el dígito
+ * de control, que se puede volver a calcular, para que el espacio de valores
+ * sea diez veces menor y los contenedores más densos.
+ *
+ * Es seguro para su uso desde varios hilos: cada mapa tiene su propio cerrojo.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public class IndiceMensual {
+
+    private static final int MESES = 12;
+
+    private final MapaBitsComprimido[] mapas;
+    private final StampedLock[] cerrojos;
+
+    /**
+     * Crea un índice vacío.
+     */
+    public IndiceMensual() {
+        int total = TipoBono.values().length * MESES;
+        mapas = new MapaBitsComprimido[total];
+        cerrojos = new StampedLock[total];
+        for (int i = 0; i < total; i++) {
+            mapas[i] = new MapaBitsComprimido();
+            cerrojos[i] = new StampedLock();
+        }
+    }
+
+    /**
+     * Construye el índice a partir de los meses pagados de cada tarjeta de la tabla.
+     * Las tarjetas se ordenan antes de insertarlas para que cada mapa se rellene
+     * añadiendo siempre al final.
+     */
+    public static IndiceMensual construir(TablaTarjetas tarjetas) {
+        IndiceMensual indice = new IndiceMensual();
+        int total = indice.mapas.length;
+        long[][] valores = new long[total][16];
+        int[] cantidades = new int[total];
+
+        tarjetas.recorrer((tarjeta, registro) -> {
+            int tipo = TablaTarjetas.tipo(registro);
+            int meses = TablaTarjetas.meses(registro);
+            while (tipo != 0 && meses != 0) {
+                int mes = Integer.numberOfTrailingZeros(meses);
+                int i = (tipo - 1) * MESES + mes;
+                if (cantidades[i] == valores[i].length) {
+                    valores[i] = Arrays.copyOf(valores[i], cantidades[i] * 2);
+                }
+                valores[i][cantidades[i]++] = tarjeta / 10;
+                meses &= meses - 1;
+            }
+        });
+
+        // Cada mapa es independiente, así que se ordenan y rellenan en paralelo
+        IntStream.range(0, total).parallel().forEach(i -> {
+            Arrays.sort(valores[i], 0, cantidades[i]);
+            for (int j = 0; j < cantidades[i]; j++) {
+                indice.mapas[i].anadir(valores[i][j]);
+            }
+            valores[i] = null;
+        });
+        return indice;
+    }
+
+    /**
+     * Reconstruye un índice a partir de sus mapas guardados, en el orden de
+     * {@link #mapas()}. Los mapas pasan a ser del índice, sin copiarlos.
+     *
+     * @throws IllegalArgumentException si el número de mapas no corresponde
+     */
+    public static IndiceMensual restaurar(MapaBitsComprimido[] guardados) {
+        IndiceMensual indice = new IndiceMensual();
+        if (guardados.length != indice.mapas.length) {
+            throw new IllegalArgumentException("Se esperaban " + indice.mapas.length + " mapas y hay "
+                    + guardados.length);
+        }
+        System.arraycopy(guardados, 0, indice.mapas, 0, guardados.length);
+        return indice;
+    }
+
+    // ============================
+    // ACTUALIZACIÓN
+    // ============================
+    void anadir(long tarjeta, TipoBono tipo, int mes) {
+        int i = posicion(tipo, mes);
+        long sello = cerrojos[i].writeLock();
+        try {
+            mapas[i].anadir(tarjeta / 10);
+        } finally {
+            cerrojos[i].unlockWrite(sello);
+        }
+    }
+
+    void quitar(long tarjeta, TipoBono tipo, int mes) {
+        int i = posicion(tipo, mes);
+        long sello = cerrojos[i].writeLock();
+        try {
+            mapas[i].quitar(tarjeta / 10);
+        } finally {
+            cerrojos[i].unlockWrite(sello);
+        }
+    }
+
+    // ============================
+    // CONSULTAS
+    // ============================
+    /**
+     * Número de tarjetas del tipo indicado con el mes (0-11) pagado.
+     */
+    public long contar(TipoBono tipo, int mes) {
+        int i = posicion(tipo, mes);
+        long sello = cerrojos[i].readLock();
+        try {
+            return mapas[i].cardinalidad();
+        } finally {
+            cerrojos[i].unlockRead(sello);
+        }
+    }
+
+    public boolean contiene(long tarjeta, TipoBono tipo, int mes) {
+        int i = posicion(tipo, mes);
+        long sello = cerrojos[i].readLock();
+        try {
+            return mapas[i].contiene(tarjeta / 10);
+        } finally {
+            cerrojos[i].unlockRead(sello);
+        }
+    }
+
+    /**
+     * Números de tarjeta (con dígito de control) del tipo indicado con el mes
+     * pagado, en orden creciente.
+     */
+    public long[] tarjetas(TipoBono tipo, int mes) {
+        long[] bases = mapa(tipo, mes).aArray();
+        for (int i = 0; i < bases.length; i++) {
+            bases[i] = ValidadorTarjeta.completar(bases[i]);
+        }
+        return bases;
+    }
+
+    /**
+     * Copia del mapa de un tipo y mes, para combinarlo con otros sin bloquear
+     * el índice (por ejemplo, tarjetas con dos meses pagados).
+     * Los valores son números de tarjeta sin dígito de control.
+     */
+    public MapaBitsComprimido mapa(TipoBono tipo, int mes) {
+        int i = posicion(tipo, mes);
+        long sello = cerrojos[i].readLock();
+        try {
+            return mapas[i].copia();
+        } finally {
+            cerrojos[i].unlockRead(sello);
+        }
+    }
+
+    /**
+     * Copia de todos los mapas del índice, cada uno tomado con su cerrojo,
+     * ordenados por tipo de bono y mes. Sirve para guardar el índice y
+     * recuperarlo con {@link #restaurar(MapaBitsComprimido[])}.
+     */
+    public MapaBitsComprimido[] mapas() {
+        MapaBitsComprimido[] copias = new MapaBitsComprimido[mapas.length];
+        for (TipoBono tipo : TipoBono.values()) {
+            for (int mes = 0; mes < MESES; mes++) {
+                copias[posicion(tipo, mes)] = mapa(tipo, mes);
+            }
+        }
+        return copias;
+    }
+
+    /**
+     * Memoria aproximada que ocupa el índice, en bytes.
+     */
+    public long bytesEstimados() {
+        long bytes = 0;
+        for (int i = 0; i < mapas.length; i++) {
+            long sello = cerrojos[i].readLock();
+            try {
+                bytes += mapas[i].bytesEstimados();
+            } finally {
+                cerrojos[i].unlockRead(sello);
+            }
+        }
+        return bytes;
+    }
+
+    private static int posicion(TipoBono tipo, int mes) {
+        if (tipo == null || mes < 0 || mes >= MESES) {
+            throw new IllegalArgumentException("Tipo o mes no válido: " + tipo + ", " + mes);
+        }
+        return tipo.ordinal() * MESES + mes;
+    }
+}
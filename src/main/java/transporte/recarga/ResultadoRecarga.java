@@ -0,0 +1,130 @@
+package transporte.recarga;
+
+/**
+ * Resultado inmutable de una operación de recarga.
+ * Indica si la recarga se ha aplicado y, en caso contrario, el motivo del rechazo.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public final class ResultadoRecarga {
+
+    /**
+     * Posibles estados en los que puede terminar una recarga.
+     */
+    public enum Estado {
+        RECARGADA,
+        TARJETA_INVALIDA,
+        TIPO_INVALIDO,
+        MES_INVALIDO,
+        /**
+         * La tarjeta ya está asociada al otro tipo de bono: cada tarjeta es de
+         * un único operador (Tussam o Metro) desde su primera recarga.
+         */
+        TIPO_INCOMPATIBLE,
+        /**
+         * El mes ya está pagado para esa tarjeta: se rechaza para no cobrarlo
+         * dos veces.
+         */
+        YA_RECARGADA,
+        ERROR_PERSISTENCIA,
+        CANCELADA,
+        SATURADA
+    }
+
+    private final Estado estado;
+    private final long tarjeta;
+    private final TipoBono tipo;
+    private final int mes;
+    private final int importe;
+    private final long secuencia;
+
+    ResultadoRecarga(Estado estado, long tarjeta, TipoBono tipo, int mes) {
+        this(estado, tarjeta, tipo, mes, 0, 0);
+    }
+
+    ResultadoRecarga(Estado estado, long tarjeta, TipoBono tipo, int mes, int importe, long secuencia) {
+        this.estado = estado;
+        this.tarjeta = tarjeta;
+        this.tipo = tipo;
+        this.mes = mes;
+        this.importe = importe;
+        this.secuencia = secuencia;
+    }
+
+    public Estado getEstado() {
+        return estado;
+    }
+
+    /**
+     * Indica si la recarga se ha realizado correctamente.
+     */
+    public boolean isCorrecta() {
+        return estado == Estado.RECARGADA;
+    }
+
+    /**
+     * Número de tarjeta como entero de 12 dígitos (-1 si no era válido).
+     */
+    public long getTarjeta() {
+        return tarjeta;
+    }
+
+    public TipoBono getTipo() {
+        return tipo;
+    }
+
+    /**
+     * Mes de la recarga (0 = Enero, 11 = Diciembre), igual que {@code JMonthChooser}.
+     */
+    public int getMes() {
+        return mes;
+    }
+
+    /**
+     * Importe cobrado en céntimos (0 si la recarga no se ha realizado).
+     */
+    public int getImporte() {
+        return importe;
+    }
+
+    /**
+     * Secuencia del registro en el diario de recargas (0 si no se ha registrado).
+     */
+    public long getSecuencia() {
+        return secuencia;
+    }
+
+    /**
+     * Mensaje en español que describe el resultado para mostrarlo al usuario.
+     */
+    public String getMensaje() {
+        switch (estado) {
+            case RECARGADA:
+                return "Recarga realizada correctamente.";
+            case TARJETA_INVALIDA:
+                return "El número de tarjeta no es válido.";
+            case TIPO_INVALIDO:
+                return "El tipo de bono no es válido.";
+            case MES_INVALIDO:
+                return "El mes seleccionado no es válido.";
+            case TIPO_INCOMPATIBLE:
+                return "La tarjeta está registrada con otro tipo de bono.";
+            case YA_RECARGADA:
+                return "La tarjeta ya está recargada para ese mes.";
+            case ERROR_PERSISTENCIA:
+                return "No se ha podido guardar la recarga. Inténtelo de nuevo.";
+            case CANCELADA:
+                return "La recarga se ha cancelado.";
+            case SATURADA:
+                return "Hay demasiadas recargas en curso. Inténtelo de nuevo en unos segundos.";
+            default:
+                return estado.name();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ResultadoRecarga{" + estado + ", tarjeta=" + tarjeta + ", tipo=" + tipo + ", mes=" + mes
+                + ", importe=" + importe + "}";
+    }
+}
@@ -0,0 +1,962 @@
+package transporte.recarga;
+
+import transporte.diagnostico.EventoRecarga;
+import transporte.metricas.HistogramaLatencia;
+import transporte.metricas.Metricas;
+import transporte.persistencia.DiarioRecargas;
+import transporte.persistencia.InstantaneaTarjetas;
+import transporte.tarifa.MotorTarifas;
+import transporte.tarifa.Perfil;
+import transporte.tarjeta.IndicePrefijos;
+import transporte.tarjeta.TablaTarjetas;
+import transporte.tarjeta.ValidadorTarjeta;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Motor de recarga independiente de la interfaz gráfica.
+ * Recibe tarjeta, tipo de bono y mes, aplica las reglas de negocio y devuelve
+ * un {@link ResultadoRecarga}. Es seguro para su uso desde varios hilos a la vez,
+ * de modo que lo pueden compartir las ventanas Swing y cualquier otro cliente.
+ *
+ * Además de comprobar los datos, el servicio aplica dos reglas que las
+ * ventanas no tenían, porque no recordaban ninguna recarga:
+ * <ul>
+ *   <li>Cada tarjeta queda asociada al tipo de bono con el que se recarga por
+ *       primera vez; recargarla con el otro se rechaza como
+ *       {@link ResultadoRecarga.Estado#TIPO_INCOMPATIBLE}.</li>
+ *   <li>Un mes ya pagado no se vuelve a cobrar: se rechaza como
+ *       {@link ResultadoRecarga.Estado#YA_RECARGADA}. Para que un reintento de
+ *       la misma petición no acabe en este rechazo, las peticiones con token
+ *       pasan por la {@link CacheIdempotencia}.</li>
+ * </ul>
+ *
+ * Si el servicio tiene un
+ * {@link DiarioRecargas}, una recarga solo se da por realizada cuando está
+ * escrita en el diario y volcada a disco. Para no reproducir el diario completo
+ * en cada arranque se guardan periódicamente instantáneas del registro de
+ * tarjetas ({@link InstantaneaTarjetas}).
+ *
+ * Con diario, cada recarga se aplica sobre la tabla de tarjetas en el hilo que
+ * la pide y de ahí pasa por un {@link AnilloRecargas} cuyas etapas, cada una
+ * en su hilo y por lotes, la añaden a los índices, la escriben en el diario y
+ * esperan a que sea duradera. Así ningún hilo que recarga compite por el
+ * cerrojo del diario. Si el anillo está lleno más de un segundo la recarga se
+ * rechaza como {@link ResultadoRecarga.Estado#SATURADA} sin aplicarse; las
+ * importaciones, en cambio, esperan a que haya sitio.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public class ServicioRecarga implements Closeable {
+
+    // ============================
+    // CONSTANTES
+    // ============================
+    private static final int MESES = 12;
+
+    // Directorio de datos de la instancia compartida (se puede cambiar con -Dbono.datos=...)
+    private static final String PROPIEDAD_DATOS = "bono.datos";
+
+    // Minutos entre instantáneas del registro de tarjetas (0 para guardarla solo al cerrar)
+    private static final String PROPIEDAD_INSTANTANEAS = "bono.instantanea.intervalo";
+    private static final int INTERVALO_INSTANTANEAS_MIN = 15;
+
+    // Ranuras del anillo hacia el diario (0 para escribir en él desde cada hilo)
+    private static final String PROPIEDAD_ANILLO = "bono.anillo.capacidad";
+    private static final int CAPACIDAD_ANILLO = 1 << 14;
+    // Lo que espera una recarga a que quede sitio en el anillo antes de rechazarse
+    private static final long PLAZO_ANILLO_MS = 1000;
+
+    // Peticiones repetidas que se recuerdan y durante cuánto tiempo
+    private static final int CAPACIDAD_IDEMPOTENCIA = 100_000;
+    private static final long CADUCIDAD_IDEMPOTENCIA_MIN = 10;
+
+    // Métricas comunes a todas las instancias: latencia por tipo de bono y
+    // resultados por tipo (posición 0 para peticiones sin tipo válido) y estado
+    private static final HistogramaLatencia[] LATENCIAS = new HistogramaLatencia[TipoBono.values().length];
+    private static final LongAdder[][] RESULTADOS =
+            new LongAdder[TipoBono.values().length + 1][ResultadoRecarga.Estado.values().length];
+    private static final HistogramaLatencia DURACION_INSTANTANEAS = Metricas.global().histograma(
+            "bono_instantanea_segundos", "Tiempo en guardar una instantánea del registro de tarjetas");
+
+    static {
+        Metricas metricas = Metricas.global();
+        for (TipoBono tipo : TipoBono.values()) {
+            LATENCIAS[tipo.ordinal()] = metricas.histograma("bono_recarga_segundos",
+                    "Tiempo de una recarga en el servicio, hasta que queda registrada", "tipo", tipo.name());
+        }
+        for (int tipo = 0; tipo < RESULTADOS.length; tipo++) {
+            for (ResultadoRecarga.Estado estado : ResultadoRecarga.Estado.values()) {
+                RESULTADOS[tipo][estado.ordinal()] = metricas.contador("bono_recargas_total",
+                        "Peticiones de recarga por tipo de bono y resultado",
+                        "tipo", tipo == 0 ? "NINGUNO" : TipoBono.values()[tipo - 1].name(),
+                        "resultado", estado.name());
+            }
+        }
+    }
+
+    // ============================
+    // ESTADO
+    // ============================
+    private final TablaTarjetas tarjetas;
+    private final DiarioRecargas diario;
+    private final IndiceMensual indice;
+    private final MotorTarifas tarifas;
+    // Entre los hilos que recargan y el diario; null sin diario
+    private final AnilloRecargas anillo;
+    private final CacheIdempotencia idempotencia =
+            new CacheIdempotencia(CAPACIDAD_IDEMPOTENCIA, CADUCIDAD_IDEMPOTENCIA_MIN, TimeUnit.MINUTES);
+
+    private final LongAdder recargasBus = new LongAdder();
+    private final LongAdder recargasMetro = new LongAdder();
+    private final LongAdder rechazadas = new LongAdder();
+
+    // Secuencia del diario incluida en la última instantánea guardada o cargada
+    private volatile long secuenciaInstantanea;
+
+    // Índice por prefijo para las sugerencias; se crea la primera vez que se pide
+    private volatile IndicePrefijos prefijos;
+    private final Object cerrojoPrefijos = new Object();
+
+    /**
+     * Crea un servicio con un registro de tarjetas vacío.
+     */
+    public ServicioRecarga() {
+        this(new TablaTarjetas());
+    }
+
+    /**
+     * Crea un servicio que trabaja sobre el registro de tarjetas indicado.
+     */
+    public ServicioRecarga(TablaTarjetas tarjetas) {
+        this(tarjetas, null);
+    }
+
+    /**
+     * Crea un servicio que registra cada recarga en el diario indicado
+     * ({@code null} para trabajar solo en memoria).
+     */
+    public ServicioRecarga(TablaTarjetas tarjetas, DiarioRecargas diario) {
+        this(tarjetas, diario, MotorTarifas.compartido());
+    }
+
+    /**
+     * Crea un servicio que calcula el importe de cada recarga con el motor de
+     * tarifas indicado.
+     */
+    public ServicioRecarga(TablaTarjetas tarjetas, DiarioRecargas diario, MotorTarifas tarifas) {
+        this(tarjetas, diario, tarifas, IndiceMensual.construir(tarjetas));
+    }
+
+    private ServicioRecarga(TablaTarjetas tarjetas, DiarioRecargas diario, MotorTarifas tarifas,
+                            IndiceMensual indice) {
+        this.tarjetas = tarjetas;
+        this.diario = diario;
+        this.tarifas = tarifas;
+        this.indice = indice;
+        this.anillo = diario != null ? crearAnillo() : null;
+    }
+
+    /**
+     * Abre el diario del directorio indicado, reconstruye el estado de las
+     * tarjetas y devuelve un servicio que sigue escribiendo en él. Si hay una
+     * instantánea se parte de ella (tabla e índice) y solo se reproducen las
+     * recargas posteriores; si no, se reproduce el diario completo.
+     */
+    public static ServicioRecarga abrir(Path directorio) throws IOException {
+        DiarioRecargas diario = new DiarioRecargas(directorio);
+        try {
+            Estado estado = reconstruir(diario, Long.MAX_VALUE);
+            ServicioRecarga servicio = new ServicioRecarga(estado.tarjetas, diario, MotorTarifas.compartido(),
+                    estado.indice);
+            servicio.secuenciaInstantanea = estado.desde;
+            return servicio;
+        } catch (IOException | RuntimeException e) {
+            // Soltar el cerrojo del diario para que se pueda volver a abrir
+            try {
+                diario.close();
+            } catch (IOException cierre) {
+                e.addSuppressed(cierre);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Reconstruye la tabla y el índice con las recargas del diario hasta la
+     * secuencia {@code hasta}, partiendo de la última instantánea si la hay.
+     */
+    private static Estado reconstruir(DiarioRecargas diario, long hasta) throws IOException {
+        InstantaneaTarjetas instantanea = InstantaneaTarjetas.cargarUltima(diario.getDirectorio());
+        if (instantanea != null && instantanea.getSecuencia() > diario.getUltimaSecuencia()) {
+            // Las secuencias nuevas repetirían las de la instantánea y se perderían al reproducir
+            System.err.println("Advertencia: La instantánea '" + instantanea.getFichero()
+                    + "' es posterior al diario; se reconstruye desde el diario completo");
+            instantanea = null;
+        }
+        TablaTarjetas tarjetas = instantanea != null ? instantanea.getTarjetas() : new TablaTarjetas();
+        long desde = instantanea != null ? instantanea.getSecuencia() : 0;
+        IndiceMensual indice = null;
+        if (instantanea != null && instantanea.getMapas().length > 0) {
+            try {
+                indice = IndiceMensual.restaurar(instantanea.getMapas());
+            } catch (IllegalArgumentException e) {
+                System.err.println("Advertencia: No se puede usar el índice de la instantánea: " + e.getMessage());
+            }
+        }
+        IndiceMensual restaurado = indice;
+        diario.reproducir(desde, (secuencia, tarjeta, tipo, mes, importe, marcaTiempo) -> {
+            if (secuencia > hasta) {
+                return;
+            }
+            int codigoTipo = codigo(tipo);
+            int bitMes = 1 << mes;
+            tarjetas.modificar(tarjeta, registro ->
+                    TablaTarjetas.registro(codigoTipo, TablaTarjetas.meses(registro) | bitMes));
+            // Las instantáneas de versiones anteriores copiaban el índice y la
+            // tabla en momentos distintos: se añade siempre, aunque la tabla ya
+            // tuviera el mes
+            if (restaurado != null) {
+                restaurado.anadir(tarjeta, tipo, mes);
+            }
+        });
+        return new Estado(tarjetas, indice != null ? indice : IndiceMensual.construir(tarjetas), desde);
+    }
+
+    /**
+     * Instancia compartida por todas las ventanas de la aplicación.
+     * Se crea la primera vez que se usa, sobre el diario del directorio de datos.
+     * Si el diario no se puede abrir trabaja solo en memoria: quien la use debe
+     * comprobar {@link #errorDiarioCompartido()} y avisar de que las recargas
+     * no se guardarán.
+     */
+    public static ServicioRecarga compartido() {
+        return Compartido.INSTANCIA;
+    }
+
+    /**
+     * Instancia compartida para los modos sin interfaz (servidor e
+     * importación), que no tienen a quién avisar: si el diario no se puede
+     * abrir falla en lugar de trabajar solo en memoria.
+     */
+    public static ServicioRecarga compartidoConDiario() throws IOException {
+        ServicioRecarga servicio = compartido();
+        IOException error = errorDiarioCompartido();
+        if (error != null) {
+            throw new IOException("No se pudo abrir el diario de recargas en '" + directorioDatos()
+                    + "': " + error.getMessage(), error);
+        }
+        return servicio;
+    }
+
+    /**
+     * Motivo por el que la instancia compartida no pudo abrir su diario y
+     * trabaja solo en memoria, o {@code null} si las recargas se guardan.
+     * Crea la instancia si aún no existe.
+     */
+    public static IOException errorDiarioCompartido() {
+        compartido();
+        return Compartido.error;
+    }
+
+    /**
+     * Directorio de datos de la aplicación: {@code ~/.bonotransporte} o el
+     * indicado con {@code -Dbono.datos}.
+     */
+    public static Path directorioDatos() {
+        String ruta = System.getProperty(PROPIEDAD_DATOS);
+        return ruta != null
+                ? Paths.get(ruta)
+                : Paths.get(System.getProperty("user.home"), ".bonotransporte");
+    }
+
+    /**
+     * Diario en el que escribe el servicio, o {@code null} si trabaja solo en memoria.
+     */
+    public DiarioRecargas getDiario() {
+        return diario;
+    }
+
+    /**
+     * Anillo por el que pasan las recargas hacia el diario, o {@code null} si
+     * el servicio no tiene diario o escribe en él directamente.
+     */
+    public AnilloRecargas getAnillo() {
+        return anillo;
+    }
+
+    // ============================
+    // OPERACIONES DE RECARGA
+    // ============================
+    /**
+     * Recarga la tarjeta indicada como texto (12 dígitos con dígito de control)
+     * con la tarifa general.
+     */
+    public ResultadoRecarga recargar(CharSequence numeroTarjeta, TipoBono tipo, int mes) {
+        return recargar(ValidadorTarjeta.parsear(numeroTarjeta), tipo, mes, Perfil.GENERAL);
+    }
+
+    /**
+     * Recarga la tarjeta indicada como texto con la tarifa del perfil indicado.
+     */
+    public ResultadoRecarga recargar(CharSequence numeroTarjeta, TipoBono tipo, int mes, Perfil perfil) {
+        return recargar(ValidadorTarjeta.parsear(numeroTarjeta), tipo, mes, perfil);
+    }
+
+    /**
+     * Recarga la tarjeta indicada como texto identificando la petición con el
+     * token del cliente: si llega otra vez la misma petición (misma tarjeta,
+     * tipo, mes y token) se devuelve el resultado de la primera sin volver a
+     * recargar. Sin token se comporta como una recarga normal.
+     */
+    public ResultadoRecarga recargar(CharSequence numeroTarjeta, TipoBono tipo, int mes, Perfil perfil,
+                                     String token) {
+        long tarjeta = ValidadorTarjeta.parsear(numeroTarjeta);
+        if (token == null || token.isEmpty() || tipo == null || !ValidadorTarjeta.esValida(tarjeta)) {
+            return recargar(tarjeta, tipo, mes, perfil);
+        }
+        return idempotencia.ejecutar(tarjeta, tipo, mes, token, () -> recargar(tarjeta, tipo, mes, perfil));
+    }
+
+    /**
+     * Recarga la tarjeta para el tipo de bono y mes (0-11) indicados con la tarifa general.
+     */
+    public ResultadoRecarga recargar(long tarjeta, TipoBono tipo, int mes) {
+        return recargar(tarjeta, tipo, mes, Perfil.GENERAL);
+    }
+
+    /**
+     * Recarga la tarjeta para el tipo de bono y mes (0-11) indicados y cobra el
+     * importe de la tarifa vigente para el perfil.
+     * Si el hilo que llama está interrumpido, la recarga no se aplica y se
+     * devuelve {@link ResultadoRecarga.Estado#CANCELADA}; una vez aplicada ya no
+     * se puede cancelar y se espera a que quede registrada.
+     */
+    public ResultadoRecarga recargar(long tarjeta, TipoBono tipo, int mes, Perfil perfil) {
+        long inicio = System.nanoTime();
+        EventoRecarga evento = EventoRecarga.iniciar();
+        if (Thread.currentThread().isInterrupted()) {
+            ResultadoRecarga cancelada =
+                    new ResultadoRecarga(ResultadoRecarga.Estado.CANCELADA, tarjeta, tipo, mes);
+            contar(cancelada);
+            evento.terminar(cancelada, perfil);
+            return cancelada;
+        }
+        ResultadoRecarga resultado = comprobar(tarjeta, tipo, mes);
+        if (resultado == null && anillo != null) {
+            resultado = recargarEnAnillo(tarjeta, tipo, mes, perfil, System.currentTimeMillis());
+        } else if (resultado == null) {
+            resultado = aplicar(tarjeta, tipo, mes, perfil, System.currentTimeMillis(), -1);
+            if (resultado.isCorrecta() && diario != null) {
+                try {
+                    diario.esperarDuradero(resultado.getSecuencia());
+                } catch (IOException e) {
+                    resultado = deshacer(resultado, e);
+                }
+            }
+        }
+        contar(resultado);
+        if (tipo != null) {
+            LATENCIAS[tipo.ordinal()].registrarDesde(inicio);
+        }
+        evento.terminar(resultado, perfil);
+        return resultado;
+    }
+
+    /**
+     * Guarda una instantánea del registro de tarjetas junto al diario, para
+     * que el próximo arranque solo reproduzca las recargas posteriores. Se
+     * puede llamar con recargas en curso.
+     *
+     * No se copia la tabla en uso: cada recarga se aplica en ella antes de
+     * escribirse en el diario, así que podría contener recargas posteriores a
+     * la secuencia de la instantánea que luego fallen o no lleguen a disco. La
+     * instantánea se reconstruye desde la anterior y el diario hasta su
+     * secuencia, igual que al arrancar.
+     *
+     * @return el fichero guardado, o {@code null} si el servicio no tiene
+     *         diario o no ha habido recargas desde la última instantánea
+     */
+    public synchronized Path guardarInstantanea() throws IOException {
+        if (diario == null) {
+            return null;
+        }
+        long secuencia = diario.getUltimaSecuencia();
+        if (secuencia == secuenciaInstantanea) {
+            return null;
+        }
+        long inicio = System.nanoTime();
+        // Las recargas hasta la secuencia de la instantánea tienen que ser ya duraderas en el diario
+        diario.esperarDuradero(secuencia);
+        Estado estado = reconstruir(diario, secuencia);
+        Path fichero = InstantaneaTarjetas.guardar(estado.tarjetas, estado.indice.mapas(), secuencia,
+                diario.getDirectorio());
+        secuenciaInstantanea = secuencia;
+        DURACION_INSTANTANEAS.registrarDesde(inicio);
+        return fichero;
+    }
+
+    /**
+     * Recarga un lote de tarjetas esperando un único volcado del diario para
+     * todo el lote, en lugar de uno por recarga. Pensado para importaciones
+     * masivas, que se cobran con la tarifa general. Con el anillo lleno no se
+     * rechaza ninguna recarga: se espera a que haya sitio.
+     *
+     * @param cantidad número de elementos de los arrays que forman el lote
+     */
+    public ResultadoRecarga[] recargarLote(long[] tarjetas, TipoBono[] tipos, int[] meses, int cantidad) {
+        ResultadoRecarga[] resultados = new ResultadoRecarga[cantidad];
+        long marcaTiempo = System.currentTimeMillis();
+        if (anillo != null) {
+            recargarLoteEnAnillo(tarjetas, tipos, meses, cantidad, marcaTiempo, resultados);
+            for (ResultadoRecarga resultado : resultados) {
+                contar(resultado);
+            }
+            return resultados;
+        }
+
+        long ultimaSecuencia = 0;
+        for (int i = 0; i < cantidad; i++) {
+            resultados[i] = comprobar(tarjetas[i], tipos[i], meses[i]);
+            if (resultados[i] == null) {
+                resultados[i] = aplicar(tarjetas[i], tipos[i], meses[i], Perfil.GENERAL, marcaTiempo, -1);
+            }
+            ultimaSecuencia = Math.max(ultimaSecuencia, resultados[i].getSecuencia());
+        }
+
+        if (ultimaSecuencia > 0 && diario != null) {
+            try {
+                diario.esperarDuradero(ultimaSecuencia);
+            } catch (IOException e) {
+                for (int i = 0; i < cantidad; i++) {
+                    if (resultados[i].isCorrecta()) {
+                        resultados[i] = deshacer(resultados[i], e);
+                    }
+                }
+            }
+        }
+        for (ResultadoRecarga resultado : resultados) {
+            contar(resultado);
+        }
+        return resultados;
+    }
+
+    /**
+     * Indica si la tarjeta tiene pagado el mes indicado para ese tipo de bono.
+     */
+    public boolean estaRecargada(long tarjeta, TipoBono tipo, int mes) {
+        if (tarjeta < 0 || tipo == null || mes < 0 || mes >= MESES) {
+            return false;
+        }
+        int registro = tarjetas.obtener(tarjeta);
+        return TablaTarjetas.tipo(registro) == codigo(tipo) && (TablaTarjetas.meses(registro) & (1 << mes)) != 0;
+    }
+
+    // ============================
+    // ESTADÍSTICAS
+    // ============================
+    public long getRecargas(TipoBono tipo) {
+        return tipo == TipoBono.BUS ? recargasBus.sum() : recargasMetro.sum();
+    }
+
+    public long getRechazadas() {
+        return rechazadas.sum();
+    }
+
+    public long getNumeroTarjetas() {
+        return tarjetas.tamano();
+    }
+
+    /**
+     * Número de tarjetas del tipo indicado con el mes (0-11) pagado.
+     */
+    public long contarTarjetas(TipoBono tipo, int mes) {
+        return indice.contar(tipo, mes);
+    }
+
+    /**
+     * Tarjetas del tipo indicado con el mes (0-11) pagado, en orden creciente.
+     */
+    public long[] tarjetasRecargadas(TipoBono tipo, int mes) {
+        return indice.tarjetas(tipo, mes);
+    }
+
+    /**
+     * Motor de tarifas con el que se calcula el importe de cada recarga.
+     */
+    public MotorTarifas getTarifas() {
+        return tarifas;
+    }
+
+    /**
+     * Caché con la que se detectan las peticiones de recarga repetidas.
+     */
+    public CacheIdempotencia getIdempotencia() {
+        return idempotencia;
+    }
+
+    /**
+     * Índice de tarjetas recargadas por tipo y mes.
+     */
+    public IndiceMensual getIndice() {
+        return indice;
+    }
+
+    /**
+     * Registro de tarjetas sobre el que trabaja el servicio.
+     */
+    public TablaTarjetas getTarjetas() {
+        return tarjetas;
+    }
+
+    /**
+     * Índice de las tarjetas registradas por prefijo del número. La primera
+     * llamada lo construye recorriendo el registro (del orden de un segundo
+     * con diez millones de tarjetas), así que no debe hacerse desde el EDT;
+     * a partir de ahí el servicio le añade cada tarjeta nueva.
+     */
+    public IndicePrefijos getPrefijos() {
+        IndicePrefijos actual = prefijos;
+        if (actual == null) {
+            synchronized (cerrojoPrefijos) {
+                actual = prefijos;
+                if (actual == null) {
+                    actual = new IndicePrefijos();
+                    // Se publica antes de recorrer la tabla para no perder las tarjetas creadas mientras
+                    prefijos = actual;
+                    actual.cargar(tarjetas);
+                }
+            }
+        }
+        return actual;
+    }
+
+    // ============================
+    // CIERRE
+    // ============================
+    /**
+     * Espera a que terminen las recargas en curso y cierra el diario. Las
+     * recargas posteriores fallan con
+     * {@link ResultadoRecarga.Estado#ERROR_PERSISTENCIA}.
+     */
+    @Override
+    public void close() throws IOException {
+        if (anillo != null) {
+            anillo.close();
+        }
+        if (diario != null) {
+            diario.close();
+        }
+    }
+
+    // ============================
+    // ETAPAS DEL ANILLO
+    // ============================
+    /**
+     * Primera etapa: añade las recargas al índice mensual y las tarjetas
+     * nuevas al índice por prefijo. Va antes que el diario para que toda
+     * recarga del diario (y de una instantánea) esté ya en el índice.
+     */
+    private void indexar(AnilloRecargas anillo, long desde, long hasta) {
+        IndicePrefijos porPrefijo = prefijos;
+        for (long s = desde; s <= hasta; s++) {
+            if (anillo.isVacia(s)) {
+                continue;
+            }
+            long tarjeta = anillo.getTarjeta(s);
+            indice.anadir(tarjeta, anillo.getTipo(s), anillo.getMes(s));
+            if (porPrefijo != null && anillo.isNueva(s)) {
+                porPrefijo.anadir(tarjeta);
+            }
+        }
+    }
+
+    /**
+     * Segunda etapa: escribe las recargas en el diario sin esperar al volcado.
+     * Es el único hilo que escribe, así que el cerrojo del diario no se disputa.
+     */
+    private void escribirEnDiario(AnilloRecargas anillo, long desde, long hasta) {
+        for (long s = desde; s <= hasta; s++) {
+            if (anillo.isVacia(s)) {
+                continue;
+            }
+            try {
+                anillo.setSecuenciaDiario(s, diario.anadir(anillo.getTarjeta(s), anillo.getTipo(s),
+                        anillo.getMes(s), anillo.getImporte(s), anillo.getMarcaTiempo(s)));
+            } catch (IOException e) {
+                anillo.fallar(s, e);
+            }
+        }
+    }
+
+    /**
+     * Tercera etapa: espera a que el diario vuelque a disco todo el lote de
+     * una vez, mientras la etapa anterior ya escribe el siguiente.
+     */
+    private void volcarDiario(AnilloRecargas anillo, long desde, long hasta) {
+        long ultima = 0;
+        for (long s = desde; s <= hasta; s++) {
+            if (!anillo.isVacia(s) && anillo.getError(s) == null) {
+                ultima = Math.max(ultima, anillo.getSecuenciaDiario(s));
+            }
+        }
+        if (ultima == 0) {
+            return;
+        }
+        try {
+            diario.esperarDuradero(ultima);
+        } catch (IOException e) {
+            for (long s = desde; s <= hasta; s++) {
+                if (!anillo.isVacia(s) && anillo.getError(s) == null) {
+                    anillo.fallar(s, e);
+                }
+            }
+        }
+    }
+
+    // ============================
+    // MÉTODOS AUXILIARES
+    // ============================
+    /**
+     * Comprueba los datos de la recarga.
+     *
+     * @return el rechazo, o {@code null} si son válidos
+     */
+    private static ResultadoRecarga comprobar(long tarjeta, TipoBono tipo, int mes) {
+        if (!ValidadorTarjeta.esValida(tarjeta)) {
+            return new ResultadoRecarga(ResultadoRecarga.Estado.TARJETA_INVALIDA, tarjeta, tipo, mes);
+        }
+        if (tipo == null) {
+            return new ResultadoRecarga(ResultadoRecarga.Estado.TIPO_INVALIDO, tarjeta, null, mes);
+        }
+        if (mes < 0 || mes >= MESES) {
+            return new ResultadoRecarga(ResultadoRecarga.Estado.MES_INVALIDO, tarjeta, tipo, mes);
+        }
+        return null;
+    }
+
+    /**
+     * Aplica sobre la tabla de tarjetas una recarga ya comprobada. Con una
+     * ranura del anillo reservada ({@code reserva} mayor o igual que 0) la
+     * publica en ella, también si se rechaza; si no, la añade al índice y al
+     * diario sin esperar a que sea duradera.
+     */
+    private ResultadoRecarga aplicar(long tarjeta, TipoBono tipo, int mes, Perfil perfil, long marcaTiempo,
+                                     long reserva) {
+        final int codigoTipo = codigo(tipo);
+        final int bitMes = 1 << mes;
+        // Antes de tocar la tarjeta: si el cálculo falla, el mes no queda pagado
+        int importe = tarifas.precio(tipo, mes, perfil != null ? perfil : Perfil.GENERAL, marcaTiempo);
+
+        int previo = tarjetas.modificar(tarjeta, registro -> {
+            int tipoActual = TablaTarjetas.tipo(registro);
+            if (tipoActual != 0 && tipoActual != codigoTipo) {
+                return registro;
+            }
+            return TablaTarjetas.registro(codigoTipo, TablaTarjetas.meses(registro) | bitMes);
+        });
+
+        ResultadoRecarga.Estado rechazo = rechazo(previo, codigoTipo, bitMes);
+        if (rechazo != null) {
+            if (reserva >= 0) {
+                anillo.publicarVacia(reserva);
+            }
+            return new ResultadoRecarga(rechazo, tarjeta, tipo, mes);
+        }
+
+        if (reserva >= 0) {
+            anillo.publicar(reserva, tarjeta, tipo, mes, importe, marcaTiempo, previo == TablaTarjetas.AUSENTE);
+            return new ResultadoRecarga(ResultadoRecarga.Estado.RECARGADA, tarjeta, tipo, mes, importe, 0);
+        }
+
+        IndicePrefijos porPrefijo = prefijos;
+        if (previo == TablaTarjetas.AUSENTE && porPrefijo != null) {
+            porPrefijo.anadir(tarjeta);
+        }
+        indice.anadir(tarjeta, tipo, mes);
+
+        long secuencia = 0;
+        if (diario != null) {
+            try {
+                secuencia = diario.anadir(tarjeta, tipo, mes, importe, marcaTiempo);
+            } catch (IOException e) {
+                return deshacer(new ResultadoRecarga(ResultadoRecarga.Estado.RECARGADA, tarjeta, tipo, mes), e);
+            }
+        }
+        return new ResultadoRecarga(ResultadoRecarga.Estado.RECARGADA, tarjeta, tipo, mes, importe, secuencia);
+    }
+
+    /**
+     * Reserva una ranura del anillo, aplica la recarga y espera a que las
+     * etapas la hayan hecho duradera. Si el anillo sigue lleno pasado el plazo
+     * la recarga se rechaza sin tocar la tarjeta. Los rechazos que ya se ven
+     * en la tabla se devuelven sin pasar por el anillo.
+     */
+    private ResultadoRecarga recargarEnAnillo(long tarjeta, TipoBono tipo, int mes, Perfil perfil,
+                                              long marcaTiempo) {
+        ResultadoRecarga.Estado rechazo = rechazo(tarjetas.obtener(tarjeta), codigo(tipo), 1 << mes);
+        if (rechazo != null) {
+            return new ResultadoRecarga(rechazo, tarjeta, tipo, mes);
+        }
+        long reserva = anillo.reservar(PLAZO_ANILLO_MS, TimeUnit.MILLISECONDS);
+        if (reserva < 0) {
+            return sinReserva(tarjeta, tipo, mes);
+        }
+        ResultadoRecarga resultado = aplicarEnRanura(tarjeta, tipo, mes, perfil, marcaTiempo, reserva);
+        if (!resultado.isCorrecta()) {
+            return resultado;
+        }
+        anillo.esperar(reserva);
+        return recoger(reserva, resultado);
+    }
+
+    /**
+     * Aplica la recarga en la ranura reservada. Si algo falla antes de
+     * publicarla, la ranura se publica vacía: si no, las etapas se quedarían
+     * esperándola y ninguna recarga posterior terminaría.
+     */
+    private ResultadoRecarga aplicarEnRanura(long tarjeta, TipoBono tipo, int mes, Perfil perfil,
+                                             long marcaTiempo, long reserva) {
+        boolean publicada = false;
+        try {
+            ResultadoRecarga resultado = aplicar(tarjeta, tipo, mes, perfil, marcaTiempo, reserva);
+            publicada = true;
+            return resultado;
+        } finally {
+            if (!publicada) {
+                anillo.publicarVacia(reserva);
+            }
+        }
+    }
+
+    /**
+     * Pasa el lote por el anillo. Si se llena, antes de esperar sitio se
+     * recogen las recargas del lote ya publicadas: si no, varios lotes podrían
+     * llenar el anillo entre todos y quedarse esperando los unos a los otros.
+     */
+    private void recargarLoteEnAnillo(long[] tarjetas, TipoBono[] tipos, int[] meses, int cantidad,
+                                      long marcaTiempo, ResultadoRecarga[] resultados) {
+        long[] reservas = new long[cantidad];
+        Arrays.fill(reservas, -1);
+        int primeraPendiente = 0;
+        for (int i = 0; i < cantidad; i++) {
+            resultados[i] = comprobar(tarjetas[i], tipos[i], meses[i]);
+            if (resultados[i] != null) {
+                continue;
+            }
+            ResultadoRecarga.Estado rechazo =
+                    rechazo(this.tarjetas.obtener(tarjetas[i]), codigo(tipos[i]), 1 << meses[i]);
+            if (rechazo != null) {
+                resultados[i] = new ResultadoRecarga(rechazo, tarjetas[i], tipos[i], meses[i]);
+                continue;
+            }
+            long reserva = anillo.intentarReservar();
+            if (reserva < 0) {
+                recogerLote(resultados, reservas, primeraPendiente, i);
+                primeraPendiente = i;
+                reserva = anillo.reservar();
+            }
+            if (reserva < 0) {
+                resultados[i] = sinReserva(tarjetas[i], tipos[i], meses[i]);
+                continue;
+            }
+            resultados[i] = aplicarEnRanura(tarjetas[i], tipos[i], meses[i], Perfil.GENERAL, marcaTiempo, reserva);
+            if (resultados[i].isCorrecta()) {
+                reservas[i] = reserva;
+            }
+        }
+        recogerLote(resultados, reservas, primeraPendiente, cantidad);
+    }
+
+    /**
+     * Espera a las recargas publicadas del tramo {@code [desde, hasta)} del
+     * lote y recoge sus resultados.
+     */
+    private void recogerLote(ResultadoRecarga[] resultados, long[] reservas, int desde, int hasta) {
+        long ultima = -1;
+        for (int i = desde; i < hasta; i++) {
+            ultima = Math.max(ultima, reservas[i]);
+        }
+        if (ultima < 0) {
+            return;
+        }
+        // Las etapas van en orden: cuando terminan la última, han terminado todas
+        anillo.esperar(ultima);
+        for (int i = desde; i < hasta; i++) {
+            if (reservas[i] >= 0) {
+                resultados[i] = recoger(reservas[i], resultados[i]);
+                reservas[i] = -1;
+            }
+        }
+    }
+
+    /**
+     * Lee el resultado de una recarga que ya ha pasado por todas las etapas y
+     * libera su ranura.
+     */
+    private ResultadoRecarga recoger(long reserva, ResultadoRecarga aplicada) {
+        IOException error = anillo.getError(reserva);
+        long secuencia = anillo.getSecuenciaDiario(reserva);
+        anillo.liberar(reserva);
+        if (error != null) {
+            return deshacer(aplicada, error);
+        }
+        return new ResultadoRecarga(ResultadoRecarga.Estado.RECARGADA, aplicada.getTarjeta(), aplicada.getTipo(),
+                aplicada.getMes(), aplicada.getImporte(), secuencia);
+    }
+
+    /**
+     * Resultado de una recarga que no ha conseguido ranura en el anillo.
+     */
+    private ResultadoRecarga sinReserva(long tarjeta, TipoBono tipo, int mes) {
+        ResultadoRecarga.Estado estado = anillo.isCerrado() ? ResultadoRecarga.Estado.ERROR_PERSISTENCIA
+                : Thread.currentThread().isInterrupted() ? ResultadoRecarga.Estado.CANCELADA
+                : ResultadoRecarga.Estado.SATURADA;
+        return new ResultadoRecarga(estado, tarjeta, tipo, mes);
+    }
+
+    /**
+     * Anillo con las etapas de índice, diario y volcado, o {@code null} si
+     * con {@code -Dbono.anillo.capacidad=0} se escribe en el diario desde cada hilo.
+     */
+    private AnilloRecargas crearAnillo() {
+        int capacidad = Integer.getInteger(PROPIEDAD_ANILLO, CAPACIDAD_ANILLO);
+        if (capacidad <= 0) {
+            return null;
+        }
+        if (Integer.bitCount(capacidad) != 1) {
+            System.err.println("Advertencia: La capacidad del anillo debe ser una potencia de dos (" + capacidad
+                    + "); se usa " + CAPACIDAD_ANILLO);
+            capacidad = CAPACIDAD_ANILLO;
+        }
+        return new AnilloRecargas(capacidad, EstrategiaEspera.configurada())
+                .etapa("indice", this::indexar)
+                .etapa("diario", this::escribirEnDiario)
+                .etapa("volcado", this::volcarDiario)
+                .iniciar();
+    }
+
+    /**
+     * Sin registro duradero la recarga no se da por hecha: se quita el mes de
+     * la tarjeta (y el tipo, si era su única recarga).
+     */
+    private ResultadoRecarga deshacer(ResultadoRecarga resultado, IOException causa) {
+        int bitMes = 1 << resultado.getMes();
+        // Primero el índice: en cuanto se quita el mes de la tabla otra recarga
+        // puede volver a añadirlo
+        indice.quitar(resultado.getTarjeta(), resultado.getTipo(), resultado.getMes());
+        tarjetas.modificar(resultado.getTarjeta(), registro -> {
+            int meses = TablaTarjetas.meses(registro) & ~bitMes;
+            return TablaTarjetas.registro(meses == 0 ? 0 : TablaTarjetas.tipo(registro), meses);
+        });
+        System.err.println("Error al registrar la recarga en el diario: " + causa.getMessage());
+        return new ResultadoRecarga(ResultadoRecarga.Estado.ERROR_PERSISTENCIA,
+                resultado.getTarjeta(), resultado.getTipo(), resultado.getMes());
+    }
+
+    private void contar(ResultadoRecarga resultado) {
+        TipoBono tipo = resultado.getTipo();
+        RESULTADOS[tipo == null ? 0 : tipo.ordinal() + 1][resultado.getEstado().ordinal()].increment();
+        if (!resultado.isCorrecta()) {
+            rechazadas.increment();
+        } else if (resultado.getTipo() == TipoBono.BUS) {
+            recargasBus.increment();
+        } else {
+            recargasMetro.increment();
+        }
+    }
+
+    /**
+     * Motivo por el que no se puede recargar una tarjeta con ese registro, o
+     * {@code null} si se puede.
+     */
+    private static ResultadoRecarga.Estado rechazo(int registro, int codigoTipo, int bitMes) {
+        int tipo = TablaTarjetas.tipo(registro);
+        if (tipo != 0 && tipo != codigoTipo) {
+            return ResultadoRecarga.Estado.TIPO_INCOMPATIBLE;
+        }
+        if ((TablaTarjetas.meses(registro) & bitMes) != 0) {
+            return ResultadoRecarga.Estado.YA_RECARGADA;
+        }
+        return null;
+    }
+
+    /**
+     * Código del tipo de bono tal y como se guarda en {@link TablaTarjetas}.
+     */
+    static int codigo(TipoBono tipo) {
+        return tipo.ordinal() + 1;
+    }
+
+    /**
+     * Inicialización perezosa de la instancia compartida.
+     */
+    /**
+     * Tabla e índice reconstruidos desde una instantánea y el diario.
+     */
+    private static final class Estado {
+        final TablaTarjetas tarjetas;
+        final IndiceMensual indice;
+        // Secuencia de la instantánea de partida (0 si no había ninguna)
+        final long desde;
+
+        Estado(TablaTarjetas tarjetas, IndiceMensual indice, long desde) {
+            this.tarjetas = tarjetas;
+            this.indice = indice;
+            this.desde = desde;
+        }
+    }
+
+    private static final class Compartido {
+        // Se asigna en crear(), durante la inicialización de la clase
+        static IOException error;
+        static final ServicioRecarga INSTANCIA = crear();
+
+        private static ServicioRecarga crear() {
+            Path directorio = directorioDatos();
+            try {
+                ServicioRecarga servicio = abrir(directorio.resolve("diario"));
+                int intervalo = Integer.getInteger(PROPIEDAD_INSTANTANEAS, INTERVALO_INSTANTANEAS_MIN);
+                if (intervalo > 0) {
+                    ScheduledExecutorService programador = Executors.newSingleThreadScheduledExecutor(r -> {
+                        Thread hilo = new Thread(r, "instantaneas-tarjetas");
+                        hilo.setDaemon(true);
+                        return hilo;
+                    });
+                    programador.scheduleWithFixedDelay(() -> guardarInstantanea(servicio),
+                            intervalo, intervalo, TimeUnit.MINUTES);
+                }
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    guardarInstantanea(servicio);
+                    try {
+                        servicio.close();
+                    } catch (IOException e) {
+                        System.err.println("Error al cerrar el diario de recargas: " + e.getMessage());
+                    }
+                }, "cierre-diario"));
+                return servicio;
+            } catch (IOException e) {
+                System.err.println("Advertencia: No se pudo abrir el diario de recargas en '" + directorio
+                        + "': " + e.getMessage() + ". Las recargas no se guardarán.");
+                error = e;
+                return new ServicioRecarga();
+            }
+        }
+
+        private static void guardarInstantanea(ServicioRecarga servicio) {
+            try {
+                servicio.guardarInstantanea();
+            } catch (IOException e) {
+                System.err.println("Error al guardar la instantánea de las tarjetas: " + e.getMessage());
+            }
+        }
+    }
+}
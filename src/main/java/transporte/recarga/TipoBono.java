@@ -0,0 +1,52 @@
+package transporte.recarga;
+
+/**
+ * Tipos de bono que admite el sistema de recarga.
+ * Cada tipo conserva la etiqueta que se muestra en el desplegable del login
+ * y el código corto que aparece en los diálogos de confirmación.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public enum TipoBono {
+
+    BUS("BonoBus (Tussam)", "BUS"),
+    METRO("BonoMetro", "METRO");
+
+    private final String etiqueta;
+    private final String codigo;
+
+    TipoBono(String etiqueta, String codigo) {
+        this.etiqueta = etiqueta;
+        this.codigo = codigo;
+    }
+
+    /**
+     * Etiqueta mostrada al usuario en la ventana de login.
+     */
+    public String getEtiqueta() {
+        return etiqueta;
+    }
+
+    /**
+     * Código corto del bono ("BUS" o "METRO").
+     */
+    public String getCodigo() {
+        return codigo;
+    }
+
+    /**
+     * Devuelve el tipo de bono asociado a una etiqueta del login o a su código,
+     * o {@code null} si el texto no corresponde a ningún bono.
+     */
+    public static TipoBono desdeTexto(String texto) {
+        if (texto == null) {
+            return null;
+        }
+        for (TipoBono tipo : values()) {
+            if (tipo.etiqueta.equals(texto) || tipo.codigo.equalsIgnoreCase(texto)) {
+                return tipo;
+            }
+        }
+        return null;
+    }
+}
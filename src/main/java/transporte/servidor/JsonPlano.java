@@ -0,0 +1,254 @@
+package transporte.servidor;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Lectura y escritura de objetos JSON planos (sin objetos ni arrays anidados
+ * en la entrada), suficiente para los mensajes de la API de recargas sin
+ * añadir dependencias al proyecto.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public final class JsonPlano {
+
+    private final String texto;
+    private int posicion;
+
+    private JsonPlano(String texto) {
+        this.texto = texto;
+    }
+
+    // ============================
+    // LECTURA
+    // ============================
+    /**
+     * Lee un objeto JSON plano. Los valores se devuelven como texto; {@code null}
+     * se devuelve como {@code null}.
+     *
+     * @throws IllegalArgumentException si el texto no es un objeto JSON plano
+     */
+    public static Map<String, String> leer(String texto) {
+        JsonPlano lector = new JsonPlano(texto);
+        lector.saltarEspacios();
+        Map<String, String> campos = lector.leerObjeto();
+        lector.saltarEspacios();
+        if (lector.posicion != texto.length()) {
+            throw lector.error("Contenido inesperado tras el objeto");
+        }
+        return campos;
+    }
+
+    private Map<String, String> leerObjeto() {
+        Map<String, String> campos = new LinkedHashMap<>();
+        esperar('{');
+        saltarEspacios();
+        if (consumir('}')) {
+            return campos;
+        }
+        do {
+            saltarEspacios();
+            String clave = leerCadena();
+            saltarEspacios();
+            esperar(':');
+            saltarEspacios();
+            campos.put(clave, leerValor());
+            saltarEspacios();
+        } while (consumir(','));
+        esperar('}');
+        return campos;
+    }
+
+    private String leerValor() {
+        if (posicion >= texto.length()) {
+            throw error("Falta un valor");
+        }
+        char c = texto.charAt(posicion);
+        if (c == '"') {
+            return leerCadena();
+        }
+        if (c == '{' || c == '[') {
+            throw error("No se admiten objetos ni arrays anidados");
+        }
+        int inicio = posicion;
+        while (posicion < texto.length() && "-+.eE0123456789truefalsn".indexOf(texto.charAt(posicion)) >= 0) {
+            posicion++;
+        }
+        String literal = texto.substring(inicio, posicion);
+        if (literal.isEmpty()) {
+            throw error("Valor no válido");
+        }
+        return "null".equals(literal) ? null : literal;
+    }
+
+    private String leerCadena() {
+        esperar('"');
+        StringBuilder cadena = new StringBuilder();
+        while (posicion < texto.length()) {
+            char c = texto.charAt(posicion++);
+            if (c == '"') {
+                return cadena.toString();
+            }
+            if (c != '\\') {
+                cadena.append(c);
+                continue;
+            }
+            if (posicion >= texto.length()) {
+                break;
+            }
+            char escape = texto.charAt(posicion++);
+            switch (escape) {
+                case 'n':
+                    cadena.append('\n');
+                    break;
+                case 't':
+                    cadena.append('\t');
+                    break;
+                case 'r':
+                    cadena.append('\r');
+                    break;
+                case 'b':
+                    cadena.append('\b');
+                    break;
+                case 'f':
+                    cadena.append('\f');
+                    break;
+                case 'u':
+                    if (posicion + 4 > texto.length()) {
+                        throw error("Secuencia \\u incompleta");
+                    }
+                    // Integer.parseInt admitiría un signo delante de las cifras
+                    int codigo = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int cifra = Character.digit(texto.charAt(posicion + i), 16);
+                        if (cifra < 0) {
+                            throw error("Secuencia \\u no válida");
+                        }
+                        codigo = codigo * 16 + cifra;
+                    }
+                    cadena.append((char) codigo);
+                    posicion += 4;
+                    break;
+                default:
+                    cadena.append(escape);
+            }
+        }
+        throw error("Cadena sin cerrar");
+    }
+
+    private void saltarEspacios() {
+        while (posicion < texto.length() && Character.isWhitespace(texto.charAt(posicion))) {
+            posicion++;
+        }
+    }
+
+    private boolean consumir(char c) {
+        if (posicion < texto.length() && texto.charAt(posicion) == c) {
+            posicion++;
+            return true;
+        }
+        return false;
+    }
+
+    private void esperar(char c) {
+        if (!consumir(c)) {
+            throw error("Se esperaba '" + c + "'");
+        }
+    }
+
+    private IllegalArgumentException error(String mensaje) {
+        return new IllegalArgumentException(mensaje + " en la posición " + posicion);
+    }
+
+    // ============================
+    // ESCRITURA
+    // ============================
+    /**
+     * Construye un objeto JSON campo a campo.
+     */
+    public static final class Objeto {
+        private final StringBuilder json = new StringBuilder("{");
+
+        public Objeto campo(String clave, String valor) {
+            clave(clave);
+            if (valor == null) {
+                json.append("null");
+            } else {
+                cadena(json, valor);
+            }
+            return this;
+        }
+
+        public Objeto campo(String clave, long valor) {
+            clave(clave);
+            json.append(valor);
+            return this;
+        }
+
+        public Objeto campo(String clave, boolean valor) {
+            clave(clave);
+            json.append(valor);
+            return this;
+        }
+
+        /**
+         * Añade un array de números.
+         */
+        public Objeto campo(String clave, int[] valores) {
+            clave(clave);
+            json.append('[');
+            for (int i = 0; i < valores.length; i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                json.append(valores[i]);
+            }
+            json.append(']');
+            return this;
+        }
+
+        private void clave(String clave) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            cadena(json, clave);
+            json.append(':');
+        }
+
+        @Override
+        public String toString() {
+            return json + "}";
+        }
+    }
+
+    private static void cadena(StringBuilder json, String valor) {
+        json.append('"');
+        for (int i = 0; i < valor.length(); i++) {
+            char c = valor.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+}
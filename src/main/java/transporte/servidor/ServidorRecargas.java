@@ -0,0 +1,386 @@
+package transporte.servidor;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import transporte.metricas.HistogramaLatencia;
+import transporte.metricas.Metricas;
+import transporte.metricas.VolcadoMetricas;
+import transporte.recarga.EjecutorRecargas;
+import transporte.recarga.ResultadoRecarga;
+import transporte.recarga.ServicioRecarga;
+import transporte.recarga.TipoBono;
+import transporte.tarifa.Perfil;
+import transporte.tarjeta.TablaTarjetas;
+import transporte.tarjeta.ValidadorTarjeta;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * API HTTP local con el mismo flujo de validación y recarga que las ventanas,
+ * para que otros clientes (web, móvil, pruebas de carga) usen el sistema.
+ * Se basa en el servidor HTTP del JDK y atiende cada petición en un hilo
+ * virtual cuando la JVM los ofrece ({@link EjecutorRecargas}).
+ *
+ * Los meses se indican de 1 (Enero) a 12 (Diciembre). Rutas:
+ * <pre>
+ *   GET  /api/validacion?tarjeta=...&tipo=BUS    valida tarjeta y tipo como el login
+ *   POST /api/recargas                           {"tarjeta":"...","tipo":"BUS","mes":3,"perfil":"GENERAL"}
+ *   GET  /api/tarjetas/{numero}                  tipo y meses pagados de una tarjeta
+ *   GET  /api/tarifas?tipo=BUS&mes=3&perfil=...  importe de una recarga hoy
+ *   GET  /api/estado                             contadores del servicio
+ *   GET  /metrics                                métricas en formato de texto de Prometheus
+ * </pre>
+ *
+ * Una recarga puede llevar la cabecera {@code Idempotency-Key} (o el campo
+ * {@code "token"} en el cuerpo): si el cliente reenvía la misma petición con la
+ * misma clave recibe el resultado de la primera y no se cobra dos veces.
+ *
+ * Uso: {@code java Lanzador --servidor [--puerto 8080] [--direccion 127.0.0.1]}
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public class ServidorRecargas {
+
+    // ============================
+    // CONSTANTES
+    // ============================
+    public static final int PUERTO_POR_DEFECTO = 8080;
+
+    private static final String DIRECCION_POR_DEFECTO = "127.0.0.1";
+    private static final int COLA_CONEXIONES = 1024;
+    private static final int TAMANO_MAXIMO_CUERPO = 8 * 1024;
+    private static final String TIPO_JSON = "application/json; charset=utf-8";
+    private static final String TIPO_PROMETHEUS = "text/plain; version=0.0.4; charset=utf-8";
+    private static final String CABECERA_IDEMPOTENCIA = "Idempotency-Key";
+
+    // ============================
+    // ESTADO
+    // ============================
+    private final ServicioRecarga servicio;
+    private final HttpServer servidor;
+    private final ExecutorService ejecutor;
+
+    public ServidorRecargas(ServicioRecarga servicio, InetSocketAddress direccion) throws IOException {
+        this.servicio = servicio;
+        this.servidor = HttpServer.create(direccion, COLA_CONEXIONES);
+        this.ejecutor = EjecutorRecargas.nuevo("http");
+        servidor.setExecutor(ejecutor);
+
+        ruta("/api/validacion", "GET", this::validar);
+        ruta("/api/recargas", "POST", this::recargar);
+        ruta("/api/tarjetas/", "GET", this::consultarTarjeta);
+        ruta("/api/tarifas", "GET", this::consultarTarifa);
+        ruta("/api/estado", "GET", this::consultarEstado);
+        ruta("/metrics", "GET", this::consultarMetricas);
+    }
+
+    public void iniciar() {
+        servidor.start();
+    }
+
+    /**
+     * Deja de aceptar peticiones y espera como mucho {@code segundos} a que
+     * terminen las que están en curso.
+     */
+    public void detener(int segundos) {
+        servidor.stop(segundos);
+        ejecutor.shutdown();
+    }
+
+    public int getPuerto() {
+        return servidor.getAddress().getPort();
+    }
+
+    // ============================
+    // RUTAS
+    // ============================
+    private void validar(HttpExchange intercambio) throws IOException {
+        Map<String, String> parametros = parametros(intercambio);
+        String tarjeta = parametros.get("tarjeta");
+        ValidadorTarjeta.Motivo motivo = ValidadorTarjeta.comprobar(tarjeta);
+        TipoBono tipo = TipoBono.desdeTexto(parametros.get("tipo"));
+
+        boolean valida = motivo == ValidadorTarjeta.Motivo.VALIDA && tipo != null;
+        responder(intercambio, 200, new JsonPlano.Objeto()
+                .campo("valida", valida)
+                .campo("motivoTarjeta", motivo.name())
+                .campo("tipo", tipo != null ? tipo.getCodigo() : null)
+                .toString());
+    }
+
+    private void recargar(HttpExchange intercambio) throws IOException {
+        Map<String, String> cuerpo;
+        try {
+            cuerpo = JsonPlano.leer(leerCuerpo(intercambio));
+        } catch (IllegalArgumentException e) {
+            responderError(intercambio, 400, "JSON no válido: " + e.getMessage());
+            return;
+        }
+        Perfil perfil = perfil(cuerpo.get("perfil"));
+        if (perfil == null) {
+            responderError(intercambio, 400, "Perfil no válido: " + cuerpo.get("perfil"));
+            return;
+        }
+        String token = intercambio.getRequestHeaders().getFirst(CABECERA_IDEMPOTENCIA);
+        if (token == null) {
+            token = cuerpo.get("token");
+        }
+        String tarjeta = cuerpo.get("tarjeta");
+        ResultadoRecarga resultado = servicio.recargar(tarjeta != null ? tarjeta : "",
+                TipoBono.desdeTexto(cuerpo.get("tipo")), mes(cuerpo.get("mes")), perfil, token);
+
+        responder(intercambio, codigoHttp(resultado.getEstado()), new JsonPlano.Objeto()
+                .campo("estado", resultado.getEstado().name())
+                .campo("correcta", resultado.isCorrecta())
+                .campo("tarjeta", tarjeta)
+                .campo("tipo", resultado.getTipo() != null ? resultado.getTipo().getCodigo() : null)
+                .campo("mes", resultado.getMes() + 1)
+                .campo("importe", resultado.getImporte())
+                .campo("mensaje", resultado.getMensaje())
+                .toString());
+    }
+
+    private void consultarTarjeta(HttpExchange intercambio) throws IOException {
+        String ruta = intercambio.getRequestURI().getPath();
+        String numero = ruta.substring(ruta.lastIndexOf('/') + 1);
+        long tarjeta = ValidadorTarjeta.parsear(numero);
+        if (tarjeta == ValidadorTarjeta.INVALIDA) {
+            responderError(intercambio, 400, "El número de tarjeta no es válido.");
+            return;
+        }
+        int registro = servicio.getTarjetas().obtener(tarjeta);
+        if (registro == TablaTarjetas.AUSENTE || TablaTarjetas.tipo(registro) == 0) {
+            responderError(intercambio, 404, "La tarjeta no tiene recargas.");
+            return;
+        }
+
+        int meses = TablaTarjetas.meses(registro);
+        int[] pagados = new int[Integer.bitCount(meses)];
+        for (int i = 0, mes = 0; mes < 12; mes++) {
+            if ((meses & (1 << mes)) != 0) {
+                pagados[i++] = mes + 1;
+            }
+        }
+        TipoBono tipo = TipoBono.values()[TablaTarjetas.tipo(registro) - 1];
+        responder(intercambio, 200, new JsonPlano.Objeto()
+                .campo("tarjeta", numero)
+                .campo("tipo", tipo.getCodigo())
+                .campo("meses", pagados)
+                .toString());
+    }
+
+    private void consultarTarifa(HttpExchange intercambio) throws IOException {
+        Map<String, String> parametros = parametros(intercambio);
+        TipoBono tipo = TipoBono.desdeTexto(parametros.get("tipo"));
+        int mes = mes(parametros.get("mes"));
+        Perfil perfil = perfil(parametros.get("perfil"));
+        if (tipo == null || mes < 0 || mes > 11 || perfil == null) {
+            responderError(intercambio, 400, "Indique tipo, mes (1-12) y perfil válidos.");
+            return;
+        }
+        responder(intercambio, 200, new JsonPlano.Objeto()
+                .campo("tipo", tipo.getCodigo())
+                .campo("mes", mes + 1)
+                .campo("perfil", perfil.name())
+                .campo("importe", servicio.getTarifas().precio(tipo, mes, perfil))
+                .toString());
+    }
+
+    private void consultarEstado(HttpExchange intercambio) throws IOException {
+        responder(intercambio, 200, new JsonPlano.Objeto()
+                .campo("tarjetas", servicio.getNumeroTarjetas())
+                .campo("recargasBus", servicio.getRecargas(TipoBono.BUS))
+                .campo("recargasMetro", servicio.getRecargas(TipoBono.METRO))
+                .campo("rechazadas", servicio.getRechazadas())
+                .campo("repetidas", servicio.getIdempotencia().getAciertos())
+                .campo("hilosVirtuales", EjecutorRecargas.usaHilosVirtuales())
+                .toString());
+    }
+
+    private void consultarMetricas(HttpExchange intercambio) throws IOException {
+        responder(intercambio, 200, TIPO_PROMETHEUS, Metricas.global().prometheus());
+    }
+
+    // ============================
+    // MÉTODOS AUXILIARES
+    // ============================
+    private interface Manejador {
+        void atender(HttpExchange intercambio) throws IOException;
+    }
+
+    /**
+     * Registra la ruta y mide el tiempo que se tarda en atender cada petición.
+     */
+    private void ruta(String ruta, String metodo, Manejador manejador) {
+        HistogramaLatencia latencia = Metricas.global().histograma("bono_http_segundos",
+                "Tiempo de respuesta de la API por ruta", "ruta", ruta);
+        servidor.createContext(ruta, intercambio -> {
+            long inicio = System.nanoTime();
+            atender(intercambio, metodo, manejador);
+            latencia.registrarDesde(inicio);
+        });
+    }
+
+    /**
+     * Comprueba el método HTTP, ejecuta la ruta y convierte cualquier error
+     * inesperado en una respuesta 500.
+     */
+    private static void atender(HttpExchange intercambio, String metodo, Manejador manejador) {
+        try {
+            if (!metodo.equals(intercambio.getRequestMethod())) {
+                intercambio.getResponseHeaders().set("Allow", metodo);
+                responderError(intercambio, 405, "Método no permitido; use " + metodo + ".");
+            } else {
+                manejador.atender(intercambio);
+            }
+        } catch (Exception e) {
+            System.err.println("Error al atender " + intercambio.getRequestURI() + ": " + e);
+            try {
+                responderError(intercambio, 500, "Error interno del servidor.");
+            } catch (IOException | RuntimeException ignorada) {
+                // La respuesta ya se había empezado a enviar o el cliente se ha ido
+            }
+        } finally {
+            intercambio.close();
+        }
+    }
+
+    private static int codigoHttp(ResultadoRecarga.Estado estado) {
+        switch (estado) {
+            case RECARGADA:
+                return 201;
+            case TIPO_INCOMPATIBLE:
+            case YA_RECARGADA:
+                return 409;
+            case ERROR_PERSISTENCIA:
+            case CANCELADA:
+            case SATURADA:
+                return 503;
+            default:
+                return 400;
+        }
+    }
+
+    /**
+     * Mes de 1 a 12 convertido a 0-11, o -1 si no es un número.
+     */
+    private static int mes(String texto) {
+        if (texto == null) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(texto.trim()) - 1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Perfil indicado (GENERAL si no se indica), o null si no existe.
+     */
+    private static Perfil perfil(String texto) {
+        if (texto == null || texto.isEmpty()) {
+            return Perfil.GENERAL;
+        }
+        try {
+            return Perfil.valueOf(texto.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static Map<String, String> parametros(HttpExchange intercambio) throws UnsupportedEncodingException {
+        Map<String, String> parametros = new HashMap<>();
+        String consulta = intercambio.getRequestURI().getRawQuery();
+        if (consulta == null) {
+            return parametros;
+        }
+        for (String par : consulta.split("&")) {
+            int igual = par.indexOf('=');
+            if (igual > 0) {
+                parametros.put(URLDecoder.decode(par.substring(0, igual), "UTF-8"),
+                        URLDecoder.decode(par.substring(igual + 1), "UTF-8"));
+            }
+        }
+        return parametros;
+    }
+
+    private static String leerCuerpo(HttpExchange intercambio) throws IOException {
+        ByteArrayOutputStream cuerpo = new ByteArrayOutputStream();
+        byte[] bloque = new byte[1024];
+        try (InputStream entrada = intercambio.getRequestBody()) {
+            int leidos;
+            while ((leidos = entrada.read(bloque)) > 0) {
+                if (cuerpo.size() + leidos > TAMANO_MAXIMO_CUERPO) {
+                    throw new IllegalArgumentException("El cuerpo supera " + TAMANO_MAXIMO_CUERPO + " bytes");
+                }
+                cuerpo.write(bloque, 0, leidos);
+            }
+        }
+        return new String(cuerpo.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void responderError(HttpExchange intercambio, int codigo, String mensaje) throws IOException {
+        responder(intercambio, codigo, new JsonPlano.Objeto().campo("error", mensaje).toString());
+    }
+
+    private static void responder(HttpExchange intercambio, int codigo, String json) throws IOException {
+        responder(intercambio, codigo, TIPO_JSON, json);
+    }
+
+    private static void responder(HttpExchange intercambio, int codigo, String tipo, String texto)
+            throws IOException {
+        byte[] datos = texto.getBytes(StandardCharsets.UTF_8);
+        intercambio.getResponseHeaders().set("Content-Type", tipo);
+        intercambio.sendResponseHeaders(codigo, datos.length);
+        try (OutputStream salida = intercambio.getResponseBody()) {
+            salida.write(datos);
+        }
+    }
+
+    // ============================
+    // LÍNEA DE COMANDOS
+    // ============================
+    /**
+     * {@code [--puerto N] [--direccion host]}. Por defecto solo escucha en la
+     * interfaz local.
+     */
+    public static void main(String[] args) throws IOException {
+        int puerto = PUERTO_POR_DEFECTO;
+        String direccion = DIRECCION_POR_DEFECTO;
+        for (int i = 0; i + 1 < args.length; i++) {
+            if ("--puerto".equals(args[i])) {
+                puerto = Integer.parseInt(args[++i]);
+            } else if ("--direccion".equals(args[i])) {
+                direccion = args[++i];
+            }
+        }
+
+        ServicioRecarga servicio;
+        try {
+            servicio = ServicioRecarga.compartidoConDiario();
+        } catch (IOException e) {
+            // Sin diario las recargas confirmadas por la API se perderían
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        ServidorRecargas servidor = new ServidorRecargas(servicio, new InetSocketAddress(direccion, puerto));
+        servidor.iniciar();
+        VolcadoMetricas.iniciar();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> servidor.detener(1), "cierre-servidor"));
+        System.out.println("API de recargas escuchando en http://" + direccion + ":" + servidor.getPuerto()
+                + "/api (hilos virtuales: " + EjecutorRecargas.usaHilosVirtuales() + ")");
+    }
+}
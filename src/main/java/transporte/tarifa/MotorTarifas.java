@@ -0,0 +1,264 @@
+package transporte.tarifa;
+
+import transporte.diagnostico.EventoRecurso;
+import transporte.recarga.ServicioRecarga;
+import transporte.recarga.TipoBono;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Motor de tarifas de los bonos. Guarda la {@link TablaTarifas} vigente en una
+ * referencia atómica: cada precio se calcula con una única tabla, y cambiar las
+ * reglas solo sustituye la referencia, sin detener las recargas en curso.
+ *
+ * Si las reglas vienen de un fichero, un hilo en segundo plano comprueba cada
+ * pocos segundos si ha cambiado y lo vuelve a compilar. Si el fichero nuevo
+ * tiene errores se mantienen las tarifas anteriores.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public class MotorTarifas {
+
+    // ============================
+    // CONSTANTES
+    // ============================
+    // Fichero de tarifas (se puede cambiar con -Dbono.tarifas=/ruta/tarifas.properties)
+    private static final String PROPIEDAD_TARIFAS = "bono.tarifas";
+    private static final String FICHERO_TARIFAS = "tarifas.properties";
+    private static final String RECURSO_TARIFAS = "/tarifas.properties";
+    private static final long INTERVALO_VIGILANCIA_MS = 2000;
+
+    // ============================
+    // ESTADO
+    // ============================
+    private final AtomicReference<TablaTarifas> tabla;
+    private volatile Properties reglas;
+    private final Path fichero;
+    private long ultimaModificacion;
+    // Día de la última compra: consultar la zona horaria en cada recarga cuesta más que el precio
+    private volatile Dia dia = Dia.de(System.currentTimeMillis());
+
+    private MotorTarifas(Properties reglas, Path fichero, long ultimaModificacion) {
+        this.reglas = reglas;
+        this.fichero = fichero;
+        this.ultimaModificacion = ultimaModificacion;
+        this.tabla = new AtomicReference<>(TablaTarifas.compilar(reglas, LocalDate.now().getYear()));
+    }
+
+    /**
+     * Motor con reglas fijas.
+     */
+    public static MotorTarifas desdeReglas(Properties reglas) {
+        return new MotorTarifas(reglas, null, 0);
+    }
+
+    /**
+     * Motor con las reglas del fichero indicado, que se recargan si el fichero cambia.
+     */
+    public static MotorTarifas desdeFichero(Path fichero) throws IOException {
+        MotorTarifas motor = new MotorTarifas(leer(fichero), fichero,
+                Files.getLastModifiedTime(fichero).toMillis());
+        motor.vigilar();
+        return motor;
+    }
+
+    /**
+     * Motor con las tarifas incluidas en la aplicación.
+     */
+    public static MotorTarifas porDefecto() {
+        EventoRecurso evento = EventoRecurso.iniciar(RECURSO_TARIFAS, "leer");
+        try (InputStream entrada = MotorTarifas.class.getResourceAsStream(RECURSO_TARIFAS)) {
+            if (entrada == null) {
+                throw new IllegalStateException("No se encuentra el recurso " + RECURSO_TARIFAS);
+            }
+            Properties reglas = new Properties();
+            reglas.load(new InputStreamReader(entrada, StandardCharsets.UTF_8));
+            evento.commit();
+            return desdeReglas(reglas);
+        } catch (IOException e) {
+            throw new IllegalStateException("No se pueden leer las tarifas por defecto", e);
+        }
+    }
+
+    /**
+     * Motor compartido por la aplicación. Usa el fichero {@code tarifas.properties}
+     * del directorio de datos (o el indicado con {@code -Dbono.tarifas}) si existe,
+     * y si no, las tarifas incluidas en la aplicación.
+     */
+    public static MotorTarifas compartido() {
+        return Compartido.INSTANCIA;
+    }
+
+    // ============================
+    // PRECIOS
+    // ============================
+    /**
+     * Importe en céntimos de una recarga comprada hoy.
+     */
+    public int precio(TipoBono tipo, int mes, Perfil perfil) {
+        return precio(tipo, mes, perfil, System.currentTimeMillis());
+    }
+
+    /**
+     * Importe en céntimos de una recarga comprada en el instante indicado, en
+     * milisegundos como {@link System#currentTimeMillis()}.
+     */
+    public int precio(TipoBono tipo, int mes, Perfil perfil, long instante) {
+        Dia compra = dia;
+        if (instante < compra.desde || instante >= compra.hasta) {
+            compra = Dia.de(instante);
+            dia = compra;
+        }
+        return getTabla(compra.anio).precio(tipo, mes, perfil, compra.mes, compra.dia);
+    }
+
+    /**
+     * Tabla de tarifas vigente.
+     */
+    public TablaTarifas getTabla() {
+        return tabla.get();
+    }
+
+    /**
+     * Formatea un importe en céntimos como "35,50 €".
+     */
+    public static String formatear(int centimos) {
+        DecimalFormat formato = new DecimalFormat("#,##0.00", DecimalFormatSymbols.getInstance(new Locale("es", "ES")));
+        return formato.format(centimos / 100.0) + " €";
+    }
+
+    // ============================
+    // RECARGA DE REGLAS
+    // ============================
+    /**
+     * Vuelve a compilar las reglas si el fichero ha cambiado desde la última carga.
+     *
+     * @return true si se han sustituido las tarifas
+     */
+    public synchronized boolean recargarSiCambia() {
+        if (fichero == null) {
+            return false;
+        }
+        try {
+            long modificacion = Files.getLastModifiedTime(fichero).toMillis();
+            if (modificacion == ultimaModificacion) {
+                return false;
+            }
+            ultimaModificacion = modificacion;
+            Properties nuevas = leer(fichero);
+            tabla.set(TablaTarifas.compilar(nuevas, LocalDate.now().getYear()));
+            reglas = nuevas;
+            System.err.println("Tarifas actualizadas desde '" + fichero + "'");
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Error al recargar las tarifas de '" + fichero + "': " + e.getMessage()
+                    + ". Se mantienen las tarifas anteriores.");
+            return false;
+        }
+    }
+
+    // ============================
+    // MÉTODOS AUXILIARES
+    // ============================
+    /**
+     * Tabla vigente para el año indicado; al cambiar de año se recompila porque
+     * cambian los días de febrero.
+     */
+    private TablaTarifas getTabla(int anio) {
+        TablaTarifas actual = tabla.get();
+        if (actual.getAnio() == anio) {
+            return actual;
+        }
+        TablaTarifas nueva = TablaTarifas.compilar(reglas, anio);
+        tabla.compareAndSet(actual, nueva);
+        return nueva;
+    }
+
+    /**
+     * Día natural en la zona horaria del sistema, con los instantes en los que
+     * empieza y termina.
+     */
+    private static final class Dia {
+        final long desde;
+        final long hasta;
+        final int anio;
+        final int mes;
+        final int dia;
+
+        private Dia(long desde, long hasta, LocalDate fecha) {
+            this.desde = desde;
+            this.hasta = hasta;
+            this.anio = fecha.getYear();
+            this.mes = fecha.getMonthValue() - 1;
+            this.dia = fecha.getDayOfMonth();
+        }
+
+        static Dia de(long instante) {
+            ZoneId zona = ZoneId.systemDefault();
+            LocalDate fecha = Instant.ofEpochMilli(instante).atZone(zona).toLocalDate();
+            return new Dia(fecha.atStartOfDay(zona).toInstant().toEpochMilli(),
+                    fecha.plusDays(1).atStartOfDay(zona).toInstant().toEpochMilli(), fecha);
+        }
+    }
+
+    private void vigilar() {
+        ScheduledExecutorService vigilante = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread hilo = new Thread(r, "vigilancia-tarifas");
+            hilo.setDaemon(true);
+            return hilo;
+        });
+        vigilante.scheduleWithFixedDelay(this::recargarSiCambia,
+                INTERVALO_VIGILANCIA_MS, INTERVALO_VIGILANCIA_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private static Properties leer(Path fichero) throws IOException {
+        EventoRecurso evento = EventoRecurso.iniciar(fichero.toString(), "leer");
+        Properties reglas = new Properties();
+        try (Reader lector = Files.newBufferedReader(fichero, StandardCharsets.UTF_8)) {
+            reglas.load(lector);
+        }
+        evento.commit();
+        return reglas;
+    }
+
+    /**
+     * Inicialización perezosa del motor compartido.
+     */
+    private static final class Compartido {
+        static final MotorTarifas INSTANCIA = crear();
+
+        private static MotorTarifas crear() {
+            String ruta = System.getProperty(PROPIEDAD_TARIFAS);
+            Path fichero = ruta != null
+                    ? Paths.get(ruta)
+                    : ServicioRecarga.directorioDatos().resolve(FICHERO_TARIFAS);
+            if (Files.exists(fichero)) {
+                try {
+                    return desdeFichero(fichero);
+                } catch (IOException | IllegalArgumentException e) {
+                    System.err.println("Advertencia: No se pudieron cargar las tarifas de '" + fichero
+                            + "': " + e.getMessage() + ". Se usan las tarifas por defecto.");
+                }
+            }
+            return porDefecto();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package transporte.tarifa;
+
+/**
+ * Perfil del titular de la tarjeta, que determina el descuento aplicado.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public enum Perfil {
+
+    GENERAL("General", "general"),
+    ESTUDIANTE("Estudiante", "estudiante"),
+    MAYOR("Mayor de 65 años", "mayor");
+
+    private final String etiqueta;
+    private final String clave;
+
+    Perfil(String etiqueta, String clave) {
+        this.etiqueta = etiqueta;
+        this.clave = clave;
+    }
+
+    /**
+     * Texto mostrado al usuario.
+     */
+    public String getEtiqueta() {
+        return etiqueta;
+    }
+
+    /**
+     * Nombre del perfil en el fichero de tarifas ({@code descuento.<clave>}).
+     */
+    public String getClave() {
+        return clave;
+    }
+
+    @Override
+    public String toString() {
+        return etiqueta;
+    }
+}
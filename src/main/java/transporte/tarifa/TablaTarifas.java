@@ -0,0 +1,160 @@
+package transporte.tarifa;
+
+import transporte.recarga.TipoBono;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.YearMonth;
+import java.util.Properties;
+
+/**
+ * Tarifas compiladas: el importe de cada combinación de tipo de bono, mes,
+ * perfil y día de compra está calculado de antemano en un único array, de modo
+ * que obtener un precio es una lectura de array.
+ *
+ * Las reglas se leen de un fichero de propiedades (importes en euros):
+ * <pre>
+ *   bus.precio=35.50                 precio del mes completo (obligatorio)
+ *   bus.precio.8=30.00               precio para un mes concreto (1-12)
+ *   descuento.estudiante=40          descuento en % para un perfil
+ *   metro.descuento.mayor=60         descuento propio de un tipo de bono
+ *   prorrateo.desde=16               comprando el mes en curso a partir de ese
+ *                                    día se paga solo la parte de los días que quedan
+ * </pre>
+ *
+ * Es inmutable, así que se puede compartir entre hilos sin sincronización.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public final class TablaTarifas {
+
+    // ============================
+    // CONSTANTES
+    // ============================
+    private static final int MESES = 12;
+    private static final int PERFILES = Perfil.values().length;
+    // Posición 0: mes completo; 1-31: comprando el mes en curso ese día
+    private static final int DIAS = 32;
+
+    // ============================
+    // ESTADO
+    // ============================
+    private final int[] importes;
+    private final int anio;
+
+    private TablaTarifas(int[] importes, int anio) {
+        this.importes = importes;
+        this.anio = anio;
+    }
+
+    // ============================
+    // CONSULTA
+    // ============================
+    /**
+     * Importe en céntimos del mes completo.
+     */
+    public int precio(TipoBono tipo, int mes, Perfil perfil) {
+        return importes[posicion(tipo, mes, perfil, 0)];
+    }
+
+    /**
+     * Importe en céntimos comprando el día {@code diaCompra} del mes
+     * {@code mesCompra}. Solo se prorratea si el mes recargado es el de la compra.
+     */
+    public int precio(TipoBono tipo, int mes, Perfil perfil, int mesCompra, int diaCompra) {
+        return importes[posicion(tipo, mes, perfil, mes == mesCompra ? diaCompra : 0)];
+    }
+
+    /**
+     * Año para el que se han calculado los días de cada mes.
+     */
+    public int getAnio() {
+        return anio;
+    }
+
+    private static int posicion(TipoBono tipo, int mes, Perfil perfil, int dia) {
+        return ((tipo.ordinal() * MESES + mes) * PERFILES + perfil.ordinal()) * DIAS + dia;
+    }
+
+    // ============================
+    // COMPILACIÓN
+    // ============================
+    /**
+     * Compila las reglas para el año indicado (los prorrateos dependen de los
+     * días de cada mes).
+     *
+     * @throws IllegalArgumentException si falta alguna regla o tiene un valor no válido
+     */
+    public static TablaTarifas compilar(Properties reglas, int anio) {
+        int prorrateoDesde = entero(reglas, "prorrateo.desde", 0, 0, 31);
+        int[] importes = new int[TipoBono.values().length * MESES * PERFILES * DIAS];
+
+        for (TipoBono tipo : TipoBono.values()) {
+            String prefijo = tipo.getCodigo().toLowerCase();
+            int precioBase = centimos(reglas, prefijo + ".precio", null);
+
+            for (Perfil perfil : Perfil.values()) {
+                String clave = "descuento." + perfil.getClave();
+                int descuento = entero(reglas, prefijo + "." + clave,
+                        entero(reglas, clave, 0, 0, 100), 0, 100);
+
+                for (int mes = 0; mes < MESES; mes++) {
+                    int precioMes = centimos(reglas, prefijo + ".precio." + (mes + 1), precioBase);
+                    long conDescuento = ((long) precioMes * (100 - descuento) + 50) / 100;
+                    int diasMes = YearMonth.of(anio, mes + 1).lengthOfMonth();
+
+                    int base = posicion(tipo, mes, perfil, 0);
+                    importes[base] = (int) conDescuento;
+                    for (int dia = 1; dia < DIAS; dia++) {
+                        long importe = conDescuento;
+                        if (prorrateoDesde > 0 && dia >= prorrateoDesde) {
+                            int restantes = Math.max(diasMes - dia + 1, 1);
+                            importe = (conDescuento * restantes + diasMes / 2) / diasMes;
+                        }
+                        importes[base + dia] = (int) importe;
+                    }
+                }
+            }
+        }
+        return new TablaTarifas(importes, anio);
+    }
+
+    // ============================
+    // MÉTODOS AUXILIARES
+    // ============================
+    private static int centimos(Properties reglas, String clave, Integer porDefecto) {
+        String valor = reglas.getProperty(clave);
+        if (valor == null) {
+            if (porDefecto == null) {
+                throw new IllegalArgumentException("Falta la tarifa '" + clave + "'");
+            }
+            return porDefecto;
+        }
+        try {
+            BigDecimal euros = new BigDecimal(valor.trim().replace(',', '.'));
+            if (euros.signum() < 0) {
+                throw new IllegalArgumentException("La tarifa '" + clave + "' no puede ser negativa");
+            }
+            return euros.movePointRight(2).setScale(0, RoundingMode.HALF_UP).intValueExact();
+        } catch (NumberFormatException | ArithmeticException e) {
+            throw new IllegalArgumentException("Importe no válido en '" + clave + "': " + valor);
+        }
+    }
+
+    private static int entero(Properties reglas, String clave, int porDefecto, int minimo, int maximo) {
+        String valor = reglas.getProperty(clave);
+        if (valor == null) {
+            return porDefecto;
+        }
+        try {
+            int numero = Integer.parseInt(valor.trim());
+            if (numero < minimo || numero > maximo) {
+                throw new IllegalArgumentException("El valor de '" + clave + "' debe estar entre "
+                        + minimo + " y " + maximo + ": " + valor);
+            }
+            return numero;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Número no válido en '" + clave + "': " + valor);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package transporte.tarjeta;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Índice de los números de tarjeta registrados por prefijo, para sugerir
+ * tarjetas conocidas mientras se teclea.
+ *
+ * Todos los números tienen {@link ValidadorTarjeta#DIGITOS} dígitos, así que
+ * las tarjetas que empiezan por un prefijo forman un intervalo numérico
+ * contiguo: con los números en un {@code long[]} ordenado basta una búsqueda
+ * binaria para encontrar el primero y leer los siguientes. El array ocupa 8
+ * bytes por tarjeta y una consulta no crea objetos por tarjeta, de modo que
+ * responde en microsegundos aunque haya millones.
+ *
+ * Las tarjetas que aparecen después de construir el array se guardan en un
+ * conjunto ordenado concurrente aparte, y cuando se acumulan muchas se funden
+ * con el array en segundo plano. Las consultas no toman cerrojos: combinan
+ * en orden el array vigente y ese conjunto.
+ *
+ * <pre>
+ *   IndicePrefijos indice = new IndicePrefijos();
+ *   indice.cargar(tabla);
+ *   long[] sugerencias = new long[8];
+ *   int encontradas = indice.buscar("1234", sugerencias);
+ * </pre>
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public final class IndicePrefijos {
+
+    // ============================
+    // CONSTANTES
+    // ============================
+    // Tarjetas nuevas a partir de las cuales se funden con el array ordenado
+    private static final int MAXIMO_NUEVAS = 1 << 16;
+
+    // POTENCIAS[i] = 10^i, para pasar de prefijo a intervalo
+    private static final long[] POTENCIAS = new long[ValidadorTarjeta.DIGITOS + 1];
+
+    static {
+        POTENCIAS[0] = 1;
+        for (int i = 1; i < POTENCIAS.length; i++) {
+            POTENCIAS[i] = POTENCIAS[i - 1] * 10;
+        }
+    }
+
+    // ============================
+    // ESTADO
+    // ============================
+    // Se sustituye entero, nunca se modifica: las consultas lo leen sin cerrojo
+    private volatile long[] ordenadas = new long[0];
+    private final ConcurrentSkipListSet<Long> nuevas = new ConcurrentSkipListSet<>();
+    private final AtomicInteger pendientes = new AtomicInteger();
+    private final AtomicBoolean fundiendo = new AtomicBoolean();
+
+    // ============================
+    // CONSTRUCCIÓN
+    // ============================
+    /**
+     * Carga todas las tarjetas de la tabla. Las que se añadan con
+     * {@link #anadir(long)} mientras tanto no se pierden aunque el recorrido
+     * ya haya pasado por su segmento.
+     */
+    public synchronized void cargar(TablaTarjetas tabla) {
+        Acumulador acumulador = new Acumulador((int) Math.min(Integer.MAX_VALUE - 8, tabla.tamano() + 1024L));
+        tabla.recorrer(acumulador);
+        long[] tarjetas = acumulador.datos;
+        Arrays.parallelSort(tarjetas, 0, acumulador.cantidad);
+        ordenadas = acumulador.cantidad == tarjetas.length ? tarjetas : Arrays.copyOf(tarjetas, acumulador.cantidad);
+    }
+
+    /**
+     * Registra una tarjeta nueva. Pensado para llamarse al crearla, desde
+     * cualquier hilo; si ya estaba no hace nada.
+     */
+    public void anadir(long tarjeta) {
+        if (Arrays.binarySearch(ordenadas, tarjeta) >= 0 || !nuevas.add(tarjeta)) {
+            return;
+        }
+        if (pendientes.incrementAndGet() > MAXIMO_NUEVAS && fundiendo.compareAndSet(false, true)) {
+            ForkJoinPool.commonPool().execute(this::fundir);
+        }
+    }
+
+    // ============================
+    // CONSULTA
+    // ============================
+    /**
+     * Copia en {@code destino}, de menor a mayor, las primeras tarjetas cuyo
+     * número (con ceros a la izquierda) empieza por {@code prefijo}, y
+     * devuelve cuántas ha copiado. Un prefijo con algo que no sea un dígito o
+     * más largo que un número de tarjeta no encuentra ninguna.
+     */
+    public int buscar(CharSequence prefijo, long[] destino) {
+        int longitud = prefijo.length();
+        if (longitud > ValidadorTarjeta.DIGITOS) {
+            return 0;
+        }
+        long valor = 0;
+        for (int i = 0; i < longitud; i++) {
+            int digito = prefijo.charAt(i) - '0';
+            if (digito < 0 || digito > 9) {
+                return 0;
+            }
+            valor = valor * 10 + digito;
+        }
+        long escala = POTENCIAS[ValidadorTarjeta.DIGITOS - longitud];
+        long desde = valor * escala;
+        long hasta = desde + escala;
+
+        long[] tarjetas = ordenadas;
+        int i = primeraNoMenor(tarjetas, desde);
+        Iterator<Long> extra = nuevas.subSet(desde, hasta).iterator();
+        long siguienteExtra = extra.hasNext() ? extra.next() : hasta;
+
+        int encontradas = 0;
+        while (encontradas < destino.length) {
+            long siguiente = i < tarjetas.length ? Math.min(tarjetas[i], hasta) : hasta;
+            if (siguiente == hasta && siguienteExtra == hasta) {
+                break;
+            }
+            if (siguiente <= siguienteExtra) {
+                destino[encontradas++] = siguiente;
+                i++;
+                // Mientras se funden, una tarjeta puede estar a la vez en el array y en las nuevas
+                if (siguiente == siguienteExtra) {
+                    siguienteExtra = extra.hasNext() ? extra.next() : hasta;
+                }
+            } else {
+                destino[encontradas++] = siguienteExtra;
+                siguienteExtra = extra.hasNext() ? extra.next() : hasta;
+            }
+        }
+        return encontradas;
+    }
+
+    /**
+     * Número aproximado de tarjetas indexadas (el conjunto de nuevas y el
+     * array pueden compartir alguna mientras se funden).
+     */
+    public long tamano() {
+        return ordenadas.length + (long) pendientes.get();
+    }
+
+    // ============================
+    // MÉTODOS AUXILIARES
+    // ============================
+    /**
+     * Sustituye el array por uno que incluye las tarjetas nuevas y luego las
+     * quita del conjunto. Hasta entonces las consultas pueden ver alguna
+     * repetida y la descartan.
+     */
+    private synchronized void fundir() {
+        try {
+            long[] anadidas = nuevas.stream().mapToLong(Long::longValue).toArray();
+            long[] actual = ordenadas;
+            long[] fusion = new long[actual.length + anadidas.length];
+            int i = 0;
+            int j = 0;
+            int n = 0;
+            while (i < actual.length || j < anadidas.length) {
+                long valor;
+                if (j == anadidas.length || (i < actual.length && actual[i] <= anadidas[j])) {
+                    valor = actual[i++];
+                } else {
+                    valor = anadidas[j++];
+                }
+                if (n == 0 || fusion[n - 1] != valor) {
+                    fusion[n++] = valor;
+                }
+            }
+            ordenadas = n == fusion.length ? fusion : Arrays.copyOf(fusion, n);
+            for (long tarjeta : anadidas) {
+                if (nuevas.remove(tarjeta)) {
+                    pendientes.decrementAndGet();
+                }
+            }
+        } finally {
+            fundiendo.set(false);
+        }
+    }
+
+    /**
+     * Posición de la primera tarjeta mayor o igual que {@code valor}.
+     */
+    private static int primeraNoMenor(long[] tarjetas, long valor) {
+        int desde = 0;
+        int hasta = tarjetas.length;
+        while (desde < hasta) {
+            int medio = (desde + hasta) >>> 1;
+            if (tarjetas[medio] < valor) {
+                desde = medio + 1;
+            } else {
+                hasta = medio;
+            }
+        }
+        return desde;
+    }
+
+    /**
+     * Recoge los números de tarjeta al recorrer la tabla.
+     */
+    private static final class Acumulador implements TablaTarjetas.Visitante {
+        long[] datos;
+        int cantidad;
+
+        Acumulador(int capacidad) {
+            datos = new long[capacidad];
+        }
+
+        @Override
+        public void visitar(long tarjeta, int registro) {
+            if (cantidad == datos.length) {
+                datos = Arrays.copyOf(datos, datos.length + (datos.length >> 1) + 16);
+            }
+            datos[cantidad++] = tarjeta;
+        }
+    }
+}
@@ -0,0 +1,569 @@
+package transporte.tarjeta;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Conjunto de enteros no negativos (hasta 2^47) representado como un mapa de
+ * bits comprimido al estilo de Roaring.
+ *
+ * Los valores se agrupan por sus 16 bits bajos en contenedores, uno por cada
+ * valor distinto de los bits altos. Cada contenedor elige su representación:
+ * <ul>
+ *   <li>array ordenado de {@code char} mientras tiene 4096 valores o menos
+ *       (2 bytes por valor);</li>
+ *   <li>mapa de bits de 65536 bits (8 KB) cuando tiene más.</li>
+ * </ul>
+ * Así los grupos dispersos ocupan poco y los densos se consultan y cruzan
+ * palabra a palabra. La cardinalidad se mantiene en cada operación, por lo que
+ * contar es inmediato.
+ *
+ * No es seguro para su uso concurrente; quien lo comparta debe sincronizarlo.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public final class MapaBitsComprimido {
+
+    // ============================
+    // CONSTANTES
+    // ============================
+    /** Valor máximo (excluido) que admite el mapa. */
+    public static final long LIMITE = 1L << 47;
+
+    private static final int MAXIMO_ARRAY = 4096;
+    private static final int PALABRAS = 1024;
+
+    // ============================
+    // ESTADO
+    // ============================
+    // Bits altos de cada contenedor, en orden creciente
+    private int[] claves = new int[4];
+    private Contenedor[] contenedores = new Contenedor[4];
+    private int tamano;
+    private long cardinalidad;
+
+    // ============================
+    // OPERACIONES
+    // ============================
+    /**
+     * Añade el valor al conjunto.
+     *
+     * @return true si no estaba
+     */
+    public boolean anadir(long valor) {
+        comprobar(valor);
+        int clave = (int) (valor >>> 16);
+        int i = buscar(clave);
+        if (i < 0) {
+            i = -i - 1;
+            insertar(i, clave, new ContenedorArray());
+        }
+        Contenedor contenedor = contenedores[i];
+        int antes = contenedor.cardinalidad();
+        contenedores[i] = contenedor.anadir((char) valor);
+        if (contenedores[i].cardinalidad() == antes) {
+            return false;
+        }
+        cardinalidad++;
+        return true;
+    }
+
+    /**
+     * Quita el valor del conjunto.
+     *
+     * @return true si estaba
+     */
+    public boolean quitar(long valor) {
+        if (valor < 0 || valor >= LIMITE) {
+            return false;
+        }
+        int i = buscar((int) (valor >>> 16));
+        if (i < 0) {
+            return false;
+        }
+        Contenedor contenedor = contenedores[i];
+        int antes = contenedor.cardinalidad();
+        contenedor = contenedor.quitar((char) valor);
+        if (contenedor.cardinalidad() == antes) {
+            return false;
+        }
+        cardinalidad--;
+        if (contenedor.cardinalidad() == 0) {
+            eliminar(i);
+        } else {
+            contenedores[i] = contenedor;
+        }
+        return true;
+    }
+
+    public boolean contiene(long valor) {
+        if (valor < 0 || valor >= LIMITE) {
+            return false;
+        }
+        int i = buscar((int) (valor >>> 16));
+        return i >= 0 && contenedores[i].contiene((char) valor);
+    }
+
+    /**
+     * Número de valores del conjunto.
+     */
+    public long cardinalidad() {
+        return cardinalidad;
+    }
+
+    public boolean estaVacio() {
+        return cardinalidad == 0;
+    }
+
+    /**
+     * Recorre los valores en orden creciente.
+     */
+    public void recorrer(LongConsumer accion) {
+        for (int i = 0; i < tamano; i++) {
+            contenedores[i].recorrer((long) claves[i] << 16, accion);
+        }
+    }
+
+    /**
+     * Valores del conjunto en orden creciente.
+     */
+    public long[] aArray() {
+        long[] valores = new long[(int) cardinalidad];
+        int[] posicion = {0};
+        recorrer(valor -> valores[posicion[0]++] = valor);
+        return valores;
+    }
+
+    /**
+     * Intersección con otro mapa, como mapa nuevo.
+     */
+    public MapaBitsComprimido y(MapaBitsComprimido otro) {
+        MapaBitsComprimido resultado = new MapaBitsComprimido();
+        int i = 0;
+        int j = 0;
+        while (i < tamano && j < otro.tamano) {
+            if (claves[i] < otro.claves[j]) {
+                i++;
+            } else if (claves[i] > otro.claves[j]) {
+                j++;
+            } else {
+                Contenedor interseccion = contenedores[i].y(otro.contenedores[j]);
+                if (interseccion.cardinalidad() > 0) {
+                    resultado.insertar(resultado.tamano, claves[i], interseccion);
+                    resultado.cardinalidad += interseccion.cardinalidad();
+                }
+                i++;
+                j++;
+            }
+        }
+        return resultado;
+    }
+
+    /**
+     * Copia independiente del mapa.
+     */
+    public MapaBitsComprimido copia() {
+        MapaBitsComprimido copia = new MapaBitsComprimido();
+        copia.claves = Arrays.copyOf(claves, Math.max(tamano, 4));
+        copia.contenedores = new Contenedor[copia.claves.length];
+        for (int i = 0; i < tamano; i++) {
+            copia.contenedores[i] = contenedores[i].copia();
+        }
+        copia.tamano = tamano;
+        copia.cardinalidad = cardinalidad;
+        return copia;
+    }
+
+    /**
+     * Memoria aproximada que ocupan los datos del mapa, en bytes.
+     */
+    public long bytesEstimados() {
+        long bytes = claves.length * 4L + contenedores.length * 8L;
+        for (int i = 0; i < tamano; i++) {
+            bytes += contenedores[i].bytes();
+        }
+        return bytes;
+    }
+
+    // ============================
+    // SERIALIZACIÓN
+    // ============================
+    /**
+     * Bytes que ocupa el mapa escrito con {@link #escribir(ByteBuffer)}.
+     */
+    public int tamanoSerializado() {
+        int bytes = 12;
+        for (int i = 0; i < tamano; i++) {
+            bytes += 8 + contenedores[i].tamanoSerializado();
+        }
+        return bytes;
+    }
+
+    /**
+     * Escribe el mapa en el buffer desde su posición actual, con el orden de
+     * bytes del buffer. Cada contenedor se copia tal cual, así que leerlo no
+     * requiere volver a insertar los valores.
+     * <pre>
+     *   int   número de contenedores
+     *   long  cardinalidad
+     *   por contenedor: int clave, int cardinalidad y, si tiene más de 4096
+     *   valores, 1024 long del mapa de bits; si no, sus valores como char
+     * </pre>
+     */
+    public void escribir(ByteBuffer destino) {
+        destino.putInt(tamano).putLong(cardinalidad);
+        for (int i = 0; i < tamano; i++) {
+            destino.putInt(claves[i]).putInt(contenedores[i].cardinalidad());
+            contenedores[i].escribir(destino);
+        }
+    }
+
+    /**
+     * Lee un mapa escrito con {@link #escribir(ByteBuffer)} y deja la posición
+     * del buffer tras él.
+     *
+     * @throws IllegalArgumentException si los datos no forman un mapa válido
+     */
+    public static MapaBitsComprimido leer(ByteBuffer origen) {
+        int tamano = origen.getInt();
+        long cardinalidad = origen.getLong();
+        if (tamano < 0 || tamano > origen.remaining() / 8) {
+            throw new IllegalArgumentException("Número de contenedores no válido: " + tamano);
+        }
+        MapaBitsComprimido mapa = new MapaBitsComprimido();
+        mapa.claves = new int[Math.max(tamano, 4)];
+        mapa.contenedores = new Contenedor[mapa.claves.length];
+        long total = 0;
+        for (int i = 0; i < tamano; i++) {
+            int clave = origen.getInt();
+            int cantidad = origen.getInt();
+            if ((i > 0 && clave <= mapa.claves[i - 1]) || clave < 0 || cantidad <= 0 || cantidad > 1 << 16) {
+                throw new IllegalArgumentException("Contenedor no válido en la posición " + i);
+            }
+            mapa.claves[i] = clave;
+            if (cantidad > MAXIMO_ARRAY) {
+                long[] palabras = new long[PALABRAS];
+                origen.asLongBuffer().get(palabras);
+                origen.position(origen.position() + PALABRAS * 8);
+                mapa.contenedores[i] = new ContenedorBits(palabras, cantidad);
+            } else {
+                char[] valores = new char[Math.max(cantidad, 4)];
+                origen.asCharBuffer().get(valores, 0, cantidad);
+                origen.position(origen.position() + cantidad * 2);
+                mapa.contenedores[i] = new ContenedorArray(valores, cantidad);
+            }
+            total += cantidad;
+        }
+        if (total != cardinalidad) {
+            throw new IllegalArgumentException("La cardinalidad no coincide con los contenedores");
+        }
+        mapa.tamano = tamano;
+        mapa.cardinalidad = cardinalidad;
+        return mapa;
+    }
+
+    // ============================
+    // MÉTODOS AUXILIARES
+    // ============================
+    private static void comprobar(long valor) {
+        if (valor < 0 || valor >= LIMITE) {
+            throw new IllegalArgumentException("Valor fuera de rango: " + valor);
+        }
+    }
+
+    /**
+     * Posición del contenedor con esa clave, o {@code -(inserción) - 1} si no existe.
+     * Las inserciones en orden creciente no necesitan búsqueda binaria.
+     */
+    private int buscar(int clave) {
+        if (tamano == 0 || clave > claves[tamano - 1]) {
+            return -tamano - 1;
+        }
+        if (clave == claves[tamano - 1]) {
+            return tamano - 1;
+        }
+        return Arrays.binarySearch(claves, 0, tamano, clave);
+    }
+
+    private void insertar(int i, int clave, Contenedor contenedor) {
+        if (tamano == claves.length) {
+            claves = Arrays.copyOf(claves, tamano * 2);
+            contenedores = Arrays.copyOf(contenedores, tamano * 2);
+        }
+        System.arraycopy(claves, i, claves, i + 1, tamano - i);
+        System.arraycopy(contenedores, i, contenedores, i + 1, tamano - i);
+        claves[i] = clave;
+        contenedores[i] = contenedor;
+        tamano++;
+    }
+
+    private void eliminar(int i) {
+        System.arraycopy(claves, i + 1, claves, i, tamano - i - 1);
+        System.arraycopy(contenedores, i + 1, contenedores, i, tamano - i - 1);
+        contenedores[--tamano] = null;
+    }
+
+    // ============================
+    // CONTENEDORES
+    // ============================
+    /**
+     * Conjunto de valores de 16 bits. Las operaciones que modifican devuelven el
+     * contenedor resultante, que puede ser de otro tipo.
+     */
+    private abstract static class Contenedor {
+        abstract int cardinalidad();
+
+        abstract boolean contiene(char valor);
+
+        abstract Contenedor anadir(char valor);
+
+        abstract Contenedor quitar(char valor);
+
+        abstract void recorrer(long alto, LongConsumer accion);
+
+        abstract Contenedor y(Contenedor otro);
+
+        abstract Contenedor copia();
+
+        abstract long bytes();
+
+        abstract int tamanoSerializado();
+
+        abstract void escribir(ByteBuffer destino);
+    }
+
+    /**
+     * Contenedor disperso: array ordenado de hasta {@link #MAXIMO_ARRAY} valores.
+     */
+    private static final class ContenedorArray extends Contenedor {
+        private char[] valores;
+        private int cantidad;
+
+        ContenedorArray() {
+            this(new char[4], 0);
+        }
+
+        ContenedorArray(char[] valores, int cantidad) {
+            this.valores = valores;
+            this.cantidad = cantidad;
+        }
+
+        @Override
+        int cardinalidad() {
+            return cantidad;
+        }
+
+        @Override
+        boolean contiene(char valor) {
+            return Arrays.binarySearch(valores, 0, cantidad, valor) >= 0;
+        }
+
+        @Override
+        Contenedor anadir(char valor) {
+            int i = cantidad == 0 || valor > valores[cantidad - 1]
+                    ? -cantidad - 1
+                    : Arrays.binarySearch(valores, 0, cantidad, valor);
+            if (i >= 0) {
+                return this;
+            }
+            if (cantidad == MAXIMO_ARRAY) {
+                return aBits().anadir(valor);
+            }
+            i = -i - 1;
+            if (cantidad == valores.length) {
+                valores = Arrays.copyOf(valores, Math.min(cantidad * 2, MAXIMO_ARRAY));
+            }
+            System.arraycopy(valores, i, valores, i + 1, cantidad - i);
+            valores[i] = valor;
+            cantidad++;
+            return this;
+        }
+
+        @Override
+        Contenedor quitar(char valor) {
+            int i = Arrays.binarySearch(valores, 0, cantidad, valor);
+            if (i >= 0) {
+                System.arraycopy(valores, i + 1, valores, i, cantidad - i - 1);
+                cantidad--;
+            }
+            return this;
+        }
+
+        @Override
+        void recorrer(long alto, LongConsumer accion) {
+            for (int i = 0; i < cantidad; i++) {
+                accion.accept(alto | valores[i]);
+            }
+        }
+
+        @Override
+        Contenedor y(Contenedor otro) {
+            char[] resultado = new char[Math.min(cantidad, otro.cardinalidad())];
+            int n = 0;
+            if (otro instanceof ContenedorBits) {
+                for (int i = 0; i < cantidad; i++) {
+                    if (otro.contiene(valores[i])) {
+                        resultado[n++] = valores[i];
+                    }
+                }
+            } else {
+                ContenedorArray array = (ContenedorArray) otro;
+                int i = 0;
+                int j = 0;
+                while (i < cantidad && j < array.cantidad) {
+                    if (valores[i] < array.valores[j]) {
+                        i++;
+                    } else if (valores[i] > array.valores[j]) {
+                        j++;
+                    } else {
+                        resultado[n++] = valores[i];
+                        i++;
+                        j++;
+                    }
+                }
+            }
+            return new ContenedorArray(resultado, n);
+        }
+
+        @Override
+        Contenedor copia() {
+            return new ContenedorArray(Arrays.copyOf(valores, Math.max(cantidad, 4)), cantidad);
+        }
+
+        @Override
+        long bytes() {
+            return 16 + valores.length * 2L;
+        }
+
+        @Override
+        int tamanoSerializado() {
+            return cantidad * 2;
+        }
+
+        @Override
+        void escribir(ByteBuffer destino) {
+            destino.asCharBuffer().put(valores, 0, cantidad);
+            destino.position(destino.position() + cantidad * 2);
+        }
+
+        private ContenedorBits aBits() {
+            ContenedorBits bits = new ContenedorBits();
+            for (int i = 0; i < cantidad; i++) {
+                bits.anadir(valores[i]);
+            }
+            return bits;
+        }
+    }
+
+    /**
+     * Contenedor denso: mapa de 65536 bits.
+     */
+    private static final class ContenedorBits extends Contenedor {
+        private final long[] palabras;
+        private int cantidad;
+
+        ContenedorBits() {
+            this(new long[PALABRAS], 0);
+        }
+
+        ContenedorBits(long[] palabras, int cantidad) {
+            this.palabras = palabras;
+            this.cantidad = cantidad;
+        }
+
+        @Override
+        int cardinalidad() {
+            return cantidad;
+        }
+
+        @Override
+        boolean contiene(char valor) {
+            return (palabras[valor >>> 6] & (1L << valor)) != 0;
+        }
+
+        @Override
+        Contenedor anadir(char valor) {
+            long anterior = palabras[valor >>> 6];
+            long nueva = anterior | (1L << valor);
+            if (nueva != anterior) {
+                palabras[valor >>> 6] = nueva;
+                cantidad++;
+            }
+            return this;
+        }
+
+        @Override
+        Contenedor quitar(char valor) {
+            long anterior = palabras[valor >>> 6];
+            long nueva = anterior & ~(1L << valor);
+            if (nueva == anterior) {
+                return this;
+            }
+            palabras[valor >>> 6] = nueva;
+            cantidad--;
+            return cantidad <= MAXIMO_ARRAY ? aArray() : this;
+        }
+
+        @Override
+        void recorrer(long alto, LongConsumer accion) {
+            for (int i = 0; i < PALABRAS; i++) {
+                long palabra = palabras[i];
+                while (palabra != 0) {
+                    accion.accept(alto | (i << 6) | Long.numberOfTrailingZeros(palabra));
+                    palabra &= palabra - 1;
+                }
+            }
+        }
+
+        @Override
+        Contenedor y(Contenedor otro) {
+            if (otro instanceof ContenedorArray) {
+                return otro.y(this);
+            }
+            long[] otras = ((ContenedorBits) otro).palabras;
+            long[] resultado = new long[PALABRAS];
+            int n = 0;
+            for (int i = 0; i < PALABRAS; i++) {
+                resultado[i] = palabras[i] & otras[i];
+                n += Long.bitCount(resultado[i]);
+            }
+            ContenedorBits bits = new ContenedorBits(resultado, n);
+            return n <= MAXIMO_ARRAY ? bits.aArray() : bits;
+        }
+
+        @Override
+        Contenedor copia() {
+            return new ContenedorBits(palabras.clone(), cantidad);
+        }
+
+        @Override
+        long bytes() {
+            return 16 + PALABRAS * 8L;
+        }
+
+        @Override
+        int tamanoSerializado() {
+            return PALABRAS * 8;
+        }
+
+        @Override
+        void escribir(ByteBuffer destino) {
+            destino.asLongBuffer().put(palabras);
+            destino.position(destino.position() + PALABRAS * 8);
+        }
+
+        private ContenedorArray aArray() {
+            char[] valores = new char[Math.max(cantidad, 4)];
+            int n = 0;
+            for (int i = 0; i < PALABRAS; i++) {
+                long palabra = palabras[i];
+                while (palabra != 0) {
+                    valores[n++] = (char) ((i << 6) | Long.numberOfTrailingZeros(palabra));
+                    palabra &= palabra - 1;
+                }
+            }
+            return new ContenedorArray(valores, n);
+        }
+    }
+}
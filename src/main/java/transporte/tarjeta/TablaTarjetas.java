@@ -0,0 +1,368 @@
+package transporte.tarjeta;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Registro de tarjetas basado en una tabla hash de direccionamiento abierto
+ * con claves primitivas {@code long} (el número de tarjeta de 12 dígitos).
+ *
+ * Cada tarjeta ocupa un {@code long} de clave y un {@code int} de registro en
+ * arrays primitivos, sin objetos por entrada, por lo que la tabla puede guardar
+ * decenas de millones de tarjetas sin presión sobre el recolector de basura.
+ * La tabla se divide en segmentos con su propio {@link StampedLock}: las
+ * lecturas son optimistas y las escrituras solo bloquean su segmento.
+ *
+ * Formato del registro ({@code int}):
+ * <pre>
+ *   bits  0-11  meses pagados (bit 0 = Enero)
+ *   bits 12-15  tipo de bono (0 = sin tipo, 1 = BUS, 2 = METRO)
+ *   bits 16-31  versión, incrementada en cada modificación
+ * </pre>
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public class TablaTarjetas {
+
+    // ============================
+    // CONSTANTES
+    // ============================
+    /** Valor devuelto cuando la tarjeta no está registrada. */
+    public static final int AUSENTE = 0;
+
+    private static final long CLAVE_VACIA = -1L;
+    private static final int MASCARA_MESES = 0xFFF;
+    private static final int MASCARA_DATOS = 0xFFFF;
+    private static final int DESPLAZAMIENTO_TIPO = 12;
+    private static final int DESPLAZAMIENTO_VERSION = 16;
+
+    private static final int NUMERO_SEGMENTOS = 64;
+    private static final float FACTOR_CARGA = 0.75f;
+
+    // ============================
+    // ESTADO
+    // ============================
+    private final Segmento[] segmentos;
+
+    /**
+     * Crea una tabla con capacidad para unas 64 mil tarjetas antes de crecer.
+     */
+    public TablaTarjetas() {
+        this(1 << 16);
+    }
+
+    /**
+     * Crea una tabla dimensionada para el número de tarjetas esperado, evitando
+     * redimensionados durante la carga inicial.
+     */
+    public TablaTarjetas(int tarjetasEsperadas) {
+        int porSegmento = (int) Math.ceil(Math.max(tarjetasEsperadas, 1) / (double) NUMERO_SEGMENTOS / FACTOR_CARGA);
+        int capacidad = Integer.highestOneBit(Math.max(porSegmento, 8) - 1) << 1;
+        segmentos = new Segmento[NUMERO_SEGMENTOS];
+        for (int i = 0; i < NUMERO_SEGMENTOS; i++) {
+            segmentos[i] = new Segmento(capacidad);
+        }
+    }
+
+    // ============================
+    // CONSULTA Y MODIFICACIÓN
+    // ============================
+    /**
+     * Devuelve el registro de la tarjeta o {@link #AUSENTE} si no existe.
+     */
+    public int obtener(long tarjeta) {
+        long hash = mezclar(tarjeta);
+        return segmento(hash).obtener(tarjeta, (int) hash);
+    }
+
+    /**
+     * Indica si la tarjeta está registrada.
+     */
+    public boolean contiene(long tarjeta) {
+        return obtener(tarjeta) != AUSENTE;
+    }
+
+    /**
+     * Modifica de forma atómica el registro de una tarjeta, creándolo si no existe.
+     * La función recibe el registro actual ({@link #AUSENTE} si no existe) y devuelve
+     * los nuevos meses y tipo; la versión la gestiona la tabla. Si el resultado no
+     * cambia los datos, la tabla no se modifica.
+     *
+     * @return el registro que había antes de la modificación
+     */
+    public int modificar(long tarjeta, IntUnaryOperator funcion) {
+        if (tarjeta < 0) {
+            throw new IllegalArgumentException("Número de tarjeta no válido: " + tarjeta);
+        }
+        long hash = mezclar(tarjeta);
+        return segmento(hash).modificar(tarjeta, (int) hash, funcion);
+    }
+
+    /**
+     * Número de tarjetas registradas.
+     */
+    public long tamano() {
+        long total = 0;
+        for (Segmento segmento : segmentos) {
+            total += segmento.tamanoActual();
+        }
+        return total;
+    }
+
+    /**
+     * Recorre todas las tarjetas registradas. Cada segmento se recorre con su
+     * cerrojo de lectura, así que el visitante no debe modificar la tabla.
+     */
+    public void recorrer(Visitante visitante) {
+        for (Segmento segmento : segmentos) {
+            segmento.recorrer(visitante);
+        }
+    }
+
+    /**
+     * Número de segmentos en que se divide la tabla; cada tarjeta pertenece
+     * siempre al mismo.
+     */
+    public int getNumeroSegmentos() {
+        return segmentos.length;
+    }
+
+    /**
+     * Recorre las tarjetas de un único segmento con su cerrojo de lectura, de
+     * modo que la tabla se puede copiar por partes sin bloquear el resto.
+     */
+    public void recorrerSegmento(int indice, Visitante visitante) {
+        segmentos[indice].recorrer(visitante);
+    }
+
+    /**
+     * Añade en bloque tarjetas de un mismo segmento, tomando su cerrojo una
+     * sola vez. Pensado para cargar la tabla desde una copia guardada: si una
+     * tarjeta ya existe se sustituyen sus datos.
+     *
+     * @param datos tipo y meses de cada tarjeta (sin versión), como en {@link #registro(int, int)}
+     * @throws IllegalArgumentException si alguna tarjeta no pertenece al segmento
+     */
+    public void cargarSegmento(int indice, long[] tarjetas, int[] datos, int cantidad) {
+        segmentos[indice].cargar(indice, tarjetas, datos, cantidad);
+    }
+
+    /**
+     * Recibe cada tarjeta de la tabla junto con su registro.
+     */
+    public interface Visitante {
+        void visitar(long tarjeta, int registro);
+    }
+
+    // ============================
+    // FORMATO DEL REGISTRO
+    // ============================
+    public static int meses(int registro) {
+        return registro & MASCARA_MESES;
+    }
+
+    public static int tipo(int registro) {
+        return (registro >>> DESPLAZAMIENTO_TIPO) & 0xF;
+    }
+
+    public static int version(int registro) {
+        return registro >>> DESPLAZAMIENTO_VERSION;
+    }
+
+    /**
+     * Compone la parte de datos de un registro (sin versión).
+     */
+    public static int registro(int tipo, int meses) {
+        return (tipo << DESPLAZAMIENTO_TIPO) | (meses & MASCARA_MESES);
+    }
+
+    // ============================
+    // MÉTODOS AUXILIARES
+    // ============================
+    private Segmento segmento(long hash) {
+        return segmentos[(int) (hash >>> 58)];
+    }
+
+    /**
+     * Función de mezcla de 64 bits (finalizador de MurmurHash3) para repartir
+     * números de tarjeta consecutivos por toda la tabla.
+     */
+    private static long mezclar(long clave) {
+        clave ^= clave >>> 33;
+        clave *= 0xff51afd7ed558ccdL;
+        clave ^= clave >>> 33;
+        clave *= 0xc4ceb9fe1a85ec53L;
+        clave ^= clave >>> 33;
+        return clave;
+    }
+
+    /**
+     * Segmento independiente de la tabla con sondeo lineal.
+     */
+    private static final class Segmento {
+
+        private final StampedLock cerrojo = new StampedLock();
+        private long[] claves;
+        private int[] registros;
+        private int tamano;
+        private int umbral;
+
+        Segmento(int capacidad) {
+            asignar(capacidad);
+        }
+
+        int obtener(long tarjeta, int hash) {
+            long sello = cerrojo.tryOptimisticRead();
+            long[] c = claves;
+            int[] r = registros;
+            // Durante un redimensionado los dos arrays pueden no corresponderse
+            int resultado = c.length == r.length ? buscar(c, r, tarjeta, hash) : AUSENTE;
+            if (sello != 0 && cerrojo.validate(sello)) {
+                return resultado;
+            }
+            sello = cerrojo.readLock();
+            try {
+                return buscar(claves, registros, tarjeta, hash);
+            } finally {
+                cerrojo.unlockRead(sello);
+            }
+        }
+
+        int modificar(long tarjeta, int hash, IntUnaryOperator funcion) {
+            long sello = cerrojo.writeLock();
+            try {
+                int mascara = claves.length - 1;
+                int i = hash & mascara;
+                while (claves[i] != CLAVE_VACIA && claves[i] != tarjeta) {
+                    i = (i + 1) & mascara;
+                }
+                int previo = claves[i] == tarjeta ? registros[i] : AUSENTE;
+                int datos = funcion.applyAsInt(previo) & MASCARA_DATOS;
+                if (datos == (previo & MASCARA_DATOS) && claves[i] == tarjeta) {
+                    return previo;
+                }
+                if (datos == 0 && claves[i] != tarjeta) {
+                    return previo;
+                }
+
+                int version = (version(previo) + 1) & MASCARA_DATOS;
+                // La versión nunca es 0 para que un registro existente no se confunda con AUSENTE
+                if (version == 0) {
+                    version = 1;
+                }
+                registros[i] = (version << DESPLAZAMIENTO_VERSION) | datos;
+                if (claves[i] != tarjeta) {
+                    claves[i] = tarjeta;
+                    if (++tamano > umbral) {
+                        redimensionar();
+                    }
+                }
+                return previo;
+            } finally {
+                cerrojo.unlockWrite(sello);
+            }
+        }
+
+        void cargar(int indice, long[] tarjetas, int[] datos, int cantidad) {
+            long sello = cerrojo.writeLock();
+            try {
+                for (int j = 0; j < cantidad; j++) {
+                    long tarjeta = tarjetas[j];
+                    long hash = mezclar(tarjeta);
+                    if (tarjeta < 0 || (int) (hash >>> 58) != indice) {
+                        throw new IllegalArgumentException("La tarjeta " + tarjeta
+                                + " no pertenece al segmento " + indice);
+                    }
+                    int valor = datos[j] & MASCARA_DATOS;
+                    if (valor == 0) {
+                        continue;
+                    }
+                    int mascara = claves.length - 1;
+                    int i = (int) hash & mascara;
+                    while (claves[i] != CLAVE_VACIA && claves[i] != tarjeta) {
+                        i = (i + 1) & mascara;
+                    }
+                    if (claves[i] == tarjeta) {
+                        int version = Math.max((version(registros[i]) + 1) & MASCARA_DATOS, 1);
+                        registros[i] = (version << DESPLAZAMIENTO_VERSION) | valor;
+                        continue;
+                    }
+                    claves[i] = tarjeta;
+                    registros[i] = (1 << DESPLAZAMIENTO_VERSION) | valor;
+                    if (++tamano > umbral) {
+                        redimensionar();
+                    }
+                }
+            } finally {
+                cerrojo.unlockWrite(sello);
+            }
+        }
+
+        int tamanoActual() {
+            long sello = cerrojo.readLock();
+            try {
+                return tamano;
+            } finally {
+                cerrojo.unlockRead(sello);
+            }
+        }
+
+        void recorrer(Visitante visitante) {
+            long sello = cerrojo.readLock();
+            try {
+                for (int i = 0; i < claves.length; i++) {
+                    if (claves[i] != CLAVE_VACIA) {
+                        visitante.visitar(claves[i], registros[i]);
+                    }
+                }
+            } finally {
+                cerrojo.unlockRead(sello);
+            }
+        }
+
+        private static int buscar(long[] claves, int[] registros, long tarjeta, int hash) {
+            // En lectura optimista la tabla puede estar cambiando, por lo que
+            // el sondeo se limita a la longitud del array
+            int mascara = claves.length - 1;
+            int i = hash & mascara;
+            for (int intentos = 0; intentos <= mascara; intentos++) {
+                long clave = claves[i];
+                if (clave == tarjeta) {
+                    return registros[i];
+                }
+                if (clave == CLAVE_VACIA) {
+                    return AUSENTE;
+                }
+                i = (i + 1) & mascara;
+            }
+            return AUSENTE;
+        }
+
+        private void redimensionar() {
+            long[] clavesAnteriores = claves;
+            int[] registrosAnteriores = registros;
+            asignar(clavesAnteriores.length << 1);
+            int mascara = claves.length - 1;
+            for (int j = 0; j < clavesAnteriores.length; j++) {
+                long clave = clavesAnteriores[j];
+                if (clave != CLAVE_VACIA) {
+                    int i = (int) mezclar(clave) & mascara;
+                    while (claves[i] != CLAVE_VACIA) {
+                        i = (i + 1) & mascara;
+                    }
+                    claves[i] = clave;
+                    registros[i] = registrosAnteriores[j];
+                }
+            }
+        }
+
+        private void asignar(int capacidad) {
+            long[] nuevasClaves = new long[capacidad];
+            Arrays.fill(nuevasClaves, CLAVE_VACIA);
+            registros = new int[capacidad];
+            claves = nuevasClaves;
+            umbral = (int) (capacidad * FACTOR_CARGA);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package transporte.tarjeta;
+
+/**
+ * Validación de números de tarjeta de transporte.
+ *
+ * Una tarjeta tiene exactamente 12 dígitos y el último es un dígito de control
+ * calculado con el algoritmo de Luhn, de forma que los errores de tecleo más
+ * habituales (un dígito cambiado o dos dígitos contiguos intercambiados) se
+ * detectan antes de consultar el registro de tarjetas.
+ *
+ * El número se analiza en una única pasada sobre un {@link CharSequence} y se
+ * convierte a {@code long} sin crear objetos, por lo que sirve tanto para el
+ * texto de un campo Swing (por ejemplo un {@code javax.swing.text.Segment}
+ * obtenido de su documento) como para importaciones masivas. Los espacios al
+ * principio y al final se ignoran, igual que con {@code String.trim()}.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public final class ValidadorTarjeta {
+
+    /** Número de dígitos de una tarjeta. */
+    public static final int DIGITOS = 12;
+
+    /** Valor devuelto por {@link #parsear(CharSequence)} cuando el número no es válido. */
+    public static final long INVALIDA = -1L;
+
+    private static final long LIMITE = 1_000_000_000_000L;
+
+    /**
+     * Resultado detallado de la validación, para poder informar del motivo.
+     */
+    public enum Motivo {
+        VALIDA,
+        VACIA,
+        LONGITUD_INCORRECTA,
+        CARACTER_NO_NUMERICO,
+        DIGITO_CONTROL_INCORRECTO
+    }
+
+    private ValidadorTarjeta() {
+    }
+
+    // ============================
+    // VALIDACIÓN
+    // ============================
+    /**
+     * Indica si el texto es un número de tarjeta válido.
+     */
+    public static boolean esValida(CharSequence texto) {
+        return parsear(texto) != INVALIDA;
+    }
+
+    /**
+     * Indica si el número (ya convertido a {@code long}) es una tarjeta válida.
+     */
+    public static boolean esValida(long numero) {
+        return numero >= 0 && numero < LIMITE && calcularDigitoControl(numero / 10) == numero % 10;
+    }
+
+    /**
+     * Convierte el texto en el número de tarjeta, o devuelve {@link #INVALIDA}
+     * si no tiene 12 dígitos o el dígito de control no es correcto.
+     */
+    public static long parsear(CharSequence texto) {
+        return texto == null ? INVALIDA : parsear(texto, 0, texto.length());
+    }
+
+    /**
+     * Igual que {@link #parsear(CharSequence)} pero sobre el rango
+     * {@code [desde, hasta)} del texto, útil para leer campos de una línea sin
+     * extraerlos como {@code String}.
+     */
+    public static long parsear(CharSequence texto, int desde, int hasta) {
+        while (desde < hasta && texto.charAt(desde) <= ' ') {
+            desde++;
+        }
+        while (hasta > desde && texto.charAt(hasta - 1) <= ' ') {
+            hasta--;
+        }
+        if (hasta - desde != DIGITOS) {
+            return INVALIDA;
+        }
+
+        long valor = 0;
+        int suma = 0;
+        for (int i = 0; i < DIGITOS; i++) {
+            int digito = texto.charAt(desde + i) - '0';
+            if (digito < 0 || digito > 9) {
+                return INVALIDA;
+            }
+            valor = valor * 10 + digito;
+            // Con longitud fija, las posiciones pares (desde la izquierda) son las que Luhn duplica
+            if ((i & 1) == 0) {
+                digito <<= 1;
+                if (digito > 9) {
+                    digito -= 9;
+                }
+            }
+            suma += digito;
+        }
+        return suma % 10 == 0 ? valor : INVALIDA;
+    }
+
+    /**
+     * Devuelve el motivo por el que el texto es o no una tarjeta válida.
+     */
+    public static Motivo comprobar(CharSequence texto) {
+        if (texto == null) {
+            return Motivo.VACIA;
+        }
+        int desde = 0;
+        int hasta = texto.length();
+        while (desde < hasta && texto.charAt(desde) <= ' ') {
+            desde++;
+        }
+        while (hasta > desde && texto.charAt(hasta - 1) <= ' ') {
+            hasta--;
+        }
+        if (desde == hasta) {
+            return Motivo.VACIA;
+        }
+        for (int i = desde; i < hasta; i++) {
+            char c = texto.charAt(i);
+            if (c < '0' || c > '9') {
+                return Motivo.CARACTER_NO_NUMERICO;
+            }
+        }
+        if (hasta - desde != DIGITOS) {
+            return Motivo.LONGITUD_INCORRECTA;
+        }
+        return parsear(texto, desde, hasta) == INVALIDA ? Motivo.DIGITO_CONTROL_INCORRECTO : Motivo.VALIDA;
+    }
+
+    // ============================
+    // DÍGITO DE CONTROL
+    // ============================
+    /**
+     * Calcula el dígito de control de Luhn para los 11 primeros dígitos de una tarjeta.
+     */
+    public static int calcularDigitoControl(long base) {
+        int suma = 0;
+        boolean duplicar = true;
+        for (int i = 0; i < DIGITOS - 1; i++) {
+            int digito = (int) (base % 10);
+            base /= 10;
+            if (duplicar) {
+                digito <<= 1;
+                if (digito > 9) {
+                    digito -= 9;
+                }
+            }
+            suma += digito;
+            duplicar = !duplicar;
+        }
+        return (10 - suma % 10) % 10;
+    }
+
+    /**
+     * Completa 11 dígitos con su dígito de control y devuelve la tarjeta resultante.
+     */
+    public static long completar(long base) {
+        return base * 10 + calcularDigitoControl(base);
+    }
+}
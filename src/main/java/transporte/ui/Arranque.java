@@ -0,0 +1,216 @@
+package transporte.ui;
+
+import transporte.diagnostico.EventoRecurso;
+import transporte.metricas.HistogramaLatencia;
+import transporte.metricas.Metricas;
+
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JWindow;
+import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+import javax.swing.UIManager;
+import java.awt.BorderLayout;
+import java.awt.Font;
+import java.awt.GraphicsEnvironment;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Secuencia de arranque de la interfaz.
+ *
+ * Muestra una pantalla de inicio en cuanto el EDT está disponible y, mientras
+ * se construye la ventana principal, precarga en segundo plano lo que las
+ * vistas van a necesitar: clases (incluido el selector de mes de JCalendar,
+ * que de otro modo se carga al abrir por primera vez BonoBus o BonoMetro),
+ * las fuentes del {@link Tema} y el servicio de recarga con su diario. Así el
+ * EDT solo construye componentes y no espera a disco ni a la resolución de
+ * fuentes.
+ *
+ * Al abrirse la ventana principal informa del tiempo hasta la primera
+ * ventana interactiva, que también se publica como métrica.
+ *
+ * <pre>
+ *   Arranque arranque = new Arranque();
+ *   arranque.precargarClases("BonoBus", "BonoMetro");
+ *   arranque.mostrarPantallaInicio();
+ *   CompletableFuture<ServicioRecarga> servicio = arranque.precargar("servicio", ServicioRecarga::compartido);
+ *   SwingUtilities.invokeLater(() -> arranque.mostrar(new VentanaPrincipal(servicio)));
+ * </pre>
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public final class Arranque {
+
+    // ============================
+    // CONSTANTES
+    // ============================
+    // Al menos dos hilos para que la lectura del diario no frene al resto aunque haya una sola CPU
+    private static final int HILOS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private static final HistogramaLatencia PRIMERA_VENTANA = Metricas.global().histograma(
+            "bono_arranque_segundos", "Tiempo desde el inicio hasta la primera ventana interactiva");
+
+    // ============================
+    // ESTADO
+    // ============================
+    private final long inicio = System.nanoTime();
+    private final ExecutorService hilos;
+    // Solo se modifican desde el hilo que prepara el arranque
+    private final List<CompletableFuture<String>> tareas = new ArrayList<>();
+    private JWindow pantallaInicio;
+
+    /**
+     * Empieza a medir el arranque.
+     */
+    public Arranque() {
+        AtomicInteger contador = new AtomicInteger();
+        hilos = Executors.newFixedThreadPool(HILOS, tarea -> {
+            Thread hilo = new Thread(tarea, "arranque-" + contador.incrementAndGet());
+            hilo.setDaemon(true);
+            return hilo;
+        });
+    }
+
+    // ============================
+    // PRECARGA
+    // ============================
+    /**
+     * Ejecuta {@code tarea} en segundo plano. Si falla solo se avisa: lo que
+     * no se haya precargado se cargará cuando la vista lo necesite.
+     */
+    public void precargar(String nombre, Runnable tarea) {
+        tareas.add(CompletableFuture.supplyAsync(() -> {
+            long desde = System.nanoTime();
+            EventoRecurso evento = EventoRecurso.iniciar(nombre, "precargar");
+            try {
+                tarea.run();
+            } catch (RuntimeException | LinkageError e) {
+                System.err.println("Advertencia: No se pudo precargar " + nombre + ": " + e);
+            }
+            evento.terminar(0, 0);
+            return nombre + " " + (System.nanoTime() - desde) / 1_000_000L + " ms";
+        }, hilos));
+    }
+
+    /**
+     * Obtiene en segundo plano un objeto que necesitarán las vistas, que lo
+     * reciben con el futuro sin esperarlo en el EDT. Si falla, el futuro
+     * termina con la excepción.
+     */
+    public <T> CompletableFuture<T> precargar(String nombre, Supplier<T> tarea) {
+        CompletableFuture<T> resultado = new CompletableFuture<>();
+        precargar(nombre, () -> {
+            try {
+                resultado.complete(tarea.get());
+            } catch (RuntimeException | LinkageError e) {
+                resultado.completeExceptionally(e);
+                throw e;
+            }
+        });
+        return resultado;
+    }
+
+    /**
+     * Carga e inicializa las clases indicadas (nombres completos).
+     */
+    public void precargarClases(String... clases) {
+        precargar("clases", () -> {
+            ClassLoader cargador = Arranque.class.getClassLoader();
+            for (String clase : clases) {
+                try {
+                    Class.forName(clase, true, cargador);
+                } catch (ClassNotFoundException e) {
+                    System.err.println("Advertencia: No se encontró la clase '" + clase + "' para precargarla");
+                }
+            }
+        });
+    }
+
+    // ============================
+    // PANTALLA DE INICIO
+    // ============================
+    /**
+     * Programa en el EDT la pantalla de inicio. Usa la fuente por defecto
+     * del aspecto de Swing, que ya está resuelta, para no esperar a que
+     * {@link Tema} elija las fuentes de las vistas. No hace nada sin pantalla.
+     */
+    public void mostrarPantallaInicio() {
+        if (GraphicsEnvironment.isHeadless()) {
+            return;
+        }
+        SwingUtilities.invokeLater(() -> {
+            Font base = UIManager.getFont("Label.font");
+
+            JLabel titulo = new JLabel("TRANSPORTE PÚBLICO DE SEVILLA", SwingConstants.CENTER);
+            titulo.setFont(base.deriveFont(Font.BOLD, 18f));
+            titulo.setForeground(Tema.BLANCO);
+
+            JLabel estado = new JLabel("Cargando...", SwingConstants.CENTER);
+            estado.setFont(base.deriveFont(Font.ITALIC, 13f));
+            estado.setForeground(Tema.Login.AZUL_OSCURO);
+
+            JPanel contenido = new JPanel(new BorderLayout(0, 12));
+            contenido.setBackground(Tema.Login.NARANJA);
+            contenido.setBorder(Tema.borde(Tema.Login.AZUL_OSCURO, 2, 40, 30, 40, 30));
+            contenido.add(titulo, BorderLayout.CENTER);
+            contenido.add(estado, BorderLayout.SOUTH);
+
+            pantallaInicio = new JWindow();
+            pantallaInicio.setContentPane(contenido);
+            pantallaInicio.pack();
+            pantallaInicio.setLocationRelativeTo(null);
+            pantallaInicio.setVisible(true);
+        });
+    }
+
+    // ============================
+    // PRIMERA VENTANA
+    // ============================
+    /**
+     * Muestra la ventana principal, cierra la pantalla de inicio y, cuando
+     * la ventana se ha abierto y el EDT ha atendido los eventos pendientes
+     * (su primer pintado incluido), informa del tiempo de arranque.
+     * Se llama desde el EDT.
+     */
+    public void mostrar(JFrame ventana) {
+        ventana.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowOpened(WindowEvent e) {
+                ventana.removeWindowListener(this);
+                SwingUtilities.invokeLater(Arranque.this::informar);
+            }
+        });
+        ventana.setVisible(true);
+        if (pantallaInicio != null) {
+            pantallaInicio.dispose();
+            pantallaInicio = null;
+        }
+    }
+
+    private void informar() {
+        long duracion = System.nanoTime() - inicio;
+        PRIMERA_VENTANA.registrar(duracion);
+        System.err.println("Arranque: ventana interactiva en " + duracion / 1_000_000L + " ms ("
+                + ManagementFactory.getRuntimeMXBean().getUptime() + " ms desde el inicio de la JVM)");
+
+        CompletableFuture.allOf(tareas.toArray(new CompletableFuture<?>[0])).thenRun(() -> {
+            StringBuilder detalle = new StringBuilder();
+            for (CompletableFuture<String> tarea : tareas) {
+                detalle.append(detalle.length() == 0 ? "" : ", ").append(tarea.join());
+            }
+            System.err.println("Arranque: precarga terminada en " + (System.nanoTime() - inicio) / 1_000_000L
+                    + " ms (" + detalle + ")");
+            hilos.shutdown();
+        });
+    }
+}
@@ -0,0 +1,226 @@
+package transporte.ui;
+
+import transporte.diagnostico.EventoRecurso;
+
+import javax.imageio.ImageIO;
+import javax.swing.Icon;
+import java.awt.Component;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Caché de imágenes compartida por todas las ventanas de la aplicación.
+ *
+ * Cada recurso PNG se decodifica una sola vez y cada tamaño pedido se escala
+ * también una sola vez, con reducción progresiva de alta calidad y a la
+ * resolución real de la pantalla (en pantallas HiDPI la imagen se genera con
+ * más píxeles y se dibuja al tamaño lógico). Las ventanas reciben iconos ya
+ * preparados, por lo que volver a abrirlas no vuelve a decodificar nada.
+ * {@link #precargar} permite hacer el trabajo en segundo plano, fuera del EDT.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public final class CacheImagenes {
+
+    // Valor centinela para recordar los recursos que no existen
+    private static final BufferedImage AUSENTE = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+
+    private static final ConcurrentHashMap<String, BufferedImage> ORIGINALES = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Icon> ESCALADAS = new ConcurrentHashMap<>();
+
+    private static final ExecutorService PRECARGA = Executors.newSingleThreadExecutor(tarea -> {
+        Thread hilo = new Thread(tarea, "precarga-imagenes");
+        hilo.setDaemon(true);
+        return hilo;
+    });
+
+    private CacheImagenes() {
+    }
+
+    // ============================
+    // ACCESO A LAS IMÁGENES
+    // ============================
+    /**
+     * Imagen original del recurso (por ejemplo {@code "/bus_icon.png"}),
+     * o {@code null} si no existe o no se puede leer.
+     */
+    public static BufferedImage imagen(String recurso) {
+        BufferedImage imagen = ORIGINALES.computeIfAbsent(recurso, CacheImagenes::decodificar);
+        return imagen == AUSENTE ? null : imagen;
+    }
+
+    /**
+     * Icono del recurso escalado al tamaño lógico indicado, compartido entre
+     * ventanas, o {@code null} si el recurso no existe.
+     */
+    public static Icon icono(String recurso, int ancho, int alto) {
+        BufferedImage original = imagen(recurso);
+        if (original == null) {
+            return null;
+        }
+        return ESCALADAS.computeIfAbsent(recurso + '@' + ancho + 'x' + alto,
+                clave -> crearIcono(recurso, original, ancho, alto));
+    }
+
+    /**
+     * Icono del recurso a su tamaño original, o {@code null} si no existe.
+     */
+    public static Icon icono(String recurso) {
+        BufferedImage original = imagen(recurso);
+        return original == null ? null : icono(recurso, original.getWidth(), original.getHeight());
+    }
+
+    /**
+     * Decodifica y escala el recurso en segundo plano para que la ventana que
+     * lo use lo encuentre ya preparado.
+     */
+    public static void precargar(String recurso, int ancho, int alto) {
+        PRECARGA.execute(() -> icono(recurso, ancho, alto));
+    }
+
+    /**
+     * Decodifica el recurso en segundo plano, sin escalarlo.
+     */
+    public static void precargar(String recurso) {
+        PRECARGA.execute(() -> imagen(recurso));
+    }
+
+    // ============================
+    // MÉTODOS AUXILIARES
+    // ============================
+    private static BufferedImage decodificar(String recurso) {
+        EventoRecurso evento = EventoRecurso.iniciar(recurso, "decodificar");
+        BufferedImage imagen = leer(recurso);
+        if (imagen == AUSENTE) {
+            evento.terminar(0, 0);
+        } else {
+            evento.terminar(imagen.getWidth(), imagen.getHeight());
+        }
+        return imagen;
+    }
+
+    private static BufferedImage leer(String recurso) {
+        try (InputStream entrada = CacheImagenes.class.getResourceAsStream(recurso)) {
+            if (entrada == null) {
+                System.err.println("Advertencia: No se encontró el recurso '" + recurso + "'");
+                return AUSENTE;
+            }
+            BufferedImage leida = ImageIO.read(entrada);
+            if (leida == null) {
+                System.err.println("Advertencia: Formato de imagen no soportado en '" + recurso + "'");
+                return AUSENTE;
+            }
+            // Convertir a ARGB para que dibujarla no requiera conversiones en cada repintado
+            BufferedImage imagen = new BufferedImage(leida.getWidth(), leida.getHeight(), BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = imagen.createGraphics();
+            g.drawImage(leida, 0, 0, null);
+            g.dispose();
+            return imagen;
+        } catch (IOException e) {
+            System.err.println("Error al cargar la imagen '" + recurso + "': " + e.getMessage());
+            return AUSENTE;
+        }
+    }
+
+    private static Icon crearIcono(String recurso, BufferedImage original, int ancho, int alto) {
+        EventoRecurso evento = EventoRecurso.iniciar(recurso, "escalar");
+        double escala = escalaPantalla();
+        int anchoReal = (int) Math.round(ancho * escala);
+        int altoReal = (int) Math.round(alto * escala);
+        BufferedImage escalada = escalar(original, anchoReal, altoReal);
+        evento.terminar(anchoReal, altoReal);
+        return new IconoEscalado(escalada, ancho, alto);
+    }
+
+    /**
+     * Reduce la imagen a la mitad en pasos sucesivos y termina con una
+     * interpolación bicúbica, que da un resultado similar a {@code SCALE_SMOOTH}
+     * con mucho menos coste.
+     */
+    static BufferedImage escalar(BufferedImage original, int ancho, int alto) {
+        BufferedImage actual = original;
+        int w = original.getWidth();
+        int h = original.getHeight();
+        if (w == ancho && h == alto) {
+            return original;
+        }
+        do {
+            if (w > ancho) {
+                w = Math.max(w / 2, ancho);
+            } else {
+                w = ancho;
+            }
+            if (h > alto) {
+                h = Math.max(h / 2, alto);
+            } else {
+                h = alto;
+            }
+            BufferedImage paso = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = paso.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(actual, 0, 0, w, h, null);
+            g.dispose();
+            actual = paso;
+        } while (w != ancho || h != alto);
+        return actual;
+    }
+
+    /**
+     * Factor de escala de la pantalla principal (1.0 sin HiDPI o sin pantalla).
+     */
+    private static double escalaPantalla() {
+        if (GraphicsEnvironment.isHeadless()) {
+            return 1.0;
+        }
+        double escala = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+                .getDefaultConfiguration().getDefaultTransform().getScaleX();
+        return Math.max(escala, 1.0);
+    }
+
+    /**
+     * Icono que dibuja una imagen de mayor resolución a su tamaño lógico.
+     */
+    private static final class IconoEscalado implements Icon {
+
+        private final BufferedImage imagen;
+        private final int ancho;
+        private final int alto;
+
+        IconoEscalado(BufferedImage imagen, int ancho, int alto) {
+            this.imagen = imagen;
+            this.ancho = ancho;
+            this.alto = alto;
+        }
+
+        @Override
+        public void paintIcon(Component c, Graphics g, int x, int y) {
+            if (imagen.getWidth() == ancho && imagen.getHeight() == alto) {
+                g.drawImage(imagen, x, y, null);
+                return;
+            }
+            Graphics2D g2 = (Graphics2D) g.create();
+            g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g2.drawImage(imagen, x, y, ancho, alto, null);
+            g2.dispose();
+        }
+
+        @Override
+        public int getIconWidth() {
+            return ancho;
+        }
+
+        @Override
+        public int getIconHeight() {
+            return alto;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package transporte.ui;
+
+import transporte.recarga.TipoBono;
+
+/**
+ * Navegación entre las pantallas de la aplicación.
+ * Las vistas la usan para cambiar de pantalla sin crear ni cerrar ventanas.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public interface Navegador {
+
+    /**
+     * Muestra la pantalla de login, vacía y lista para una nueva sesión.
+     */
+    void mostrarLogin();
+
+    /**
+     * Muestra la pantalla de recarga del tipo de bono indicado para la tarjeta dada.
+     */
+    void mostrarRecarga(TipoBono tipo, String numeroTarjeta);
+}
@@ -0,0 +1,227 @@
+package transporte.ui;
+
+import transporte.metricas.HistogramaLatencia;
+import transporte.metricas.Metricas;
+import transporte.tarjeta.IndicePrefijos;
+import transporte.tarjeta.ValidadorTarjeta;
+
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import java.awt.Font;
+import java.awt.event.FocusAdapter;
+import java.awt.event.FocusEvent;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Sugerencias de tarjetas conocidas bajo un campo de número de tarjeta.
+ *
+ * Con cada pulsación busca en el {@link IndicePrefijos} las tarjetas que
+ * empiezan por lo tecleado y las muestra en una lista desplegable; se elige
+ * una con las flechas y Enter o con el ratón, y Escape la cierra. La búsqueda
+ * no toma cerrojos y tarda microsegundos, así que se hace en el EDT; lo que
+ * no se hace nunca en el EDT es obtener el índice, que la primera vez se
+ * construye recorriendo todo el registro: hasta que está listo simplemente
+ * no hay sugerencias.
+ *
+ * Mostrar números de otras tarjetas solo tiene sentido en los puestos de
+ * atención al cliente, no en un quiosco público, por eso solo se activa con
+ * {@code -Dbono.sugerencias=true}.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public final class SugerenciasTarjeta {
+
+    // ============================
+    // CONSTANTES
+    // ============================
+    private static final String PROPIEDAD = "bono.sugerencias";
+    // Con menos dígitos casi cualquier tarjeta coincide y la lista no ayuda
+    private static final int MINIMO_DIGITOS = 4;
+    private static final int MAXIMO_SUGERENCIAS = 8;
+
+    private static final HistogramaLatencia BUSQUEDAS = Metricas.global().histograma(
+            "bono_ui_sugerencias_segundos", "Tiempo de buscar las tarjetas que empiezan por lo tecleado");
+
+    // ============================
+    // ESTADO (solo desde el EDT)
+    // ============================
+    private final JTextField campo;
+    private final DefaultListModel<String> modelo = new DefaultListModel<>();
+    private final JList<String> lista = new JList<>(modelo);
+    private final JPopupMenu menu = new JPopupMenu();
+    private final long[] encontradas = new long[MAXIMO_SUGERENCIAS];
+    private IndicePrefijos indice;
+    // Evita buscar otra vez al escribir en el campo la sugerencia elegida
+    private boolean eligiendo;
+
+    private SugerenciasTarjeta(JTextField campo) {
+        this.campo = campo;
+
+        lista.setFont(Tema.fuente(Font.PLAIN, 16));
+        lista.setFocusable(false);
+        lista.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        lista.setBorder(Tema.margen(2, 8, 2, 8));
+
+        // El foco se queda en el campo para poder seguir escribiendo
+        menu.setFocusable(false);
+        menu.setBorder(Tema.linea(Tema.GRIS_CLARO, 1));
+        menu.add(lista);
+    }
+
+    /**
+     * Indica si las sugerencias están activadas ({@code -Dbono.sugerencias=true}).
+     */
+    public static boolean activadas() {
+        return Boolean.getBoolean(PROPIEDAD);
+    }
+
+    /**
+     * Añade las sugerencias al campo. El índice se obtiene de {@code fuente}
+     * en segundo plano. Se llama desde el EDT.
+     */
+    public static void instalar(JTextField campo, Supplier<IndicePrefijos> fuente) {
+        SugerenciasTarjeta sugerencias = new SugerenciasTarjeta(campo);
+        sugerencias.agregarEventos();
+        CompletableFuture.supplyAsync(fuente).whenComplete((indice, error) -> {
+            if (error != null) {
+                System.err.println("Advertencia: No se pudo preparar el índice de tarjetas para las sugerencias: "
+                        + error.getCause());
+                return;
+            }
+            SwingUtilities.invokeLater(() -> {
+                sugerencias.indice = indice;
+                if (campo.isFocusOwner()) {
+                    sugerencias.actualizar();
+                }
+            });
+        });
+    }
+
+    // ============================
+    // EVENTOS
+    // ============================
+    private void agregarEventos() {
+        campo.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                actualizar();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                actualizar();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                // Solo cambian atributos, no el texto
+            }
+        });
+
+        // Se atiende antes que la acción del campo: Enter sobre una sugerencia no intenta acceder
+        campo.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                if (!menu.isVisible()) {
+                    return;
+                }
+                int seleccion = lista.getSelectedIndex();
+                switch (e.getKeyCode()) {
+                    case KeyEvent.VK_DOWN:
+                        seleccionar(Math.min(seleccion + 1, modelo.size() - 1));
+                        break;
+                    case KeyEvent.VK_UP:
+                        seleccionar(Math.max(seleccion - 1, 0));
+                        break;
+                    case KeyEvent.VK_ENTER:
+                        if (seleccion < 0) {
+                            return;
+                        }
+                        elegir(seleccion);
+                        break;
+                    case KeyEvent.VK_ESCAPE:
+                        menu.setVisible(false);
+                        break;
+                    default:
+                        return;
+                }
+                e.consume();
+            }
+        });
+
+        campo.addFocusListener(new FocusAdapter() {
+            @Override
+            public void focusLost(FocusEvent e) {
+                menu.setVisible(false);
+            }
+        });
+
+        lista.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                int posicion = lista.locationToIndex(e.getPoint());
+                if (posicion >= 0) {
+                    elegir(posicion);
+                }
+            }
+        });
+    }
+
+    // ============================
+    // SUGERENCIAS
+    // ============================
+    /**
+     * Busca las tarjetas que empiezan por el texto del campo y muestra u
+     * oculta la lista.
+     */
+    private void actualizar() {
+        String texto = campo.getText().trim();
+        if (eligiendo || indice == null
+                || texto.length() < MINIMO_DIGITOS || texto.length() >= ValidadorTarjeta.DIGITOS) {
+            menu.setVisible(false);
+            return;
+        }
+
+        long inicio = System.nanoTime();
+        int cantidad = indice.buscar(texto, encontradas);
+        BUSQUEDAS.registrarDesde(inicio);
+        if (cantidad == 0) {
+            menu.setVisible(false);
+            return;
+        }
+
+        modelo.clear();
+        for (int i = 0; i < cantidad; i++) {
+            modelo.addElement(String.format("%0" + ValidadorTarjeta.DIGITOS + "d", encontradas[i]));
+        }
+        lista.setVisibleRowCount(cantidad);
+        lista.clearSelection();
+        if (menu.isVisible()) {
+            menu.pack();
+        } else {
+            menu.show(campo, 0, campo.getHeight());
+        }
+    }
+
+    private void seleccionar(int posicion) {
+        lista.setSelectedIndex(posicion);
+        lista.ensureIndexIsVisible(posicion);
+    }
+
+    private void elegir(int posicion) {
+        eligiendo = true;
+        try {
+            campo.setText(modelo.get(posicion));
+        } finally {
+            eligiendo = false;
+        }
+        menu.setVisible(false);
+        campo.requestFocusInWindow();
+    }
+}
@@ -0,0 +1,248 @@
+package transporte.ui;
+
+import transporte.metricas.HistogramaLatencia;
+import transporte.metricas.Metricas;
+import transporte.recarga.EjecutorRecargas;
+import transporte.recarga.ResultadoRecarga;
+import transporte.recarga.ServicioRecarga;
+import transporte.recarga.TipoBono;
+import transporte.tarifa.Perfil;
+import transporte.tarjeta.ValidadorTarjeta;
+
+import javax.swing.*;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Recarga en curso lanzada desde una vista Swing.
+ *
+ * La recarga se ejecuta en {@link EjecutorRecargas#compartido()}, de modo que el
+ * hilo de eventos solo lanza la tarea y recibe el resultado. Si la recarga no
+ * termina antes de {@link #TIEMPO_MAXIMO_MS} o el usuario la cancela, se
+ * interrumpe la tarea, pero hasta que la tarea no acaba no se sabe si la
+ * recarga llegó a aplicarse: el receptor recibe primero
+ * {@link Receptor#recargaCancelando} y, cuando la tarea acaba,
+ * {@link Receptor#recargaCancelada} con lo que realmente pasó. Si tras
+ * cancelarla la tarea sigue sin acabar otro {@link #TIEMPO_MAXIMO_MS}, se
+ * avisa con {@link Receptor#recargaIncierta} para que la vista no se quede
+ * esperando, y el desenlace llega igualmente cuando la tarea acaba.
+ * Cuando la vista pasa a otra sesión, {@link #desvincular} deja la tarea sin
+ * receptor para que sus avisos no lleguen a la sesión nueva.
+ *
+ * Todos los métodos y avisos al receptor se ejecutan en el hilo de eventos.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public final class TareaRecarga {
+
+    // Tiempo máximo de espera de una recarga (se puede cambiar con -Dbono.recarga.tiempoMaximo=ms)
+    public static final int TIEMPO_MAXIMO_MS = Integer.getInteger("bono.recarga.tiempoMaximo", 15000);
+
+    // Tiempo que ve el usuario: desde que confirma la recarga hasta que recibe el resultado
+    private static final HistogramaLatencia[] LATENCIAS = new HistogramaLatencia[TipoBono.values().length];
+    private static final String CANCELADAS = "bono_ui_recargas_canceladas_total";
+    private static final String AYUDA_CANCELADAS = "Recargas de la interfaz canceladas por el usuario o por tiempo";
+    private static final LongAdder CANCELADAS_USUARIO =
+            Metricas.global().contador(CANCELADAS, AYUDA_CANCELADAS, "motivo", "usuario");
+    private static final LongAdder CANCELADAS_TIEMPO =
+            Metricas.global().contador(CANCELADAS, AYUDA_CANCELADAS, "motivo", "tiempo");
+
+    static {
+        for (TipoBono tipo : TipoBono.values()) {
+            LATENCIAS[tipo.ordinal()] = Metricas.global().histograma("bono_ui_recarga_segundos",
+                    "Tiempo desde que se confirma una recarga en la interfaz hasta que se muestra el resultado",
+                    "tipo", tipo.name());
+        }
+    }
+
+    /**
+     * Recibe el final de la recarga en el hilo de eventos.
+     */
+    public interface Receptor {
+
+        void recargaTerminada(ResultadoRecarga resultado);
+
+        /**
+         * Se ha pedido cancelar la recarga, pero la tarea aún no ha acabado y
+         * no se sabe si se aplicará.
+         *
+         * @param porTiempo si se cancela por superar el tiempo máximo
+         */
+        void recargaCancelando(boolean porTiempo);
+
+        /**
+         * La tarea de una recarga cancelada ha acabado.
+         *
+         * @param aplicada  si la recarga llegó a aplicarse pese a cancelarla
+         * @param porTiempo si se canceló por superar el tiempo máximo
+         */
+        void recargaCancelada(boolean aplicada, boolean porTiempo);
+
+        /**
+         * La recarga cancelada sigue sin acabar: no se sabe si se aplicará.
+         * Cuando acabe se llamará a {@link #recargaCancelada}.
+         */
+        void recargaIncierta();
+    }
+
+    // Receptor de una tarea desvinculada de su vista: descarta los avisos
+    private static final Receptor SIN_RECEPTOR = new Receptor() {
+        @Override
+        public void recargaTerminada(ResultadoRecarga resultado) {
+        }
+
+        @Override
+        public void recargaCancelando(boolean porTiempo) {
+        }
+
+        @Override
+        public void recargaCancelada(boolean aplicada, boolean porTiempo) {
+        }
+
+        @Override
+        public void recargaIncierta() {
+        }
+    };
+
+    private final ServicioRecarga servicio;
+    private final String numeroTarjeta;
+    private final TipoBono tipo;
+    private final int mes;
+    private Receptor receptor;
+    private final boolean yaRecargada;
+
+    private final Timer temporizador;
+    private final long inicio = System.nanoTime();
+    private Future<?> futuro;
+    // La tarea ha empezado a ejecutarse, o ya no se ejecutará porque se canceló antes
+    private final AtomicBoolean empezada = new AtomicBoolean();
+    private boolean terminada;
+    private boolean cancelada;
+    private boolean porTiempo;
+    private boolean incierta;
+
+    private TareaRecarga(ServicioRecarga servicio, String numeroTarjeta, TipoBono tipo, int mes,
+                         Receptor receptor) {
+        this.servicio = servicio;
+        this.numeroTarjeta = numeroTarjeta;
+        this.tipo = tipo;
+        this.mes = mes;
+        this.receptor = receptor;
+        this.yaRecargada = estaRecargada();
+        this.temporizador = new Timer(TIEMPO_MAXIMO_MS, e -> vencer());
+        this.temporizador.setRepeats(false);
+    }
+
+    /**
+     * Lanza la recarga en segundo plano. Debe llamarse desde el hilo de eventos.
+     *
+     * @param token identifica la petición: si se reintenta con el mismo token
+     *              (por ejemplo tras agotarse el tiempo) no se cobra dos veces
+     */
+    public static TareaRecarga iniciar(ServicioRecarga servicio, String numeroTarjeta, TipoBono tipo,
+                                       int mes, Perfil perfil, String token, Receptor receptor) {
+        TareaRecarga tarea = new TareaRecarga(servicio, numeroTarjeta, tipo, mes, receptor);
+        tarea.futuro = EjecutorRecargas.compartido().submit(() -> {
+            if (!tarea.empezada.compareAndSet(false, true)) {
+                return;
+            }
+            ResultadoRecarga resultado = null;
+            try {
+                resultado = servicio.recargar(numeroTarjeta, tipo, mes, perfil, token);
+            } finally {
+                // También si se canceló: solo ahora se sabe si la recarga se aplicó
+                ResultadoRecarga obtenido = resultado;
+                SwingUtilities.invokeLater(() -> tarea.terminar(obtenido));
+            }
+        });
+        tarea.temporizador.start();
+        return tarea;
+    }
+
+    /**
+     * Cancela la recarga si sigue en curso.
+     */
+    public void cancelar() {
+        cancelar(false);
+    }
+
+    /**
+     * Deja de avisar al receptor: la vista ha pasado a otra sesión y no debe
+     * recibir el desenlace de esta recarga. La tarea sigue su curso, y si no
+     * acaba a tiempo se cancela igualmente.
+     */
+    public void desvincular() {
+        receptor = SIN_RECEPTOR;
+    }
+
+    /**
+     * Indica si la vista ya no tiene que esperar a la recarga: ha acabado o,
+     * cancelada, lleva demasiado sin acabar.
+     */
+    public boolean isTerminada() {
+        return terminada || incierta;
+    }
+
+    // ============================
+    // MÉTODOS AUXILIARES
+    // ============================
+    /**
+     * Recibe el final de la tarea, con {@code null} si no se llegó a
+     * ejecutar o falló.
+     */
+    private void terminar(ResultadoRecarga resultado) {
+        if (terminada) {
+            return;
+        }
+        terminada = true;
+        temporizador.stop();
+        if (!cancelada && resultado != null) {
+            LATENCIAS[tipo.ordinal()].registrarDesde(inicio);
+            receptor.recargaTerminada(resultado);
+            return;
+        }
+        if (resultado == null && !cancelada) {
+            System.err.println("Error: La recarga en segundo plano de la tarjeta " + numeroTarjeta
+                    + " terminó sin resultado");
+        }
+        // La tarea ha acabado: la tabla ya no va a cambiar por ella
+        boolean aplicada = resultado != null ? resultado.isCorrecta() : !yaRecargada && estaRecargada();
+        receptor.recargaCancelada(aplicada, porTiempo);
+    }
+
+    private void vencer() {
+        if (cancelada) {
+            // Cancelada y sin acabar otro tiempo máximo: dejar de esperarla en la vista
+            incierta = true;
+            receptor.recargaIncierta();
+        } else {
+            cancelar(true);
+        }
+    }
+
+    private void cancelar(boolean porTiempo) {
+        if (terminada || cancelada) {
+            return;
+        }
+        cancelada = true;
+        this.porTiempo = porTiempo;
+        (porTiempo ? CANCELADAS_TIEMPO : CANCELADAS_USUARIO).increment();
+        if (empezada.compareAndSet(false, true)) {
+            // No había empezado y ya no empezará: seguro que no se ha aplicado
+            futuro.cancel(false);
+            terminar(null);
+            return;
+        }
+        futuro.cancel(true);
+        receptor.recargaCancelando(porTiempo);
+        temporizador.restart();
+    }
+
+    /**
+     * Consulta de la tabla de tarjetas sin bloqueo: no detiene el hilo de eventos.
+     */
+    private boolean estaRecargada() {
+        return servicio.estaRecargada(ValidadorTarjeta.parsear(numeroTarjeta), tipo, mes);
+    }
+}
@@ -0,0 +1,224 @@
+package transporte.ui;
+
+import javax.swing.BorderFactory;
+import javax.swing.border.Border;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tema visual compartido por las tres pantallas: paletas de colores del
+ * login, de Tussam y del Metro, fuentes y bordes.
+ *
+ * Las fuentes de la aplicación están pensadas para Windows ("Segoe UI" y
+ * "Segoe UI Emoji"). En otros sistemas pedir una familia que no existe obliga
+ * a Java a buscarla y sustituirla cada vez, así que aquí la familia se elige
+ * una sola vez, la primera instalada de una lista de alternativas, y cada
+ * combinación de estilo y tamaño se crea también una sola vez. Los bordes son
+ * inmutables y se comparten igual entre componentes y ventanas.
+ *
+ * <pre>
+ *   lblTitulo.setFont(Tema.fuente(Font.BOLD, 32));
+ *   panel.setBorder(Tema.borde(Tema.Tussam.ROJO, 2, 20, 20, 20, 20));
+ * </pre>
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public final class Tema {
+
+    // ============================
+    // COLORES COMUNES
+    // ============================
+    public static final Color BLANCO = Color.WHITE;
+    public static final Color GRIS_OSCURO = new Color(51, 51, 51);
+    public static final Color GRIS_CLARO = new Color(200, 200, 200);
+    public static final Color GRIS_TEXTO = new Color(100, 100, 100);
+    public static final Color GRIS_TEXTO_OSCURO = new Color(80, 80, 80);
+    public static final Color GRIS_BOTON = new Color(128, 128, 128);
+    public static final Color GRIS_BOTON_HOVER = new Color(100, 100, 100);
+
+    /**
+     * Paleta del login (colores del Ayuntamiento de Sevilla).
+     */
+    public static final class Login {
+        public static final Color NARANJA = new Color(244, 123, 32);
+        public static final Color AZUL_OSCURO = new Color(0, 51, 102);
+        public static final Color FONDO = new Color(245, 245, 250);
+        // Mensajes de validación bajo el formulario
+        public static final Color ERROR = new Color(190, 30, 45);
+        public static final Color CORRECTO = new Color(0, 120, 60);
+
+        private Login() {
+        }
+    }
+
+    /**
+     * Paleta corporativa de Tussam (naranja y rojo).
+     */
+    public static final class Tussam {
+        public static final Color NARANJA = new Color(255, 140, 0);
+        public static final Color ROJO = new Color(220, 50, 50);
+        public static final Color NARANJA_CLARO = new Color(255, 180, 100);
+        public static final Color FONDO = new Color(255, 250, 245);
+        public static final Color CREMA = new Color(255, 245, 230);
+
+        private Tussam() {
+        }
+    }
+
+    /**
+     * Paleta del Metro de Sevilla (verdes).
+     */
+    public static final class Metro {
+        public static final Color VERDE_CLARO = new Color(102, 204, 102);
+        public static final Color VERDE_OSCURO = new Color(0, 120, 74);
+        public static final Color VERDE_MUY_CLARO = new Color(240, 255, 240);
+        public static final Color FONDO = new Color(250, 255, 250);
+
+        private Metro() {
+        }
+    }
+
+    // ============================
+    // FAMILIAS DE FUENTES
+    // ============================
+    // En orden de preferencia: la de Windows, las habituales en Linux y macOS y la lógica de Java
+    private static final String[] ALTERNATIVAS_TEXTO = {
+            "Segoe UI", "Noto Sans", "Ubuntu", "Cantarell", "DejaVu Sans", "Liberation Sans",
+            "Helvetica Neue", "Arial", Font.SANS_SERIF};
+    private static final String[] ALTERNATIVAS_EMOJI = {
+            "Segoe UI Emoji", "Noto Color Emoji", "Apple Color Emoji", "Noto Emoji", "Symbola"};
+    // Emojis que usan las pantallas: la fuente elegida debe poder dibujarlos
+    private static final String MUESTRA_EMOJI = "🏛🚌🚄📅";
+    // Texto con el que se fuerza la carga de los glifos habituales al precargar
+    private static final String MUESTRA_TEXTO = "Recarga de Bonos ÁÉÍÓÚáéíóúÑñ 0123456789 €";
+    // Tamaños que usan las pantallas, para precargarlos
+    private static final int[] TAMANOS = {12, 13, 14, 15, 16, 18, 22, 28, 32};
+
+    private static final String FAMILIA_TEXTO;
+    private static final String FAMILIA_EMOJI;
+
+    static {
+        Set<String> instaladas = new HashSet<>(Arrays.asList(
+                GraphicsEnvironment.getLocalGraphicsEnvironment().getAvailableFontFamilyNames()));
+        FAMILIA_TEXTO = elegir(ALTERNATIVAS_TEXTO, instaladas, null);
+        String emoji = elegir(ALTERNATIVAS_EMOJI, instaladas, MUESTRA_EMOJI);
+        FAMILIA_EMOJI = emoji != null ? emoji : FAMILIA_TEXTO;
+    }
+
+    private static final ConcurrentHashMap<Integer, Font> FUENTES = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Border> BORDES = new ConcurrentHashMap<>();
+
+    private Tema() {
+    }
+
+    // ============================
+    // FUENTES
+    // ============================
+    /**
+     * Fuente de texto con el estilo ({@link Font#PLAIN}, {@link Font#BOLD},
+     * {@link Font#ITALIC}) y el tamaño en puntos indicados.
+     */
+    public static Font fuente(int estilo, int tamano) {
+        return FUENTES.computeIfAbsent(estilo << 16 | tamano, clave -> new Font(FAMILIA_TEXTO, estilo, tamano));
+    }
+
+    /**
+     * Fuente para los emojis decorativos, del tamaño indicado. Si no hay
+     * ninguna fuente de emojis instalada es la de texto.
+     */
+    public static Font fuenteEmoji(int tamano) {
+        return FUENTES.computeIfAbsent(1 << 30 | tamano, clave -> new Font(FAMILIA_EMOJI, Font.PLAIN, tamano));
+    }
+
+    public static String getFamiliaTexto() {
+        return FAMILIA_TEXTO;
+    }
+
+    public static String getFamiliaEmoji() {
+        return FAMILIA_EMOJI;
+    }
+
+    // ============================
+    // BORDES
+    // ============================
+    /**
+     * Línea del color y grosor indicados con un margen interior.
+     */
+    public static Border borde(Color linea, int grosor, int arriba, int izquierda, int abajo, int derecha) {
+        // Las partes se obtienen antes: computeIfAbsent no admite modificar el mapa desde dentro
+        Border exterior = linea(linea, grosor);
+        Border interior = margen(arriba, izquierda, abajo, derecha);
+        return BORDES.computeIfAbsent(clave(linea, grosor, arriba, izquierda, abajo, derecha),
+                clave -> BorderFactory.createCompoundBorder(exterior, interior));
+    }
+
+    /**
+     * Línea del color y grosor indicados.
+     */
+    public static Border linea(Color linea, int grosor) {
+        return BORDES.computeIfAbsent(clave(linea, grosor),
+                clave -> BorderFactory.createLineBorder(linea, grosor));
+    }
+
+    /**
+     * Margen vacío.
+     */
+    public static Border margen(int arriba, int izquierda, int abajo, int derecha) {
+        return BORDES.computeIfAbsent(clave(null, 0, arriba, izquierda, abajo, derecha),
+                clave -> BorderFactory.createEmptyBorder(arriba, izquierda, abajo, derecha));
+    }
+
+    // ============================
+    // PRECARGA
+    // ============================
+    /**
+     * Elige las familias (la primera llamada recorre las fuentes instaladas)
+     * y crea las fuentes de los tamaños que usan las pantallas con sus
+     * glifos habituales. Pensado para llamarse en segundo plano al arrancar.
+     */
+    public static void precargar() {
+        Graphics2D g = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+        for (int tamano : TAMANOS) {
+            for (int estilo : new int[]{Font.PLAIN, Font.BOLD, Font.ITALIC}) {
+                g.getFontMetrics(fuente(estilo, tamano)).stringWidth(MUESTRA_TEXTO);
+            }
+        }
+        g.getFontMetrics(fuenteEmoji(48)).stringWidth(MUESTRA_EMOJI);
+        g.dispose();
+    }
+
+    // ============================
+    // MÉTODOS AUXILIARES
+    // ============================
+    /**
+     * Primera familia instalada de la lista que pueda dibujar {@code muestra}
+     * (si se indica), o la última de la lista si no hay muestra; {@code null}
+     * si ninguna sirve.
+     */
+    private static String elegir(String[] alternativas, Set<String> instaladas, String muestra) {
+        for (String familia : alternativas) {
+            if (!instaladas.contains(familia)) {
+                continue;
+            }
+            if (muestra == null || new Font(familia, Font.PLAIN, 12).canDisplayUpTo(muestra) == -1) {
+                return familia;
+            }
+        }
+        return muestra == null ? alternativas[alternativas.length - 1] : null;
+    }
+
+    private static String clave(Color color, int... medidas) {
+        StringBuilder clave = new StringBuilder(color == null ? "-" : Integer.toHexString(color.getRGB()));
+        for (int medida : medidas) {
+            clave.append(':').append(medida);
+        }
+        return clave.toString();
+    }
+}
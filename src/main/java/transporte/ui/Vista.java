@@ -0,0 +1,35 @@
+package transporte.ui;
+
+import java.awt.Dimension;
+import java.awt.Image;
+
+/**
+ * Pantalla que se muestra dentro de la ventana principal.
+ * Cada vista se construye una sola vez y se reutiliza en todas las sesiones;
+ * la ventana toma de ella el título, el icono y el tamaño mínimo.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public interface Vista {
+
+    /**
+     * Título de la ventana mientras se muestra la vista.
+     */
+    String getTitulo();
+
+    /**
+     * Icono de la ventana mientras se muestra la vista ({@code null} si no hay).
+     */
+    Image getIconoVentana();
+
+    /**
+     * Tamaño mínimo de la ventana para esta vista.
+     */
+    Dimension getTamanoMinimo();
+
+    /**
+     * Se llama al intentar cerrar la ventana. Devuelve {@code true} si la
+     * aplicación puede terminar.
+     */
+    boolean confirmarCierre();
+}
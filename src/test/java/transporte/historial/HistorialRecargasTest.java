@@ -0,0 +1,172 @@
+package transporte.historial;
+
+import junit.framework.TestCase;
+import transporte.persistencia.DiarioRecargas;
+import transporte.recarga.TipoBono;
+import transporte.tarjeta.ValidadorTarjeta;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Pruebas del historial por columnas: las recargas del diario se compactan en
+ * bloques que, vueltos a abrir, dan las mismas sumas por tipo y mes que el
+ * diario, y una compactación posterior solo añade las recargas nuevas.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public class HistorialRecargasTest extends TestCase {
+
+    private static final int MESES = 12;
+    private static final int FILAS_POR_BLOQUE = 1_000;
+    private static final long INICIO = 1_700_000_000_000L;
+    private static final long MINUTO = 60_000L;
+
+    private Path directorio;
+    private Path diario;
+    private Path historial;
+
+    // Lo escrito en el diario, por ordinal del tipo * 12 + mes
+    private final long[] recargas = new long[TipoBono.values().length * MESES];
+    private final long[] importes = new long[TipoBono.values().length * MESES];
+
+    @Override
+    protected void setUp() throws IOException {
+        directorio = Files.createTempDirectory("bono-historial-");
+        diario = directorio.resolve("diario");
+        historial = directorio.resolve("historial");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        try (Stream<Path> rutas = Files.walk(directorio)) {
+            for (Path ruta : (Iterable<Path>) rutas.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(ruta);
+            }
+        }
+    }
+
+    public void testCompactarYAgrupar() throws IOException {
+        escribir(0, 2_500);
+        assertEquals(2_500, HistorialRecargas.compactar(diario, historial, FILAS_POR_BLOQUE));
+
+        HistorialRecargas abierto = HistorialRecargas.abrir(historial);
+        assertEquals(3, abierto.getNumeroBloques());
+        assertEquals(2_500, abierto.getFilas());
+        assertEquals(2_500, abierto.getUltimaSecuencia());
+        assertResumen(abierto.consulta().agrupar());
+    }
+
+    public void testFiltros() throws IOException {
+        escribir(0, 2_500);
+        HistorialRecargas.compactar(diario, historial, FILAS_POR_BLOQUE);
+        HistorialRecargas abierto = HistorialRecargas.abrir(historial);
+
+        ResumenHistorial metroMarzo = abierto.consulta().tipo(TipoBono.METRO).mes(2).agrupar();
+        assertEquals(recargas[TipoBono.METRO.ordinal() * MESES + 2], metroMarzo.getRecargas());
+        assertEquals(importes[TipoBono.METRO.ordinal() * MESES + 2], metroMarzo.getImporte());
+        assertEquals(0, metroMarzo.getRecargas(TipoBono.BUS));
+        assertEquals(0, metroMarzo.getRecargas(TipoBono.METRO, 3));
+
+        // Intervalo semiabierto de marcas de tiempo, que cruza de un bloque a otro
+        assertEquals(200, abierto.consulta().entre(marca(900), marca(1_100)).contar());
+        // Las recargas i, i + 400, i + 800... son de la misma tarjeta
+        assertEquals(7, abierto.consulta().tarjeta(tarjeta(7)).contar());
+        assertEquals(0, abierto.consulta().tarjeta(tarjeta(7)).entre(marca(2_500), Long.MAX_VALUE).contar());
+
+        try {
+            abierto.consulta().mes(12);
+            fail("Se esperaba IllegalArgumentException");
+        } catch (IllegalArgumentException esperada) {
+            // correcto
+        }
+    }
+
+    public void testCompactacionIncremental() throws IOException {
+        escribir(0, 2_500);
+        HistorialRecargas.compactar(diario, historial, FILAS_POR_BLOQUE);
+        assertEquals(0, HistorialRecargas.compactar(diario, historial, FILAS_POR_BLOQUE));
+
+        // El último bloque estaba a medias: se vuelve a escribir con las nuevas
+        escribir(2_500, 2_800);
+        assertEquals(300, HistorialRecargas.compactar(diario, historial, FILAS_POR_BLOQUE));
+        HistorialRecargas abierto = HistorialRecargas.abrir(historial);
+        assertEquals(3, abierto.getNumeroBloques());
+        assertEquals(2_800, abierto.getFilas());
+        assertEquals(2_800, abierto.getUltimaSecuencia());
+        assertResumen(abierto.consulta().agrupar());
+
+        escribir(2_800, 3_200);
+        assertEquals(400, HistorialRecargas.compactar(diario, historial, FILAS_POR_BLOQUE));
+        abierto = HistorialRecargas.abrir(historial);
+        assertEquals(4, abierto.getNumeroBloques());
+        assertResumen(abierto.consulta().agrupar());
+    }
+
+    public void testTexto() throws IOException {
+        escribir(0, 100);
+        HistorialRecargas.compactar(diario, historial, FILAS_POR_BLOQUE);
+        String texto = HistorialRecargas.abrir(historial).consulta().agrupar().texto();
+        assertTrue(texto, texto.contains("BUS"));
+        assertTrue(texto, texto.contains("METRO"));
+        assertTrue(texto, texto.contains("Enero"));
+        assertTrue(texto, texto.contains("Diciembre"));
+    }
+
+    public void testHistorialVacio() throws IOException {
+        assertEquals(0, HistorialRecargas.compactar(diario, historial, FILAS_POR_BLOQUE));
+        HistorialRecargas abierto = HistorialRecargas.abrir(historial);
+        assertEquals(0, abierto.getNumeroBloques());
+        assertEquals(0, abierto.getUltimaSecuencia());
+        assertEquals(0, abierto.consulta().contar());
+    }
+
+    // ============================
+    // MÉTODOS AUXILIARES
+    // ============================
+    /**
+     * Escribe en el diario las recargas de {@code desde} a {@code hasta} (sin
+     * incluir) y las suma en los totales esperados.
+     */
+    private void escribir(int desde, int hasta) throws IOException {
+        try (DiarioRecargas escritor = new DiarioRecargas(diario)) {
+            long ultima = 0;
+            for (int i = desde; i < hasta; i++) {
+                TipoBono tipo = i % 3 == 0 ? TipoBono.METRO : TipoBono.BUS;
+                int mes = i % MESES;
+                int importe = 1_000 + (i % 5) * 10;
+                ultima = escritor.anadir(tarjeta(i % 400), tipo, mes, importe, marca(i));
+                recargas[tipo.ordinal() * MESES + mes]++;
+                importes[tipo.ordinal() * MESES + mes] += importe;
+            }
+            escritor.esperarDuradero(ultima);
+        }
+    }
+
+    private void assertResumen(ResumenHistorial resumen) {
+        long total = 0;
+        long importe = 0;
+        for (TipoBono tipo : TipoBono.values()) {
+            for (int mes = 0; mes < MESES; mes++) {
+                int celda = tipo.ordinal() * MESES + mes;
+                assertEquals(tipo + " " + mes, recargas[celda], resumen.getRecargas(tipo, mes));
+                assertEquals(tipo + " " + mes, importes[celda], resumen.getImporte(tipo, mes));
+                total += recargas[celda];
+                importe += importes[celda];
+            }
+        }
+        assertEquals(total, resumen.getRecargas());
+        assertEquals(importe, resumen.getImporte());
+    }
+
+    private static long tarjeta(long n) {
+        return ValidadorTarjeta.completar(40_000_000_000L + n);
+    }
+
+    private static long marca(int i) {
+        return INICIO + i * MINUTO;
+    }
+}
@@ -0,0 +1,129 @@
+package transporte.importacion;
+
+import junit.framework.TestCase;
+import transporte.recarga.ResultadoRecarga;
+import transporte.recarga.ServicioRecarga;
+import transporte.recarga.TipoBono;
+import transporte.tarjeta.ValidadorTarjeta;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Pruebas de la importación masiva: cada fila del fichero recibe su resultado
+ * en el informe, en el orden de la entrada, con las mismas reglas que una
+ * recarga desde las ventanas.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public class ImportadorMasivoTest extends TestCase {
+
+    private Path directorio;
+    private Path entrada;
+    private Path informe;
+    private ServicioRecarga servicio;
+
+    @Override
+    protected void setUp() throws IOException {
+        directorio = Files.createTempDirectory("bono-importacion-");
+        entrada = directorio.resolve("entrada.csv");
+        informe = directorio.resolve("informe.csv");
+        servicio = new ServicioRecarga();
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        try (Stream<Path> rutas = Files.walk(directorio)) {
+            for (Path ruta : (Iterable<Path>) rutas.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(ruta);
+            }
+        }
+    }
+
+    public void testResultadoPorFila() throws IOException {
+        String tarjeta = numero(1);
+        escribirEntrada(
+                "tarjeta,tipo,mes",
+                tarjeta + ",BUS,3",
+                "",
+                tarjeta + ",BUS,3",
+                tarjeta + ",METRO,4",
+                numero(2) + ",BonoMetro,12",
+                "123456789012,BUS,1",
+                numero(3) + ",TREN,1",
+                numero(4) + ",BUS,13",
+                numero(5) + ",BUS",
+                numero(6) + ",BUS,1,extra");
+
+        ImportadorMasivo importador = new ImportadorMasivo(servicio, 2);
+        importador.importar(entrada, informe);
+
+        List<String> lineas = Files.readAllLines(informe, StandardCharsets.UTF_8);
+        assertEquals("linea,tarjeta,tipo,mes,resultado", lineas.get(0));
+        assertEquals("2," + tarjeta + ",BUS,3,RECARGADA", lineas.get(1));
+        // La línea vacía se salta, pero la numeración sigue siendo la del fichero
+        assertEquals("4," + tarjeta + ",BUS,3,YA_RECARGADA", lineas.get(2));
+        assertEquals("5," + tarjeta + ",METRO,4,TIPO_INCOMPATIBLE", lineas.get(3));
+        assertEquals("6," + numero(2) + ",BonoMetro,12,RECARGADA", lineas.get(4));
+        assertEquals("7,123456789012,BUS,1,TARJETA_INVALIDA", lineas.get(5));
+        assertEquals("8," + numero(3) + ",TREN,1,TIPO_INVALIDO", lineas.get(6));
+        assertEquals("9," + numero(4) + ",BUS,13,MES_INVALIDO", lineas.get(7));
+        assertEquals("10,\"" + numero(5) + ",BUS\",,,FORMATO_INCORRECTO", lineas.get(8));
+        assertEquals("11,\"" + numero(6) + ",BUS,1,extra\",,,FORMATO_INCORRECTO", lineas.get(9));
+        assertEquals(10, lineas.size());
+
+        assertEquals(9, importador.getFilas());
+        assertEquals(2, importador.getFilas(ResultadoRecarga.Estado.RECARGADA));
+        assertEquals(1, importador.getFilas(ResultadoRecarga.Estado.YA_RECARGADA));
+        assertEquals(2, importador.getFormatoIncorrecto());
+        assertTrue(servicio.estaRecargada(ValidadorTarjeta.parsear(numero(2)), TipoBono.METRO, 11));
+    }
+
+    public void testVariosLotesConservanElOrden() throws IOException {
+        int filas = 25_000;
+        try (BufferedWriter escritor = Files.newBufferedWriter(entrada, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < filas; i++) {
+                escritor.write(numero(i) + "," + (i % 2 == 0 ? "BUS" : "METRO") + "," + (1 + i % 12));
+                escritor.newLine();
+            }
+        }
+
+        ImportadorMasivo importador = new ImportadorMasivo(servicio, 4);
+        importador.importar(entrada, informe);
+
+        List<String> lineas = Files.readAllLines(informe, StandardCharsets.UTF_8);
+        assertEquals(filas + 1, lineas.size());
+        for (int i = 0; i < filas; i++) {
+            assertTrue(lineas.get(i + 1), lineas.get(i + 1).startsWith((i + 1) + "," + numero(i) + ","));
+        }
+        assertEquals(filas, importador.getFilas(ResultadoRecarga.Estado.RECARGADA));
+        assertEquals(filas / 2, servicio.getRecargas(TipoBono.BUS));
+    }
+
+    public void testHilosNoValidos() {
+        try {
+            new ImportadorMasivo(servicio, 0);
+            fail("Se esperaba IllegalArgumentException");
+        } catch (IllegalArgumentException esperada) {
+            // correcto
+        }
+    }
+
+    // ============================
+    // MÉTODOS AUXILIARES
+    // ============================
+    private void escribirEntrada(String... lineas) throws IOException {
+        Files.write(entrada, Arrays.asList(lineas), StandardCharsets.UTF_8);
+    }
+
+    private static String numero(long n) {
+        return String.format("%012d", ValidadorTarjeta.completar(40_000_000_000L + n));
+    }
+}
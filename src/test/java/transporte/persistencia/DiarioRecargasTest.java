@@ -0,0 +1,260 @@
+package transporte.persistencia;
+
+import junit.framework.TestCase;
+import transporte.recarga.TipoBono;
+import transporte.tarjeta.ValidadorTarjeta;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Pruebas de recuperación del diario de recargas: tras un cierre brusco que
+ * deja un registro a medias, un registro corrupto o un segmento recién creado
+ * sin cabecera, el diario conserva los registros válidos y sigue escribiendo
+ * a continuación. Si el disco falla al volcar, quien espera el volcado recibe
+ * el error en lugar de quedarse bloqueado.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public class DiarioRecargasTest extends TestCase {
+
+    private static final int CABECERA = 64;
+    private static final int REGISTROS_POR_SEGMENTO = 4;
+    private static final int TAMANO_SEGMENTO = CABECERA + REGISTROS_POR_SEGMENTO * DiarioRecargas.TAMANO_REGISTRO;
+
+    private Path directorio;
+
+    @Override
+    protected void setUp() throws IOException {
+        directorio = Files.createTempDirectory("bono-diario-");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        try (Stream<Path> rutas = Files.walk(directorio)) {
+            for (Path ruta : (Iterable<Path>) rutas.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(ruta);
+            }
+        }
+    }
+
+    public void testLosRegistrosSobrevivenAlCierre() throws IOException {
+        escribir(10);
+
+        try (DiarioRecargas diario = new DiarioRecargas(directorio, TAMANO_SEGMENTO)) {
+            assertEquals(10, diario.getUltimaSecuencia());
+        }
+        List<long[]> leidos = leer(0);
+        assertEquals(10, leidos.size());
+        for (int i = 0; i < 10; i++) {
+            assertRegistro(leidos.get(i), i + 1);
+        }
+        // Desde una secuencia intermedia, también saltando segmentos enteros
+        assertEquals(3, leer(7).size());
+        assertEquals(8, leer(7).get(0)[0]);
+    }
+
+    public void testRegistroCortadoAlFinal() throws IOException {
+        escribir(3);
+        // Un cierre brusco a mitad del registro 3: solo llegan a disco sus primeros bytes
+        Path segmento = segmentos().get(0);
+        sobrescribir(segmento, posicion(3) + 12, new byte[DiarioRecargas.TAMANO_REGISTRO - 12]);
+
+        try (DiarioRecargas diario = new DiarioRecargas(directorio, TAMANO_SEGMENTO)) {
+            assertEquals(2, diario.getUltimaSecuencia());
+            // La escritura continúa donde estaba el registro cortado
+            assertEquals(3, diario.registrar(tarjeta(99), TipoBono.METRO, 11, 4550, 123L));
+        }
+        List<long[]> leidos = leer(0);
+        assertEquals(3, leidos.size());
+        assertEquals(tarjeta(99), leidos.get(2)[1]);
+    }
+
+    public void testRegistroConCrcIncorrecto() throws IOException {
+        escribir(REGISTROS_POR_SEGMENTO);
+        // Un bit cambiado en la tarjeta del registro 2 invalida su CRC y lo que le sigue
+        Path segmento = segmentos().get(0);
+        byte[] byteTarjeta = leerBytes(segmento, posicion(2) + 8, 1);
+        byteTarjeta[0] ^= 0x10;
+        sobrescribir(segmento, posicion(2) + 8, byteTarjeta);
+
+        assertEquals(1, leer(0).size());
+        try (DiarioRecargas diario = new DiarioRecargas(directorio, TAMANO_SEGMENTO)) {
+            assertEquals(1, diario.getUltimaSecuencia());
+            assertEquals(2, diario.registrar(tarjeta(50), TipoBono.BUS, 0, 3550, 1L));
+        }
+        assertEquals(2, leer(0).size());
+    }
+
+    public void testSegmentoFinalSinCabeceraSeDescarta() throws IOException {
+        // Dos segmentos llenos y un tercero que se estaba creando cuando se cortó la luz
+        escribir(2 * REGISTROS_POR_SEGMENTO);
+        Path aMedias = directorio.resolve(String.format("diario-%020d.seg", 2 * REGISTROS_POR_SEGMENTO + 1));
+        Files.write(aMedias, new byte[TAMANO_SEGMENTO]);
+
+        assertEquals(2 * REGISTROS_POR_SEGMENTO, leer(0).size());
+        try (DiarioRecargas diario = new DiarioRecargas(directorio, TAMANO_SEGMENTO)) {
+            assertEquals(2 * REGISTROS_POR_SEGMENTO, diario.getUltimaSecuencia());
+            assertEquals(2 * REGISTROS_POR_SEGMENTO + 1, diario.registrar(tarjeta(7), TipoBono.BUS, 5, 3550, 1L));
+        }
+        List<long[]> leidos = leer(0);
+        assertEquals(2 * REGISTROS_POR_SEGMENTO + 1, leidos.size());
+        assertEquals(tarjeta(7), leidos.get(2 * REGISTROS_POR_SEGMENTO)[1]);
+    }
+
+    public void testUnicoSegmentoVacioSeRecrea() throws IOException {
+        Files.write(directorio.resolve(String.format("diario-%020d.seg", 1)), new byte[0]);
+
+        try (DiarioRecargas diario = new DiarioRecargas(directorio, TAMANO_SEGMENTO)) {
+            assertEquals(0, diario.getUltimaSecuencia());
+            assertEquals(1, diario.registrar(tarjeta(1), TipoBono.METRO, 2, 4550, 1L));
+        }
+        assertEquals(1, leer(0).size());
+    }
+
+    public void testSoloSePuedeAbrirUnaVez() throws IOException {
+        try (DiarioRecargas diario = new DiarioRecargas(directorio, TAMANO_SEGMENTO)) {
+            try {
+                new DiarioRecargas(directorio, TAMANO_SEGMENTO).close();
+                fail("Se esperaba IOException al abrir un diario ya abierto");
+            } catch (IOException esperada) {
+                // correcto
+            }
+            // El intento fallido no suelta el cerrojo del primero
+            assertEquals(1, diario.registrar(tarjeta(1), TipoBono.BUS, 0, 3550, 1L));
+        }
+        // Cerrado, se puede volver a abrir
+        new DiarioRecargas(directorio, TAMANO_SEGMENTO).close();
+    }
+
+    public void testErrorAlVolcarDespiertaALosQueEsperan() throws Exception {
+        boolean[] fallar = {false};
+        DiarioRecargas diario = new DiarioRecargas(directorio, TAMANO_SEGMENTO) {
+            @Override
+            void volcar(MappedByteBuffer datos) {
+                if (fallar[0]) {
+                    // Así informa force() de un error del disco
+                    throw new UncheckedIOException(new IOException("No queda espacio en el dispositivo"));
+                }
+                super.volcar(datos);
+            }
+        };
+        try {
+            assertEquals(1, diario.registrar(tarjeta(1), TipoBono.BUS, 0, 3550, 1L));
+            fallar[0] = true;
+            long secuencia = diario.anadir(tarjeta(2), TipoBono.BUS, 1, 3550, 2L);
+
+            int hilos = 4;
+            CountDownLatch terminados = new CountDownLatch(hilos);
+            AtomicInteger errores = new AtomicInteger();
+            for (int i = 0; i < hilos; i++) {
+                new Thread(() -> {
+                    try {
+                        diario.esperarDuradero(secuencia);
+                    } catch (IOException esperada) {
+                        errores.incrementAndGet();
+                    } finally {
+                        terminados.countDown();
+                    }
+                }).start();
+            }
+            assertTrue("Los que esperan el volcado se han quedado bloqueados",
+                    terminados.await(10, TimeUnit.SECONDS));
+            assertEquals(hilos, errores.get());
+            try {
+                diario.anadir(tarjeta(3), TipoBono.BUS, 2, 3550, 3L);
+                fail("Se esperaba IOException al escribir tras un error de volcado");
+            } catch (IOException esperada) {
+                // correcto
+            }
+        } finally {
+            try {
+                diario.close();
+                fail("Se esperaba IOException al cerrar sin poder volcar");
+            } catch (IOException esperada) {
+                // correcto
+            }
+        }
+        // El cierre fallido suelta el cerrojo: se puede volver a abrir
+        try (DiarioRecargas reabierto = new DiarioRecargas(directorio, TAMANO_SEGMENTO)) {
+            assertTrue(reabierto.getUltimaSecuencia() >= 1);
+        }
+    }
+
+    // ============================
+    // MÉTODOS AUXILIARES
+    // ============================
+    /**
+     * Escribe {@code cantidad} registros y cierra el diario.
+     */
+    private void escribir(int cantidad) throws IOException {
+        try (DiarioRecargas diario = new DiarioRecargas(directorio, TAMANO_SEGMENTO)) {
+            for (int i = 1; i <= cantidad; i++) {
+                diario.registrar(tarjeta(i), TipoBono.values()[i % 2], i % 12, 100 * i,
+                        1_000L * i);
+            }
+        }
+    }
+
+    private List<long[]> leer(long desde) throws IOException {
+        List<long[]> leidos = new ArrayList<>();
+        DiarioRecargas.reproducir(directorio, desde, (secuencia, tarjeta, tipo, mes, importe, marcaTiempo) ->
+                leidos.add(new long[]{secuencia, tarjeta, tipo.ordinal(), mes, importe, marcaTiempo}));
+        return leidos;
+    }
+
+    private static void assertRegistro(long[] registro, int i) {
+        assertEquals(i, registro[0]);
+        assertEquals(tarjeta(i), registro[1]);
+        assertEquals(i % 2, registro[2]);
+        assertEquals(i % 12, registro[3]);
+        assertEquals(100 * i, registro[4]);
+        assertEquals(1_000L * i, registro[5]);
+    }
+
+    private static long tarjeta(long n) {
+        return ValidadorTarjeta.completar(40_000_000_000L + n);
+    }
+
+    /**
+     * Posición del registro con esa secuencia dentro de su segmento.
+     */
+    private static int posicion(long secuencia) {
+        return CABECERA + (int) ((secuencia - 1) % REGISTROS_POR_SEGMENTO) * DiarioRecargas.TAMANO_REGISTRO;
+    }
+
+    private List<Path> segmentos() throws IOException {
+        try (Stream<Path> ficheros = Files.list(directorio)) {
+            return ficheros.filter(f -> f.getFileName().toString().endsWith(".seg")).sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static void sobrescribir(Path fichero, long posicion, byte[] bytes) throws IOException {
+        try (FileChannel canal = FileChannel.open(fichero, StandardOpenOption.WRITE)) {
+            canal.write(ByteBuffer.wrap(bytes), posicion);
+        }
+    }
+
+    private static byte[] leerBytes(Path fichero, long posicion, int cantidad) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(cantidad);
+        try (FileChannel canal = FileChannel.open(fichero, StandardOpenOption.READ)) {
+            canal.read(bytes, posicion);
+        }
+        return bytes.array();
+    }
+}
@@ -0,0 +1,199 @@
+package transporte.persistencia;
+
+import junit.framework.TestCase;
+import transporte.recarga.IndiceMensual;
+import transporte.recarga.ResultadoRecarga;
+import transporte.recarga.ServicioRecarga;
+import transporte.recarga.TipoBono;
+import transporte.tarjeta.MapaBitsComprimido;
+import transporte.tarjeta.TablaTarjetas;
+import transporte.tarjeta.ValidadorTarjeta;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Pruebas de las instantáneas del registro de tarjetas: lo que se guarda se
+ * vuelve a cargar igual, una instantánea dañada se descarta en favor de la
+ * anterior, el servicio arranca desde la instantánea más la cola del diario y
+ * una recarga que aún no está en el diario no entra en la instantánea.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public class InstantaneaTarjetasTest extends TestCase {
+
+    private static final int MESES = 12;
+
+    private Path directorio;
+
+    @Override
+    protected void setUp() throws IOException {
+        directorio = Files.createTempDirectory("bono-instantanea-");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        try (Stream<Path> rutas = Files.walk(directorio)) {
+            for (Path ruta : (Iterable<Path>) rutas.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(ruta);
+            }
+        }
+    }
+
+    public void testGuardarYCargar() throws IOException {
+        TablaTarjetas tabla = rellenar(30_000);
+        IndiceMensual indice = IndiceMensual.construir(tabla);
+
+        InstantaneaTarjetas.guardar(tabla, indice.mapas(), 42, directorio);
+        InstantaneaTarjetas cargada = InstantaneaTarjetas.cargarUltima(directorio);
+
+        assertEquals(42, cargada.getSecuencia());
+        assertMismaTabla(tabla, cargada.getTarjetas());
+        IndiceMensual restaurado = IndiceMensual.restaurar(cargada.getMapas());
+        for (TipoBono tipo : TipoBono.values()) {
+            for (int mes = 0; mes < MESES; mes++) {
+                assertEquals(indice.contar(tipo, mes), restaurado.contar(tipo, mes));
+            }
+        }
+    }
+
+    public void testSinInstantanea() throws IOException {
+        assertNull(InstantaneaTarjetas.cargarUltima(directorio));
+        assertNull(InstantaneaTarjetas.cargarUltima(directorio.resolve("no-existe")));
+    }
+
+    public void testInstantaneaDanadaSeDescarta() throws IOException {
+        TablaTarjetas anterior = rellenar(1_000);
+        InstantaneaTarjetas.guardar(anterior, new MapaBitsComprimido[0], 10, directorio);
+        Path ultima = InstantaneaTarjetas.guardar(rellenar(2_000), new MapaBitsComprimido[0],
+                20, directorio);
+
+        // Un byte cambiado en las tarjetas de la última invalida su CRC
+        try (FileChannel canal = FileChannel.open(ultima, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer dato = ByteBuffer.allocate(1);
+            long posicion = canal.size() / 2;
+            canal.read(dato, posicion);
+            dato.put(0, (byte) (dato.get(0) ^ 0x01)).rewind();
+            canal.write(dato, posicion);
+        }
+
+        InstantaneaTarjetas cargada = InstantaneaTarjetas.cargarUltima(directorio);
+        assertEquals(10, cargada.getSecuencia());
+        assertMismaTabla(anterior, cargada.getTarjetas());
+    }
+
+    public void testArranqueDesdeInstantaneaYColaDelDiario() throws IOException {
+        try (ServicioRecarga servicio = ServicioRecarga.abrir(directorio)) {
+            for (int i = 0; i < 200; i++) {
+                assertEquals(ResultadoRecarga.Estado.RECARGADA,
+                        servicio.recargar(tarjeta(i), TipoBono.values()[i % 2], i % MESES).getEstado());
+            }
+            assertNotNull(servicio.guardarInstantanea());
+            // Sin recargas nuevas no se guarda otra
+            assertNull(servicio.guardarInstantanea());
+            for (int i = 200; i < 300; i++) {
+                servicio.recargar(tarjeta(i), TipoBono.values()[i % 2], i % MESES);
+            }
+        }
+
+        try (ServicioRecarga servicio = ServicioRecarga.abrir(directorio)) {
+            assertEquals(300, servicio.getNumeroTarjetas());
+            for (int i = 0; i < 300; i++) {
+                assertTrue("tarjeta " + i, servicio.estaRecargada(tarjeta(i), TipoBono.values()[i % 2], i % MESES));
+            }
+            assertEquals(25, servicio.contarTarjetas(TipoBono.BUS, 0));
+            // Y sigue escribiendo a continuación
+            assertEquals(ResultadoRecarga.Estado.YA_RECARGADA,
+                    servicio.recargar(tarjeta(0), TipoBono.BUS, 0).getEstado());
+        }
+    }
+
+    public void testRecargaEnCursoNoEntraEnLaInstantanea() throws Exception {
+        long enCurso = tarjeta(1_000);
+        CountDownLatch escribiendo = new CountDownLatch(1);
+        CountDownLatch soltar = new CountDownLatch(1);
+        // Diario que se detiene al escribir la recarga en curso y luego falla
+        DiarioRecargas diario = new DiarioRecargas(directorio) {
+            @Override
+            public long anadir(long tarjeta, TipoBono tipo, int mes, int importe, long marcaTiempo)
+                    throws IOException {
+                if (tarjeta != enCurso) {
+                    return super.anadir(tarjeta, tipo, mes, importe, marcaTiempo);
+                }
+                escribiendo.countDown();
+                try {
+                    soltar.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IOException("No queda espacio en el dispositivo");
+            }
+        };
+        ExecutorService hilo = Executors.newSingleThreadExecutor();
+        try (ServicioRecarga servicio = new ServicioRecarga(new TablaTarjetas(), diario)) {
+            for (int i = 0; i < 10; i++) {
+                servicio.recargar(tarjeta(i), TipoBono.BUS, 3);
+            }
+            Future<ResultadoRecarga> recarga = hilo.submit(() -> servicio.recargar(enCurso, TipoBono.BUS, 3));
+            assertTrue(escribiendo.await(10, TimeUnit.SECONDS));
+            // Ya está aplicada en la tabla, pero aún no en el diario
+            assertTrue(servicio.estaRecargada(enCurso, TipoBono.BUS, 3));
+
+            assertNotNull(servicio.guardarInstantanea());
+            soltar.countDown();
+            assertEquals(ResultadoRecarga.Estado.ERROR_PERSISTENCIA,
+                    recarga.get(10, TimeUnit.SECONDS).getEstado());
+        } finally {
+            soltar.countDown();
+            hilo.shutdown();
+        }
+
+        InstantaneaTarjetas cargada = InstantaneaTarjetas.cargarUltima(directorio);
+        assertEquals(10, cargada.getSecuencia());
+        assertEquals(10, cargada.getTarjetas().tamano());
+        assertEquals(TablaTarjetas.AUSENTE, cargada.getTarjetas().obtener(enCurso));
+        assertEquals(10, IndiceMensual.restaurar(cargada.getMapas()).contar(TipoBono.BUS, 3));
+
+        try (ServicioRecarga servicio = ServicioRecarga.abrir(directorio)) {
+            assertFalse(servicio.estaRecargada(enCurso, TipoBono.BUS, 3));
+            assertEquals(ResultadoRecarga.Estado.RECARGADA,
+                    servicio.recargar(enCurso, TipoBono.BUS, 3).getEstado());
+        }
+    }
+
+    // ============================
+    // MÉTODOS AUXILIARES
+    // ============================
+    private static long tarjeta(long n) {
+        return ValidadorTarjeta.completar(40_000_000_000L + n * 31);
+    }
+
+    private static TablaTarjetas rellenar(int cantidad) {
+        TablaTarjetas tabla = new TablaTarjetas();
+        for (int i = 0; i < cantidad; i++) {
+            int datos = TablaTarjetas.registro(1 + i % 2, 1 + (i * 37) % 0xFFF);
+            tabla.modificar(tarjeta(i), registro -> datos);
+        }
+        return tabla;
+    }
+
+    private static void assertMismaTabla(TablaTarjetas esperada, TablaTarjetas actual) {
+        assertEquals(esperada.tamano(), actual.tamano());
+        esperada.recorrer((tarjeta, registro) -> {
+            int cargado = actual.obtener(tarjeta);
+            assertEquals(TablaTarjetas.tipo(registro), TablaTarjetas.tipo(cargado));
+            assertEquals(TablaTarjetas.meses(registro), TablaTarjetas.meses(cargado));
+        });
+    }
+}
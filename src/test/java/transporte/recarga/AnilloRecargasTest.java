@@ -0,0 +1,176 @@
+package transporte.recarga;
+
+import junit.framework.TestCase;
+import transporte.persistencia.DiarioRecargas;
+import transporte.tarjeta.TablaTarjetas;
+import transporte.tarjeta.ValidadorTarjeta;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.Stream;
+
+/**
+ * Pruebas de contrapresión del anillo de recargas: con todas las ranuras
+ * ocupadas no se puede reservar otra, el servicio rechaza la recarga como
+ * {@link ResultadoRecarga.Estado#SATURADA} sin aplicarla y una recarga que
+ * falla tras reservar no detiene a las siguientes.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public class AnilloRecargasTest extends TestCase {
+
+    private static final String PROPIEDAD_ANILLO = "bono.anillo.capacidad";
+
+    private Path directorio;
+
+    @Override
+    protected void setUp() throws IOException {
+        directorio = Files.createTempDirectory("bono-anillo-");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        System.clearProperty(PROPIEDAD_ANILLO);
+        try (Stream<Path> rutas = Files.walk(directorio)) {
+            for (Path ruta : (Iterable<Path>) rutas.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(ruta);
+            }
+        }
+    }
+
+    public void testAnilloLlenoNoReserva() {
+        CountDownLatch continuar = new CountDownLatch(1);
+        try (AnilloRecargas anillo = new AnilloRecargas(2, EstrategiaEspera.BLOQUEO)
+                .etapa("lenta", (a, desde, hasta) -> esperar(continuar))
+                .iniciar()) {
+            long primera = anillo.intentarReservar();
+            long segunda = anillo.intentarReservar();
+            assertTrue(primera >= 0 && segunda >= 0);
+            anillo.publicar(primera, tarjeta(1), TipoBono.BUS, 0, 3550, 1L, true);
+            anillo.publicar(segunda, tarjeta(2), TipoBono.BUS, 0, 3550, 1L, true);
+
+            assertEquals(-1, anillo.intentarReservar());
+            long inicio = System.nanoTime();
+            assertEquals(-1, anillo.reservar(50, TimeUnit.MILLISECONDS));
+            assertTrue(System.nanoTime() - inicio >= TimeUnit.MILLISECONDS.toNanos(50));
+
+            // Cuando la etapa termina y se libera una ranura, se puede volver a reservar
+            continuar.countDown();
+            anillo.esperar(primera);
+            anillo.liberar(primera);
+            long tercera = anillo.reservar(10, TimeUnit.SECONDS);
+            assertTrue(tercera >= 0);
+            anillo.publicarVacia(tercera);
+            anillo.esperar(segunda);
+            anillo.liberar(segunda);
+            anillo.esperar(tercera);
+            anillo.liberar(tercera);
+        } finally {
+            continuar.countDown();
+        }
+    }
+
+    public void testServicioSaturadoRechazaSinAplicar() throws Exception {
+        CountDownLatch continuar = new CountDownLatch(1);
+        DiarioRecargas diarioLento = new DiarioRecargas(directorio) {
+            @Override
+            public long anadir(long tarjeta, TipoBono tipo, int mes, int importe, long marcaTiempo)
+                    throws IOException {
+                esperar(continuar);
+                return super.anadir(tarjeta, tipo, mes, importe, marcaTiempo);
+            }
+        };
+        System.setProperty(PROPIEDAD_ANILLO, "2");
+        ServicioRecarga servicio = new ServicioRecarga(new TablaTarjetas(), diarioLento);
+        ExecutorService ejecutor = Executors.newFixedThreadPool(2);
+        try {
+            // Dos recargas ocupan las dos ranuras mientras el diario no avanza
+            Future<ResultadoRecarga> primera = ejecutor.submit(() -> servicio.recargar(tarjeta(1), TipoBono.BUS, 3));
+            Future<ResultadoRecarga> segunda = ejecutor.submit(() -> servicio.recargar(tarjeta(2), TipoBono.BUS, 3));
+            long limite = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (servicio.getAnillo().getPendientes() < 2 && System.nanoTime() < limite) {
+                Thread.sleep(1);
+            }
+            assertEquals(2, servicio.getAnillo().getPendientes());
+
+            ResultadoRecarga saturada = servicio.recargar(tarjeta(3), TipoBono.BUS, 3);
+            assertEquals(ResultadoRecarga.Estado.SATURADA, saturada.getEstado());
+            assertFalse(saturada.isCorrecta());
+            assertFalse(servicio.estaRecargada(tarjeta(3), TipoBono.BUS, 3));
+
+            continuar.countDown();
+            assertEquals(ResultadoRecarga.Estado.RECARGADA, primera.get(10, TimeUnit.SECONDS).getEstado());
+            assertEquals(ResultadoRecarga.Estado.RECARGADA, segunda.get(10, TimeUnit.SECONDS).getEstado());
+            // Con sitio en el anillo, el reintento se aplica
+            assertEquals(ResultadoRecarga.Estado.RECARGADA,
+                    servicio.recargar(tarjeta(3), TipoBono.BUS, 3).getEstado());
+        } finally {
+            continuar.countDown();
+            ejecutor.shutdownNow();
+            servicio.close();
+        }
+    }
+
+    public void testFalloTrasReservarNoDetieneElAnillo() throws Exception {
+        long averiada = tarjeta(1);
+        TablaTarjetas tabla = new TablaTarjetas() {
+            @Override
+            public int modificar(long tarjeta, IntUnaryOperator funcion) {
+                if (tarjeta == averiada) {
+                    throw new IllegalStateException("Fallo al modificar la tarjeta");
+                }
+                return super.modificar(tarjeta, funcion);
+            }
+        };
+        System.setProperty(PROPIEDAD_ANILLO, "2");
+        ServicioRecarga servicio = new ServicioRecarga(tabla, new DiarioRecargas(directorio));
+        ExecutorService ejecutor = Executors.newSingleThreadExecutor();
+        try {
+            try {
+                servicio.recargar(averiada, TipoBono.BUS, 3);
+                fail("Se esperaba IllegalStateException");
+            } catch (IllegalStateException esperada) {
+                // correcto
+            }
+            // Más recargas que ranuras: todas tienen que pasar por la ranura del fallo
+            for (int i = 2; i <= 4; i++) {
+                long tarjeta = tarjeta(i);
+                Future<ResultadoRecarga> recarga = ejecutor.submit(() -> servicio.recargar(tarjeta, TipoBono.BUS, 3));
+                assertEquals(ResultadoRecarga.Estado.RECARGADA, recarga.get(10, TimeUnit.SECONDS).getEstado());
+            }
+            long[] lote = {tarjeta(5), tarjeta(6), tarjeta(7)};
+            Future<ResultadoRecarga[]> importacion = ejecutor.submit(() -> servicio.recargarLote(lote,
+                    new TipoBono[]{TipoBono.BUS, TipoBono.BUS, TipoBono.BUS}, new int[]{3, 3, 3}, 3));
+            for (ResultadoRecarga resultado : importacion.get(10, TimeUnit.SECONDS)) {
+                assertEquals(ResultadoRecarga.Estado.RECARGADA, resultado.getEstado());
+            }
+            assertEquals(0, servicio.getAnillo().getPendientes());
+        } finally {
+            ejecutor.shutdownNow();
+            servicio.close();
+        }
+    }
+
+    // ============================
+    // MÉTODOS AUXILIARES
+    // ============================
+    private static long tarjeta(long n) {
+        return ValidadorTarjeta.completar(40_000_000_000L + n);
+    }
+
+    private static void esperar(CountDownLatch cerrojo) {
+        try {
+            cerrojo.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
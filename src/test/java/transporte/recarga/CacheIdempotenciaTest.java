@@ -0,0 +1,159 @@
+package transporte.recarga;
+
+import junit.framework.TestCase;
+import transporte.tarjeta.ValidadorTarjeta;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pruebas de la caché de idempotencia: una petición repetida recibe el
+ * resultado de la original sin volver a recargar, salvo si ese resultado era
+ * transitorio, y las entradas caducan y no superan la capacidad.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public class CacheIdempotenciaTest extends TestCase {
+
+    private static final long TARJETA = ValidadorTarjeta.completar(40_000_000_001L);
+
+    private CacheIdempotencia cache;
+    private AtomicInteger ejecuciones;
+
+    @Override
+    protected void setUp() {
+        cache = new CacheIdempotencia(1_000, 10, TimeUnit.MINUTES);
+        ejecuciones = new AtomicInteger();
+    }
+
+    public void testPeticionRepetidaDevuelveElResultadoOriginal() {
+        ResultadoRecarga primero = ejecutar("token-1", ResultadoRecarga.Estado.RECARGADA);
+        // La segunda ejecución daría YA_RECARGADA: no debe llegar a ejecutarse
+        ResultadoRecarga repetido = ejecutar("token-1", ResultadoRecarga.Estado.YA_RECARGADA);
+
+        assertSame(primero, repetido);
+        assertEquals(1, ejecuciones.get());
+        assertEquals(1, cache.getAciertos());
+        assertEquals(1, cache.getFallos());
+    }
+
+    public void testRechazosDefinitivosTambienSeGuardan() {
+        ejecutar("token-1", ResultadoRecarga.Estado.TIPO_INCOMPATIBLE);
+        assertEquals(ResultadoRecarga.Estado.TIPO_INCOMPATIBLE,
+                ejecutar("token-1", ResultadoRecarga.Estado.RECARGADA).getEstado());
+        assertEquals(1, ejecuciones.get());
+    }
+
+    public void testOtroTokenEsOtraPeticion() {
+        ejecutar("token-1", ResultadoRecarga.Estado.RECARGADA);
+        assertEquals(ResultadoRecarga.Estado.YA_RECARGADA,
+                ejecutar("token-2", ResultadoRecarga.Estado.YA_RECARGADA).getEstado());
+        assertEquals(2, ejecuciones.get());
+    }
+
+    public void testResultadosTransitoriosNoSeGuardan() {
+        ResultadoRecarga.Estado[] transitorios = {
+                ResultadoRecarga.Estado.ERROR_PERSISTENCIA,
+                ResultadoRecarga.Estado.CANCELADA,
+                ResultadoRecarga.Estado.SATURADA
+        };
+        for (ResultadoRecarga.Estado estado : transitorios) {
+            String token = "token-" + estado;
+            assertEquals(estado, ejecutar(token, estado).getEstado());
+            // El reintento se ejecuta de nuevo y ahora sí se aplica
+            assertEquals(estado.name(), ResultadoRecarga.Estado.RECARGADA,
+                    ejecutar(token, ResultadoRecarga.Estado.RECARGADA).getEstado());
+        }
+        assertEquals(2 * transitorios.length, ejecuciones.get());
+        assertEquals(transitorios.length, cache.tamano());
+    }
+
+    public void testExcepcionNoSeGuarda() {
+        try {
+            cache.ejecutar(TARJETA, TipoBono.BUS, 3, "token-1", () -> {
+                ejecuciones.incrementAndGet();
+                throw new IllegalStateException("fallo");
+            });
+            fail("Se esperaba IllegalStateException");
+        } catch (IllegalStateException esperada) {
+            assertEquals("fallo", esperada.getMessage());
+        }
+        assertEquals(0, cache.tamano());
+        assertEquals(ResultadoRecarga.Estado.RECARGADA,
+                ejecutar("token-1", ResultadoRecarga.Estado.RECARGADA).getEstado());
+        assertEquals(2, ejecuciones.get());
+    }
+
+    public void testPeticionRepetidaEsperaALaOriginalEnCurso() throws Exception {
+        CountDownLatch empezada = new CountDownLatch(1);
+        CountDownLatch terminar = new CountDownLatch(1);
+        ExecutorService ejecutor = Executors.newFixedThreadPool(2);
+        try {
+            Future<ResultadoRecarga> original = ejecutor.submit(() ->
+                    cache.ejecutar(TARJETA, TipoBono.BUS, 3, "token-1", () -> {
+                        ejecuciones.incrementAndGet();
+                        empezada.countDown();
+                        esperar(terminar);
+                        return resultado(ResultadoRecarga.Estado.RECARGADA);
+                    }));
+            assertTrue(empezada.await(10, TimeUnit.SECONDS));
+            Future<ResultadoRecarga> repetida = ejecutor.submit(() ->
+                    ejecutar("token-1", ResultadoRecarga.Estado.YA_RECARGADA));
+            // La repetida encuentra la entrada en curso y se queda esperando
+            long limite = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (cache.getAciertos() == 0 && System.nanoTime() < limite) {
+                Thread.sleep(1);
+            }
+            assertFalse(repetida.isDone());
+
+            terminar.countDown();
+            assertSame(original.get(10, TimeUnit.SECONDS), repetida.get(10, TimeUnit.SECONDS));
+            assertEquals(1, ejecuciones.get());
+        } finally {
+            ejecutor.shutdownNow();
+        }
+    }
+
+    public void testLasEntradasCaducan() throws InterruptedException {
+        cache = new CacheIdempotencia(1_000, 20, TimeUnit.MILLISECONDS);
+        ejecutar("token-1", ResultadoRecarga.Estado.RECARGADA);
+        Thread.sleep(50);
+        assertEquals(ResultadoRecarga.Estado.YA_RECARGADA,
+                ejecutar("token-1", ResultadoRecarga.Estado.YA_RECARGADA).getEstado());
+        assertEquals(2, ejecuciones.get());
+    }
+
+    public void testNoSuperaLaCapacidad() {
+        cache = new CacheIdempotencia(128, 10, TimeUnit.MINUTES);
+        for (int i = 0; i < 10_000; i++) {
+            ejecutar("token-" + i, ResultadoRecarga.Estado.RECARGADA);
+        }
+        assertTrue("tamaño " + cache.tamano(), cache.tamano() <= 128);
+    }
+
+    // ============================
+    // MÉTODOS AUXILIARES
+    // ============================
+    private ResultadoRecarga ejecutar(String token, ResultadoRecarga.Estado estado) {
+        return cache.ejecutar(TARJETA, TipoBono.BUS, 3, token, () -> {
+            ejecuciones.incrementAndGet();
+            return resultado(estado);
+        });
+    }
+
+    private static ResultadoRecarga resultado(ResultadoRecarga.Estado estado) {
+        return new ResultadoRecarga(estado, TARJETA, TipoBono.BUS, 3);
+    }
+
+    private static void esperar(CountDownLatch cerrojo) {
+        try {
+            cerrojo.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
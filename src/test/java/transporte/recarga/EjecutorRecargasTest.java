@@ -0,0 +1,47 @@
+package transporte.recarga;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pruebas de los ejecutores de recarga: con hilos virtuales si la JVM los
+ * tiene y, si no, con un pool de hilos demonio con nombre.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public class EjecutorRecargasTest extends TestCase {
+
+    public void testUsaHilosVirtualesSoloSiLaJvmLosTiene() {
+        assertEquals(jvmConHilosVirtuales(), EjecutorRecargas.usaHilosVirtuales());
+    }
+
+    public void testEjecutaLasTareasFueraDelHiloQueLlama() throws Exception {
+        ExecutorService ejecutor = EjecutorRecargas.nuevo("prueba");
+        try {
+            Thread hilo = ejecutor.submit(Thread::currentThread).get(10, TimeUnit.SECONDS);
+            assertNotSame(Thread.currentThread(), hilo);
+            assertTrue(hilo.getName(), hilo.getName().startsWith("prueba-"));
+            // Ni los hilos virtuales ni los del pool impiden que la JVM termine
+            assertTrue(hilo.isDaemon());
+            assertEquals(!jvmConHilosVirtuales(), ejecutor instanceof ThreadPoolExecutor);
+        } finally {
+            ejecutor.shutdown();
+        }
+        assertTrue(ejecutor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    /**
+     * En Java 19 y 20 el método existe, pero sin {@code --enable-preview} falla.
+     */
+    private static boolean jvmConHilosVirtuales() {
+        try {
+            Thread.class.getMethod("ofVirtual").invoke(null);
+            return true;
+        } catch (ReflectiveOperationException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package transporte.recarga;
+
+import junit.framework.TestCase;
+import transporte.tarjeta.MapaBitsComprimido;
+import transporte.tarjeta.TablaTarjetas;
+import transporte.tarjeta.ValidadorTarjeta;
+
+import java.util.Arrays;
+import java.util.TreeSet;
+
+/**
+ * Pruebas del índice mensual: las tarjetas que se añaden son las que se
+ * cuentan y se listan, y el índice construido desde la tabla o restaurado
+ * desde sus mapas es igual al original.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public class IndiceMensualTest extends TestCase {
+
+    private static final int MESES = 12;
+
+    public void testAnadirYConsultar() {
+        IndiceMensual indice = new IndiceMensual();
+        long tarjeta = ValidadorTarjeta.completar(40_000_000_123L);
+
+        indice.anadir(tarjeta, TipoBono.BUS, 4);
+        assertTrue(indice.contiene(tarjeta, TipoBono.BUS, 4));
+        assertFalse(indice.contiene(tarjeta, TipoBono.BUS, 5));
+        assertFalse(indice.contiene(tarjeta, TipoBono.METRO, 4));
+        assertEquals(1, indice.contar(TipoBono.BUS, 4));
+        assertTrue(Arrays.equals(new long[]{tarjeta}, indice.tarjetas(TipoBono.BUS, 4)));
+
+        indice.quitar(tarjeta, TipoBono.BUS, 4);
+        assertFalse(indice.contiene(tarjeta, TipoBono.BUS, 4));
+        assertEquals(0, indice.contar(TipoBono.BUS, 4));
+    }
+
+    public void testListaOrdenadaConTarjetasDispersasYDensas() {
+        IndiceMensual indice = new IndiceMensual();
+        TreeSet<Long> esperado = new TreeSet<>();
+        // Tarjetas consecutivas (bloques densos) y muy separadas (bloques dispersos), en desorden
+        for (int i = 20_000; i >= 0; i--) {
+            long tarjeta = ValidadorTarjeta.completar(40_000_000_000L + i);
+            indice.anadir(tarjeta, TipoBono.METRO, 0);
+            esperado.add(tarjeta);
+        }
+        for (int i = 0; i < 2_000; i++) {
+            long tarjeta = ValidadorTarjeta.completar(10_000_000_000L + i * 1_000_003L);
+            indice.anadir(tarjeta, TipoBono.METRO, 0);
+            esperado.add(tarjeta);
+        }
+
+        assertEquals(esperado.size(), indice.contar(TipoBono.METRO, 0));
+        assertTrue(Arrays.equals(aArray(esperado), indice.tarjetas(TipoBono.METRO, 0)));
+    }
+
+    public void testConstruirDesdeLaTabla() {
+        TablaTarjetas tabla = new TablaTarjetas();
+        IndiceMensual esperado = new IndiceMensual();
+        for (int i = 0; i < 30_000; i++) {
+            long tarjeta = ValidadorTarjeta.completar(40_000_000_000L + i * 13L);
+            TipoBono tipo = i % 3 == 0 ? TipoBono.METRO : TipoBono.BUS;
+            int meses = 1 + (i * 97) % 0xFFF;
+            tabla.modificar(tarjeta, registro -> TablaTarjetas.registro(ServicioRecarga.codigo(tipo), meses));
+            for (int mes = 0; mes < MESES; mes++) {
+                if ((meses & (1 << mes)) != 0) {
+                    esperado.anadir(tarjeta, tipo, mes);
+                }
+            }
+        }
+
+        assertMismoContenido(esperado, IndiceMensual.construir(tabla));
+    }
+
+    public void testRestaurarDesdeSusMapas() {
+        IndiceMensual original = new IndiceMensual();
+        for (int i = 0; i < 10_000; i++) {
+            long tarjeta = ValidadorTarjeta.completar(40_000_000_000L + i * 101L);
+            original.anadir(tarjeta, TipoBono.values()[i % 2], i % MESES);
+        }
+
+        MapaBitsComprimido[] guardados = original.mapas();
+        IndiceMensual restaurado = IndiceMensual.restaurar(guardados);
+        assertMismoContenido(original, restaurado);
+
+        // Los mapas guardados son copias: lo que se añada después al original no llega al restaurado
+        long nueva = ValidadorTarjeta.completar(49_999_999_999L);
+        original.anadir(nueva, TipoBono.BUS, 0);
+        assertFalse(restaurado.contiene(nueva, TipoBono.BUS, 0));
+    }
+
+    public void testRestaurarConMapasDeMasSeRechaza() {
+        try {
+            IndiceMensual.restaurar(new MapaBitsComprimido[TipoBono.values().length * MESES + 1]);
+            fail("Se esperaba IllegalArgumentException");
+        } catch (IllegalArgumentException esperada) {
+            // correcto
+        }
+    }
+
+    // ============================
+    // MÉTODOS AUXILIARES
+    // ============================
+    private static void assertMismoContenido(IndiceMensual esperado, IndiceMensual actual) {
+        for (TipoBono tipo : TipoBono.values()) {
+            for (int mes = 0; mes < MESES; mes++) {
+                String caso = tipo + " mes " + mes;
+                assertEquals(caso, esperado.contar(tipo, mes), actual.contar(tipo, mes));
+                assertTrue(caso, Arrays.equals(esperado.tarjetas(tipo, mes), actual.tarjetas(tipo, mes)));
+            }
+        }
+    }
+
+    private static long[] aArray(TreeSet<Long> valores) {
+        long[] array = new long[valores.size()];
+        int i = 0;
+        for (long valor : valores) {
+            array[i++] = valor;
+        }
+        return array;
+    }
+}
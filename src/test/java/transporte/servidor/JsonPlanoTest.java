@@ -0,0 +1,97 @@
+package transporte.servidor;
+
+import junit.framework.TestCase;
+
+import java.util.Map;
+
+/**
+ * Pruebas del lector y el escritor de JSON plano de la API de recargas.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public class JsonPlanoTest extends TestCase {
+
+    public void testLeerObjetoPlano() {
+        Map<String, String> campos = JsonPlano.leer(
+                "{ \"tarjeta\" : \"079927398713\", \"mes\":3,\"correcta\":true,\"perfil\":null } ");
+        assertEquals(4, campos.size());
+        assertEquals("079927398713", campos.get("tarjeta"));
+        // Los números y literales se devuelven como texto
+        assertEquals("3", campos.get("mes"));
+        assertEquals("true", campos.get("correcta"));
+        assertTrue(campos.containsKey("perfil"));
+        assertNull(campos.get("perfil"));
+
+        assertTrue(JsonPlano.leer("{}").isEmpty());
+        // Espacios y saltos de línea antes del objeto
+        assertEquals("1", JsonPlano.leer(" \r\n\t{\"a\":1}").get("a"));
+    }
+
+    public void testEscapes() {
+        Map<String, String> campos = JsonPlano.leer(
+                "{\"a\":\"comillas \\\" barra \\\\ \\/ salto \\n tab \\t\",\"b\":\"\\u00e1\\u20AC\"}");
+        assertEquals("comillas \" barra \\ / salto \n tab \t", campos.get("a"));
+        assertEquals("á€", campos.get("b"));
+    }
+
+    public void testJsonMalFormado() {
+        assertRechazado("");
+        assertRechazado("[]");
+        assertRechazado("{");
+        assertRechazado("{\"a\":1");
+        assertRechazado("{a:1}");
+        assertRechazado("{\"a\" 1}");
+        assertRechazado("{\"a\":}");
+        assertRechazado("{\"a\":1,}");
+        assertRechazado("{\"a\":\"sin cerrar}");
+        assertRechazado("{\"a\":1} sobra");
+        assertRechazado("{\"a\":{\"b\":1}}");
+        assertRechazado("{\"a\":[1,2]}");
+    }
+
+    public void testEscapeUnicodeMalFormado() {
+        assertRechazado("{\"a\":\"\\u12\"}");
+        assertRechazado("{\"a\":\"\\u12");
+        assertRechazado("{\"a\":\"\\u12G4\"}");
+        // Un signo delante de las cifras tampoco vale
+        assertRechazado("{\"a\":\"\\u+041\"}");
+        assertRechazado("{\"a\":\"\\u-041\"}");
+        assertRechazado("{\"a\":\"\\");
+    }
+
+    public void testEscribirYVolverALeer() {
+        String json = new JsonPlano.Objeto()
+                .campo("texto", "línea 1\nlínea \"2\"\t\\ \u0001")
+                .campo("nulo", (String) null)
+                .campo("numero", -42L)
+                .campo("logico", false)
+                .toString();
+        assertEquals("{\"texto\":\"línea 1\\nlínea \\\"2\\\"\\t\\\\ \\u0001\",\"nulo\":null,"
+                + "\"numero\":-42,\"logico\":false}", json);
+
+        Map<String, String> leidos = JsonPlano.leer(json);
+        assertEquals("línea 1\nlínea \"2\"\t\\ \u0001", leidos.get("texto"));
+        assertNull(leidos.get("nulo"));
+        assertEquals("-42", leidos.get("numero"));
+        assertEquals("false", leidos.get("logico"));
+    }
+
+    public void testEscribirArray() {
+        assertEquals("{\"meses\":[1,3,12],\"vacio\":[]}", new JsonPlano.Objeto()
+                .campo("meses", new int[]{1, 3, 12})
+                .campo("vacio", new int[0])
+                .toString());
+    }
+
+    // ============================
+    // MÉTODOS AUXILIARES
+    // ============================
+    private static void assertRechazado(String json) {
+        try {
+            JsonPlano.leer(json);
+            fail("Se esperaba IllegalArgumentException: " + json);
+        } catch (IllegalArgumentException esperada) {
+            // correcto
+        }
+    }
+}
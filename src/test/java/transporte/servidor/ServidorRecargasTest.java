@@ -0,0 +1,235 @@
+package transporte.servidor;
+
+import junit.framework.TestCase;
+import transporte.persistencia.DiarioRecargas;
+import transporte.recarga.ServicioRecarga;
+import transporte.recarga.TipoBono;
+import transporte.tarjeta.TablaTarjetas;
+import transporte.tarjeta.ValidadorTarjeta;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Pruebas de la API HTTP de recargas contra un servidor en un puerto libre de
+ * la interfaz local: códigos de respuesta de cada resultado, validación del
+ * cuerpo y consultas.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public class ServidorRecargasTest extends TestCase {
+
+    private static final String TARJETA = numero(1);
+
+    private ServicioRecarga servicio;
+    private ServidorRecargas servidor;
+
+    @Override
+    protected void setUp() throws IOException {
+        iniciar(new ServicioRecarga());
+    }
+
+    @Override
+    protected void tearDown() {
+        servidor.detener(0);
+    }
+
+    public void testCodigosDeLaRecarga() throws IOException {
+        Respuesta recargada = recargar(TARJETA, "BUS", 3);
+        assertEquals(201, recargada.codigo);
+        assertEquals("RECARGADA", recargada.json().get("estado"));
+        assertEquals("true", recargada.json().get("correcta"));
+        assertEquals("3", recargada.json().get("mes"));
+        assertTrue(servicio.estaRecargada(ValidadorTarjeta.parsear(TARJETA), TipoBono.BUS, 2));
+
+        assertEstado(409, "YA_RECARGADA", recargar(TARJETA, "BUS", 3));
+        assertEstado(409, "TIPO_INCOMPATIBLE", recargar(TARJETA, "METRO", 4));
+        assertEstado(400, "TARJETA_INVALIDA", recargar("123456789012", "BUS", 3));
+        assertEstado(400, "TIPO_INVALIDO", recargar(numero(2), "TREN", 3));
+        assertEstado(400, "MES_INVALIDO", recargar(numero(2), "BUS", 13));
+    }
+
+    public void testPeticionRepetidaConIdempotencyKey() throws IOException {
+        String json = cuerpo(TARJETA, "BUS", 3);
+        Respuesta primera = peticion("POST", "/api/recargas", json, "clave-1");
+        Respuesta repetida = peticion("POST", "/api/recargas", json, "clave-1");
+        assertEquals(201, primera.codigo);
+        // El reenvío recibe la respuesta de la primera y no se cobra dos veces
+        assertEquals(201, repetida.codigo);
+        assertEquals(primera.cuerpo, repetida.cuerpo);
+        assertEquals(1, servicio.getRecargas(TipoBono.BUS));
+        assertEquals(1, servicio.getIdempotencia().getAciertos());
+
+        // Con otra clave es otra petición, y el mes ya está pagado
+        assertEstado(409, "YA_RECARGADA", peticion("POST", "/api/recargas", json, "clave-2"));
+
+        // La clave también puede ir en el cuerpo
+        String conToken = "{\"tarjeta\":\"" + numero(2) + "\",\"tipo\":\"METRO\",\"mes\":5,\"token\":\"t-1\"}";
+        assertEquals(201, peticion("POST", "/api/recargas", conToken, null).codigo);
+        assertEquals(201, peticion("POST", "/api/recargas", conToken, null).codigo);
+        assertEquals(1, servicio.getRecargas(TipoBono.METRO));
+    }
+
+    public void testServicioSinDiarioResponde503() throws IOException {
+        Path directorio = Files.createTempDirectory("bono-servidor-");
+        try {
+            ServicioRecarga conDiario = new ServicioRecarga(new TablaTarjetas(), new DiarioRecargas(directorio));
+            conDiario.getDiario().close();
+            servidor.detener(0);
+            iniciar(conDiario);
+
+            assertEstado(503, "ERROR_PERSISTENCIA", recargar(TARJETA, "BUS", 3));
+            assertFalse(conDiario.estaRecargada(ValidadorTarjeta.parsear(TARJETA), TipoBono.BUS, 2));
+        } finally {
+            try (Stream<Path> rutas = Files.walk(directorio)) {
+                for (Path ruta : (Iterable<Path>) rutas.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.delete(ruta);
+                }
+            }
+        }
+    }
+
+    public void testCuerpoNoValido() throws IOException {
+        assertEquals(400, peticion("POST", "/api/recargas", "{\"tarjeta\":", null).codigo);
+        assertEquals(400, peticion("POST", "/api/recargas", "", null).codigo);
+        Respuesta perfil = peticion("POST", "/api/recargas",
+                "{\"tarjeta\":\"" + TARJETA + "\",\"tipo\":\"BUS\",\"mes\":3,\"perfil\":\"JUBILADO\"}", null);
+        assertEquals(400, perfil.codigo);
+        assertNotNull(perfil.json().get("error"));
+        assertEquals(0, servicio.getRecargas(TipoBono.BUS));
+    }
+
+    public void testLimiteDelCuerpo() throws IOException {
+        String json = cuerpo(TARJETA, "BUS", 3);
+        // Justo 8 KB: se acepta
+        assertEquals(201, peticion("POST", "/api/recargas", rellenar(json, 8 * 1024), null).codigo);
+        // Un byte más: se rechaza sin recargar
+        Respuesta grande = peticion("POST", "/api/recargas", rellenar(cuerpo(numero(2), "BUS", 3), 8 * 1024 + 1),
+                null);
+        assertEquals(400, grande.codigo);
+        assertFalse(servicio.estaRecargada(ValidadorTarjeta.parsear(numero(2)), TipoBono.BUS, 2));
+    }
+
+    public void testMetodoNoPermitido() throws IOException {
+        Respuesta respuesta = peticion("GET", "/api/recargas", null, null);
+        assertEquals(405, respuesta.codigo);
+    }
+
+    public void testConsultas() throws IOException {
+        Respuesta validacion = peticion("GET", "/api/validacion?tarjeta=" + TARJETA + "&tipo=METRO", null, null);
+        assertEquals(200, validacion.codigo);
+        assertEquals("true", validacion.json().get("valida"));
+        assertEquals("METRO", validacion.json().get("tipo"));
+        Respuesta invalida = peticion("GET", "/api/validacion?tarjeta=123456789012&tipo=METRO", null, null);
+        assertEquals("DIGITO_CONTROL_INCORRECTO", invalida.json().get("motivoTarjeta"));
+
+        assertEquals(404, peticion("GET", "/api/tarjetas/" + TARJETA, null, null).codigo);
+        recargar(TARJETA, "METRO", 3);
+        recargar(TARJETA, "METRO", 12);
+        Respuesta tarjeta = peticion("GET", "/api/tarjetas/" + TARJETA, null, null);
+        assertEquals(200, tarjeta.codigo);
+        assertTrue(tarjeta.cuerpo, tarjeta.cuerpo.contains("\"meses\":[3,12]"));
+        assertEquals(400, peticion("GET", "/api/tarjetas/123", null, null).codigo);
+
+        Respuesta estado = peticion("GET", "/api/estado", null, null);
+        assertEquals(200, estado.codigo);
+        assertEquals("2", estado.json().get("recargasMetro"));
+    }
+
+    // ============================
+    // MÉTODOS AUXILIARES
+    // ============================
+    private void iniciar(ServicioRecarga servicio) throws IOException {
+        this.servicio = servicio;
+        servidor = new ServidorRecargas(servicio, new InetSocketAddress("127.0.0.1", 0));
+        servidor.iniciar();
+    }
+
+    private Respuesta recargar(String tarjeta, String tipo, int mes) throws IOException {
+        return peticion("POST", "/api/recargas", cuerpo(tarjeta, tipo, mes), null);
+    }
+
+    private static String cuerpo(String tarjeta, String tipo, int mes) {
+        return "{\"tarjeta\":\"" + tarjeta + "\",\"tipo\":\"" + tipo + "\",\"mes\":" + mes + "}";
+    }
+
+    /**
+     * Completa el JSON con espacios hasta el tamaño indicado en bytes.
+     */
+    private static String rellenar(String json, int bytes) {
+        StringBuilder relleno = new StringBuilder(json);
+        while (relleno.length() < bytes) {
+            relleno.append(' ');
+        }
+        return relleno.toString();
+    }
+
+    private Respuesta peticion(String metodo, String ruta, String cuerpo, String clave) throws IOException {
+        HttpURLConnection conexion = (HttpURLConnection)
+                new URL("http://127.0.0.1:" + servidor.getPuerto() + ruta).openConnection();
+        try {
+            conexion.setRequestMethod(metodo);
+            if (clave != null) {
+                conexion.setRequestProperty("Idempotency-Key", clave);
+            }
+            if (cuerpo != null) {
+                byte[] datos = cuerpo.getBytes(StandardCharsets.UTF_8);
+                conexion.setDoOutput(true);
+                conexion.setFixedLengthStreamingMode(datos.length);
+                conexion.setRequestProperty("Content-Type", "application/json");
+                try (OutputStream salida = conexion.getOutputStream()) {
+                    salida.write(datos);
+                }
+            }
+            int codigo = conexion.getResponseCode();
+            InputStream entrada = codigo < 400 ? conexion.getInputStream() : conexion.getErrorStream();
+            ByteArrayOutputStream leido = new ByteArrayOutputStream();
+            if (entrada != null) {
+                try (InputStream cerrar = entrada) {
+                    byte[] bloque = new byte[1024];
+                    int n;
+                    while ((n = cerrar.read(bloque)) > 0) {
+                        leido.write(bloque, 0, n);
+                    }
+                }
+            }
+            return new Respuesta(codigo, new String(leido.toByteArray(), StandardCharsets.UTF_8));
+        } finally {
+            conexion.disconnect();
+        }
+    }
+
+    private static void assertEstado(int codigo, String estado, Respuesta respuesta) {
+        assertEquals(respuesta.cuerpo, codigo, respuesta.codigo);
+        assertEquals(respuesta.cuerpo, estado, respuesta.json().get("estado"));
+    }
+
+    private static String numero(long n) {
+        return String.format("%012d", ValidadorTarjeta.completar(40_000_000_000L + n));
+    }
+
+    private static final class Respuesta {
+        final int codigo;
+        final String cuerpo;
+
+        Respuesta(int codigo, String cuerpo) {
+            this.codigo = codigo;
+            this.cuerpo = cuerpo;
+        }
+
+        Map<String, String> json() {
+            return JsonPlano.leer(cuerpo);
+        }
+    }
+}
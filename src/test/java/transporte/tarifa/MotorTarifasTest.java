@@ -0,0 +1,205 @@
+package transporte.tarifa;
+
+import junit.framework.TestCase;
+import transporte.recarga.TipoBono;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Pruebas del motor de tarifas: precios compilados con descuentos y
+ * prorrateo, y recarga de las reglas en caliente sin que una consulta vea
+ * nunca una tarifa a medias.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public class MotorTarifasTest extends TestCase {
+
+    private static final String[] REGLAS = {
+            "bus.precio=35.30",
+            "metro.precio=45,60",
+            "bus.precio.8=30.00",
+            "descuento.estudiante=40",
+            "descuento.mayor=60",
+            "metro.descuento.estudiante=50",
+            "prorrateo.desde=16"
+    };
+
+    private Path directorio;
+
+    @Override
+    protected void setUp() throws IOException {
+        directorio = Files.createTempDirectory("bono-tarifas-");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        try (Stream<Path> rutas = Files.walk(directorio)) {
+            for (Path ruta : (Iterable<Path>) rutas.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(ruta);
+            }
+        }
+    }
+
+    public void testPreciosCompilados() {
+        TablaTarifas tabla = TablaTarifas.compilar(reglas(REGLAS), 2024);
+
+        assertEquals(3530, tabla.precio(TipoBono.BUS, 2, Perfil.GENERAL));
+        assertEquals(4560, tabla.precio(TipoBono.METRO, 2, Perfil.GENERAL));
+        // Precio propio de agosto
+        assertEquals(3000, tabla.precio(TipoBono.BUS, 7, Perfil.GENERAL));
+        // Descuento general y descuento propio del metro
+        assertEquals(2118, tabla.precio(TipoBono.BUS, 2, Perfil.ESTUDIANTE));
+        assertEquals(2280, tabla.precio(TipoBono.METRO, 2, Perfil.ESTUDIANTE));
+        assertEquals(1824, tabla.precio(TipoBono.METRO, 2, Perfil.MAYOR));
+    }
+
+    public void testProrrateo() {
+        TablaTarifas tabla = TablaTarifas.compilar(reglas(REGLAS), 2024);
+
+        // Antes del día de prorrateo se paga el mes entero
+        assertEquals(3530, tabla.precio(TipoBono.BUS, 1, Perfil.GENERAL, 1, 15));
+        // Febrero de 2024 tiene 29 días: el día 20 quedan 10
+        assertEquals(1217, tabla.precio(TipoBono.BUS, 1, Perfil.GENERAL, 1, 20));
+        assertEquals(122, tabla.precio(TipoBono.BUS, 1, Perfil.GENERAL, 1, 29));
+        // Solo se prorratea el mes en curso
+        assertEquals(3530, tabla.precio(TipoBono.BUS, 2, Perfil.GENERAL, 1, 20));
+        // En 2023 febrero tiene 28 días
+        assertEquals(1261, TablaTarifas.compilar(reglas(REGLAS), 2023)
+                .precio(TipoBono.BUS, 1, Perfil.GENERAL, 1, 19));
+    }
+
+    public void testPrecioSegunElInstanteDeCompra() {
+        MotorTarifas motor = MotorTarifas.desdeReglas(reglas(REGLAS));
+        TablaTarifas tabla2024 = TablaTarifas.compilar(reglas(REGLAS), 2024);
+
+        // El día de prorrateo empieza a medianoche en la zona horaria del sistema
+        assertEquals(3530, motor.precio(TipoBono.BUS, 1, Perfil.GENERAL, instante(2024, 2, 15, 23, 59)));
+        assertEquals(tabla2024.precio(TipoBono.BUS, 1, Perfil.GENERAL, 1, 16),
+                motor.precio(TipoBono.BUS, 1, Perfil.GENERAL, instante(2024, 2, 16, 0, 0)));
+        assertEquals(1217, motor.precio(TipoBono.BUS, 1, Perfil.GENERAL, instante(2024, 2, 20, 12, 0)));
+        // Otro año: se compila con sus días de febrero
+        assertEquals(1261, motor.precio(TipoBono.BUS, 1, Perfil.GENERAL, instante(2023, 2, 19, 8, 30)));
+        // Y se vuelve a la fecha de hoy (el mes siguiente, sin prorrateo)
+        LocalDate hoy = LocalDate.now();
+        assertEquals(motor.precio(TipoBono.METRO, hoy.getMonthValue() % 12, Perfil.MAYOR),
+                TablaTarifas.compilar(reglas(REGLAS), hoy.getYear())
+                        .precio(TipoBono.METRO, hoy.getMonthValue() % 12, Perfil.MAYOR));
+    }
+
+    public void testReglasNoValidas() {
+        assertRechazadas("metro.precio=45.60");
+        assertRechazadas("bus.precio=35.30", "metro.precio=-1");
+        assertRechazadas("bus.precio=35.30", "metro.precio=45.60", "descuento.mayor=101");
+        assertRechazadas("bus.precio=35.30", "metro.precio=abc");
+    }
+
+    public void testFormatear() {
+        assertEquals("35,30 €", MotorTarifas.formatear(3530));
+        assertEquals("1.234,05 €", MotorTarifas.formatear(123405));
+    }
+
+    public void testRecargaEnCaliente() throws IOException {
+        Path fichero = directorio.resolve("tarifas.properties");
+        escribir(fichero, 1, REGLAS);
+        MotorTarifas motor = MotorTarifas.desdeFichero(fichero);
+        assertEquals(3530, motor.getTabla().precio(TipoBono.BUS, 2, Perfil.GENERAL));
+        assertFalse(motor.recargarSiCambia());
+
+        escribir(fichero, 2, "bus.precio=40.00", "metro.precio=50.00");
+        motor.recargarSiCambia();
+        assertEquals(4000, motor.getTabla().precio(TipoBono.BUS, 2, Perfil.GENERAL));
+
+        // Un fichero con errores no sustituye las tarifas vigentes
+        escribir(fichero, 3, "bus.precio=cuarenta", "metro.precio=50.00");
+        assertFalse(motor.recargarSiCambia());
+        assertEquals(4000, motor.getTabla().precio(TipoBono.BUS, 2, Perfil.GENERAL));
+    }
+
+    public void testRecargaSinDetenerLasConsultas() throws Exception {
+        Path fichero = directorio.resolve("tarifas.properties");
+        escribir(fichero, 1, "bus.precio=35.30", "metro.precio=45.60");
+        MotorTarifas motor = MotorTarifas.desdeFichero(fichero);
+
+        AtomicBoolean terminar = new AtomicBoolean();
+        AtomicInteger inconsistentes = new AtomicInteger();
+        AtomicInteger consultas = new AtomicInteger();
+        Thread lector = new Thread(() -> {
+            do {
+                // Las dos consultas sobre la misma tabla son siempre del mismo fichero
+                TablaTarifas tabla = motor.getTabla();
+                int bus = tabla.precio(TipoBono.BUS, 0, Perfil.GENERAL);
+                int metro = tabla.precio(TipoBono.METRO, 0, Perfil.GENERAL);
+                if (!(bus == 3530 && metro == 4560) && !(bus == 4000 && metro == 5000)) {
+                    inconsistentes.incrementAndGet();
+                }
+                consultas.incrementAndGet();
+            } while (!terminar.get());
+        });
+        lector.start();
+        try {
+            for (int i = 0; i < 20; i++) {
+                if (i % 2 == 0) {
+                    escribir(fichero, 10 + i, "bus.precio=40.00", "metro.precio=50.00");
+                } else {
+                    escribir(fichero, 10 + i, "bus.precio=35.30", "metro.precio=45.60");
+                }
+                motor.recargarSiCambia();
+            }
+        } finally {
+            terminar.set(true);
+            lector.join();
+        }
+        assertEquals(0, inconsistentes.get());
+        assertTrue(consultas.get() > 0);
+        assertEquals(4560, motor.getTabla().precio(TipoBono.METRO, 0, Perfil.GENERAL));
+    }
+
+    // ============================
+    // MÉTODOS AUXILIARES
+    // ============================
+    private static Properties reglas(String... lineas) {
+        Properties reglas = new Properties();
+        for (String linea : lineas) {
+            int igual = linea.indexOf('=');
+            reglas.setProperty(linea.substring(0, igual), linea.substring(igual + 1));
+        }
+        return reglas;
+    }
+
+    private static long instante(int anio, int mes, int dia, int hora, int minuto) {
+        return LocalDateTime.of(anio, mes, dia, hora, minuto).atZone(ZoneId.systemDefault())
+                .toInstant().toEpochMilli();
+    }
+
+    private static void assertRechazadas(String... lineas) {
+        try {
+            TablaTarifas.compilar(reglas(lineas), 2024);
+            fail("Se esperaba IllegalArgumentException: " + Arrays.toString(lineas));
+        } catch (IllegalArgumentException esperada) {
+            // correcto
+        }
+    }
+
+    /**
+     * Escribe el fichero de reglas con una fecha de modificación distinta en
+     * cada versión, para no depender de la resolución del reloj del sistema
+     * de ficheros.
+     */
+    private static void escribir(Path fichero, int version, String... lineas) throws IOException {
+        Files.write(fichero, Arrays.asList(lineas), StandardCharsets.UTF_8);
+        Files.setLastModifiedTime(fichero, FileTime.fromMillis(1_000_000_000_000L + version * 1000L));
+    }
+}
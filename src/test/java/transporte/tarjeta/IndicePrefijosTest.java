@@ -0,0 +1,111 @@
+package transporte.tarjeta;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.TreeSet;
+
+/**
+ * Pruebas del índice de tarjetas por prefijo: resultados en orden y limitados
+ * al destino, tarjetas añadidas después de cargar y fusión en segundo plano
+ * sin perder ni repetir ninguna.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public class IndicePrefijosTest extends TestCase {
+
+    private static final long[] CARGADAS = {
+            123456789012L, 123499999999L, 123400000000L, 123500000000L, 1234L, 999999999999L
+    };
+
+    public void testBuscarPorPrefijo() {
+        IndicePrefijos indice = cargado();
+
+        assertBusqueda(indice, "1234", 8, 123400000000L, 123456789012L, 123499999999L);
+        // Los ceros a la izquierda cuentan como dígitos
+        assertBusqueda(indice, "0000", 8, 1234L);
+        assertBusqueda(indice, "123456789012", 8, 123456789012L);
+        // Solo caben las primeras
+        assertBusqueda(indice, "", 2, 1234L, 123400000000L);
+        assertBusqueda(indice, "5", 8);
+        assertEquals(6, indice.tamano());
+    }
+
+    public void testPrefijoNoValido() {
+        IndicePrefijos indice = cargado();
+
+        assertBusqueda(indice, "12a", 8);
+        assertBusqueda(indice, "-1", 8);
+        assertBusqueda(indice, "1234567890123", 8);
+    }
+
+    public void testTarjetasAnadidasDespuesDeCargar() {
+        IndicePrefijos indice = cargado();
+
+        indice.anadir(123412345678L);
+        // Las que ya estaban no se repiten
+        indice.anadir(123456789012L);
+        indice.anadir(123412345678L);
+        assertBusqueda(indice, "1234", 8, 123400000000L, 123412345678L, 123456789012L, 123499999999L);
+        assertEquals(7, indice.tamano());
+    }
+
+    public void testFusionEnSegundoPlano() throws InterruptedException {
+        IndicePrefijos indice = cargado();
+        TreeSet<Long> esperadas = new TreeSet<>();
+        for (long tarjeta : CARGADAS) {
+            esperadas.add(tarjeta);
+        }
+
+        // Más que el límite de nuevas, para que se fundan con el array mientras se consulta
+        SplittableRandom aleatorio = new SplittableRandom(7);
+        for (int i = 0; i < 150_000; i++) {
+            long tarjeta = 100_000_000_000L + aleatorio.nextLong(900_000_000L);
+            indice.anadir(tarjeta);
+            esperadas.add(tarjeta);
+            if (i % 10_000 == 0) {
+                assertIgual(esperadas, indice, "100");
+            }
+        }
+
+        long limite = System.currentTimeMillis() + 30_000;
+        while (indice.tamano() != esperadas.size() && System.currentTimeMillis() < limite) {
+            Thread.sleep(10);
+        }
+        assertEquals(esperadas.size(), indice.tamano());
+        for (String prefijo : new String[]{"1000", "1003", "10089", "1234", ""}) {
+            assertIgual(esperadas, indice, prefijo);
+        }
+    }
+
+    // ============================
+    // MÉTODOS AUXILIARES
+    // ============================
+    private static IndicePrefijos cargado() {
+        TablaTarjetas tabla = new TablaTarjetas();
+        for (long tarjeta : CARGADAS) {
+            tabla.modificar(tarjeta, registro -> TablaTarjetas.registro(1, 1));
+        }
+        IndicePrefijos indice = new IndicePrefijos();
+        indice.cargar(tabla);
+        return indice;
+    }
+
+    private static void assertBusqueda(IndicePrefijos indice, String prefijo, int maximo, long... esperadas) {
+        long[] destino = new long[maximo];
+        int encontradas = indice.buscar(prefijo, destino);
+        assertEquals(prefijo, Arrays.toString(esperadas), Arrays.toString(Arrays.copyOf(destino, encontradas)));
+    }
+
+    /**
+     * Compara las 64 primeras tarjetas con el prefijo contra las del conjunto.
+     */
+    private static void assertIgual(TreeSet<Long> todas, IndicePrefijos indice, String prefijo) {
+        long escala = (long) Math.pow(10, ValidadorTarjeta.DIGITOS - prefijo.length());
+        long desde = prefijo.isEmpty() ? 0 : Long.parseLong(prefijo) * escala;
+        long[] esperadas = todas.subSet(desde, desde + escala).stream()
+                .limit(64).mapToLong(Long::longValue).toArray();
+        assertBusqueda(indice, prefijo, 64, esperadas);
+    }
+}
@@ -0,0 +1,182 @@
+package transporte.tarjeta;
+
+import junit.framework.TestCase;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pruebas del registro de tarjetas: lo que se escribe se vuelve a leer igual,
+ * también tras crecer la tabla, al recorrerla y al copiarla por segmentos.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public class TablaTarjetasTest extends TestCase {
+
+    private static final int BUS = 1;
+    private static final int METRO = 2;
+
+    public void testFormatoDelRegistro() {
+        int datos = TablaTarjetas.registro(METRO, 0b1010_0000_0101);
+        assertEquals(METRO, TablaTarjetas.tipo(datos));
+        assertEquals(0b1010_0000_0101, TablaTarjetas.meses(datos));
+        assertEquals(0, TablaTarjetas.version(datos));
+    }
+
+    public void testTarjetaAusente() {
+        TablaTarjetas tabla = new TablaTarjetas();
+        assertEquals(TablaTarjetas.AUSENTE, tabla.obtener(tarjeta(1)));
+        assertFalse(tabla.contiene(tarjeta(1)));
+        assertEquals(0, tabla.tamano());
+    }
+
+    public void testModificarYObtener() {
+        TablaTarjetas tabla = new TablaTarjetas();
+        long tarjeta = tarjeta(7);
+
+        int previo = tabla.modificar(tarjeta, registro -> TablaTarjetas.registro(BUS, 1 << 3));
+        assertEquals(TablaTarjetas.AUSENTE, previo);
+        int registro = tabla.obtener(tarjeta);
+        assertEquals(BUS, TablaTarjetas.tipo(registro));
+        assertEquals(1 << 3, TablaTarjetas.meses(registro));
+
+        previo = tabla.modificar(tarjeta,
+                actual -> TablaTarjetas.registro(TablaTarjetas.tipo(actual), TablaTarjetas.meses(actual) | 1 << 11));
+        assertEquals(registro, previo);
+        int siguiente = tabla.obtener(tarjeta);
+        assertEquals((1 << 3) | (1 << 11), TablaTarjetas.meses(siguiente));
+        assertEquals(TablaTarjetas.version(registro) + 1, TablaTarjetas.version(siguiente));
+        assertEquals(1, tabla.tamano());
+    }
+
+    public void testSinCambiosNoSubeLaVersion() {
+        TablaTarjetas tabla = new TablaTarjetas();
+        long tarjeta = tarjeta(3);
+        tabla.modificar(tarjeta, registro -> TablaTarjetas.registro(METRO, 1));
+        int registro = tabla.obtener(tarjeta);
+
+        tabla.modificar(tarjeta, actual -> TablaTarjetas.registro(METRO, 1));
+        assertEquals(registro, tabla.obtener(tarjeta));
+    }
+
+    public void testTarjetaNegativaSeRechaza() {
+        try {
+            new TablaTarjetas().modificar(-5, registro -> TablaTarjetas.registro(BUS, 1));
+            fail("Se esperaba IllegalArgumentException");
+        } catch (IllegalArgumentException esperada) {
+            // correcto
+        }
+    }
+
+    public void testCreceSinPerderTarjetas() {
+        // Dimensionada para pocas tarjetas: obliga a redimensionar todos los segmentos
+        TablaTarjetas tabla = new TablaTarjetas(16);
+        Map<Long, Integer> esperado = rellenar(tabla, 200_000);
+
+        assertEquals(esperado.size(), tabla.tamano());
+        for (Map.Entry<Long, Integer> entrada : esperado.entrySet()) {
+            assertDatos(entrada.getValue(), tabla.obtener(entrada.getKey()));
+        }
+    }
+
+    public void testRecorrerVisitaCadaTarjetaUnaVez() {
+        TablaTarjetas tabla = new TablaTarjetas();
+        Map<Long, Integer> esperado = rellenar(tabla, 50_000);
+
+        Map<Long, Integer> visitadas = new HashMap<>();
+        tabla.recorrer((tarjeta, registro) -> assertNull(visitadas.put(tarjeta, registro)));
+
+        assertEquals(esperado.size(), visitadas.size());
+        for (Map.Entry<Long, Integer> entrada : esperado.entrySet()) {
+            assertDatos(entrada.getValue(), visitadas.get(entrada.getKey()));
+        }
+    }
+
+    public void testCopiaPorSegmentos() {
+        TablaTarjetas origen = new TablaTarjetas();
+        Map<Long, Integer> esperado = rellenar(origen, 50_000);
+
+        TablaTarjetas copia = new TablaTarjetas(esperado.size());
+        for (int i = 0; i < origen.getNumeroSegmentos(); i++) {
+            long[] tarjetas = new long[esperado.size()];
+            int[] datos = new int[esperado.size()];
+            int[] cantidad = new int[1];
+            origen.recorrerSegmento(i, (tarjeta, registro) -> {
+                tarjetas[cantidad[0]] = tarjeta;
+                datos[cantidad[0]++] = TablaTarjetas.registro(TablaTarjetas.tipo(registro),
+                        TablaTarjetas.meses(registro));
+            });
+            copia.cargarSegmento(i, tarjetas, datos, cantidad[0]);
+        }
+
+        assertEquals(esperado.size(), copia.tamano());
+        for (Map.Entry<Long, Integer> entrada : esperado.entrySet()) {
+            assertDatos(entrada.getValue(), copia.obtener(entrada.getKey()));
+        }
+    }
+
+    public void testModificacionesConcurrentesNoSePierden() throws Exception {
+        TablaTarjetas tabla = new TablaTarjetas(16);
+        int hilos = 4;
+        int tarjetas = 20_000;
+        ExecutorService ejecutor = Executors.newFixedThreadPool(hilos);
+        CountDownLatch salida = new CountDownLatch(1);
+        try {
+            Future<?>[] tareas = new Future<?>[hilos];
+            for (int h = 0; h < hilos; h++) {
+                // Cada hilo marca su propio mes en las mismas tarjetas
+                int bitMes = 1 << h;
+                tareas[h] = ejecutor.submit(() -> {
+                    salida.await();
+                    for (int i = 0; i < tarjetas; i++) {
+                        tabla.modificar(tarjeta(i), registro ->
+                                TablaTarjetas.registro(BUS, TablaTarjetas.meses(registro) | bitMes));
+                    }
+                    return null;
+                });
+            }
+            salida.countDown();
+            for (Future<?> tarea : tareas) {
+                tarea.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            ejecutor.shutdownNow();
+        }
+
+        assertEquals(tarjetas, tabla.tamano());
+        for (int i = 0; i < tarjetas; i++) {
+            assertEquals(0b1111, TablaTarjetas.meses(tabla.obtener(tarjeta(i))));
+        }
+    }
+
+    // ============================
+    // MÉTODOS AUXILIARES
+    // ============================
+    private static long tarjeta(long n) {
+        return 40_000_000_000L + n * 7919;
+    }
+
+    /**
+     * Registra {@code cantidad} tarjetas con tipos y meses variados y devuelve
+     * los datos que debe tener cada una.
+     */
+    private static Map<Long, Integer> rellenar(TablaTarjetas tabla, int cantidad) {
+        Map<Long, Integer> esperado = new HashMap<>();
+        for (int i = 0; i < cantidad; i++) {
+            int datos = TablaTarjetas.registro(i % 2 == 0 ? BUS : METRO, (i * 37) & 0xFFF | 1);
+            tabla.modificar(tarjeta(i), registro -> datos);
+            esperado.put(tarjeta(i), datos);
+        }
+        return esperado;
+    }
+
+    private static void assertDatos(int esperados, int registro) {
+        assertEquals(TablaTarjetas.tipo(esperados), TablaTarjetas.tipo(registro));
+        assertEquals(TablaTarjetas.meses(esperados), TablaTarjetas.meses(registro));
+    }
+}
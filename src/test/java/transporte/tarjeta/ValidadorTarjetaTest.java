@@ -0,0 +1,98 @@
+package transporte.tarjeta;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Pruebas del validador de tarjetas: dígito de control de Luhn, conversión a
+ * {@code long} y motivos de rechazo.
+ *
+ * @author Gabriel Sánchez Heredia
+ */
+public class ValidadorTarjetaTest extends TestCase {
+
+    public void testNumerosConocidos() {
+        // Ejemplo clásico de Luhn (79927398713) completado a 12 dígitos
+        assertTrue(ValidadorTarjeta.esValida("079927398713"));
+        assertTrue(ValidadorTarjeta.esValida("123456789015"));
+        assertTrue(ValidadorTarjeta.esValida("000000000000"));
+        assertFalse(ValidadorTarjeta.esValida("123456789012"));
+        assertFalse(ValidadorTarjeta.esValida("079927398710"));
+    }
+
+    public void testCoincideConLuhnDeReferencia() {
+        Random azar = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            long numero = (long) (azar.nextDouble() * 1_000_000_000_000L);
+            String texto = String.format("%012d", numero);
+            boolean esperado = luhn(texto);
+            assertEquals(texto, esperado, ValidadorTarjeta.esValida(texto));
+            assertEquals(texto, esperado, ValidadorTarjeta.esValida(numero));
+            assertEquals(texto, esperado ? numero : ValidadorTarjeta.INVALIDA, ValidadorTarjeta.parsear(texto));
+        }
+    }
+
+    public void testCompletarDaTarjetasValidas() {
+        for (long base = 0; base < 10_000; base++) {
+            long tarjeta = ValidadorTarjeta.completar(40_000_000_000L + base);
+            assertTrue(ValidadorTarjeta.esValida(tarjeta));
+            assertEquals(tarjeta, ValidadorTarjeta.parsear(String.format("%012d", tarjeta)));
+        }
+    }
+
+    public void testUnDigitoCambiadoSeDetecta() {
+        String valida = "079927398713";
+        for (int posicion = 0; posicion < valida.length(); posicion++) {
+            for (char digito = '0'; digito <= '9'; digito++) {
+                if (digito == valida.charAt(posicion)) {
+                    continue;
+                }
+                StringBuilder cambiada = new StringBuilder(valida);
+                cambiada.setCharAt(posicion, digito);
+                assertFalse(cambiada.toString(), ValidadorTarjeta.esValida(cambiada));
+            }
+        }
+    }
+
+    public void testParsearRango() {
+        String linea = "abc 079927398713 ,METRO";
+        assertEquals(79927398713L, ValidadorTarjeta.parsear(linea, 3, 17));
+        assertEquals(ValidadorTarjeta.INVALIDA, ValidadorTarjeta.parsear(linea, 3, 15));
+    }
+
+    public void testMotivos() {
+        assertEquals(ValidadorTarjeta.Motivo.VACIA, ValidadorTarjeta.comprobar(null));
+        assertEquals(ValidadorTarjeta.Motivo.VACIA, ValidadorTarjeta.comprobar("   "));
+        assertEquals(ValidadorTarjeta.Motivo.CARACTER_NO_NUMERICO, ValidadorTarjeta.comprobar("07992739871a"));
+        assertEquals(ValidadorTarjeta.Motivo.LONGITUD_INCORRECTA, ValidadorTarjeta.comprobar("0799273987"));
+        assertEquals(ValidadorTarjeta.Motivo.LONGITUD_INCORRECTA, ValidadorTarjeta.comprobar("0799273987130"));
+        assertEquals(ValidadorTarjeta.Motivo.DIGITO_CONTROL_INCORRECTO,
+                ValidadorTarjeta.comprobar("079927398710"));
+        assertEquals(ValidadorTarjeta.Motivo.VALIDA, ValidadorTarjeta.comprobar(" 079927398713 "));
+    }
+
+    public void testFueraDeRango() {
+        assertFalse(ValidadorTarjeta.esValida(-1L));
+        assertFalse(ValidadorTarjeta.esValida(1_000_000_000_000L));
+    }
+
+    /**
+     * Luhn tal y como se define: desde la derecha se duplica uno de cada dos
+     * dígitos, empezando por el penúltimo.
+     */
+    private static boolean luhn(String numero) {
+        int suma = 0;
+        for (int i = 0; i < numero.length(); i++) {
+            int digito = numero.charAt(numero.length() - 1 - i) - '0';
+            if (i % 2 == 1) {
+                digito *= 2;
+                if (digito > 9) {
+                    digito -= 9;
+                }
+            }
+            suma += digito;
+        }
+        return suma % 10 == 0;
+    }
+}